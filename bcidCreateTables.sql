@@ -51,6 +51,8 @@ CREATE TABLE `datasets` (
   `ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT 'timestamp of insertion',
   PRIMARY KEY `datasets_datasets_id` (`datasets_id`),
   KEY `datasets_users_id` (`users_id`),
+  -- COMMENT 'lets manageEZID read the datasets waiting for an EZID in datasets_id order without a sort'
+  KEY `datasets_ezid_scan_idx` (`ezidMade`,`ezidRequest`,`datasets_id`),
   CONSTRAINT `FK_dataset_users`  FOREIGN KEY (`users_id`) REFERENCES `users` (`USER_ID`)
 ) ENGINE=Innodb DEFAULT CHARSET=utf8;
 
@@ -68,11 +70,64 @@ CREATE TABLE `identifiers` (
   UNIQUE KEY `identifiers_identifiers_id_idx` (`identifiers_id`),
   KEY `identifiers_loadedSetUUID_idx` (`loadedSetUUID`),
   KEY `identifiers_datasets_idx` (`datasets_id`),
+  -- COMMENT 'lets manageEZID read the identifiers waiting for an EZID in identifiers_id order without a sort'
+  KEY `identifiers_ezid_scan_idx` (`ezidMade`,`ezidRequest`,`identifiers_id`),
   -- COMMENT 'make sure that localid columns are unique within a dataset'
   UNIQUE   `identifiers_localid_datasets_id_idx` (`localid`,`datasets_id`),
   CONSTRAINT `FK_identifiers_datasets` FOREIGN KEY(`datasets_id`) REFERENCES `datasets` (`datasets_id`)
 ) ENGINE=Innodb DEFAULT CHARSET=utf8;
 
+DROP TABLE IF EXISTS `identifierBlocks`;
+
+CREATE TABLE `identifierBlocks` (
+  `identifierBlocks_id` int(11) NOT NULL AUTO_INCREMENT COMMENT 'The unique, internal key for this block',
+  `loadedSetUUID` char(36) COLLATE utf8_bin NOT NULL DEFAULT '' COMMENT 'the loadedSetUUID of the identifiers reserved in this block',
+  `datasets_id` int NOT NULL COMMENT 'The set of data that the identifiers in this block belong to',
+  `start_id` bigint(20) NOT NULL COMMENT 'The first identifiers_id in the block',
+  `count` int NOT NULL COMMENT 'The number of contiguous identifiers_id values in the block, starting at start_id',
+  `ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT 'timestamp of reservation',
+  PRIMARY KEY (`identifierBlocks_id`),
+  KEY `identifierBlocks_loadedSetUUID_idx` (`loadedSetUUID`),
+  CONSTRAINT `FK_identifierBlocks_datasets` FOREIGN KEY(`datasets_id`) REFERENCES `datasets` (`datasets_id`)
+) ENGINE=Innodb DEFAULT CHARSET=utf8;
+
+
+
+DROP TABLE IF EXISTS `ezidScanProgress`;
+
+-- For an existing database, add the scan indexes with:
+--   ALTER TABLE datasets ADD KEY `datasets_ezid_scan_idx` (`ezidMade`,`ezidRequest`,`datasets_id`);
+--   ALTER TABLE identifiers ADD KEY `identifiers_ezid_scan_idx` (`ezidMade`,`ezidRequest`,`identifiers_id`);
+CREATE TABLE `ezidScanProgress` (
+  `scan` varchar(32) NOT NULL COMMENT 'the table manageEZID is working through, datasets or identifiers',
+  `highWaterMark` bigint(20) NOT NULL DEFAULT 0 COMMENT 'every row at or below this key has been attempted in the current pass, 0 to start a new pass',
+  `ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT 'when the mark last moved',
+  PRIMARY KEY (`scan`)
+) ENGINE=Innodb DEFAULT CHARSET=utf8;
+
+
+
+DROP TABLE IF EXISTS `ezidOutbox`;
+
+CREATE TABLE `ezidOutbox` (
+  `ezidOutbox_id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT 'The unique, internal key for this item',
+  `datasets_id` int NOT NULL COMMENT 'The dataset to register, or update, with EZID',
+  `operation` varchar(16) NOT NULL COMMENT 'create or update',
+  `status` varchar(16) NOT NULL DEFAULT 'pending' COMMENT 'pending, done, or dead (gave up after too many attempts)',
+  `attempts` int NOT NULL DEFAULT 0 COMMENT 'the number of times this item has been claimed',
+  `nextAttemptAt` datetime NOT NULL COMMENT 'the item is not claimed before this time',
+  `leaseOwner` varchar(64) COMMENT 'the poller that has claimed this item',
+  `leaseUntil` datetime COMMENT 'when the claim runs out, so that another poller may claim the item',
+  `lastError` text COMMENT 'the error from the last failed attempt',
+  `createdAt` datetime NOT NULL COMMENT 'when the item was queued',
+  `completedAt` datetime COMMENT 'when the item was done',
+  PRIMARY KEY (`ezidOutbox_id`),
+  KEY `ezidOutbox_status_nextAttemptAt_idx` (`status`, `nextAttemptAt`),
+  KEY `ezidOutbox_leaseOwner_idx` (`leaseOwner`),
+  KEY `ezidOutbox_datasets_id_status_idx` (`datasets_id`, `status`),
+  CONSTRAINT `FK_ezidOutbox_datasets` FOREIGN KEY(`datasets_id`) REFERENCES `datasets` (`datasets_id`)
+) ENGINE=Innodb DEFAULT CHARSET=utf8;
+
 
 
 DROP TABLE IF EXISTS `expeditions`;
@@ -181,3 +236,12 @@ CREATE TABLE `oauthTokens` (
   CONSTRAINT `FK_oauthTokens_users_id` FOREIGN KEY (`user_id`) REFERENCES `users` (`user_id`),
   CONSTRAINT `FK_oauthTokens_client` FOREIGN KEY (`client_id`) REFERENCES `oauthClients` (`client_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+DROP TABLE IF EXISTS `oauthRevokedTokens`;
+
+CREATE TABLE `oauthRevokedTokens` (
+  `token_id` char(20) NOT NULL COMMENT 'The id of a revoked signed access token, as stored in oauthTokens.token',
+  `expires` bigint(20) NOT NULL COMMENT 'When the token would have expired, in milliseconds since the epoch, after which the row is deleted',
+  PRIMARY KEY (`token_id`),
+  KEY `oauthRevokedTokens_expires_idx` (`expires`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import bcid.batchInserter;
+import bcid.element;
+import util.SettingsManager;
+
+import java.net.URI;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Properties;
+
+/**
+ * Compare the rows/sec of inserting identifiers through bcid.batchInserter with and without the mysql driver's
+ * rewriteBatchedStatements, and at a few batch and transaction sizes.  Runs against the database configured in
+ * bcidsettings.props (a local mysql is the intended stand-in), using the test dataset (datasets_id = 1).  The rows
+ * inserted by each run are deleted afterwards.
+ * <p/>
+ * Usage: batchInsertBenchmark [rows]
+ */
+public class batchInsertBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        Class.forName(sm.retrieveValue("bcidClass"));
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Integer datasets_id = 1;
+
+        ArrayList<element> elements = new ArrayList<element>(rows);
+        for (int i = 0; i < rows; i++) {
+            elements.add(new element("MBIO" + i, new URI("http://biocode.berkeley.edu/specimens/MBIO" + i), datasets_id));
+        }
+
+        // Warm up
+        run(sm, elements.subList(0, Math.min(rows, 5000)), false, 1000, 10);
+
+        int[][] sizes = {{100, 1}, {1000, 1}, {1000, 10}, {5000, 10}};
+        for (boolean rewrite : new boolean[]{false, true}) {
+            for (int[] size : sizes) {
+                long start = System.nanoTime();
+                run(sm, elements, rewrite, size[0], size[1]);
+                report((rewrite ? "rewritten batch" : "multi-row insert") + ", batch " + size[0] + " x " + size[1] +
+                        "/commit", rows, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void run(SettingsManager sm, java.util.List<element> elements, boolean rewrite, int batchSize,
+                            int batchesPerCommit) throws SQLException {
+        Properties info = new Properties();
+        info.setProperty("user", sm.retrieveValue("bcidUser"));
+        info.setProperty("password", sm.retrieveValue("bcidPassword"));
+        info.setProperty("rewriteBatchedStatements", String.valueOf(rewrite));
+        Connection conn = DriverManager.getConnection(sm.retrieveValue("bcidUrl"), info);
+
+        final String loadedSetUUID = "batchInsertBenchmark";
+        try {
+            batchInserter<element> inserter = new batchInserter<element>(conn, "identifiers",
+                    new String[]{"webaddress", "localid", "loadedSetUUID", "datasets_id"},
+                    new batchInserter.rowBinder<element>() {
+                        public void bind(PreparedStatement stmt, int offset, element id) throws SQLException {
+                            stmt.setString(offset, id.getWebAddress().toString());
+                            stmt.setString(offset + 1, id.getSourceID());
+                            stmt.setString(offset + 2, loadedSetUUID);
+                            stmt.setInt(offset + 3, id.getDataset_id());
+                        }
+                    });
+            inserter.setRewriteBatchedStatements(rewrite);
+            inserter.setBatchSize(batchSize);
+            inserter.setBatchesPerCommit(batchesPerCommit);
+            inserter.insert(elements.iterator());
+        } finally {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("DELETE FROM identifiers WHERE loadedSetUUID = '" + loadedSetUUID + "'");
+            stmt.close();
+            conn.close();
+        }
+    }
+
+    private static void report(String name, int rows, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("%-48s %8d rows in %8.3f s = %12.1f rows/sec", name, rows, seconds, rows / seconds));
+    }
+}
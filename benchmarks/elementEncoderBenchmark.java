@@ -0,0 +1,128 @@
+package benchmarks;
+
+import bcid.CheckDigit;
+import bcid.elementEncoder;
+import org.apache.commons.codec.binary.Base64;
+import util.SettingsManager;
+
+import java.math.BigInteger;
+
+/**
+ * Compare the ops/sec of elementEncoder's long based encode, decode and check digit verification against the
+ * original String and regex based implementation, reproduced below as the baseline.  Before timing, the two are
+ * checked to agree on every identifier that is timed.
+ * <p/>
+ * Usage: elementEncoderBenchmark [ops] [prefix]
+ */
+public class elementEncoderBenchmark {
+
+    private static final Base64 base64 = new Base64(true);
+    private static String divider;
+
+    public static void main(String args[]) throws Exception {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        divider = sm.retrieveValue("divider");
+
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        String prefix = args.length > 1 ? args[1] : "ark:/99999/fk4";
+        // Identifiers are drawn from consecutive identifiers_id values, as minted
+        long first = 100;
+        int distinct = 100000;
+
+        elementEncoder encoder = new elementEncoder(prefix);
+        long[] ids = new long[distinct];
+        String[] identifiers = new String[distinct];
+        long id = first;
+        for (int i = 0; i < distinct; id++) {
+            String identifier = legacyEncode(prefix, BigInteger.valueOf(id));
+            if (!identifier.equals(encoder.encode(id))) {
+                throw new IllegalStateException("encoders disagree on " + id + ": " + identifier);
+            }
+            // Identifiers whose encoding contains the divider have never decoded, so are only used for encode
+            if (identifier.indexOf(divider, prefix.length() + divider.length()) >= 0) {
+                continue;
+            }
+            if (legacyDecode(prefix, identifier).longValue() != id || encoder.decodeToLong(identifier) != id) {
+                throw new IllegalStateException("decoders disagree on " + id + ": " + identifier);
+            }
+            ids[i] = id;
+            identifiers[i++] = identifier;
+        }
+
+        CheckDigit checkDigit = new CheckDigit();
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up
+            boolean print = round == 1;
+            int warmOps = print ? ops : ops / 10;
+            long sink = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < warmOps; i++) {
+                sink += legacyEncode(prefix, BigInteger.valueOf(ids[i % distinct])).length();
+            }
+            report(print, "encode (before)", warmOps, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < warmOps; i++) {
+                sink += encoder.encode(ids[i % distinct]).length();
+            }
+            report(print, "encode (after)", warmOps, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < warmOps; i++) {
+                sink += legacyDecode(prefix, identifiers[i % distinct]).intValue();
+            }
+            report(print, "decode (before)", warmOps, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < warmOps; i++) {
+                sink += encoder.decodeToLong(identifiers[i % distinct]);
+            }
+            report(print, "decode (after)", warmOps, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < warmOps; i++) {
+                sink += checkDigit.verify(identifiers[i % distinct]) ? 1 : 0;
+            }
+            report(print, "verify", warmOps, System.nanoTime() - start);
+
+            if (sink == 42) {
+                System.out.println();
+            }
+        }
+    }
+
+    /**
+     * The encode implementation elementEncoder used before the long based fast path
+     */
+    private static String legacyEncode(String prefix, BigInteger big) {
+        CheckDigit checkDigit = new CheckDigit();
+        String strVal = prefix + divider + new String(base64.encode(big.toByteArray()));
+        strVal = strVal.replace("\r\n", "");
+        return checkDigit.generate(strVal);
+    }
+
+    /**
+     * The decode implementation elementEncoder used before the fast path
+     */
+    private static BigInteger legacyDecode(String prefix, String entireString) {
+        CheckDigit checkDigit = new CheckDigit();
+        String bits[] = entireString.split("/");
+        String datasetPlusSuffix[] = bits[2].split(divider);
+        String encodedString = bits[0] + "/" + bits[1] + "/" + datasetPlusSuffix[0] +
+                (datasetPlusSuffix.length > 1 ? divider + datasetPlusSuffix[1] : "");
+        if (!checkDigit.verify(encodedString)) {
+            throw new IllegalStateException(entireString + " does not verify");
+        }
+        String encodedPiece = encodedString.replaceFirst(prefix, "").replaceFirst(divider, "");
+        return new BigInteger(base64.decode(checkDigit.getCheckDigit(encodedPiece)));
+    }
+
+    private static void report(boolean print, String name, int ops, long nanos) {
+        if (print) {
+            double seconds = nanos / 1e9;
+            System.out.println(String.format("%-20s %10d ops in %8.3f s = %14.1f ops/sec", name, ops, seconds, ops / seconds));
+        }
+    }
+}
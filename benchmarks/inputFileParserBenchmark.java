@@ -0,0 +1,64 @@
+package benchmarks;
+
+import bcid.bcid;
+import bcid.dataGroupMinter;
+import bcid.inputFileParser;
+import util.SettingsManager;
+
+import java.net.URI;
+
+/**
+ * Compare the rows/sec of building elements for minting the old way, a bcid per input line (which looked up the
+ * dataset for every line), against the inputFileParser bulk path, which resolves the dataset once per upload.
+ * Runs against the database configured in bcidsettings.props, using the test dataset (datasets_id = 1).
+ * <p/>
+ * Usage: inputFileParserBenchmark [rows]
+ */
+public class inputFileParserBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        Integer datasets_id = 1;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            sb.append("MBIO").append(i).append("|http://biocode.berkeley.edu/specimens/\n");
+        }
+        String input = sb.toString();
+
+        dataGroupMinter dataset = new dataGroupMinter(datasets_id);
+
+        // Warm up both paths
+        perLine(input, datasets_id, Math.min(rows, 200));
+        new inputFileParser(input, dataset);
+
+        long start = System.nanoTime();
+        perLine(input, datasets_id, rows);
+        report("bcid per line (before)", rows, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        int parsed = new inputFileParser(input, dataset).elementArrayList.size();
+        report("inputFileParser bulk (after)", parsed, System.nanoTime() - start);
+
+        dataset.close();
+    }
+
+    /**
+     * The pre-bulk path: one bcid, and so one dataset lookup, per input line
+     */
+    private static void perLine(String input, Integer datasets_id, int limit) throws Exception {
+        String[] lines = input.split("\n");
+        for (int i = 0; i < limit; i++) {
+            String[] bits = lines[i].split("\\|");
+            new bcid(bits[0], new URI(bits[1]), datasets_id);
+        }
+    }
+
+    private static void report(String name, int rows, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("%-32s %8d rows in %8.3f s = %12.1f rows/sec", name, rows, seconds, rows / seconds));
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import auth.passwordHash;
+
+/**
+ * Measure what hashing and validating one password costs at each iteration count, to choose
+ * passwordHashIterations: a login costs one validation, plus one hash the first time after the setting is raised.
+ * Hashes are made and validated on the calling thread, as one hashingExecutor thread would.
+ * <p/>
+ * Usage: passwordHashBenchmark [ops] [iterations,iterations,...]
+ */
+public class passwordHashBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        String[] settings = (args.length > 1 ? args[1] : "1000,10000,20000,50000,100000").split(",");
+        char[] password = "p\r\nassw0Rd!".toCharArray();
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up
+            boolean print = round == 1;
+            for (String setting : settings) {
+                int iterations = Integer.parseInt(setting.trim());
+                int roundOps = print ? ops : Math.max(1, ops / 10);
+
+                String hash = null;
+                long start = System.nanoTime();
+                for (int i = 0; i < roundOps; i++) {
+                    hash = passwordHash.createHash(password, iterations);
+                }
+                long hashElapsed = System.nanoTime() - start;
+
+                int valid = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < roundOps; i++) {
+                    if (passwordHash.validatePassword(password, hash)) {
+                        valid++;
+                    }
+                }
+                long validateElapsed = System.nanoTime() - start;
+                if (valid != roundOps) {
+                    throw new IllegalStateException("password did not validate");
+                }
+
+                if (print) {
+                    System.out.printf("%,8d iterations  hash %,9.3f ms/op %,9.1f ops/sec  " +
+                            "validate %,9.3f ms/op %,9.1f ops/sec%n", iterations,
+                            hashElapsed / 1e6 / roundOps, roundOps * 1e9 / hashElapsed,
+                            validateElapsed / 1e6 / roundOps, roundOps * 1e9 / validateElapsed);
+                }
+            }
+        }
+    }
+}
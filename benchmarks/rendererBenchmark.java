@@ -0,0 +1,115 @@
+package benchmarks;
+
+import bcid.GenericIdentifier;
+import bcid.Renderer.HTMLTableRenderer;
+import bcid.Renderer.JSONRenderer;
+import bcid.Renderer.NTriplesRenderer;
+import bcid.Renderer.RDFRenderer;
+import bcid.Renderer.Renderer;
+import bcid.Renderer.TextRenderer;
+import bcid.Renderer.TurtleRenderer;
+import bcid.ezid;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Measure each Renderer format two ways: rendering one identifier at a time to a String, as the REST services did,
+ * and rendering a batch of identifiers as one document with renderAll to a Writer that discards its output, as a
+ * response stream would.  The identifiers carry the metadata a bcid does, with values that need escaping.
+ * <p/>
+ * Usage: rendererBenchmark [ops] [batchSize]
+ */
+public class rendererBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        ArrayList<GenericIdentifier> identifiers = new ArrayList<GenericIdentifier>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            identifiers.add(identifier(i));
+        }
+
+        Renderer[] renderers = {new RDFRenderer(), new JSONRenderer(), new HTMLTableRenderer(), new TextRenderer(),
+                new NTriplesRenderer(), new TurtleRenderer()};
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up
+            boolean print = round == 1;
+            int roundOps = print ? ops : ops / 10;
+            for (Renderer renderer : renderers) {
+                String name = renderer.getClass().getSimpleName();
+
+                long chars = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < roundOps; i++) {
+                    chars += renderer.render(identifiers.get(i % batchSize)).length();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (print) {
+                    System.out.printf("%-18s render         %,12.0f ops/sec %,10.1f MB/sec%n", name,
+                            roundOps * 1e9 / elapsed, chars * 1e3 / elapsed);
+                }
+
+                countingWriter out = new countingWriter();
+                int batches = Math.max(1, roundOps / batchSize);
+                start = System.nanoTime();
+                for (int i = 0; i < batches; i++) {
+                    renderer.renderAll(identifiers, out);
+                }
+                elapsed = System.nanoTime() - start;
+                if (print) {
+                    System.out.printf("%-18s renderAll      %,12.0f ops/sec %,10.1f MB/sec%n", name,
+                            (long) batches * batchSize * 1e9 / elapsed, out.count * 1e3 / elapsed);
+                }
+            }
+        }
+    }
+
+    private static GenericIdentifier identifier(int i) throws Exception {
+        HashMap<String, String> map = new HashMap<String, String>();
+        map.put("ark", "ark:/99999/fk4" + i);
+        map.put("what", "http://purl.org/dc/dcmitype/PhysicalObject");
+        map.put("who", "Jane <jane@example.com>");
+        map.put("when", "2014-06-01 12:00:00");
+        map.put("title", "Specimens \"" + i + "\" & friends");
+        map.put("sourceID", "MBIO" + i);
+        map.put("doi", "doi:10.5072/FK2" + i);
+        map.put("webaddress", "http://example.com/specimens?id=" + i + "&view=full");
+        map.put("datasetsPrefix", "ark:/99999/fk4");
+        map.put("datasetsSuffixPassThrough", "true");
+        map.put("projectCode", "DEMO");
+        map.put("rights", "http://creativecommons.org/licenses/by/3.0/");
+        ezid identifier = new ezid(map);
+        identifier.identifier = new URI("ark:/99999/fk4" + i);
+        return identifier;
+    }
+
+    /**
+     * Counts the characters written to it and throws them away
+     */
+    private static class countingWriter extends Writer {
+        long count;
+
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        public void write(int c) {
+            count++;
+        }
+
+        public void flush() throws IOException {
+        }
+
+        public void close() throws IOException {
+        }
+    }
+}
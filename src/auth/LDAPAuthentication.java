@@ -1,23 +1,16 @@
 package auth;
 
-import bcidExceptions.ServerErrorException;
-import com.unboundid.ldap.sdk.*;
-import com.unboundid.util.ssl.SSLUtil;
-import com.unboundid.util.ssl.TrustAllTrustManager;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.SettingsManager;
 
-import javax.net.ssl.SSLSocketFactory;
 import javax.servlet.ServletContext;
 import javax.ws.rs.core.Context;
-import java.security.GeneralSecurityException;
-import java.util.ArrayList;
 
 
 /**
- * Authenticate names using LDAP
+ * Authenticate names using LDAP, binding on a connection from the ldapPool
  */
 public class LDAPAuthentication {
 
@@ -25,7 +18,6 @@ public class LDAPAuthentication {
     public static int ERROR = 1;
     public static int INVALID_CREDENTIALS = 2;
 
-    private BindResult bindResult = null;
     private int status;
 
     private static Logger logger = LoggerFactory.getLogger(LDAPAuthentication.class);
@@ -33,7 +25,6 @@ public class LDAPAuthentication {
     static SettingsManager sm;
     @Context
     static ServletContext context;
-    static String ldapURI;
     static String defaultLdapDomain;
 
     private String shortUsername;
@@ -46,9 +37,6 @@ public class LDAPAuthentication {
         // Initialize settings manager
         sm = SettingsManager.getInstance();
         sm.loadProperties();
-        // Get the LDAP servers from property file
-        // Property file format looks like "ldapServers = my    secureLDAPserver.net:636,myfailoverLDAPServer.net:636"
-        ldapURI = sm.retrieveValue("ldapServers");
         defaultLdapDomain = sm.retrieveValue("defaultLdapDomain");
     }
 
@@ -77,48 +65,12 @@ public class LDAPAuthentication {
             status = SUCCESS;
             return;
         }
-        // Create the connection at beginning... must be closed at finally
-        LDAPConnection connection = null;
-
-        // Set default status in case it is not specifically set.  This should be an error
-        status = ERROR;
-
-        // Creating an array of available servers
-        String[] ldapServers = ldapURI.split(",");
-        String[] serverAddresses = new String[ldapServers.length];
-        int[] serverPorts = new int[ldapServers.length];
-        for (int i = 0; i < ldapServers.length; i++) {
-            serverAddresses[i] = ldapServers[i].split(":")[0];
-            serverPorts[i] = (Integer.valueOf(ldapServers[i].split(":")[1]));
-        }
-        try {
-            SSLUtil sslUtil = new SSLUtil(new TrustAllTrustManager());
-            SSLSocketFactory socketFactory = sslUtil.createSSLSocketFactory();
-
-            // Failoverset lets us query multiple servers looking for connection
-            FailoverServerSet failoverSet = new FailoverServerSet(serverAddresses, serverPorts, socketFactory);
-            // TODO: time this out quicker... Takes a LONG time if answer is no
-            logger.info("initiating connection for " + longUsername);
-            connection = failoverSet.getConnection();
-            BindRequest bindRequest = new SimpleBindRequest(longUsername, password);
-
-            try {
-                bindResult = connection.bind(bindRequest);
-            } catch (LDAPException e2) {
-                // don't throw any exception if we fail here, this is just a non-passed attempt.
-                logger.info("Failed LDAPAuthentication attempt", e2);
-                connection.close();
-                status = INVALID_CREDENTIALS;
-            }
-        } catch (LDAPException e) {
-            throw new ServerErrorException("Problem with LDAP connection.  It is likely we cannot connect to LDAP server", e);
-        } catch (GeneralSecurityException e) {
-            throw new ServerErrorException(e);
-        } finally {
-            if (connection != null) connection.close();
-        }
-        if (bindResult != null && bindResult.getResultCode() == ResultCode.SUCCESS) {
+        // Bind as the user on a pooled connection; the pool throws a ServerErrorException if LDAP can't be reached
+        logger.info("authenticating " + longUsername);
+        if (ldapPool.getInstance().authenticate(longUsername, password)) {
             status = SUCCESS;
+        } else {
+            status = INVALID_CREDENTIALS;
         }
     }
 
@@ -162,6 +114,7 @@ public class LDAPAuthentication {
         String password = cl.getOptionValue("P");
 
         LDAPAuthentication t = new LDAPAuthentication(username, password, true);
+        ldapPool.shutdown();
 
         if (t.getStatus() == t.SUCCESS) {
             System.out.println("Passed!");
@@ -3,8 +3,6 @@ package auth;
 import bcid.database;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -48,6 +46,28 @@ public class authenticator {
         sm.loadProperties();
     }
 
+    /**
+     * @return the database connection, borrowing another from the pool if it was released
+     */
+    private Connection conn() {
+        if (conn == null) {
+            db = new database();
+            conn = db.getConn();
+        }
+        return conn;
+    }
+
+    /**
+     * Hand the database connection back to the pool, e.g. before hashing a password, which is slow on purpose;
+     * conn() borrows another when one is needed again
+     */
+    private void release() {
+        if (conn != null) {
+            db.close();
+            conn = null;
+        }
+    }
+
     public static LDAPAuthentication getLdapAuthentication() {
         return ldapAuthentication;
     }
@@ -166,20 +186,53 @@ public class authenticator {
     public Boolean login(String username, String password) {
 
         String hashedPass = getHashedPass(username);
+        // Don't hold a connection while waiting on the hash
+        release();
 
-        if (!hashedPass.isEmpty()) {
-            try {
-                return passwordHash.validatePassword(password, hashedPass);
-            } catch (InvalidKeySpecException e) {
-                throw new ServerErrorException(e);
-            } catch (NoSuchAlgorithmException e) {
-                throw new ServerErrorException(e);
+        if (hashedPass != null && !hashedPass.isEmpty()) {
+            hashingExecutor hasher = hashingExecutor.getInstance();
+            if (!hasher.validatePassword(password, hashedPass)) {
+                return false;
+            }
+            // The password is known now, so a hash made with fewer iterations than are wanted can be replaced
+            if (hasher.needsRehash(hashedPass)) {
+                rehashPass(username, password, hashedPass);
             }
+            return true;
         }
 
         return false;
     }
 
+    /**
+     * Replace a user's password hash with one made with the current iteration count.  The hash is replaced only if it
+     * has not been changed since it was read, and a failure is logged rather than failing the login.
+     *
+     * @param username
+     * @param password the password, just validated
+     * @param oldHash  the hash it was validated against
+     */
+    private void rehashPass(String username, String password, String oldHash) {
+        PreparedStatement stmt = null;
+        try {
+            String hashedPass = createHash(password);
+            stmt = conn().prepareStatement("UPDATE users SET password = ? WHERE username = ? AND password = ?");
+            stmt.setString(1, hashedPass);
+            stmt.setString(2, username);
+            stmt.setString(3, oldHash);
+            if (stmt.executeUpdate() == 1) {
+                logger.debug("Rehashed password for {} with {} iterations", username,
+                        passwordHash.getIterations(hashedPass));
+            }
+        } catch (SQLException e) {
+            logger.warn("SQLException rehashing password for {}", username, e);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to rehash password for {}", username, e);
+        } finally {
+            db.close(stmt, null);
+        }
+    }
+
     /**
      * retrieve the user's hashed password from the db
      *
@@ -190,7 +243,7 @@ public class authenticator {
         ResultSet rs = null;
         try {
             String selectString = "SELECT password FROM users WHERE username = ?";
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, username);
             rs = stmt.executeQuery();
@@ -217,7 +270,7 @@ public class authenticator {
         ResultSet rs = null;
         try {
             String selectString = "SELECT user_id id FROM users WHERE username = ?";
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, username);
             rs = stmt.executeQuery();
@@ -246,12 +299,14 @@ public class authenticator {
     public Boolean setHashedPass(String username, String password) {
         PreparedStatement stmt = null;
 
+        // Don't hold a connection while waiting on the hash
+        release();
         String hashedPass = createHash(password);
 
         // Store the hashed password in the db
         try {
             String updateString = "UPDATE users SET password = ? WHERE username = ?";
-            stmt = conn.prepareStatement(updateString);
+            stmt = conn().prepareStatement(updateString);
 
             stmt.setString(1, hashedPass);
             stmt.setString(2, username);
@@ -283,7 +338,7 @@ public class authenticator {
         try {
             String username = null;
             String sql = "SELECT username FROM users where pass_reset_token = ?";
-            stmt = conn.prepareStatement(sql);
+            stmt = conn().prepareStatement(sql);
 
             stmt.setString(1, token);
             rs = stmt.executeQuery();
@@ -294,7 +349,7 @@ public class authenticator {
             if (username != null) {
                 db.close(stmt, null);
                 String updateSql = "UPDATE users SET pass_reset_token = null, pass_reset_expiration = null WHERE username = \"" + username + "\"";
-                stmt = conn.prepareStatement(updateSql);
+                stmt = conn().prepareStatement(updateSql);
                 stmt.executeUpdate();
 
                 return setHashedPass(username, password);
@@ -315,13 +370,7 @@ public class authenticator {
      * @return
      */
     public String createHash(String password) {
-        try {
-            return passwordHash.createHash(password);
-        } catch (NoSuchAlgorithmException e) {
-            throw new ServerErrorException(e);
-        } catch (InvalidKeySpecException e) {
-            throw new ServerErrorException(e);
-        }
+        return hashingExecutor.getInstance().createHash(password);
     }
 
     /**
@@ -338,7 +387,7 @@ public class authenticator {
 
             String insertString = "INSERT INTO users (username,set_password,institution,email,firstName,lastName,pass_reset_token,password,admin,IDlimit)" +
                     " VALUES(?,?,?,?,?,?,?,?,?,?)";
-            stmt = conn.prepareStatement(insertString);
+            stmt = conn().prepareStatement(insertString);
 
             stmt.setString(1, username);
             stmt.setInt(2, 1);
@@ -374,7 +423,7 @@ public class authenticator {
         ResultSet rs = null;
         try {
             String selectString = "SELECT user_id FROM users WHERE username=?";
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, LDAPAuthentication.showShortUserName(username));
 
@@ -405,7 +454,7 @@ public class authenticator {
         try {
             String insertString = "INSERT INTO users (username, password, email, firstName, lastName, institution)" +
                     " VALUES(?,?,?,?,?,?)";
-            stmt = conn.prepareStatement(insertString);
+            stmt = conn().prepareStatement(insertString);
 
             stmt.setString(1, userInfo.get("username"));
             stmt.setString(2, hashedPass);
@@ -433,7 +482,7 @@ public class authenticator {
         ResultSet rs = null;
         try {
             String selectString = "SELECT set_password FROM users WHERE username = ?";
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, username);
 
@@ -469,7 +518,7 @@ public class authenticator {
         PreparedStatement stmt2 = null;
         ResultSet rs = null;
         try {
-            stmt = conn.prepareStatement(sql);
+            stmt = conn().prepareStatement(sql);
 
             stmt.setString(1, username);
             rs = stmt.executeQuery();
@@ -488,7 +537,7 @@ public class authenticator {
                         "pass_reset_token = \"" + token + "\", " +
                         "pass_reset_expiration = \"" + ts + "\" " +
                         "WHERE username = ?";
-                stmt2 = conn.prepareStatement(updateSql);
+                stmt2 = conn().prepareStatement(updateSql);
 
                 stmt2.setString(1, username);
 
@@ -588,7 +637,7 @@ public class authenticator {
         // change set_password field to 0 so user has to create new password next time they login
         Statement stmt = null;
         try {
-            stmt = authenticator.conn.createStatement();
+            stmt = authenticator.conn().createStatement();
             Integer result = stmt.executeUpdate("UPDATE users SET set_password=\"0\" WHERE username=\"" + username + "\"");
 
             if (result == 0) {
@@ -610,7 +659,7 @@ public class authenticator {
     }
 
     public void close() {
-        db.close();
+        release();
     }
 }
 
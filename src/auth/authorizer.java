@@ -1,6 +1,7 @@
 package auth;
 
 import bcid.database;
+import bcid.permissionCache;
 import bcidExceptions.ServerErrorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,24 +28,7 @@ public class authorizer {
      * @return
      */
     public Boolean userProjectAdmin(String username) {
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        try {
-            Integer users_id = db.getUserId(username);
-            String selectString = "SELECT count(*) as count FROM projects WHERE users_id = ?";
-
-            stmt = conn.prepareStatement(selectString);
-            stmt.setInt(1, users_id);
-
-            rs = stmt.executeQuery();
-            rs.next();
-            return rs.getInt("count") >= 1;
-
-        } catch (SQLException e) {
-            throw new ServerErrorException(e);
-        } finally {
-            db.close(stmt, rs);
-        }
+        return permissionCache.getInstance().get(db.getUserId(username)).isAnyAdmin();
     }
 
     /**
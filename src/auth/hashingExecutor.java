@@ -0,0 +1,246 @@
+package auth;
+
+import bcidExceptions.ServerErrorException;
+import bcidExceptions.ServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.latencyHistogram;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs password hashing, which is made slow on purpose, on a small pool of threads of its own, so that a burst of
+ * logins uses at most passwordHashThreads processors and cannot take up every thread the container serves requests
+ * with.
+ * <p/>
+ * Up to passwordHashQueue more hashes wait for a thread.  Beyond that, or if a hash is not done within
+ * passwordHashTimeout milliseconds, the request is refused with a ServiceUnavailableException (503) rather than
+ * queued without bound.  New hashes are made with passwordHashIterations iterations; as a hash records its own
+ * iteration count, the setting may be raised at any time, and authenticator.login then rehashes each user's password
+ * the next time they log in.
+ */
+public class hashingExecutor {
+
+    private static Logger logger = LoggerFactory.getLogger(hashingExecutor.class);
+
+    private static hashingExecutor instance;
+
+    private final int iterations;
+    private final long timeout;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong hashCount = new AtomicLong();
+    private final AtomicLong validateCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final latencyHistogram queueWait = new latencyHistogram();
+    private final latencyHistogram hashTime = new latencyHistogram();
+
+    public static synchronized hashingExecutor getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            int processors = Runtime.getRuntime().availableProcessors();
+            instance = new hashingExecutor(
+                    sm.retrieveInt("passwordHashThreads", processors),
+                    sm.retrieveInt("passwordHashQueue", 100),
+                    sm.retrieveLong("passwordHashTimeout", 10000),
+                    sm.retrieveInt("passwordHashIterations", passwordHash.PBKDF2_ITERATIONS));
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the hashing threads.  Called when the web application is shut down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.executor.shutdownNow();
+            logger.info("Stopped hashing passwords: {}", instance);
+            instance = null;
+        }
+    }
+
+    private hashingExecutor(int threads, int queue, long timeout, int iterations) {
+        threads = Math.max(1, threads);
+        this.iterations = Math.max(passwordHash.PBKDF2_ITERATIONS, iterations);
+        this.timeout = timeout;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queue)), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-password-hash-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if (iterations < passwordHash.PBKDF2_ITERATIONS) {
+            logger.warn("passwordHashIterations is below {}; using {}", passwordHash.PBKDF2_ITERATIONS,
+                    this.iterations);
+        }
+    }
+
+    /**
+     * @return the iteration count new hashes are made with
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Hash a password, with the current iteration count
+     *
+     * @param password
+     *
+     * @return the hash, to be stored
+     */
+    public String createHash(final String password) {
+        hashCount.incrementAndGet();
+        return run(new Callable<String>() {
+            public String call() throws Exception {
+                return passwordHash.createHash(password.toCharArray(), iterations);
+            }
+        });
+    }
+
+    /**
+     * Validate a password against a stored hash, with the iteration count the hash was made with
+     *
+     * @param password
+     * @param correctHash
+     *
+     * @return true if the password is correct
+     */
+    public boolean validatePassword(final String password, final String correctHash) {
+        validateCount.incrementAndGet();
+        return run(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return passwordHash.validatePassword(password, correctHash);
+            }
+        });
+    }
+
+    /**
+     * @param hash a stored hash
+     *
+     * @return true if the hash was made with fewer iterations than new hashes are
+     */
+    public boolean needsRehash(String hash) {
+        return passwordHash.needsRehash(hash, iterations);
+    }
+
+    private <T> T run(final Callable<T> task) {
+        final long queued = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    long started = System.nanoTime();
+                    queueWait.record(started - queued);
+                    try {
+                        return task.call();
+                    } finally {
+                        hashTime.recordSince(started);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            long rejected = rejectedCount.incrementAndGet();
+            if (rejected == 1 || rejected % 100 == 0) {
+                logger.warn("Rejected {} password hashes as the queue is full: {}", rejected, this);
+            }
+            throw new ServiceUnavailableException("The server is busy, please try again shortly.",
+                    "password hashing queue is full");
+        }
+
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeoutCount.incrementAndGet();
+            throw new ServiceUnavailableException("The server is busy, please try again shortly.",
+                    "password hash not done within " + timeout + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NoSuchAlgorithmException || cause instanceof InvalidKeySpecException) {
+                throw new ServerErrorException(cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServerErrorException(cause);
+        }
+    }
+
+    /**
+     * @return the number of hashes waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getHashCount() {
+        return hashCount.get();
+    }
+
+    public long getValidateCount() {
+        return validateCount.get();
+    }
+
+    /**
+     * @return the number of hashes refused because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return the number of hashes given up on because they took longer than passwordHashTimeout
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return how long hashes waited for a thread
+     */
+    public latencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return how long hashes took once they had a thread
+     */
+    public latencyHistogram getHashTime() {
+        return hashTime;
+    }
+
+    public String toString() {
+        return "hashingExecutor[iterations=" + iterations +
+                ", queued=" + getQueueDepth() +
+                ", hashes=" + getHashCount() +
+                ", validations=" + getValidateCount() +
+                ", rejected=" + getRejectedCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", queueWait: " + queueWait +
+                ", hashTime: " + hashTime + "]";
+    }
+}
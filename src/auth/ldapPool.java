@@ -0,0 +1,296 @@
+package auth;
+
+import bcidExceptions.ServerErrorException;
+import com.unboundid.ldap.sdk.FailoverServerSet;
+import com.unboundid.ldap.sdk.FastestConnectServerSet;
+import com.unboundid.ldap.sdk.FewestConnectionsServerSet;
+import com.unboundid.ldap.sdk.GetEntryLDAPConnectionPoolHealthCheck;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionOptions;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.RoundRobinServerSet;
+import com.unboundid.ldap.sdk.ServerSet;
+import com.unboundid.ldap.sdk.SimpleBindRequest;
+import com.unboundid.util.ssl.SSLUtil;
+import com.unboundid.util.ssl.TrustAllTrustManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.latencyHistogram;
+
+import javax.net.SocketFactory;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of connections to the LDAP servers, shared by every LDAPAuthentication, so that a login binds on a
+ * connection already open rather than opening a new TLS connection each time.
+ * <p/>
+ * A user is authenticated by binding as them on a pooled connection and then binding it anonymously again before it
+ * goes back to the pool, so no connection is left authenticated as anyone.  The pool holds ldapPoolInitialSize
+ * connections to start with and up to ldapPoolMaxSize; a login waits up to ldapPoolMaxWait milliseconds for one
+ * once all are in use.  Connections are checked by reading the root DSE when they are created, when a bind on them
+ * fails and every ldapHealthCheckInterval milliseconds in the background, and replaced if they do not answer.
+ * ldapServerOrder picks the server new connections go to: failover (the default) tries the ldapServers in the order
+ * given, roundrobin takes turns, fewest picks the one with the fewest pooled connections and fastest the one that
+ * connects fastest.  ldapConnectTimeout and ldapResponseTimeout, in milliseconds, bound how long an unreachable or
+ * hung server holds a login up.
+ * <p/>
+ * The pool connects on the first login, and again on the next after it could not, so LDAP being down does not stop
+ * the application from starting.  Bind times are kept per server.
+ */
+public class ldapPool {
+
+    private static Logger logger = LoggerFactory.getLogger(ldapPool.class);
+
+    private static final String UNREACHABLE =
+            "Problem with LDAP connection.  It is likely we cannot connect to LDAP server";
+
+    private static ldapPool instance;
+
+    private final ServerSet serverSet;
+    private final int initialSize;
+    private final int maxSize;
+    private final long maxWait;
+    private final long healthCheckInterval;
+    private LDAPConnectionPool pool;
+    private boolean closed;
+
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong invalidCredentialsCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final ConcurrentHashMap<String, latencyHistogram> bindTimes =
+            new ConcurrentHashMap<String, latencyHistogram>();
+
+    public static synchronized ldapPool getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+
+            LDAPConnectionOptions options = new LDAPConnectionOptions();
+            options.setConnectTimeoutMillis(sm.retrieveInt("ldapConnectTimeout", 5000));
+            options.setResponseTimeoutMillis(sm.retrieveLong("ldapResponseTimeout", 10000));
+            // A bind with a name and no password is an anonymous bind, which must not pass for a login
+            options.setBindWithDNRequiresPassword(true);
+
+            instance = new ldapPool(
+                    serverSet(sm.retrieveValue("ldapServers", ""), sm.retrieveValue("ldapServerOrder", "failover"),
+                            options),
+                    sm.retrieveInt("ldapPoolInitialSize", 1),
+                    sm.retrieveInt("ldapPoolMaxSize", 10),
+                    sm.retrieveLong("ldapPoolMaxWait", 5000),
+                    sm.retrieveLong("ldapHealthCheckInterval", 60000));
+        }
+        return instance;
+    }
+
+    /**
+     * Close the pool's connections.  Called when the web application is shut down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * @param serverSet           where connections are made to
+     * @param initialSize         the number of connections opened when the pool is created
+     * @param maxSize             the most connections the pool holds
+     * @param maxWait             how long, in milliseconds, to wait for a connection once all are in use
+     * @param healthCheckInterval how often, in milliseconds, idle connections are checked
+     */
+    public ldapPool(ServerSet serverSet, int initialSize, int maxSize, long maxWait, long healthCheckInterval) {
+        this.serverSet = serverSet;
+        this.maxSize = Math.max(1, maxSize);
+        this.initialSize = Math.min(Math.max(0, initialSize), this.maxSize);
+        this.maxWait = maxWait;
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    /**
+     * Build the ServerSet for the ldapServers setting, of the form "host:port,host:port", connecting over TLS
+     *
+     * @param servers
+     * @param order   failover, roundrobin, fewest or fastest
+     * @param options
+     *
+     * @return the ServerSet
+     */
+    static ServerSet serverSet(String servers, String order, LDAPConnectionOptions options) {
+        String[] ldapServers = servers.split(",");
+        String[] addresses = new String[ldapServers.length];
+        int[] ports = new int[ldapServers.length];
+        for (int i = 0; i < ldapServers.length; i++) {
+            String[] hostPort = ldapServers[i].trim().split(":");
+            addresses[i] = hostPort[0];
+            ports[i] = Integer.valueOf(hostPort[1]);
+        }
+
+        SocketFactory socketFactory;
+        try {
+            socketFactory = new SSLUtil(new TrustAllTrustManager()).createSSLSocketFactory();
+        } catch (GeneralSecurityException e) {
+            throw new ServerErrorException(e);
+        }
+
+        order = order.trim();
+        if (order.equalsIgnoreCase("roundrobin")) {
+            return new RoundRobinServerSet(addresses, ports, socketFactory, options);
+        } else if (order.equalsIgnoreCase("fewest")) {
+            return new FewestConnectionsServerSet(addresses, ports, socketFactory, options);
+        } else if (order.equalsIgnoreCase("fastest")) {
+            return new FastestConnectServerSet(addresses, ports, socketFactory, options);
+        }
+        if (!order.equalsIgnoreCase("failover")) {
+            logger.warn("Unknown ldapServerOrder {}; using failover", order);
+        }
+        return new FailoverServerSet(addresses, ports, socketFactory, options);
+    }
+
+    /**
+     * Check a user's name and password by binding as them
+     *
+     * @param bindDN   the name to bind with, e.g. user@domain for Active Directory
+     * @param password
+     *
+     * @return true if the bind succeeded, false if the server refused the name or password
+     *
+     * @throws ServerErrorException if no LDAP server could be reached
+     */
+    public boolean authenticate(String bindDN, String password) {
+        LDAPConnectionPool pool = pool();
+        // A connection may have gone bad since it was last checked, so a bind that fails for want of a connection is
+        // tried once more on another
+        for (int attempt = 1; ; attempt++) {
+            LDAPConnection connection;
+            try {
+                connection = pool.getConnection();
+            } catch (LDAPException e) {
+                errorCount.incrementAndGet();
+                throw new ServerErrorException(UNREACHABLE, e);
+            }
+
+            String server = connection.getConnectedAddress() + ":" + connection.getConnectedPort();
+            long start = System.nanoTime();
+            try {
+                connection.bind(new SimpleBindRequest(bindDN, password));
+            } catch (LDAPException e) {
+                bindTime(server).recordSince(start);
+                if (!ResultCode.isConnectionUsable(e.getResultCode())) {
+                    pool.releaseDefunctConnection(connection);
+                    if (attempt < 2) {
+                        logger.info("LDAP connection to {} failed, trying another", server, e);
+                        continue;
+                    }
+                    errorCount.incrementAndGet();
+                    throw new ServerErrorException(UNREACHABLE, e);
+                }
+                // don't throw any exception if we fail here, this is just a non-passed attempt.
+                logger.info("Failed LDAPAuthentication attempt: {}", e.getResultCode());
+                invalidCredentialsCount.incrementAndGet();
+                // Bind the connection anonymously again, as the pool does with every connection it is given back
+                pool.releaseAndReAuthenticateConnection(connection);
+                return false;
+            }
+            bindTime(server).recordSince(start);
+            successCount.incrementAndGet();
+            pool.releaseAndReAuthenticateConnection(connection);
+            return true;
+        }
+    }
+
+    /**
+     * @return the pool, creating it if it has not been, or could not be, created yet
+     */
+    private synchronized LDAPConnectionPool pool() {
+        if (closed) {
+            throw new ServerErrorException("Server Error", "The LDAP connection pool has been shut down");
+        }
+        if (pool == null) {
+            try {
+                // Connections are anonymous while in the pool; a null bind request makes releaseAndReAuthenticate
+                // bind them anonymously again
+                pool = new LDAPConnectionPool(serverSet, null, initialSize, maxSize, 1, null, true,
+                        new GetEntryLDAPConnectionPoolHealthCheck("", 0L, true, false, false, true, true));
+            } catch (LDAPException e) {
+                errorCount.incrementAndGet();
+                throw new ServerErrorException(UNREACHABLE, e);
+            }
+            pool.setConnectionPoolName("bcid-ldap");
+            pool.setMaxWaitTimeMillis(maxWait);
+            pool.setHealthCheckIntervalMillis(healthCheckInterval);
+            logger.info("Opened LDAP connection pool of {} to {} connections", initialSize, maxSize);
+        }
+        return pool;
+    }
+
+    private latencyHistogram bindTime(String server) {
+        latencyHistogram histogram = bindTimes.get(server);
+        if (histogram == null) {
+            bindTimes.putIfAbsent(server, new latencyHistogram());
+            histogram = bindTimes.get(server);
+        }
+        return histogram;
+    }
+
+    /**
+     * Close the pool's connections; authenticate throws a ServerErrorException from then on
+     */
+    public synchronized void close() {
+        closed = true;
+        if (pool != null) {
+            pool.close();
+            logger.info("Closed LDAP connection pool: {}", this);
+        }
+    }
+
+    /**
+     * @return the number of connections in the pool not in use, or 0 if the pool has not been created
+     */
+    public synchronized int getAvailableConnections() {
+        return pool == null ? 0 : pool.getCurrentAvailableConnections();
+    }
+
+    /**
+     * @return the number of logins the servers accepted
+     */
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * @return the number of logins the servers refused
+     */
+    public long getInvalidCredentialsCount() {
+        return invalidCredentialsCount.get();
+    }
+
+    /**
+     * @return the number of logins that failed because no server could be reached
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @return how long binds took, by the "address:port" of the server they were made to
+     */
+    public Map<String, latencyHistogram> getBindTimes() {
+        return new TreeMap<String, latencyHistogram>(bindTimes);
+    }
+
+    public String toString() {
+        return "ldapPool[available=" + getAvailableConnections() +
+                ", successes=" + getSuccessCount() +
+                ", invalidCredentials=" + getInvalidCredentialsCount() +
+                ", errors=" + getErrorCount() +
+                ", bindTimes: " + getBindTimes() + "]";
+    }
+}
@@ -9,22 +9,47 @@ import org.slf4j.LoggerFactory;
 import util.stringGenerator;
 
 import java.sql.*;
+import java.util.ArrayList;
 
 /**
  * This class handles all aspects of Oauth2 support.
+ * <p/>
+ * A database connection is borrowed only when one is first needed, so that validating an access token held in the
+ * tokenCache, or a signed token (see signedTokens), needs none.
  */
 public class provider {
+    // Access tokens are only good for 1 hour
+    static final long ACCESS_TOKEN_TTL = 3600000;
+
     protected Connection conn;
     database db;
     private static Logger logger = LoggerFactory.getLogger(provider.class);
 
     public provider() {
-        db = new database();
-        conn = db.getConn();
     }
 
     public void close() {
-        db.close();
+        if (db != null) {
+            db.close();
+            db = null;
+            conn = null;
+        }
+    }
+
+    /**
+     * @return the database, borrowing a connection for it the first time
+     */
+    private database db() {
+        if (db == null) {
+            db = new database();
+            conn = db.getConn();
+        }
+        return db;
+    }
+
+    private Connection conn() {
+        db();
+        return conn;
     }
 
     /**
@@ -37,7 +62,7 @@ public class provider {
     public Boolean validClientId(String clientId) {
         try {
             String selectString = "SELECT count(*) as count FROM oauthClients WHERE client_id = ?";
-            PreparedStatement stmt = conn.prepareStatement(selectString);
+            PreparedStatement stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, clientId);
 
@@ -61,7 +86,7 @@ public class provider {
     public String getCallback(String clientID) {
         try {
             String selectString = "SELECT callback FROM oauthClients WHERE client_id = ?";
-            PreparedStatement stmt = conn.prepareStatement(selectString);
+            PreparedStatement stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, clientID);
 
@@ -88,7 +113,7 @@ public class provider {
         stringGenerator sg = new stringGenerator();
         String code = sg.generateString(20);
 
-        Integer user_id = db.getUserId(username);
+        Integer user_id = db().getUserId(username);
         if (user_id == null) {
             throw new OAUTHException("server_error", "null user_id returned for username: " + username, 500);
         }
@@ -96,7 +121,7 @@ public class provider {
         PreparedStatement stmt = null;
         String insertString = "INSERT INTO oauthNonces (client_id, code, user_id, redirect_uri) VALUES(?, \"" + code + "\",?,?)";
         try {
-            stmt = conn.prepareStatement(insertString);
+            stmt = conn().prepareStatement(insertString);
 
             stmt.setString(1, clientID);
             stmt.setInt(2, user_id);
@@ -106,7 +131,7 @@ public class provider {
         } catch (SQLException e) {
             throw new OAUTHException("server_error", "error saving oauth nonce to db", 500, e);
         } finally {
-            db.close(stmt, null);
+            db().close(stmt, null);
         }
         return code;
     }
@@ -147,7 +172,7 @@ public class provider {
 
 //            System.out.println("clientId = \'" + clientId + "\' clientSecret=\'" + clientSecret + "\'");
 
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, clientId);
             stmt.setString(2, clientSecret);
@@ -159,7 +184,7 @@ public class provider {
         } catch (SQLException e) {
             throw new OAUTHException("server_error", "Server Error validating oauth client", 500, e);
         } finally {
-            db.close(stmt, rs);
+            db().close(stmt, rs);
         }
         return false;
     }
@@ -179,7 +204,7 @@ public class provider {
         ResultSet rs = null;
         try {
             String selectString = "SELECT current_timestamp() as current,ts FROM oauthNonces WHERE client_id = ? AND code = ? AND redirect_uri = ?";
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, clientID);
             stmt.setString(2, code);
@@ -202,7 +227,7 @@ public class provider {
         } catch (SQLException e) {
             throw new OAUTHException("server_error", "Server Error validating oauth code", 500, e);
         } finally {
-            db.close(stmt, rs);
+            db().close(stmt, rs);
         }
         return false;
     }
@@ -221,7 +246,7 @@ public class provider {
         ResultSet rs = null;
         try {
             String selectString = "SELECT user_id FROM oauthNonces WHERE client_id=? AND code=?";
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, clientId);
             stmt.setString(2, code);
@@ -235,7 +260,7 @@ public class provider {
             throw new ServerErrorException("server_error",
                     "SQLException thrown while retrieving the userID that belongs to the oauth code: " + code, e);
         } finally {
-            db.close(stmt, rs);
+            db().close(stmt, rs);
         }
         return user_id;
     }
@@ -251,7 +276,7 @@ public class provider {
         PreparedStatement stmt = null;
         try {
             String deleteString = "DELETE FROM oauthNonces WHERE client_id = ? AND code = ?";
-            stmt = conn.prepareStatement(deleteString);
+            stmt = conn().prepareStatement(deleteString);
 
             stmt.setString(1, clientId);
             stmt.setString(2, code);
@@ -260,7 +285,7 @@ public class provider {
         } catch (SQLException e) {
             logger.warn("SQLException thrown while deleting oauth nonce with code: {}", code, e);
         } finally {
-            db.close(stmt, null);
+            db().close(stmt, null);
         }
     }
 
@@ -279,7 +304,7 @@ public class provider {
         ResultSet rs = null;
         String sql = "SELECT client_id, user_id FROM oauthTokens WHERE refresh_token = ?";
         try {
-            stmt = conn.prepareStatement(sql);
+            stmt = conn().prepareStatement(sql);
 
             stmt.setString(1, refreshToken);
 
@@ -291,7 +316,7 @@ public class provider {
         } catch (SQLException e) {
             throw new OAUTHException("server_error", "error retrieving oauth client information from db", 500, e);
         } finally {
-            db.close(stmt, rs);
+            db().close(stmt, rs);
         }
 
         if (userId == null || clientId == null) {
@@ -332,14 +357,22 @@ public class provider {
      */
     private String generateToken(String clientID, Integer userId, String state) {
         stringGenerator sg = new stringGenerator();
+        // A signed token is stored by its id
         String token = sg.generateString(20);
         String refreshToken = sg.generateString(20);
+        String accessToken = token;
+        signedTokens signed = signedTokens.getInstance();
+        if (signed.isEnabled()) {
+            String username = db().getUserName(userId);
+            accessToken = signed.sign(token, userId, username, clientID,
+                    System.currentTimeMillis() + ACCESS_TOKEN_TTL);
+        }
 
         String insertString = "INSERT INTO oauthTokens (client_id, token, refresh_token, user_id) VALUE " +
                 "(?, \"" + token + "\",\"" + refreshToken + "\", ?)";
         PreparedStatement stmt = null;
         try {
-            stmt = conn.prepareStatement(insertString);
+            stmt = conn().prepareStatement(insertString);
 
             stmt.setString(1, clientID);
             stmt.setInt(2, userId);
@@ -347,12 +380,12 @@ public class provider {
         } catch (SQLException e) {
             throw new OAUTHException("server_error", "Server error while trying to save oauth access token to db.", 500, e);
         } finally {
-            db.close(stmt, null);
+            db().close(stmt, null);
         }
 
         StringBuilder sb = new StringBuilder();
         sb.append("{");
-        sb.append("\"access_token\":\"" + token + "\",\n");
+        sb.append("\"access_token\":\"" + accessToken + "\",\n");
         sb.append("\"refresh_token\":\"" + refreshToken + "\",\n");
         sb.append("\"token_type\":\"bearer\",\n");
         sb.append("\"expires_in\":3600\n");
@@ -366,22 +399,60 @@ public class provider {
 
     /**
      * delete an access_token. This is called when a refresh_token has been exchanged for a new access_token.
+     * Signed tokens are revoked in the same transaction, so that either the token is deleted and revoked or the
+     * refresh fails and both stand.
      *
      * @param refreshToken
      */
     public void deleteAccessToken(String refreshToken) {
         PreparedStatement stmt = null;
+        ResultSet rs = null;
+        boolean committed = false;
+        ArrayList<String> tokens = new ArrayList<String>();
         try {
+            conn().setAutoCommit(false);
+
+            // Find the tokens being deleted, to drop them from the tokenCache and revoke them if signed
+            String selectString = "SELECT token FROM oauthTokens WHERE refresh_token = ?";
+            stmt = conn().prepareStatement(selectString);
+
+            stmt.setString(1, refreshToken);
+
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                tokens.add(rs.getString("token"));
+            }
+            db().close(stmt, rs);
+            rs = null;
+
             String deleteString = "DELETE FROM oauthTokens WHERE refresh_token = ?";
-            stmt = conn.prepareStatement(deleteString);
+            stmt = conn().prepareStatement(deleteString);
 
             stmt.setString(1, refreshToken);
 
             stmt.execute();
+            signedTokens signed = signedTokens.getInstance();
+            if (signed.isEnabled() && !tokens.isEmpty()) {
+                signed.revoke(db(), tokens);
+            }
+            conn().commit();
+            committed = true;
         } catch (SQLException e) {
-            logger.warn("SQLException while deleting oauth access token with the refreshToken: {}", refreshToken, e);
+            throw new OAUTHException("server_error", "SQLException while deleting oauth access token with the " +
+                    "refreshToken: " + refreshToken, 500, e);
         } finally {
-            db.close(stmt, null);
+            db().close(stmt, rs);
+            try {
+                if (!committed) {
+                    conn().rollback();
+                }
+                conn().setAutoCommit(true);
+            } catch (SQLException e) {
+                logger.warn("SQLException while ending the transaction deleting an oauth access token", e);
+            }
+        }
+        for (String token : tokens) {
+            tokenCache.getInstance().invalidate(token);
         }
     }
 
@@ -397,7 +468,7 @@ public class provider {
         ResultSet rs = null;
         try {
             String sql = "SELECT current_timestamp() as current,ts FROM oauthTokens WHERE refresh_token = ?";
-            stmt = conn.prepareStatement(sql);
+            stmt = conn().prepareStatement(sql);
 
             stmt.setString(1, refreshToken);
 
@@ -419,26 +490,43 @@ public class provider {
         } catch (SQLException e) {
             throw new OAUTHException("server_error", "server error validating refresh token", 500, e);
         } finally {
-            db.close(stmt, rs);
+            db().close(stmt, rs);
         }
 //        System.out.println(sql + refreshToken);
         return false;
     }
 
     /**
-     * Verify that an access token is still valid. Access tokens are only good for 1 hour.
+     * Verify that an access token is still valid. Access tokens are only good for 1 hour.  Tokens are looked up in the
+     * tokenCache first, and held there once read from the database.
      *
      * @param token the access_token issued to the client
      *
      * @return username the token represents, null if invalid token
      */
     public String validateToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        // A signed token is validated by its signature alone
+        if (signedTokens.isSigned(token)) {
+            return signedTokens.getInstance().verify(token);
+        }
+
+        tokenCache cache = tokenCache.getInstance();
+        String cached = cache.get(token);
+        if (cached != null) {
+            return tokenCache.INVALID.equals(cached) ? null : cached;
+        }
+
+        // Taken before the read, so that a token deleted while it is read is not cached as valid afterwards
+        long loadGeneration = cache.generation();
         PreparedStatement stmt = null;
         ResultSet rs = null;
         try {
             String selectString = "SELECT current_timestamp() as current,t.ts as ts, u.username as username " +
                     "FROM oauthTokens t, users u WHERE t.token=? && u.user_id = t.user_id";
-            stmt = conn.prepareStatement(selectString);
+            stmt = conn().prepareStatement(selectString);
 
             stmt.setString(1, token);
 
@@ -449,19 +537,21 @@ public class provider {
 
                 // Get the current time from the database (in case the application server is in a different timezone)
                 Timestamp currentTs = rs.getTimestamp("current");
-                // get a Timestamp instance for 1 hr ago
-                Timestamp expiredTs = new Timestamp(currentTs.getTime() - 3600000);
-                // if ts is older then 1 hr, we can't proceed
-                if (ts != null && ts.after(expiredTs)) {
-                    return rs.getString("username");
+                // how much longer the token is good for; if ts is older then 1 hr, we can't proceed
+                long remaining = ts == null ? 0 : ts.getTime() + ACCESS_TOKEN_TTL - currentTs.getTime();
+                if (remaining > 0) {
+                    String username = rs.getString("username");
+                    cache.putValid(token, username, remaining, loadGeneration);
+                    return username;
                 }
             }
         } catch (SQLException e) {
             throw new OAUTHException("server_error", "error while validating access_token", 500, e);
         } finally {
-            db.close(stmt, rs);
+            db().close(stmt, rs);
         }
 
+        cache.putInvalid(token, loadGeneration);
         return null;
     }
 
@@ -0,0 +1,348 @@
+package auth.oauth2;
+
+import bcid.database;
+import bcidExceptions.ServerErrorException;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self-contained access tokens, which carry the user_id, username, client_id and expiry they were issued for and an
+ * HMAC-SHA256 of these, so that any application server holding the same oauthTokenSecret can validate one without
+ * reading the database.
+ * <p/>
+ * Setting oauthSignedTokens to true has provider issue these tokens.  A token is base64url(payload) "."
+ * base64url(signature); its payload starts with a token id, which is what provider stores in oauthTokens.token, so
+ * that refresh tokens work as before.  Tokens issued before the mode was turned on are still looked up in the
+ * database until they expire.
+ * <p/>
+ * deleteAccessToken revokes a token by adding its id to the oauthRevokedTokens table as well as to this server's
+ * revocation list; every server reloads the list from the table every oauthRevocationPollInterval milliseconds, so a
+ * token revoked on one server is refused by the others within that time.  Revocations are kept only until the token
+ * would have expired anyway.  Expiry is checked against each server's own clock, so the servers' clocks should agree.
+ */
+public class signedTokens {
+
+    private static Logger logger = LoggerFactory.getLogger(signedTokens.class);
+
+    private static final String VERSION = "1";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static signedTokens instance;
+
+    private final boolean enabled;
+    private final SecretKeySpec key;
+    private final ScheduledExecutorService poller;
+    // token id -> when the token expires, after which the revocation may be forgotten
+    private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicLong issuedCount = new AtomicLong();
+    private final AtomicLong validCount = new AtomicLong();
+    private final AtomicLong badSignatureCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong revokedCount = new AtomicLong();
+
+    // Mac is not thread safe, and costly to create, so each thread keeps one
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new ServerErrorException("Server Error", "Unable to create " + ALGORITHM, e);
+            }
+        }
+    };
+
+    public static synchronized signedTokens getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new signedTokens(
+                    sm.retrieveBoolean("oauthSignedTokens", false),
+                    sm.retrieveValue("oauthTokenSecret", ""),
+                    sm.retrieveLong("oauthRevocationPollInterval", 30000));
+        }
+        return instance;
+    }
+
+    /**
+     * Stop reloading the revocation list.  Called when the web application is shut down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            if (instance.poller != null) {
+                instance.poller.shutdownNow();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * Signed tokens made and checked with the given secret, configured directly rather than from the settings.  The
+     * revocation list is not reloaded from the database; only revocations made on this instance are refused.
+     *
+     * @param secret the key tokens are signed with, at least 32 characters
+     */
+    public signedTokens(String secret) {
+        if (secret.length() < 32) {
+            throw new IllegalArgumentException("The secret must be at least 32 characters");
+        }
+        this.enabled = true;
+        this.key = new SecretKeySpec(utf8(secret), ALGORITHM);
+        this.poller = null;
+    }
+
+    private signedTokens(boolean enabled, String secret, long pollInterval) {
+        if (enabled && secret.length() < 32) {
+            logger.error("oauthSignedTokens is on but oauthTokenSecret is shorter than 32 characters; " +
+                    "issuing database tokens instead");
+            enabled = false;
+        }
+        this.enabled = enabled;
+        this.key = enabled ? new SecretKeySpec(utf8(secret), ALGORITHM) : null;
+        if (!enabled) {
+            poller = null;
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-oauth-revocations");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        poller.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    reload();
+                } catch (RuntimeException e) {
+                    logger.warn("Unable to reload the oauth token revocation list", e);
+                }
+            }
+        }, 0, Math.max(1000, pollInterval), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if access tokens are issued as signed tokens
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if a token is in the form of a signed token, rather than one to be looked up in the database
+     */
+    static boolean isSigned(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * Issue a signed token
+     *
+     * @param tokenId  the id stored in oauthTokens.token
+     * @param userId
+     * @param username
+     * @param clientId
+     * @param expires  when the token expires, in milliseconds since the epoch
+     *
+     * @return the token
+     */
+    public String sign(String tokenId, Integer userId, String username, String clientId, long expires) {
+        // The username goes last, so that whatever it holds cannot be taken for another field
+        String payload = VERSION + ":" + tokenId + ":" + userId + ":" + clientId + ":" + expires + ":" + username;
+        String encoded = Base64.encodeBase64URLSafeString(utf8(payload));
+        issuedCount.incrementAndGet();
+        return encoded + "." + Base64.encodeBase64URLSafeString(signature(encoded));
+    }
+
+    /**
+     * Validate a signed token: its signature, its expiry and that it has not been revoked
+     *
+     * @param token
+     *
+     * @return the username the token represents, null if the token is not valid
+     */
+    public String verify(String token) {
+        if (!enabled) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            badSignatureCount.incrementAndGet();
+            return null;
+        }
+        String encoded = token.substring(0, dot);
+        if (!MessageDigest.isEqual(signature(encoded), Base64.decodeBase64(token.substring(dot + 1)))) {
+            badSignatureCount.incrementAndGet();
+            return null;
+        }
+
+        String[] fields;
+        try {
+            fields = new String(Base64.decodeBase64(encoded), "UTF-8").split(":", 6);
+        } catch (UnsupportedEncodingException e) {
+            throw new ServerErrorException(e);
+        }
+        if (fields.length != 6 || !fields[0].equals(VERSION)) {
+            badSignatureCount.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() >= Long.parseLong(fields[4])) {
+            expiredCount.incrementAndGet();
+            return null;
+        }
+        if (revoked.containsKey(fields[1])) {
+            revokedCount.incrementAndGet();
+            return null;
+        }
+        validCount.incrementAndGet();
+        return fields[5];
+    }
+
+    /**
+     * Revoke tokens, through the oauthRevokedTokens table on every server at its next reload, and on this server once
+     * they are recorded there.  Done on the caller's connection, so that the revocations are committed with the
+     * deletion of the tokens.
+     *
+     * @param db       the database to record the revocations with
+     * @param tokenIds the ids stored in oauthTokens.token
+     *
+     * @throws SQLException if the revocations could not be recorded, in which case none are made on this server
+     */
+    void revoke(database db, ArrayList<String> tokenIds) throws SQLException {
+        // However the tokens were issued, they can not outlive this
+        long expires = System.currentTimeMillis() + provider.ACCESS_TOKEN_TTL;
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement(
+                    "INSERT IGNORE INTO oauthRevokedTokens (token_id, expires) VALUES (?, ?)");
+            for (String tokenId : tokenIds) {
+                stmt.setString(1, tokenId);
+                stmt.setLong(2, expires);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } finally {
+            db.close(stmt, null);
+        }
+        for (String tokenId : tokenIds) {
+            revokeLocally(tokenId, expires);
+        }
+    }
+
+    /**
+     * Refuse a token on this server only, until it would have expired
+     *
+     * @param tokenId the id stored in oauthTokens.token
+     * @param expires when the token expires, in milliseconds since the epoch
+     */
+    public void revokeLocally(String tokenId, long expires) {
+        revoked.put(tokenId, expires);
+    }
+
+    /**
+     * Add the revocations made on other servers, from the oauthRevokedTokens table, to the revocation list, and clear
+     * out those whose tokens have expired
+     */
+    private void reload() {
+        long now = System.currentTimeMillis();
+        HashMap<String, Long> loaded = new HashMap<String, Long>();
+        database db = new database();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement("SELECT token_id, expires FROM oauthRevokedTokens WHERE expires > ?");
+            stmt.setLong(1, now);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                loaded.put(rs.getString("token_id"), rs.getLong("expires"));
+            }
+            db.close(stmt, rs);
+            rs = null;
+
+            stmt = db.getConn().prepareStatement("DELETE FROM oauthRevokedTokens WHERE expires <= ?");
+            stmt.setLong(1, now);
+            stmt.execute();
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "SQLException reloading the oauth token revocation list", e);
+        } finally {
+            db.close(stmt, rs);
+            db.close();
+        }
+
+        // Forget revocations of tokens that have expired anyway.  Those made on this server are never dropped before
+        // then, even if made while the table was being read
+        for (Map.Entry<String, Long> e : revoked.entrySet()) {
+            if (e.getValue() <= now) {
+                revoked.remove(e.getKey(), e.getValue());
+            }
+        }
+        revoked.putAll(loaded);
+    }
+
+    private byte[] signature(String encodedPayload) {
+        return macs.get().doFinal(utf8(encodedPayload));
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new ServerErrorException(e);
+        }
+    }
+
+    public long getIssuedCount() {
+        return issuedCount.get();
+    }
+
+    public long getValidCount() {
+        return validCount.get();
+    }
+
+    /**
+     * @return the number of tokens refused because their signature did not match, e.g. forged or corrupted tokens
+     */
+    public long getBadSignatureCount() {
+        return badSignatureCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getRevokedCount() {
+        return revokedCount.get();
+    }
+
+    public String toString() {
+        return "signedTokens[enabled=" + enabled +
+                ", revocations=" + revoked.size() +
+                ", issued=" + getIssuedCount() +
+                ", valid=" + getValidCount() +
+                ", badSignature=" + getBadSignatureCount() +
+                ", expired=" + getExpiredCount() +
+                ", revoked=" + getRevokedCount() + "]";
+    }
+}
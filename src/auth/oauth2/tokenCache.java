@@ -0,0 +1,143 @@
+package auth.oauth2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.lruCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of validated OAuth access tokens, so that an API call made with a token does not have to read the
+ * token from the database every time.
+ * <p/>
+ * A valid token is held, with the username it represents, until the token itself expires, ACCESS_TOKEN_TTL after
+ * it was issued.  A token that is unknown or has expired is held as invalid for oauthTokenCacheNegativeTTL
+ * milliseconds, so a client retrying with a bad token does not reach the database either.  provider evicts a token
+ * as soon as it deletes it, when its refresh token is used; a token deleted by another application server is
+ * noticed only when its entry expires.  Once more than oauthTokenCacheMaxSize tokens are held the least recently used
+ * is evicted.
+ */
+public class tokenCache {
+
+    private static Logger logger = LoggerFactory.getLogger(tokenCache.class);
+
+    /**
+     * What get returns for a token known to be invalid
+     */
+    static final String INVALID = "";
+
+    private static tokenCache instance;
+
+    private final long negativeTTL;
+    // The username each token represents, or INVALID
+    private final lruCache<String, String> entries;
+
+    private final AtomicLong invalidHitCount = new AtomicLong();
+
+    public static synchronized tokenCache getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new tokenCache(
+                    sm.retrieveInt("oauthTokenCacheMaxSize", 10000),
+                    sm.retrieveLong("oauthTokenCacheNegativeTTL", 60000));
+        }
+        return instance;
+    }
+
+    private tokenCache(int maxSize, long negativeTTL) {
+        this.negativeTTL = negativeTTL;
+        // Every entry is put with a TTL of its own
+        this.entries = new lruCache<String, String>(maxSize, negativeTTL);
+    }
+
+    /**
+     * @param token an access token
+     *
+     * @return the username the token represents, INVALID if the token is known to be invalid, or null if it must be
+     *         read from the database
+     */
+    String get(String token) {
+        String username = entries.get(token);
+        if (INVALID.equals(username)) {
+            invalidHitCount.incrementAndGet();
+        }
+        return username;
+    }
+
+    /**
+     * @return the generation to take before reading a token from the database, and pass to putValid or putInvalid
+     */
+    long generation() {
+        return entries.generation();
+    }
+
+    /**
+     * Hold a valid token, unless a token was invalidated since it was read
+     *
+     * @param token
+     * @param username        the user the token represents
+     * @param remainingMillis how much longer the token is valid for
+     * @param loadGeneration  the generation taken before the token was read
+     */
+    void putValid(String token, String username, long remainingMillis, long loadGeneration) {
+        entries.putIfCurrent(token, username, remainingMillis, loadGeneration);
+    }
+
+    /**
+     * Hold a token that is unknown or has expired, unless a token was invalidated since it was read
+     *
+     * @param token
+     * @param loadGeneration the generation taken before the token was read
+     */
+    void putInvalid(String token, long loadGeneration) {
+        if (negativeTTL > 0) {
+            entries.putIfCurrent(token, INVALID, negativeTTL, loadGeneration);
+        }
+    }
+
+    /**
+     * Drop a token, e.g. once it has been deleted, so that the next get reads it from the database
+     *
+     * @param token
+     */
+    public void invalidate(String token) {
+        entries.invalidate(token);
+        logger.debug("Dropped access token from the cache");
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of times a valid token was found in the cache
+     */
+    public long getHitCount() {
+        return entries.getHitCount() - getInvalidHitCount();
+    }
+
+    /**
+     * @return the number of times a token was found in the cache to be invalid
+     */
+    public long getInvalidHitCount() {
+        return invalidHitCount.get();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    public long getExpiredCount() {
+        return entries.getExpiredCount();
+    }
+
+    public long getInvalidationCount() {
+        return entries.getInvalidationCount();
+    }
+
+    public String toString() {
+        return "tokenCache[" + entries + ", invalidHits=" + getInvalidHitCount() + "]";
+    }
+}
@@ -44,6 +44,8 @@ public class passwordHash
     public static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
 
     // The following constants may be changed without breaking existing hashes.
+    // Each hash records its own iteration count, so a hash made with fewer
+    // iterations still validates, and can be replaced once it has (see needsRehash).
     public static final int SALT_BYTE_SIZE = 24;
     public static final int HASH_BYTE_SIZE = 24;
     public static final int PBKDF2_ITERATIONS = 1000;
@@ -72,6 +74,20 @@ public class passwordHash
      */
     public static String createHash(char[] password)
         throws NoSuchAlgorithmException, InvalidKeySpecException
+    {
+        return createHash(password, PBKDF2_ITERATIONS);
+    }
+
+    /**
+     * Returns a salted PBKDF2 hash of the password, made with the given
+     * iteration count.
+     *
+     * @param   password    the password to hash
+     * @param   iterations  the iteration count (slowness factor)
+     * @return              a salted PBKDF2 hash of the password
+     */
+    public static String createHash(char[] password, int iterations)
+        throws NoSuchAlgorithmException, InvalidKeySpecException
     {
         // Generate a random salt
         SecureRandom random = new SecureRandom();
@@ -79,9 +95,9 @@ public class passwordHash
         random.nextBytes(salt);
 
         // Hash the password
-        byte[] hash = pbkdf2(password, salt, PBKDF2_ITERATIONS, HASH_BYTE_SIZE);
+        byte[] hash = pbkdf2(password, salt, iterations, HASH_BYTE_SIZE);
         // format iterations:salt:hash
-        return PBKDF2_ITERATIONS + ":" + toHex(salt) + ":" +  toHex(hash);
+        return iterations + ":" + toHex(salt) + ":" +  toHex(hash);
     }
 
     /**
@@ -120,6 +136,31 @@ public class passwordHash
         return slowEquals(hash, testHash);
     }
 
+    /**
+     * Returns the iteration count a hash was made with.
+     *
+     * @param   hash        a hash made by createHash
+     * @return              the iteration count stored in the hash
+     */
+    public static int getIterations(String hash)
+    {
+        return Integer.parseInt(hash.substring(0, hash.indexOf(':')));
+    }
+
+    /**
+     * Tells whether a hash was made with fewer iterations than are now wanted,
+     * so should be replaced the next time the password is known, i.e. once it
+     * has been validated.
+     *
+     * @param   hash        a hash made by createHash
+     * @param   iterations  the iteration count hashes should now be made with
+     * @return              true if the hash should be made again
+     */
+    public static boolean needsRehash(String hash, int iterations)
+    {
+        return getIterations(hash) < iterations;
+    }
+
     /**
      * Compares two byte arrays in length-constant time. This comparison method
      * is used so that password hashes cannot be extracted from an on-line 
@@ -4,142 +4,152 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URISyntaxException;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.HashMap;
 
 /**
  * Metadata Schema for Describing an identifier --
  * These are the metadata elements building blocks that we can use to express this identifier either via RDF or HTML
  * and consequently forms the basis of what the "outside" world sees about the identifiers.
  * This class is used by Renderers to structure content.
+ * <p/>
+ * Each element is a term, built once, that knows how to read its value out of an identifier's metadata, so
+ * rendering looks up only the metadata it needs rather than walking every entry of the map.
  */
 public class BCIDMetadataSchema {
-    // Core Elements for rendering
-    public metadataElement about = null;
-    public metadataElement resource = null;
-    public metadataElement dcCreator = null;
-    public metadataElement dcTitle = null;
-    public metadataElement dcDate = null;
-    public metadataElement dcRights = null;
-    public metadataElement dcIsReferencedBy = null;
-    public metadataElement dcIsPartOf = null;
-    public metadataElement dcSource = null;
-    public metadataElement dcMediator = null;
-    public metadataElement dcHasVersion = null;
-    public metadataElement bscSuffixPassthrough = null;
-    public metadataElement dcPublisher = null;
 
     private static Logger logger = LoggerFactory.getLogger(BCIDMetadataSchema.class);
 
-
-
-    public bcid identifier;
-
-    public BCIDMetadataSchema() {
-    }
-
-    public void BCIDMetadataInit(GenericIdentifier identifier) {
-        this.identifier = (bcid) identifier;
-        dcPublisher = new metadataElement("dc:publisher",this.identifier.projectCode , "The BCID project to which this resource belongs.");
-
-        String ark = null;
-        Iterator iterator = identifier.getMetadata().entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry pairs = (Map.Entry) iterator.next();
-            String bcidKey = (String) pairs.getKey();
-            try {
-                if (bcidKey.equalsIgnoreCase("ark")) {
-                    ark = pairs.getValue().toString();
-                    about = new metadataElement("rdf:Description", identifier.resolverTargetPrefix + ark, "The current identifier resolution service.");
-                } else if (bcidKey.equalsIgnoreCase("what")) {
-                    resource = new metadataElement("rdf:type", pairs.getValue().toString(), "What is this object.");
-                } else if (bcidKey.equalsIgnoreCase("when")) {
-                    dcDate = new metadataElement("dc:date",  pairs.getValue().toString(), "Date that metadata was last updated for this identifier.");
-                } else if (bcidKey.equalsIgnoreCase("who")) {
-                    dcCreator = new metadataElement("dc:creator", pairs.getValue().toString(), "Who created the group definition.");
-                } else if (bcidKey.equalsIgnoreCase("title")) {
-                    dcTitle = new metadataElement("dc:title", pairs.getValue().toString(), "Title");
-                } else if (bcidKey.equalsIgnoreCase("sourceID")) {
-                    dcSource = new metadataElement("dc:source", pairs.getValue().toString(), "The locally-unique identifier.");
-                } else if (bcidKey.equalsIgnoreCase("rights")) {
-                    dcRights = new metadataElement("dcterms:rights", pairs.getValue().toString(), "Rights applied to the metadata content describing this identifier.");
-                } else if (bcidKey.equalsIgnoreCase("datasetsPrefix")) {
-                    //Don't print this line for the Test Account
-                    if (!identifier.getMetadata().get("who").equals("Test Account")) {
-                        dcIsReferencedBy = new metadataElement("dcterms:isReferencedBy", "http://n2t.net/" + pairs.getValue().toString(), "The group level identifier, registered with EZID.");
-                    }
-                } else if (bcidKey.equalsIgnoreCase("doi")) {
-                    // Create mapping here for DOI if it only shows the prefix
-                    String doi = pairs.getValue().toString().replace("doi:", "http://dx.doi.org/");
-                    dcIsPartOf = new metadataElement("dcterms:isReferencedBy", doi, "A DOI describing the dataset which this identifier belongs to.");
-               // } else if (bcidKey.equalsIgnoreCase("projectCode")) {
-                    // Create mapping here for DOI if it only shows the prefix
-                 //   dcPublisher = new metadataElement("dc:publisher", pairs.getValue().toString(), "The BCID project to which this resource belongs.");
-                } else if (bcidKey.equalsIgnoreCase("webaddress")) {
-                    dcHasVersion = new metadataElement("dcterms:hasVersion", pairs.getValue().toString(), "The redirection target for this identifier.");
-                } else if (bcidKey.equalsIgnoreCase("datasetsSuffixPassThrough")) {
-                    bscSuffixPassthrough = new metadataElement("bsc:suffixPassthrough", pairs.getValue().toString(), "Indicates that this identifier supports suffixPassthrough.");
-                }
-            } catch (NullPointerException e) {
-                //TODO should we silence this exception?
-                logger.warn("NullPointerException thrown for identifier: {}", identifier);
+    // Core Elements for rendering
+    public static final term about = new term("rdf:Description", "The current identifier resolution service.") {
+        public String value(GenericIdentifier identifier, HashMap<String, String> metadata) {
+            String ark = metadata.get("ark");
+            return ark == null ? null : identifier.resolverTargetPrefix + ark;
+        }
+    };
+    public static final term resource = new metadataTerm("rdf:type", "what", "What is this object.");
+    public static final term dcCreator = new metadataTerm("dc:creator", "who", "Who created the group definition.");
+    public static final term dcTitle = new metadataTerm("dc:title", "title", "Title");
+    public static final term dcDate = new metadataTerm("dc:date", "when",
+            "Date that metadata was last updated for this identifier.");
+    public static final term dcRights = new metadataTerm("dcterms:rights", "rights",
+            "Rights applied to the metadata content describing this identifier.");
+    public static final term dcIsReferencedBy = new term("dcterms:isReferencedBy",
+            "The group level identifier, registered with EZID.") {
+        public String value(GenericIdentifier identifier, HashMap<String, String> metadata) {
+            String datasetsPrefix = metadata.get("datasetsPrefix");
+            String who = metadata.get("who");
+            //Don't print this line for the Test Account
+            if (datasetsPrefix == null || who == null || who.equals("Test Account")) {
+                return null;
             }
+            return "http://n2t.net/" + datasetsPrefix;
+        }
+    };
+    public static final term dcIsPartOf = new term("dcterms:isReferencedBy",
+            "A DOI describing the dataset which this identifier belongs to.") {
+        public String value(GenericIdentifier identifier, HashMap<String, String> metadata) {
+            String doi = metadata.get("doi");
+            // Create mapping here for DOI if it only shows the prefix
+            return doi == null ? null : doi.replace("doi:", "http://dx.doi.org/");
         }
-        if (ark != null) {
+    };
+    public static final term dcSource = new metadataTerm("dc:source", "sourceID", "The locally-unique identifier.");
+    public static final term dcMediator = new term("dcterms:mediator", "Metadata mediator") {
+        public String value(GenericIdentifier identifier, HashMap<String, String> metadata) {
+            if (metadata.get("ark") == null) {
+                return null;
+            }
             try {
-                dcMediator = new metadataElement("dcterms:mediator", identifier.getMetadataTarget().toString(), "Metadata mediator");
+                return identifier.getMetadataTarget().toString();
             } catch (URISyntaxException e) {
                 //TODO should we silence this exception?
                 logger.warn("URISyntaxException thrown", e);
+                return null;
             }
         }
-    }
+    };
+    public static final term dcHasVersion = new metadataTerm("dcterms:hasVersion", "webaddress",
+            "The redirection target for this identifier.");
+    public static final term bscSuffixPassthrough = new metadataTerm("bsc:suffixPassthrough",
+            "datasetsSuffixPassThrough", "Indicates that this identifier supports suffixPassthrough.");
+    public static final term dcPublisher = new metadataTerm("dc:publisher", "projectCode",
+            "The BCID project to which this resource belongs.");
 
     /**
-     * A convenience class for holding metadata elements
+     * An element of the schema: its prefixed key (e.g. dc:title), that key as a full URI, a description, and how to
+     * read its value from an identifier.  Terms hold no per-identifier state, so are shared by every rendering.
      */
-    public final class metadataElement {
-        private String key;
-        private String value;
-        private String description;
+    public static abstract class term {
+        private final String key;
+        private final String fullKey;
+        private final String description;
 
-        public metadataElement(String key, String value, String description) {
+        term(String key, String description) {
             this.key = key;
-            this.value = value;
             this.description = description;
+            this.fullKey = expandKey(key);
         }
 
         public String getKey() {
             return key;
         }
 
-        public String getValue() {
-            return value;
+        /**
+         * @return the key with its prefix replaced by the fully qualified URL
+         */
+        public String getFullKey() {
+            return fullKey;
         }
 
         public String getDescription() {
             return description;
         }
 
-        public String setValue(String value) {
-            String old = this.value;
-            this.value = value;
-            return old;
-        }
-
         /**
-         * Replace prefixes with fully qualified URL's
+         * @param identifier the identifier being rendered
+         * @param metadata   identifier.getMetadata()
          *
-         * @return
+         * @return this term's value for the identifier, or null if it has none
          */
-        public String getFullKey() {
-            String tempKey = key;
-            tempKey = tempKey.replace("dc:", "http://purl.org/dc/elements/1.1/");
-            tempKey = tempKey.replace("dcterms:", "http://purl.org/dc/terms/");
-            tempKey = tempKey.replace("rdfs:", "http://www.w3.org/2000/01/rdf-schema#");
-            tempKey = tempKey.replace("rdf:", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
-            tempKey = tempKey.replace("bsc:", "http://biscicol.org/terms/index.html#");
-            return tempKey;
+        public abstract String value(GenericIdentifier identifier, HashMap<String, String> metadata);
+
+        /**
+         * @return this term's value for the identifier, or null if it has none or it is blank
+         */
+        public String nonBlankValue(GenericIdentifier identifier, HashMap<String, String> metadata) {
+            String value = value(identifier, metadata);
+            return value == null || value.trim().length() == 0 ? null : value;
         }
     }
+
+    /**
+     * A term whose value is a metadata entry as it is
+     */
+    private static class metadataTerm extends term {
+        private final String metadataKey;
+
+        metadataTerm(String key, String metadataKey, String description) {
+            super(key, description);
+            this.metadataKey = metadataKey;
+        }
+
+        public String value(GenericIdentifier identifier, HashMap<String, String> metadata) {
+            return metadata.get(metadataKey);
+        }
+    }
+
+    /**
+     * Replace prefixes with fully qualified URL's
+     *
+     * @return
+     */
+    private static String expandKey(String key) {
+        String tempKey = key;
+        tempKey = tempKey.replace("dc:", "http://purl.org/dc/elements/1.1/");
+        tempKey = tempKey.replace("dcterms:", "http://purl.org/dc/terms/");
+        tempKey = tempKey.replace("rdfs:", "http://www.w3.org/2000/01/rdf-schema#");
+        tempKey = tempKey.replace("rdf:", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+        tempKey = tempKey.replace("bsc:", "http://biscicol.org/terms/index.html#");
+        return tempKey;
+    }
 }
@@ -77,12 +77,44 @@ public class CheckDigit {
         return input + GenerateCheckCharacter(input);
     }
 
+    /**
+     * Generate the check character for the first length characters of a buffer, in the same way as
+     * generate(String), without building a String
+     * @param input
+     * @param length
+     * @return the check character
+     */
+    static char generateCheckCharacter(char[] input, int length) {
+        int factor = 2;
+        int sum = 0;
+        int n = length;
+
+        for (int i = length - 1; i >= 0; i--) {
+            int addend = factor * codes[input[i]];
+            factor = (factor == 2) ? 1 : 2;
+            addend = (addend / n) + (addend % n);
+            sum += addend;
+        }
+
+        int remainder = sum % n;
+        return chars[(n - remainder) % n];
+    }
+
     /**
      * Examine the string and see if it validates
      * @param input
      * @return true/false if this verifies
      */
     public boolean verify(String input) {
+        return isValid(input);
+    }
+
+    /**
+     * Examine the characters and see if they validate, in the same way as verify(String)
+     * @param input
+     * @return true/false if this verifies
+     */
+    static boolean isValid(CharSequence input) {
         if (input.length() > 30)  {
             return false;
             //throw new Exception("Unable to decode string due to length, possibly this is a UUID?  Unable to validate");
@@ -90,13 +122,13 @@ public class CheckDigit {
 
         int factor = 1;
         int sum = 0;
-        int n = NumberOfValidInputCharacters(input) - 1;
+        int n = input.length() - 1;
 
         // Starting from the right, work leftwards
         // Now, the initial "factor" will always be "1"
         // since the last character is the check character
         for (int i = input.length() - 1; i >= 0; i--) {
-            int codePoint = CodePointFromCharacter(input.charAt(i));
+            int codePoint = codes[input.charAt(i)];
             int addend = factor * codePoint;
 
             // Alternate the "factor" that each "codePoint" is multiplied by
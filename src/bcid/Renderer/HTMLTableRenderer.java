@@ -1,80 +1,111 @@
 package bcid.Renderer;
 
+import bcid.BCIDMetadataSchema;
+import bcid.BCIDMetadataSchema.term;
+import bcid.GenericIdentifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
 /**
- * HTMLTableRenderer renders Identifier results as an HTMLTable
+ * HTMLTableRenderer renders Identifier results as an HTMLTable.  renderAll writes a table for each identifier.
+ * Resources are linked only if they are http or https URLs; others, which may hold any scheme a user gave, e.g.
+ * javascript:, are shown as text.
  */
 public class HTMLTableRenderer extends Renderer {
 
-    public void enter() {
-        outputSB.append("<h2>" + identifier.identifier + "</h2>\n\n");
-        outputSB.append("<table>\n");
-        outputSB.append("\t<tr>\n" +
-                "\t\t<th>Description</th>\n" +
-                "\t\t<th>Value</th>\n" +
-                "\t\t<th>Definition</th>\n" +
-                "\t</tr>\n");
-    }
+    private static final String TABLE_HEADER = "<table>\n" +
+            "\t<tr>\n" +
+            "\t\t<th>Description</th>\n" +
+            "\t\t<th>Value</th>\n" +
+            "\t\t<th>Definition</th>\n" +
+            "\t</tr>\n";
+
+    // Resources are shown as links where they can be, properties as text, in this order
+    private static final term[] RESOURCES = {
+            BCIDMetadataSchema.resource,
+            BCIDMetadataSchema.about,
+            BCIDMetadataSchema.dcMediator,
+            BCIDMetadataSchema.dcHasVersion,
+            BCIDMetadataSchema.dcIsReferencedBy,
+            BCIDMetadataSchema.dcRights,
+            BCIDMetadataSchema.dcIsPartOf};
+    private static final term[] PROPERTIES = {
+            BCIDMetadataSchema.dcDate,
+            BCIDMetadataSchema.dcCreator,
+            BCIDMetadataSchema.dcTitle,
+            BCIDMetadataSchema.dcSource,
+            BCIDMetadataSchema.bscSuffixPassthrough};
+
+    // The rest of each row after its value: the term and its definition, built once
+    private static final String[] RESOURCE_ROW_END = new String[RESOURCES.length];
+    private static final String[] PROPERTY_ROW_END = new String[PROPERTIES.length];
 
-    public void printMetadata() {
-        tableResourceRowAppender(resource);
-        tableResourceRowAppender(about);
-        tableResourceRowAppender(dcMediator);
-        tableResourceRowAppender(dcHasVersion);
-        tableResourceRowAppender(dcIsReferencedBy);
-        tableResourceRowAppender(dcRights);
-        tableResourceRowAppender(dcIsPartOf);
-        tablePropertyRowAppender(dcDate);
-        tablePropertyRowAppender(dcCreator);
-        tablePropertyRowAppender(dcTitle);
-        tablePropertyRowAppender(dcSource);
-        tablePropertyRowAppender(bscSuffixPassthrough);
+    static {
+        for (int i = 0; i < RESOURCES.length; i++) {
+            RESOURCE_ROW_END[i] = "</td>\n" + termCells(RESOURCES[i]);
+        }
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            PROPERTY_ROW_END[i] = "</td>\n" + termCells(PROPERTIES[i]);
+        }
     }
 
-    public void leave() {
-        outputSB.append("</table>\n");
+    private static String termCells(term t) {
+        return "\t\t<td><a href=\"" + t.getFullKey() + "\">" + t.getKey() + "</a></td>\n" +
+                "\t\t<td>" + t.getDescription() + "</td>\n" +
+                "\t</tr>\n";
     }
 
-    public boolean validIdentifier() {
-        if (identifier == null) {
-            outputSB.append("<h2>Unable to find identifier</h2>");
-            return false;
-        } else {
-            return true;
-        }
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException {
+        out.write("<h2>");
+        writeXML(out, String.valueOf(identifier.identifier));
+        out.write("</h2>\n\n");
+        out.write(TABLE_HEADER);
     }
 
-    /**
-     * append each property
-     *
-     * @param map
-     */
-    private void tablePropertyRowAppender(metadataElement map) {
-        if (map != null) {
-            if (!map.getValue().trim().equals("")) {
-                outputSB.append("\t<tr>\n" +
-                        "\t\t<td>" + map.getValue() + "</td>\n" +
-                        "\t\t<td><a href=\"" + map.getFullKey() + "\">" + map.getKey() + "</a></td>\n" +
-                        "\t\t<td>" + map.getDescription() + "</td>\n" +
-                        "\t</tr>\n");
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException {
+        for (int i = 0; i < RESOURCES.length; i++) {
+            String value = RESOURCES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                boolean link = isLinkable(value);
+                if (link) {
+                    out.write("\t<tr>\n\t\t<td><a href=\"");
+                    writeXML(out, value);
+                    out.write("\">");
+                } else {
+                    out.write("\t<tr>\n\t\t<td>");
+                }
+                writeXML(out, value);
+                if (link) {
+                    out.write("</a>");
+                }
+                out.write(RESOURCE_ROW_END[i]);
+            }
+        }
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            String value = PROPERTIES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                out.write("\t<tr>\n\t\t<td>");
+                writeXML(out, value);
+                out.write(PROPERTY_ROW_END[i]);
             }
         }
     }
 
     /**
-     * append each property
-     *
-     * @param map
+     * @return true if the value is an http or https URL, and so safe to put in an href
      */
-    private void tableResourceRowAppender(metadataElement map) {
-        if (map != null) {
-            if (!map.getValue().trim().equals("")) {
-                outputSB.append("\t<tr>\n" +
-                        "\t\t<td><a href=\"" + map.getValue() + "\">" + map.getValue() + "</a></td>\n" +
-                        "\t\t<td><a href=\"" + map.getFullKey() + "\">" + map.getKey() + "</a></td>\n" +
-                        "\t\t<td>" + map.getDescription() + "</td>\n" +
-                        "\t</tr>\n");
-            }
-        }
+    private static boolean isLinkable(String value) {
+        return value.regionMatches(true, 0, "http://", 0, 7) || value.regionMatches(true, 0, "https://", 0, 8);
+    }
+
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException {
+        out.write("</table>\n");
+    }
 
+    public void notFound(Writer out) throws IOException {
+        out.write("<h2>Unable to find identifier</h2>");
     }
 }
@@ -1,41 +1,61 @@
 package bcid.Renderer;
 
+import bcid.GenericIdentifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
 /**
- * jsonRenderer renders objects as JSON
+ * jsonRenderer renders objects as JSON.  renderAll writes a JSON array, holding a not found object for each
+ * missing identifier.
  */
 public class JSONRenderer extends TextRenderer {
 
-    public void enter() {
-        outputSB.append("{");
-        outputSB.append("\"" + identifier.getClass().getSimpleName() + "\":");
-        outputSB.append("{");
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException {
+        out.write("{\"");
+        writeJSON(out, identifier.getClass().getSimpleName());
+        out.write("\":{");
     }
 
-    public void printMetadata() {
-        Iterator iterator = identifier.getMetadata().entrySet().iterator();
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException {
+        Iterator<Map.Entry<String, String>> iterator = metadata.entrySet().iterator();
         while (iterator.hasNext()) {
-            Map.Entry pairs = (Map.Entry) iterator.next();
-            outputSB.append("\"" + pairs.getKey() + "\":\"" + pairs.getValue() + "\"");
+            Map.Entry<String, String> pairs = iterator.next();
+            writeJSONString(out, pairs.getKey());
+            out.write(':');
+            // A missing value has always been written as the string "null", which clients may rely on
+            writeJSONString(out, String.valueOf(pairs.getValue()));
             if (iterator.hasNext()) {
-                outputSB.append(",");
+                out.write(',');
             }
         }
     }
 
-    public void leave() {
-        outputSB.append("}}");
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException {
+        out.write("}}");
     }
 
-    public boolean validIdentifier()  {
-        if (identifier == null) {
-            outputSB.append("{\"Identifier\":{\"status\":\"not found\"}}");
-            return false;
-        } else {
-            return true;
-        }
+    public void notFound(Writer out) throws IOException {
+        out.write("{\"Identifier\":{\"status\":\"not found\"}}");
     }
 
+    protected void startList(Writer out) throws IOException {
+        out.write('[');
+    }
+
+    protected void endList(Writer out) throws IOException {
+        out.write(']');
+    }
+
+    protected void separate(Writer out) throws IOException {
+        out.write(',');
+    }
+
+    protected boolean listsNotFound() {
+        return true;
+    }
 }
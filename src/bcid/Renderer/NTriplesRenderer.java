@@ -0,0 +1,137 @@
+package bcid.Renderer;
+
+import bcid.BCIDMetadataSchema;
+import bcid.BCIDMetadataSchema.term;
+import bcid.GenericIdentifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/**
+ * Renders a BCID as N-Triples, one triple per line, for clients that load identifiers' metadata into a triple store.
+ * The statements are the ones RDFRenderer writes.  Since every line stands alone, renderAll simply writes one
+ * identifier's triples after another, leaving out missing identifiers.
+ */
+public class NTriplesRenderer extends Renderer {
+
+    // Written with IRI objects, then with literal objects, in this order
+    private static final term[] RESOURCES = {
+            BCIDMetadataSchema.resource,
+            BCIDMetadataSchema.dcMediator,
+            BCIDMetadataSchema.dcHasVersion,
+            BCIDMetadataSchema.dcIsPartOf,
+            BCIDMetadataSchema.dcRights,
+            BCIDMetadataSchema.dcIsReferencedBy};
+    private static final term[] PROPERTIES = {
+            BCIDMetadataSchema.dcTitle,
+            BCIDMetadataSchema.dcPublisher,
+            BCIDMetadataSchema.dcCreator,
+            BCIDMetadataSchema.dcDate,
+            BCIDMetadataSchema.dcSource,
+            BCIDMetadataSchema.bscSuffixPassthrough};
+
+    // The predicate of each statement, between the subject and the object, built once
+    private static final String[] RESOURCE_PREDICATE = new String[RESOURCES.length];
+    private static final String[] PROPERTY_PREDICATE = new String[PROPERTIES.length];
+
+    static {
+        for (int i = 0; i < RESOURCES.length; i++) {
+            RESOURCE_PREDICATE[i] = "> <" + RESOURCES[i].getFullKey() + "> <";
+        }
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            PROPERTY_PREDICATE[i] = "> <" + PROPERTIES[i].getFullKey() + "> \"";
+        }
+    }
+
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException {
+    }
+
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException {
+        // A data group without a web address has no identifier of its own, so is described by its prefix
+        String subject = identifier.identifier != null ? identifier.identifier.toString() :
+                metadata.get("datasetsPrefix");
+        if (subject == null) {
+            return;
+        }
+        for (int i = 0; i < RESOURCES.length; i++) {
+            String value = RESOURCES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                out.write('<');
+                writeIRI(out, subject);
+                out.write(RESOURCE_PREDICATE[i]);
+                writeIRI(out, value);
+                out.write("> .\n");
+            }
+        }
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            String value = PROPERTIES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                out.write('<');
+                writeIRI(out, subject);
+                out.write(PROPERTY_PREDICATE[i]);
+                writeLiteral(out, value);
+                out.write("\" .\n");
+            }
+        }
+    }
+
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException {
+    }
+
+    public void notFound(Writer out) throws IOException {
+        out.write("# identifier not found\n");
+    }
+
+    /**
+     * Write a value as the inside of an IRI, escaping the characters N-Triples and Turtle IRIs may not hold
+     */
+    static void writeIRI(Writer out, String value) throws IOException {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c > ' ' && c != '<' && c != '>' && c != '"' && c != '{' && c != '}' && c != '|' && c != '^' &&
+                    c != '`' && c != '\\') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            out.write(String.format("\\u%04X", (int) c));
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+    }
+
+    /**
+     * Write a value as the inside of an N-Triples or Turtle string literal, without the surrounding quotes
+     */
+    static void writeLiteral(Writer out, String value) throws IOException {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"':
+                    replacement = "\\\"";
+                    break;
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                default:
+                    continue;
+            }
+            out.write(value, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+    }
+}
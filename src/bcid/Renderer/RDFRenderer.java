@@ -1,78 +1,96 @@
 package bcid.Renderer;
 
+import bcid.BCIDMetadataSchema;
+import bcid.BCIDMetadataSchema.term;
+import bcid.GenericIdentifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
 /**
- * Renders a BCID as RDF.  This is for machine negotiation of an identifier
+ * Renders a BCID as RDF.  This is for machine negotiation of an identifier.  renderAll writes one rdf:RDF document
+ * holding an rdf:Description of each identifier.
  */
 public class RDFRenderer extends Renderer {
 
-    public void enter() {
-        outputSB.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-                "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n" +
-                "\txmlns:dc=\"http://purl.org/dc/elements/1.1/\"\n" +
-                "\txmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\"\n" +
-                "\txmlns:bsc=\"http://biscicol.org/terms/index.html#\"\n" +
-                "\txmlns:dcterms=\"http://purl.org/dc/terms/\">\n");
-        outputSB.append("<rdf:Description rdf:about=\"" + identifier.toString() + "\">\n");
-    }
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n" +
+            "\txmlns:dc=\"http://purl.org/dc/elements/1.1/\"\n" +
+            "\txmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\"\n" +
+            "\txmlns:bsc=\"http://biscicol.org/terms/index.html#\"\n" +
+            "\txmlns:dcterms=\"http://purl.org/dc/terms/\">\n";
+
+    // Written as rdf:resource attributes, then as elements, in this order
+    private static final term[] RESOURCES = {
+            BCIDMetadataSchema.resource,
+            BCIDMetadataSchema.dcMediator,
+            BCIDMetadataSchema.dcHasVersion,
+            BCIDMetadataSchema.dcIsPartOf,
+            BCIDMetadataSchema.dcRights,
+            BCIDMetadataSchema.dcIsReferencedBy};
+    private static final term[] PROPERTIES = {
+            BCIDMetadataSchema.dcTitle,
+            BCIDMetadataSchema.dcPublisher,
+            BCIDMetadataSchema.dcCreator,
+            BCIDMetadataSchema.dcDate,
+            BCIDMetadataSchema.dcSource,
+            BCIDMetadataSchema.bscSuffixPassthrough};
 
-    public void printMetadata() {
-        resourceAppender(resource);
-        resourceAppender(dcMediator);
-        resourceAppender(dcHasVersion);
-        resourceAppender(dcIsPartOf);
-        resourceAppender(dcRights);
-        resourceAppender(dcIsReferencedBy);
-        propertyAppender(dcTitle);
-        propertyAppender(dcPublisher);
-        propertyAppender(dcCreator);
-        propertyAppender(dcDate);
-        propertyAppender(dcSource);
-        propertyAppender(bscSuffixPassthrough);
+    // The markup around each value, built once
+    private static final String[] RESOURCE_OPEN = new String[RESOURCES.length];
+    private static final String[] PROPERTY_OPEN = new String[PROPERTIES.length];
+    private static final String[] PROPERTY_CLOSE = new String[PROPERTIES.length];
+
+    static {
+        for (int i = 0; i < RESOURCES.length; i++) {
+            RESOURCE_OPEN[i] = "\t<" + RESOURCES[i].getKey() + " rdf:resource=\"";
+        }
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            PROPERTY_OPEN[i] = "\t<" + PROPERTIES[i].getKey() + ">";
+            PROPERTY_CLOSE[i] = "</" + PROPERTIES[i].getKey() + ">\n";
+        }
     }
 
-    public void leave() {
-        outputSB.append("</rdf:Description>\n");
-        outputSB.append("</rdf:RDF>");
+    protected void startDocument(Writer out) throws IOException {
+        out.write(HEADER);
     }
 
-    public boolean validIdentifier() {
-        if (identifier == null) {
-            outputSB.append("identifier is null");
-            return false;
-        } else {
-            return true;
-        }
+    protected void endDocument(Writer out) throws IOException {
+        out.write("</rdf:RDF>");
     }
 
-    /**
-     * append the rdf:Resource
-     *
-     * @param map
-     */
-    private void resourceAppender(metadataElement map) {
-        if (map != null) {
-            if (!map.getValue().trim().equals("")) {
-                outputSB.append("\t<" + map.getKey() + " rdf:resource=\"" + map.getValue() + "\" />\n");
-            }
-        }
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException {
+        out.write("<rdf:Description rdf:about=\"");
+        writeXML(out, String.valueOf(identifier.identifier != null ? identifier.identifier : identifier));
+        out.write("\">\n");
     }
 
-    /**
-     * append each property
-     *
-     * @param map
-     */
-    private void propertyAppender(metadataElement map) {
-        //TODO should we silence this exception?
-        try {
-        if (map != null) {
-            if (!map.getValue().trim().equals("")) {
-                outputSB.append("\t<" + map.getKey() + ">" + map.getValue() + "</" + map.getKey() + ">\n");
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException {
+        for (int i = 0; i < RESOURCES.length; i++) {
+            String value = RESOURCES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                out.write(RESOURCE_OPEN[i]);
+                writeXML(out, value);
+                out.write("\" />\n");
             }
         }
-        } catch (Exception e) {
-            // fail silently
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            String value = PROPERTIES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                out.write(PROPERTY_OPEN[i]);
+                writeXML(out, value);
+                out.write(PROPERTY_CLOSE[i]);
+            }
         }
+    }
+
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException {
+        out.write("</rdf:Description>\n");
+    }
 
+    public void notFound(Writer out) throws IOException {
+        out.write("identifier is null");
     }
 }
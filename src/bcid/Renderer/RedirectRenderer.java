@@ -4,42 +4,47 @@ import bcid.GenericIdentifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URISyntaxException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
 /**
- * jsonRenderer renders objects as JSON
+ * RedirectRenderer renders an identifier's metadata as JSON pairs, followed by its resolution target
  */
 public class RedirectRenderer extends TextRenderer {
 
     private static Logger logger = LoggerFactory.getLogger(RedirectRenderer.class);
 
-    public void enter(GenericIdentifier identifier) {
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException {
     }
 
-    public void printMetadata(GenericIdentifier identifier) {
-        Iterator iterator = identifier.getMetadata().entrySet().iterator();
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException {
+        Iterator<Map.Entry<String, String>> iterator = metadata.entrySet().iterator();
         while (iterator.hasNext()) {
-            Map.Entry pairs = (Map.Entry) iterator.next();
-            outputSB.append("\"" + pairs.getKey() + "\":\"" + pairs.getValue() + "\"");
+            Map.Entry<String, String> pairs = iterator.next();
+            writeJSONString(out, pairs.getKey());
+            out.write(':');
+            writeJSONString(out, pairs.getValue());
             if (iterator.hasNext()) {
-                outputSB.append(",");
+                out.write(',');
             }
         }
         try {
-            outputSB.append(identifier.getResolutionTarget());
+            out.write(String.valueOf(identifier.getResolutionTarget()));
         } catch (URISyntaxException e) {
             //TODO should we silence this exception?
             logger.warn("URISyntaxException thrown", e);
         }
     }
 
-    public void leave(GenericIdentifier identifier) {
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException {
     }
 
-    public boolean validIdentifier(GenericIdentifier identifier)  {
-        return true;
+    public void notFound(Writer out) throws IOException {
     }
 
 }
@@ -1,16 +1,25 @@
 package bcid.Renderer;
 
-import bcid.BCIDMetadataSchema;
 import bcid.GenericIdentifier;
+import bcidExceptions.ServerErrorException;
+import org.apache.commons.io.output.StringBuilderWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
 
 /**
  * Abstract class Renderer implements the visitor methods
  * and controls all renderer subClasses for rendering bcids
+ * <p/>
+ * Output is written straight to a Writer, or to an OutputStream as UTF-8, rather than built up as a String, and
+ * any number of identifiers can be rendered as one document with renderAll.  A Renderer holds no state between
+ * calls, so one may be shared.  Subclasses escape every value they write for their format.
  */
-public abstract class Renderer extends BCIDMetadataSchema implements RendererInterface {
-    protected StringBuilder outputSB;
-
-    GenericIdentifier identifier = null;
+public abstract class Renderer implements RendererInterface {
 
     /**
      * render an Identifier
@@ -18,20 +27,218 @@ public abstract class Renderer extends BCIDMetadataSchema implements RendererInt
      * @return
      */
     public String render(GenericIdentifier identifier) {
-        this.identifier = identifier;
-
-        BCIDMetadataInit(identifier);
-        outputSB = new StringBuilder();
-
-        if (validIdentifier()) {
-            enter();
-            printMetadata();
-            leave();
-            return outputSB.toString();
-        } else {
-            return outputSB.toString();
+        StringBuilderWriter out = new StringBuilderWriter();
+        try {
+            render(identifier, out);
+        } catch (IOException e) {
+            // StringBuilderWriter doesn't throw
+            throw new ServerErrorException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * render an Identifier as a complete document
+     *
+     * @param identifier the identifier, or null to render this format's not found message
+     * @param out
+     *
+     * @throws IOException
+     */
+    public void render(GenericIdentifier identifier, Writer out) throws IOException {
+        if (identifier == null) {
+            notFound(out);
+            return;
+        }
+        startDocument(out);
+        renderOne(identifier, out);
+        endDocument(out);
+    }
+
+    /**
+     * render an Identifier as a complete document, in UTF-8
+     */
+    public void render(GenericIdentifier identifier, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        render(identifier, writer);
+        writer.flush();
+    }
+
+    /**
+     * render many Identifiers as one document, e.g. one RDF document or one JSON array.  Missing (null)
+     * identifiers are left out, except by formats that have a way of saying an item was not found.
+     *
+     * @param identifiers
+     * @param out
+     *
+     * @throws IOException
+     */
+    public void renderAll(Iterable<? extends GenericIdentifier> identifiers, Writer out) throws IOException {
+        startList(out);
+        boolean first = true;
+        for (GenericIdentifier identifier : identifiers) {
+            if (identifier == null && !listsNotFound()) {
+                continue;
+            }
+            if (!first) {
+                separate(out);
+            }
+            first = false;
+            if (identifier == null) {
+                notFound(out);
+            } else {
+                renderOne(identifier, out);
+            }
         }
+        endList(out);
+    }
+
+    /**
+     * render many Identifiers as one document, in UTF-8
+     */
+    public void renderAll(Iterable<? extends GenericIdentifier> identifiers, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        renderAll(identifiers, writer);
+        writer.flush();
     }
 
+    private void renderOne(GenericIdentifier identifier, Writer out) throws IOException {
+        // getMetadata may build the map on each call, so read it once
+        HashMap<String, String> metadata = identifier.getMetadata();
+        enter(identifier, out);
+        printMetadata(identifier, metadata, out);
+        leave(identifier, out);
+    }
+
+    /**
+     * Write whatever comes before the first identifier of a document
+     */
+    protected void startDocument(Writer out) throws IOException {
+    }
 
+    /**
+     * Write whatever comes after the last identifier of a document
+     */
+    protected void endDocument(Writer out) throws IOException {
+    }
+
+    /**
+     * Write whatever comes before the first identifier rendered by renderAll, by default startDocument
+     */
+    protected void startList(Writer out) throws IOException {
+        startDocument(out);
+    }
+
+    /**
+     * Write whatever comes after the last identifier rendered by renderAll, by default endDocument
+     */
+    protected void endList(Writer out) throws IOException {
+        endDocument(out);
+    }
+
+    /**
+     * Write whatever goes between two identifiers rendered by renderAll
+     */
+    protected void separate(Writer out) throws IOException {
+    }
+
+    /**
+     * @return true if renderAll should write notFound for a missing identifier, rather than leave it out
+     */
+    protected boolean listsNotFound() {
+        return false;
+    }
+
+    /**
+     * Write a value as XML (or HTML) character data or an attribute value.  Control characters XML does not allow
+     * are left out.
+     */
+    protected static void writeXML(Writer out, String value) throws IOException {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                        replacement = "";
+                        break;
+                    }
+                    continue;
+            }
+            out.write(value, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+    }
+
+    /**
+     * Write a value as the inside of a JSON string, without the surrounding quotes
+     */
+    protected static void writeJSON(Writer out, String value) throws IOException {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"':
+                    replacement = "\\\"";
+                    break;
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                case '\t':
+                    replacement = "\\t";
+                    break;
+                default:
+                    // Other control characters, and the line separators javascript does not allow in strings
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        replacement = String.format("\\u%04x", (int) c);
+                        break;
+                    }
+                    continue;
+            }
+            out.write(value, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+    }
+
+    /**
+     * Write a JSON string, quoted, or null
+     */
+    protected static void writeJSONString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        writeJSON(out, value);
+        out.write('"');
+    }
 }
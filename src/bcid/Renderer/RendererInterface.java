@@ -2,11 +2,14 @@ package bcid.Renderer;
 
 import bcid.GenericIdentifier;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
 /**
  * rendererInterface defines an interface for working with rendered identifiers .
  * Can enter an object, printMetadata, and leave.
- * These methods are meant to populate a class level variable in the
- * Renderer
+ * These methods write straight to the Writer the Renderer was given, so a renderer holds no output of its own.
  */
 public interface RendererInterface  {
 
@@ -14,22 +17,25 @@ public interface RendererInterface  {
     /**
      * Enter the genericIdentifier and render any information before looking at metadata
      */
-    public void enter();
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException;
 
     /**
      * Print an identifier's metadata
+     *
+     * @param metadata identifier.getMetadata(), read once by the Renderer
      */
-    public void printMetadata();
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException;
 
     /**
      * Leave the object and print any relevant closing information
      */
-    public void leave();
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException;
 
     /**
-     * Need to always check the identifier and provide a consistent method for returning
-     * error messages if it is bad.
+     * Need to always provide a consistent method for returning error messages if the identifier is bad.
+     * Called in place of enter, printMetadata and leave when there is no identifier.
      */
-    public boolean validIdentifier();
+    public void notFound(Writer out) throws IOException;
 
 }
@@ -2,7 +2,9 @@ package bcid.Renderer;
 
 import bcid.GenericIdentifier;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -10,29 +12,26 @@ import java.util.Map;
  */
 public class TextRenderer extends Renderer {
 
-
-    public void enter() {
-        outputSB.append("***" + identifier.getClass().getSimpleName() + "***\n");
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException {
+        out.write("***");
+        out.write(identifier.getClass().getSimpleName());
+        out.write("***\n");
     }
 
-    public void printMetadata() {
-        Iterator iterator = identifier.getMetadata().entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry pairs = (Map.Entry) iterator.next();
-            outputSB.append(pairs.getKey() + "=" + pairs.getValue() + "\n");
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException {
+        for (Map.Entry<String, String> pairs : metadata.entrySet()) {
+            out.write(pairs.getKey());
+            out.write('=');
+            out.write(String.valueOf(pairs.getValue()));
+            out.write('\n');
         }
     }
 
-    public void leave() {
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException {
     }
 
-    public boolean validIdentifier() {
-        if (identifier == null) {
-            outputSB.append("identifier is null");
-            return false;
-        } else {
-            return true;
-        }
-
+    public void notFound(Writer out) throws IOException {
+        out.write("identifier is null");
     }
 }
@@ -0,0 +1,102 @@
+package bcid.Renderer;
+
+import bcid.BCIDMetadataSchema;
+import bcid.BCIDMetadataSchema.term;
+import bcid.GenericIdentifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/**
+ * Renders a BCID as Turtle, with the statements RDFRenderer writes, using the same prefixes.  renderAll writes one
+ * document describing each identifier in turn.
+ */
+public class TurtleRenderer extends Renderer {
+
+    private static final String HEADER = "@prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> .\n" +
+            "@prefix dc: <http://purl.org/dc/elements/1.1/> .\n" +
+            "@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n" +
+            "@prefix bsc: <http://biscicol.org/terms/index.html#> .\n" +
+            "@prefix dcterms: <http://purl.org/dc/terms/> .\n";
+
+    // Written with IRI objects, then with literal objects, in this order
+    private static final term[] RESOURCES = {
+            BCIDMetadataSchema.resource,
+            BCIDMetadataSchema.dcMediator,
+            BCIDMetadataSchema.dcHasVersion,
+            BCIDMetadataSchema.dcIsPartOf,
+            BCIDMetadataSchema.dcRights,
+            BCIDMetadataSchema.dcIsReferencedBy};
+    private static final term[] PROPERTIES = {
+            BCIDMetadataSchema.dcTitle,
+            BCIDMetadataSchema.dcPublisher,
+            BCIDMetadataSchema.dcCreator,
+            BCIDMetadataSchema.dcDate,
+            BCIDMetadataSchema.dcSource,
+            BCIDMetadataSchema.bscSuffixPassthrough};
+
+    protected void startDocument(Writer out) throws IOException {
+        out.write(HEADER);
+    }
+
+    public void enter(GenericIdentifier identifier, Writer out) throws IOException {
+    }
+
+    public void printMetadata(GenericIdentifier identifier, HashMap<String, String> metadata, Writer out)
+            throws IOException {
+        // A data group without a web address has no identifier of its own, so is described by its prefix
+        String subject = identifier.identifier != null ? identifier.identifier.toString() :
+                metadata.get("datasetsPrefix");
+        if (subject == null) {
+            return;
+        }
+        boolean first = true;
+        for (int i = 0; i < RESOURCES.length; i++) {
+            String value = RESOURCES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                first = predicate(out, subject, RESOURCES[i], first);
+                out.write('<');
+                NTriplesRenderer.writeIRI(out, value);
+                out.write('>');
+            }
+        }
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            String value = PROPERTIES[i].nonBlankValue(identifier, metadata);
+            if (value != null) {
+                first = predicate(out, subject, PROPERTIES[i], first);
+                out.write('"');
+                NTriplesRenderer.writeLiteral(out, value);
+                out.write('"');
+            }
+        }
+        if (!first) {
+            out.write(" .\n");
+        }
+    }
+
+    /**
+     * Write the subject before the first statement, or end the previous statement, then the predicate
+     *
+     * @return false, as the next statement is not the first
+     */
+    private static boolean predicate(Writer out, String subject, term term, boolean first) throws IOException {
+        if (first) {
+            out.write("\n<");
+            NTriplesRenderer.writeIRI(out, subject);
+            out.write(">\n    ");
+        } else {
+            out.write(" ;\n    ");
+        }
+        out.write(term.getKey());
+        out.write(' ');
+        return false;
+    }
+
+    public void leave(GenericIdentifier identifier, Writer out) throws IOException {
+    }
+
+    public void notFound(Writer out) throws IOException {
+        out.write("# identifier not found\n");
+    }
+}
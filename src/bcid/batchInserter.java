@@ -0,0 +1,295 @@
+package bcid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Insert rows into a single table in batches, committing once every so many batches.
+ * <p/>
+ * When the connection rewrites batched statements (the mysql rewriteBatchedStatements property), each batch is
+ * sent as a JDBC batch of single row inserts, and the driver turns it into multi-row inserts.  Otherwise each batch
+ * is sent as one multi-row INSERT ... VALUES (?,..),(?,..) statement built here.
+ * <p/>
+ * The rows of the open transaction are held until it commits, so that if a batch fails with a deadlock or lock wait
+ * timeout the transaction is rolled back and replayed.  A lost connection is not retried, as the connection belongs
+ * to the caller and replaying on it would only fail again.  Rows already committed by earlier transactions are kept
+ * when a later transaction fails.
+ * <p/>
+ * Settings, all optional:
+ * bcidInsertBatchSize (rows per batch), bcidInsertBatchesPerCommit (batches per transaction),
+ * bcidInsertRetries (times a failed transaction is replayed).
+ */
+public class batchInserter<T> {
+
+    private static Logger logger = LoggerFactory.getLogger(batchInserter.class);
+
+    /**
+     * Sets the values of one row on an insert statement
+     */
+    public interface rowBinder<T> {
+        /**
+         * @param stmt   the statement to bind to
+         * @param offset the parameter index of this row's first column
+         * @param row    the row to bind
+         *
+         * @throws SQLException
+         */
+        void bind(PreparedStatement stmt, int offset, T row) throws SQLException;
+    }
+
+    private final Connection conn;
+    private final String table;
+    private final String[] columns;
+    private final rowBinder<T> binder;
+
+    private int batchSize;
+    private int batchesPerCommit;
+    private int maxRetries;
+    private Boolean rewriteBatchedStatements;
+
+    private PreparedStatement fullBatchStatement;
+    private PreparedStatement singleRowStatement;
+
+    private long rowCount;
+    private long batchCount;
+    private long commitCount;
+    private long retryCount;
+
+    /**
+     * Create a batchInserter configured from bcidsettings.props.  Unless setRewriteBatchedStatements is called, the
+     * connection is taken to be one of the connection pool's, and rewrites batched statements if the pool's do.
+     *
+     * @param conn    the connection to insert on, as held by a bcid.database
+     * @param table   the table to insert into
+     * @param columns the columns each row sets, in the order the binder sets them
+     * @param binder
+     */
+    public batchInserter(Connection conn, String table, String[] columns, rowBinder<T> binder) {
+        this.conn = conn;
+        this.table = table;
+        this.columns = columns;
+        this.binder = binder;
+
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        setBatchSize(sm.retrieveInt("bcidInsertBatchSize", 1000));
+        setBatchesPerCommit(sm.retrieveInt("bcidInsertBatchesPerCommit", 10));
+        setMaxRetries(sm.retrieveInt("bcidInsertRetries", 2));
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setBatchesPerCommit(int batchesPerCommit) {
+        this.batchesPerCommit = Math.max(1, batchesPerCommit);
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * @param rewriteBatchedStatements true only if the connection was opened with rewriteBatchedStatements=true;
+     *                                 without it a JDBC batch is sent to mysql one row at a time
+     */
+    public void setRewriteBatchedStatements(boolean rewriteBatchedStatements) {
+        this.rewriteBatchedStatements = Boolean.valueOf(rewriteBatchedStatements);
+    }
+
+    /**
+     * Insert all of the given rows.  The connection's autocommit setting is restored when done.
+     *
+     * @param rows
+     *
+     * @return the number of rows inserted
+     *
+     * @throws SQLException if a batch fails with a non-transient error, or still fails after retrying; the open
+     *                      transaction is rolled back
+     */
+    public long insert(Iterator<? extends T> rows) throws SQLException {
+        if (rewriteBatchedStatements == null) {
+            rewriteBatchedStatements = connectionPool.getInstance().isRewriteBatchedStatements();
+        }
+        long inserted = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            ArrayList<T> transaction = new ArrayList<T>(batchSize * batchesPerCommit);
+            while (rows.hasNext()) {
+                transaction.add(rows.next());
+                if (transaction.size() == batchSize * batchesPerCommit) {
+                    inserted += commit(transaction);
+                    transaction.clear();
+                }
+            }
+            if (!transaction.isEmpty()) {
+                inserted += commit(transaction);
+            }
+        } finally {
+            close();
+            try {
+                conn.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                logger.warn("SQLException thrown while trying to restore autoCommit.", e);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Write one transaction's worth of rows, batchSize at a time, and commit, replaying the whole transaction if a
+     * batch fails with a transient error
+     */
+    private int commit(ArrayList<T> transaction) throws SQLException {
+        int attempt = 0;
+        while (true) {
+            try {
+                for (int from = 0; from < transaction.size(); from += batchSize) {
+                    executeBatch(transaction, from, Math.min(from + batchSize, transaction.size()));
+                }
+                conn.commit();
+                commitCount++;
+                rowCount += transaction.size();
+                return transaction.size();
+            } catch (SQLException e) {
+                rollback();
+                if (attempt >= maxRetries || !isTransient(e)) {
+                    throw e;
+                }
+                attempt++;
+                retryCount++;
+                logger.warn("Retrying insert of {} rows into {} (attempt {} of {})", transaction.size(), table,
+                        attempt, maxRetries, e);
+            }
+        }
+    }
+
+    private void executeBatch(ArrayList<T> rows, int from, int to) throws SQLException {
+        int size = to - from;
+        if (rewriteBatchedStatements) {
+            if (singleRowStatement == null) {
+                singleRowStatement = conn.prepareStatement(formatSQL(1));
+            }
+            for (int i = from; i < to; i++) {
+                binder.bind(singleRowStatement, 1, rows.get(i));
+                singleRowStatement.addBatch();
+            }
+            singleRowStatement.executeBatch();
+        } else {
+            PreparedStatement stmt;
+            if (size == batchSize) {
+                if (fullBatchStatement == null) {
+                    fullBatchStatement = conn.prepareStatement(formatSQL(batchSize));
+                }
+                stmt = fullBatchStatement;
+            } else {
+                // Only the final batch of an insert is short
+                stmt = conn.prepareStatement(formatSQL(size));
+            }
+            try {
+                int offset = 1;
+                for (int i = from; i < to; i++) {
+                    binder.bind(stmt, offset, rows.get(i));
+                    offset += columns.length;
+                }
+                stmt.executeUpdate();
+                stmt.clearParameters();
+            } finally {
+                if (stmt != fullBatchStatement) {
+                    stmt.close();
+                }
+            }
+        }
+        batchCount++;
+    }
+
+    /**
+     * Deadlocks and lock wait timeouts are worth retrying on the same connection; lost connections (SQLState class
+     * 08), constraint violations and bad SQL are not
+     */
+    private boolean isTransient(SQLException e) {
+        if (e instanceof SQLTransientConnectionException) {
+            return false;
+        }
+        if (e instanceof SQLTransientException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("40") || e.getErrorCode() == 1205);
+    }
+
+    private void rollback() {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            logger.warn("SQLException thrown while trying to rollback.", e);
+        }
+        if (singleRowStatement != null) {
+            try {
+                singleRowStatement.clearBatch();
+            } catch (SQLException e) {
+                logger.warn("SQLException thrown while trying to clear batch.", e);
+            }
+        }
+    }
+
+    private void close() {
+        try {
+            if (fullBatchStatement != null) fullBatchStatement.close();
+            if (singleRowStatement != null) singleRowStatement.close();
+        } catch (SQLException e) {
+            logger.warn("SQLException thrown while trying to close statements.", e);
+        }
+        fullBatchStatement = null;
+        singleRowStatement = null;
+    }
+
+    /**
+     * @param rowcount
+     *
+     * @return an INSERT statement with a VALUES list for rowcount rows
+     */
+    private String formatSQL(int rowcount) {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++) {
+            row.append(i == 0 ? "?" : ",?");
+        }
+        row.append(")");
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(") values ").append(row);
+        for (int i = 1; i < rowcount; i++) {
+            sql.append(",").append(row);
+        }
+        return sql.toString();
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+}
@@ -1,5 +1,6 @@
 package bcid;
 
+import bcidExceptions.ServerErrorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.SettingsManager;
@@ -61,8 +62,7 @@ public class bcid extends GenericIdentifier {
      * @param datasets_id
      */
     public bcid(Integer datasets_id) {
-        dataGroupMinter dataset = setDatasets_id(datasets_id);
-        dataset.close();
+        setDatasets_id(datasets_id);
     }
 
 
@@ -73,18 +73,17 @@ public class bcid extends GenericIdentifier {
      * @param dataset_id
      */
     public bcid(String sourceID, Integer dataset_id) {
-        dataGroupMinter dataset = setDatasets_id(dataset_id);
+        datasetMetadata dataset = setDatasets_id(dataset_id);
         try {
             if (sourceID != null && !sourceID.equals("")) {
-                identifier = new URI(dataset.identifier + sm.retrieveValue("divider") + sourceID);
+                identifier = new URI(dataset.getIdentifier() + sm.retrieveValue("divider") + sourceID);
             } else {
-                identifier = dataset.identifier;
+                identifier = dataset.getIdentifier();
             }
         } catch (URISyntaxException e) {
             //TODO should we silence this exception?
             logger.warn("URISyntaxException thrown", e);
         }
-        dataset.close();
     }
 
     /**
@@ -96,18 +95,18 @@ public class bcid extends GenericIdentifier {
      * @param dataset_id
      */
     public bcid(String sourceID, URI webAddress, Integer dataset_id) {
-        dataGroupMinter dataset = setDatasets_id(dataset_id);
+        datasetMetadata dataset = setDatasets_id(dataset_id);
         this.webAddress = webAddress;
         try {
             if (sourceID != null && !sourceID.equals("")) {
-                identifier = new URI(dataset.identifier + sm.retrieveValue("divider") + sourceID);
+                identifier = new URI(dataset.getIdentifier() + sm.retrieveValue("divider") + sourceID);
             } else {
-                identifier = dataset.identifier;
+                identifier = dataset.getIdentifier();
             }
-            projectCode = dataset.getProject(dataset_id);
+            projectCode = dataset.getProjectCode();
         } catch (URISyntaxException e) {
             //TODO should we silence this exception?
-            logger.warn("URISyntaxException for uri: {}", dataset.identifier + sm.retrieveValue("divider") + sourceID, e);
+            logger.warn("URISyntaxException for uri: {}", dataset.getIdentifier() + sm.retrieveValue("divider") + sourceID, e);
         }
         // Reformat webAddress in this constructor if there is a sourceID
         if (sourceID != null && webAddress != null && !sourceID.toString().trim().equals("") && !webAddress.toString().trim().equals("")) {
@@ -119,7 +118,23 @@ public class bcid extends GenericIdentifier {
                 logger.warn("URISyntaxException for uri: {}", webAddress + sourceID, e);
             }
         }
-        dataset.close();
+    }
+
+
+    /**
+     * Create the identifier the resolver shows metadata for, given a source identifier and its dataset, already
+     * loaded, e.g. by datasetCache.getAll.  As resolver.getMetadataIdentifier does, this is the data group unless the
+     * dataset has a web address to resolve the source identifier against.
+     *
+     * @param sourceID
+     * @param dataset
+     */
+    bcid(String sourceID, datasetMetadata dataset) {
+        setDataset(dataset);
+        if (sourceID != null && webAddress != null) {
+            setSourceID(sourceID, dataset);
+            projectCode = dataset.getProjectCode();
+        }
     }
 
 
@@ -187,12 +202,12 @@ public class bcid extends GenericIdentifier {
      *
      * @param sourceID
      */
-    private void setSourceID(String sourceID, dataGroupMinter dataset) {
+    private void setSourceID(String sourceID, datasetMetadata dataset) {
         try {
             if (sourceID != null && !sourceID.equals("")) {
-                identifier = new URI(dataset.identifier + sm.retrieveValue("divider") + sourceID);
+                identifier = new URI(dataset.getIdentifier() + sm.retrieveValue("divider") + sourceID);
             } else {
-                identifier = dataset.identifier;
+                identifier = dataset.getIdentifier();
             }
         } catch (URISyntaxException e) {
             //TODO should we silence this exception?
@@ -216,7 +231,7 @@ public class bcid extends GenericIdentifier {
      *
      * @param pDatasets_id
      */
-    private dataGroupMinter setDatasets_id(Integer pDatasets_id) {
+    private datasetMetadata setDatasets_id(Integer pDatasets_id) {
         /*  try {
           database db = new database();
           Statement stmt = db.conn.createStatement();
@@ -263,29 +278,38 @@ public class bcid extends GenericIdentifier {
       }  */
 
 
-        // Create a dataset representation based on the dataset_id
-        dataGroupMinter dataset = new dataGroupMinter(pDatasets_id);
+        // Look up the dataset representation based on the dataset_id
+        datasetMetadata dataset = datasetCache.getInstance().get(pDatasets_id);
+        if (dataset == null) {
+            throw new ServerErrorException("Server Error", "No dataset found for datasetId: " + pDatasets_id);
+        }
+        setDataset(dataset);
+        return dataset;
+    }
+
+    /**
+     * Internal function for copying a dataset's metadata into this bcid
+     *
+     * @param dataset
+     */
+    private void setDataset(datasetMetadata dataset) {
         //when =  new dates().now();
-        when = dataset.ts;
+        when = dataset.getTs();
 
         this.webAddress = dataset.getWebAddress();
-        this.dataset_id = pDatasets_id;
+        this.dataset_id = dataset.getDatasets_id();
         this.what = dataset.getResourceType();
-        this.title = dataset.title;
-        this.projectCode = dataset.projectCode;
-        this.datasetsTs = dataset.ts;
+        this.title = dataset.getTitle();
+        this.datasetsTs = dataset.getTs();
         this.datasetsPrefix = dataset.getPrefix();
-        this.doi = dataset.doi;
+        this.doi = dataset.getDoi();
         this.level = this.UNREGISTERED_ELEMENT;
-        this.who = dataset.who;
+        this.who = dataset.getWho();
         identifiersEzidRequest = false;
         identifiersEzidMade = false;
-        datasetsEzidMade = dataset.ezidMade;
-        datasetsEzidRequest = dataset.ezidRequest;
+        datasetsEzidMade = dataset.isEzidMade();
+        datasetsEzidRequest = dataset.isEzidRequest();
         datasetsSuffixPassthrough = dataset.getSuffixPassThrough();
-
-        return dataset;
-
     }
 
     /**
@@ -0,0 +1,599 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of JDBC connections to the backend bcid database, shared by every bcid.database instance.
+ * Connections are handed out wrapped in a proxy whose close() method returns the physical connection
+ * to the pool instead of closing it, so the existing database.close() calls keep working unchanged.
+ * <p/>
+ * The pool is configured from the bcidsettings.props file:
+ * <ul>
+ * <li>bcidPoolMinSize: connections kept open even when idle (default 2)</li>
+ * <li>bcidPoolMaxSize: maximum connections handed out at one time (default 20)</li>
+ * <li>bcidPoolBorrowTimeout: milliseconds to wait for a free connection before failing (default 10000)</li>
+ * <li>bcidPoolValidationQuery: query used to test an idle connection before handing it out (default SELECT 1)</li>
+ * <li>bcidPoolValidationInterval: only validate connections idle for longer than this many milliseconds (default 30000)</li>
+ * <li>bcidPoolIdleTimeout: close connections above the minimum that have been idle this many milliseconds (default 600000)</li>
+ * <li>bcidPoolEvictionInterval: milliseconds between eviction and leak detection runs (default 30000)</li>
+ * <li>bcidPoolLeakThreshold: log a warning, with the borrowing stack, for connections held longer than this many
+ * milliseconds (default 60000, 0 disables)</li>
+ * <li>bcidPoolRemoveAbandoned: when true, connections held past bcidPoolAbandonedTimeout are reclaimed and the
+ * borrowing stack logged (default true)</li>
+ * <li>bcidPoolAbandonedTimeout: milliseconds a connection may be held before it is reclaimed as abandoned; at least
+ * the leak threshold, and short enough that a few leaks do not hold every permit for long (default 300000)</li>
+ * </ul>
+ * A connection goes back to the pool as it came out of it: an open transaction is rolled back, and autocommit, read
+ * only, catalog and transaction isolation are restored if the borrower changed them.
+ */
+public class connectionPool {
+    private static connectionPool instance = null;
+    private static Logger logger = LoggerFactory.getLogger(connectionPool.class);
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final String validationQuery;
+    private final long validationInterval;
+    private final long idleTimeout;
+    private final long leakThreshold;
+    private final boolean removeAbandoned;
+    private final long abandonedTimeout;
+    private final boolean rewriteBatchedStatements;
+
+    // Most recently returned connections sit at the head, so eviction can work from the tail
+    private final LinkedBlockingDeque<pooledConnection> idle = new LinkedBlockingDeque<pooledConnection>();
+    private final Set<pooledConnection> borrowed =
+            Collections.newSetFromMap(new ConcurrentHashMap<pooledConnection, Boolean>());
+    private final Semaphore permits;
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+
+    // Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeoutCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong abandonedCount = new AtomicLong();
+
+    /**
+     * Get the pool shared by this application, creating it from the bcidsettings.props file on first use.
+     *
+     * @return the shared connectionPool
+     */
+    public static synchronized connectionPool getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new connectionPool(sm);
+        }
+        return instance;
+    }
+
+    /**
+     * Close the shared pool, if one has been created.  Called when the web application is shut down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    private connectionPool(SettingsManager sm) {
+        url = sm.retrieveValue("bcidUrl");
+        user = sm.retrieveValue("bcidUser");
+        password = sm.retrieveValue("bcidPassword");
+
+        try {
+            Class.forName(sm.retrieveValue("bcidClass"));
+        } catch (ClassNotFoundException e) {
+            throw new ServerErrorException("Server Error", "Driver issues accessing BCID system", e);
+        }
+
+        maxSize = Math.max(1, sm.retrieveInt("bcidPoolMaxSize", 20));
+        minSize = Math.min(maxSize, Math.max(0, sm.retrieveInt("bcidPoolMinSize", 2)));
+        borrowTimeout = sm.retrieveLong("bcidPoolBorrowTimeout", 10000);
+        validationQuery = sm.retrieveValue("bcidPoolValidationQuery", "SELECT 1").trim();
+        validationInterval = sm.retrieveLong("bcidPoolValidationInterval", 30000);
+        idleTimeout = sm.retrieveLong("bcidPoolIdleTimeout", 600000);
+        leakThreshold = sm.retrieveLong("bcidPoolLeakThreshold", 60000);
+        removeAbandoned = sm.retrieveBoolean("bcidPoolRemoveAbandoned", true);
+        abandonedTimeout = Math.max(leakThreshold, sm.retrieveLong("bcidPoolAbandonedTimeout", 300000));
+        rewriteBatchedStatements = url.contains("rewriteBatchedStatements=true") ||
+                sm.retrieveBoolean("bcidRewriteBatchedStatements", false);
+        long evictionInterval = Math.max(1000, sm.retrieveLong("bcidPoolEvictionInterval", 30000));
+
+        permits = new Semaphore(maxSize, true);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-connection-pool");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    maintain();
+                } catch (RuntimeException e) {
+                    logger.warn("Exception during connection pool maintenance.", e);
+                }
+            }
+        }, 0, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool.  Closing the returned connection hands it back to the pool.
+     *
+     * @return a pooled Connection
+     * @throws SQLException if no connection could be obtained within the borrow timeout
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The bcid connection pool has been shut down");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a bcid database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        borrowWaitNanos.addAndGet(waited);
+        updateMax(maxBorrowWaitNanos, waited);
+
+        if (!acquired) {
+            borrowTimeoutCount.incrementAndGet();
+            throw new SQLException("Timed out after " + borrowTimeout + " ms waiting for a bcid database connection " +
+                    "(" + toString() + ")");
+        }
+
+        try {
+            pooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (validate(pc)) {
+                    break;
+                }
+                destroy(pc);
+            }
+            if (pc == null) {
+                pc = create();
+            }
+
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrowedBy = leakThreshold > 0 || removeAbandoned ? new Throwable("Connection borrowed here") : null;
+            pc.leakReported = false;
+            pc.handle = new connectionHandle(pc);
+            borrowed.add(pc);
+            borrowCount.incrementAndGet();
+
+            return (Connection) Proxy.newProxyInstance(
+                    connectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    pc.handle);
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return a borrowed connection, resetting any transaction state left over by the borrower.
+     *
+     * @param pc
+     */
+    private void giveBack(pooledConnection pc) {
+        if (!borrowed.remove(pc)) {
+            // Already reclaimed as abandoned
+            return;
+        }
+        try {
+            Connection c = pc.connection;
+            if (closed || c.isClosed()) {
+                destroy(pc);
+                return;
+            }
+            if (!c.getAutoCommit()) {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+            if (pc.handle.changedSession) {
+                reset(pc);
+            }
+            c.clearWarnings();
+            pc.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pc);
+        } catch (SQLException e) {
+            logger.warn("SQLException while returning a connection to the pool, discarding it.", e);
+            destroy(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Put back the session settings a borrower changed, as they were when the connection was opened
+     */
+    private void reset(pooledConnection pc) throws SQLException {
+        Connection c = pc.connection;
+        if (c.isReadOnly() != pc.readOnly) {
+            c.setReadOnly(pc.readOnly);
+        }
+        String catalog = c.getCatalog();
+        if (pc.catalog != null && !pc.catalog.equals(catalog)) {
+            c.setCatalog(pc.catalog);
+        }
+        if (c.getTransactionIsolation() != pc.transactionIsolation) {
+            c.setTransactionIsolation(pc.transactionIsolation);
+        }
+    }
+
+    private pooledConnection create() throws SQLException {
+        Properties info = new Properties();
+        info.setProperty("user", user);
+        info.setProperty("password", password);
+        if (rewriteBatchedStatements) {
+            // Lets the mysql driver send a JDBC batch of single row inserts as one multi-row insert
+            info.setProperty("rewriteBatchedStatements", "true");
+        }
+        pooledConnection pc = new pooledConnection(DriverManager.getConnection(url, info));
+        createdCount.incrementAndGet();
+        return pc;
+    }
+
+    private void destroy(pooledConnection pc) {
+        destroyedCount.incrementAndGet();
+        try {
+            pc.connection.close();
+        } catch (SQLException e) {
+            logger.warn("SQLException while attempting to close pooled connection.", e);
+        }
+    }
+
+    /**
+     * Check that an idle connection is still usable.  Connections used recently are trusted without a round trip.
+     *
+     * @param pc
+     * @return true if the connection can be handed out
+     */
+    private boolean validate(pooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < validationInterval) {
+            return true;
+        }
+        Statement stmt = null;
+        try {
+            if (validationQuery.equals("")) {
+                if (pc.connection.isValid(5)) {
+                    return true;
+                }
+            } else {
+                stmt = pc.connection.createStatement();
+                stmt.setQueryTimeout(5);
+                stmt.execute(validationQuery);
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.info("Pooled connection failed validation, discarding it.", e);
+        } finally {
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    logger.warn("SQLException while attempting to close validation Statement.", e);
+                }
+            }
+        }
+        validationFailureCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Periodic housekeeping: report (and optionally reclaim) leaked connections, evict connections that have been
+     * idle too long, and top the pool back up to its minimum size.
+     */
+    private void maintain() {
+        long now = System.currentTimeMillis();
+
+        for (pooledConnection pc : borrowed) {
+            long held = now - pc.borrowedAt;
+            if (leakThreshold > 0 && held >= leakThreshold && !pc.leakReported) {
+                pc.leakReported = true;
+                leakCount.incrementAndGet();
+                logger.warn("Connection held for " + held + " ms, possible connection leak.", pc.borrowedBy);
+            }
+            if (removeAbandoned && held >= abandonedTimeout && borrowed.remove(pc)) {
+                abandonedCount.incrementAndGet();
+                logger.warn("Connection held for " + held + " ms, reclaiming it as abandoned.", pc.borrowedBy);
+                pc.handle.invalidate();
+                destroy(pc);
+                permits.release();
+            }
+        }
+
+        Iterator<pooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && size() > minSize) {
+            pooledConnection pc = it.next();
+            if (now - pc.lastUsed >= idleTimeout && idle.removeLastOccurrence(pc)) {
+                destroy(pc);
+            }
+        }
+
+        while (!closed && size() < minSize) {
+            try {
+                pooledConnection pc = create();
+                pc.lastUsed = System.currentTimeMillis();
+                idle.offerLast(pc);
+            } catch (SQLException e) {
+                logger.warn("SQLException while filling connection pool to its minimum size.", e);
+                break;
+            }
+        }
+    }
+
+    private void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        pooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+        logger.info("bcid connection pool shut down: " + toString());
+    }
+
+    /**
+     * @return true if pooled connections are opened with the mysql rewriteBatchedStatements property, either from
+     * the bcidUrl or the bcidRewriteBatchedStatements setting
+     */
+    public boolean isRewriteBatchedStatements() {
+        return rewriteBatchedStatements;
+    }
+
+    /**
+     * @return the number of open physical connections, idle or borrowed
+     */
+    public int size() {
+        return idle.size() + borrowed.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getBorrowTimeoutCount() {
+        return borrowTimeoutCount.get();
+    }
+
+    /**
+     * @return the mean time, in milliseconds, callers waited for a connection
+     */
+    public double getMeanBorrowWaitMillis() {
+        long count = borrowCount.get() + borrowTimeoutCount.get();
+        return count == 0 ? 0 : borrowWaitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxBorrowWaitMillis() {
+        return maxBorrowWaitNanos.get() / 1e6;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * @return the number of connections reclaimed because they were held past bcidPoolAbandonedTimeout
+     */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
+    public String toString() {
+        return "active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", max=" + maxSize +
+                ", borrowed=" + getBorrowCount() +
+                ", borrowTimeouts=" + getBorrowTimeoutCount() +
+                ", meanWaitMs=" + String.format("%.3f", getMeanBorrowWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxBorrowWaitMillis()) +
+                ", created=" + getCreatedCount() +
+                ", destroyed=" + getDestroyedCount() +
+                ", validationFailures=" + getValidationFailureCount() +
+                ", leaks=" + getLeakCount() +
+                ", abandoned=" + getAbandonedCount();
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A physical connection along with its bookkeeping
+     */
+    private static class pooledConnection {
+        final Connection connection;
+        // The session settings the connection was opened with, restored when a borrower has changed them
+        final boolean readOnly;
+        final String catalog;
+        final int transactionIsolation;
+        volatile long lastUsed;
+        volatile long borrowedAt;
+        volatile Throwable borrowedBy;
+        volatile boolean leakReported;
+        volatile connectionHandle handle;
+
+        pooledConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.readOnly = connection.isReadOnly();
+            this.catalog = connection.getCatalog();
+            this.transactionIsolation = connection.getTransactionIsolation();
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The borrower's view of a pooled connection.  A new handle is created for every borrow so that a stale
+     * reference closed twice can never hand back a connection that has since been lent to someone else.
+     * Statements created through the handle and still open are closed when it is returned; those the borrower
+     * closes itself are let go of as more are created, so a connection used for many statements does not hold on to
+     * them all.
+     */
+    private class connectionHandle implements InvocationHandler {
+        private static final int MIN_SWEEP = 16;
+
+        private final pooledConnection pc;
+        private final List<Statement> statements = new ArrayList<Statement>();
+        // The size the statement list may grow to before closed statements are dropped from it
+        private int sweepAt = MIN_SWEEP;
+        private volatile boolean released = false;
+        // Set once the borrower calls a setter that changes the session, which giveBack then resets
+        volatile boolean changedSession = false;
+
+        connectionHandle(pooledConnection pc) {
+            this.pc = pc;
+        }
+
+        void invalidate() {
+            released = true;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!released) {
+                    released = true;
+                    closeStatements();
+                    giveBack(pc);
+                }
+                return null;
+            } else if (name.equals("isClosed")) {
+                return released || pc.connection.isClosed();
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Pooled " + pc.connection.toString();
+            }
+
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (name.equals("setReadOnly") || name.equals("setCatalog") || name.equals("setTransactionIsolation")) {
+                changedSession = true;
+            }
+
+            Object result;
+            try {
+                result = method.invoke(pc.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement) {
+                synchronized (statements) {
+                    if (statements.size() >= sweepAt) {
+                        sweepClosedStatements();
+                    }
+                    statements.add((Statement) result);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Drop the statements the borrower has closed.  The next sweep waits until the list has doubled again, so
+         * the cost of sweeping stays in proportion to the statements created.
+         */
+        private void sweepClosedStatements() {
+            Iterator<Statement> it = statements.iterator();
+            while (it.hasNext()) {
+                try {
+                    if (it.next().isClosed()) {
+                        it.remove();
+                    }
+                } catch (SQLException e) {
+                    it.remove();
+                }
+            }
+            sweepAt = Math.max(MIN_SWEEP, statements.size() * 2);
+        }
+
+        private void closeStatements() {
+            synchronized (statements) {
+                for (Statement stmt : statements) {
+                    try {
+                        stmt.close();
+                    } catch (SQLException e) {
+                        logger.warn("SQLException while attempting to close Statement.", e);
+                    }
+                }
+                statements.clear();
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package bcid;
 
-import com.ibm.icu.math.BigDecimal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,82 +18,55 @@ import java.util.HashMap;
  * 4 letters and 1 digit will give 74,549,800 possible permutations.
  */
 public class dataGroupEncoder extends GenericIdentifier implements encoder {
-    private boolean debug = false;
     int[] endDigits = {1};
 
     private static Logger logger = LoggerFactory.getLogger(dataGroupEncoder.class);
 
     /**
-     * Tell if DEBUG mode is on or off
-     *
-     * @return
-     */
-    public boolean isDebug() {
-        return debug;
-    }
-
-    /**
-     * Set DEBUG mode on or off, default is off
+     * Encode a dataset value
      *
-     * @param debug
+     * @param i pass in a BigInteger
+     * @return returns the encoded String
      */
-    public void setDebug(boolean debug) {
-        this.debug = debug;
+    public String encode(BigInteger i) {
+        return encode(i.longValue());
     }
 
     /**
-     * Encode a dataset value
+     * Encode a dataset value.  Values needing k letters are numbered in order after all of the values needing
+     * fewer letters, so the letters are the base 51 digits of the value's place in that run, giving an encoding
+     * of: A2, B2, ... z2, AA2, AB2, etc...
      *
-     * @param i pass in a BigInteger
+     * @param value the datasets_id; values below 1 have no letters and encode, as they always have, as "2"
      * @return returns the encoded String
      */
-    public String encode(BigInteger i) {
-
+    public static String encode(long value) {
         // First spot is test dataset!
-        if (i.intValue() == 1) {
+        if (value == 1) {
             return "fk4";
         }
+        if (value < 1) {
+            logger.warn("Encoding {}, which is not a dataset value, as a shoulder without letters", value);
+            return "2";
+        }
+        if (value > offsets[offsets.length - 1]) {
+            throw new IllegalArgumentException("Unable to encode " + value + " as a dataset shoulder");
+        }
 
-        String results = "";
-        int largeNumber = i.intValue();
         // Calculate the number of characters are required to encode this number
-        int numCharactersPositionstoEncode = numCharactersPositionstoEncode(largeNumber);
-
-        if (debug) {
-            int possAtCharPosition = optionsAtPosition(numCharactersPositionstoEncode);
-            int sumPossAtPreviousCharPositions = optionsAtPreviousPositions(numCharactersPositionstoEncode);
-            int totalPossibilities = sumPossAtPreviousCharPositions + possAtCharPosition;
-            System.out.println("Integer to encode=" + i);
-            System.out.println("# Character positions required to encode = " + numCharactersPositionstoEncode);
-            System.out.println("# Possibilities for last set: " + possAtCharPosition);
-            System.out.println("# Possibilities for 0 to (n-1) positions: " + sumPossAtPreviousCharPositions);
-            System.out.println("# Total possibilities: " + totalPossibilities);
+        int positions = 1;
+        while (value > offsets[positions]) {
+            positions++;
         }
+        long selector = value - offsets[positions - 1] - 1;
 
-        // The selector tells us where to start our counts for character insertions
-        int selectorForCurrentPosition = largeNumber - optionsAtPreviousPositions(numCharactersPositionstoEncode);
-
-        // Fill characters by looping each position
-        // We run the loop from the last position going to the first position, calculating possibilities at each position
-        // The characters are appended from first to last (opposite of our probability calculation)
-        // This gives an encoding output of: aaa, aab, aac, aba, abb, abc, etc...
-        for (int k = numCharactersPositionstoEncode; k > 0; k--) {
-            // Calculate the number of possibilities in this position, which is
-            Double possibilitiesPerIncrement = new Double(optionsAtPosition(k) / this.chars.length);
-            // The position indicates how far down the character stack we search to fill in the appropriate character
-            int position = ceilingAsArrayPosition(selectorForCurrentPosition / possibilitiesPerIncrement);
-            // Start appending character to output
-            try {
-                results += this.chars[position];
-            } catch (ArrayIndexOutOfBoundsException e) {
-                logger.warn("Increment = " + i + ", position = " + position + ", selector=" + selectorForCurrentPosition + ", possperincrement =" + possibilitiesPerIncrement);
-            }
-
-            // Update selector for current Position
-            selectorForCurrentPosition = ((Double) (selectorForCurrentPosition - (possibilitiesPerIncrement * position))).intValue();
+        char[] results = new char[positions + 1];
+        for (int k = positions - 1; k >= 0; k--) {
+            results[k] = chars[(int) (selector % chars.length)];
+            selector /= chars.length;
         }
-
-        return results + "2";
+        results[positions] = '2';
+        return new String(results);
     }
 
 
@@ -105,110 +77,65 @@ public class dataGroupEncoder extends GenericIdentifier implements encoder {
      * @return BigInteger representation of this code
      */
     public BigInteger decode(String entireString) {
-        String shoulder = null;
-        String naan = null;
-        String scheme = null;
-
-        // Check to see if this is an entire ARK.  If so, we only want the second section, the shoulder itself
-        if (entireString.contains("/")) {
-            String[] strArray = entireString.split("/");
-            if (strArray.length > 2) {
-                scheme = strArray[0];
-                naan = strArray[1];
-                shoulder = strArray[2];
-
-                // Look and see if this is the test dataset
-                try {
-                    if (naan.equals("99999") && shoulder.equals("fk4")) {
-                        return new BigInteger("1");
-                    }
-                } catch (NullPointerException e) {
-                    // do nothing we're OK
-                }
-            } else  {
-               return null;
-            }
-        } else {
-            shoulder = entireString;
-        }
-
-        // Convert the shoulder/text representation to a BigInteger
-        int numCharactersPositionstoDecode = shoulder.length() - 1;
-        Integer decodedInt = 0;
-        int j = numCharactersPositionstoDecode;
-        // Loop each position and sum the character position * possibilities at each increment
-        for (int i = 0; i < numCharactersPositionstoDecode; i++) {
-            // Calculate the number of possibilities in this position
-            Double possibilitiesPerIncrement = new Double(optionsAtPosition(j) / this.chars.length);
-            // Add to the decodedInt value:  numeric position of character * the number of possibilities at this increment
-            decodedInt += this.codes[shoulder.charAt(i)] * possibilitiesPerIncrement.intValue();
-
-            j--;
-        }
-        return new BigInteger(decodedInt.toString());
-    }
-
-    /**
-     * Sum the total of all possible options at previous positions
-     *
-     * @param numCharactersPositionstoEncode
-     * @return
-     */
-    private int optionsAtPreviousPositions(int numCharactersPositionstoEncode) {
-        int optionsAtPreviousPositions = 0;
-        for (int i = numCharactersPositionstoEncode - 1; i > 0; i--) {
-            optionsAtPreviousPositions += Double.valueOf(Math.pow(chars.length, i)).intValue();
-        }
-        return optionsAtPreviousPositions;
+        long value = decodeToLong(entireString);
+        return value < 0 ? null : BigInteger.valueOf(value);
     }
 
     /**
-     * Calculate the number of possibilities at a particular position
+     * Decode a shoulder, or the shoulder of an entire ARK, to its dataset value without building any intermediate
+     * Strings.  Any characters after the shoulder, such as the trailing digit, are ignored.
      *
-     * @param numCharactersPositionstoEncode
-     * @return
+     * @param entireString
+     * @return the dataset value, or -1 if this is an ARK without a shoulder or the shoulder has characters outside
+     *         of Latin-1
      */
-    private int optionsAtPosition(int numCharactersPositionstoEncode) {
-        return Double.valueOf(Math.pow(chars.length, numCharactersPositionstoEncode)).intValue();
-    }
+    public static long decodeToLong(String entireString) {
+        int start = 0;
+        int end = entireString.length();
+
+        // Check to see if this is an entire ARK.  If so, we only want the third section, the shoulder itself
+        int firstSlash = entireString.indexOf('/');
+        if (firstSlash >= 0) {
+            int secondSlash = entireString.indexOf('/', firstSlash + 1);
+            if (secondSlash < 0 || !hasSegmentAfter(entireString, secondSlash)) {
+                return -1;
+            }
+            start = secondSlash + 1;
+            int thirdSlash = entireString.indexOf('/', start);
+            if (thirdSlash >= 0) {
+                end = thirdSlash;
+            }
 
-    /**
-     * Calculate the number of character positions needed
-     *
-     * @param i
-     * @return
-     */
-    private int numCharactersPositionstoEncode(int i) {
-        // Fetch number of character Positions needed for this encoding
-        int numCharactersPositionstoEncode = 0;
-        int selector = 1;
-        int sumPreviousPossibilities = 0;
-        while (numCharactersPositionstoEncode < selector) {
-            int possibilities = optionsAtPosition(selector);
-            // Add in # possibilities from previous position
-            sumPreviousPossibilities += possibilities;
-            if (i <= sumPreviousPossibilities) {
-                numCharactersPositionstoEncode = selector;
-            } else {
-                selector++;
+            // Look and see if this is the test dataset
+            if (entireString.regionMatches(firstSlash + 1, "99999", 0, 5) && secondSlash - firstSlash == 6 &&
+                    end - start == 3 && entireString.regionMatches(start, "fk4", 0, 3)) {
+                return 1;
             }
         }
-        return numCharactersPositionstoEncode;
 
+        // Each letter, as a digit from 1 to 51, is the coefficient of the power of 51 for its position
+        long decoded = 0;
+        for (int i = start; i < end - 1; i++) {
+            char c = entireString.charAt(i);
+            if (c >= codes.length) {
+                return -1;
+            }
+            decoded = decoded * chars.length + codes[c];
+        }
+        return decoded;
     }
 
     /**
-     * An Excel-like Ceiling function, returning integer versions of double values attached to the next highest number,
-     * so 1.11, 1.2, 1.5, 1.6 all become 2
-     * 1.0 stays as 1
-     * This is returned as array position so we can use directly with mapping encoded characters to their position in the array
-     *
-     * @param position
-     * @return
+     * Tell if there is a non empty segment after the given slash, i.e. if String.split("/") would return a
+     * segment there
      */
-    private int ceilingAsArrayPosition(Double position) {
-        BigDecimal bd = new BigDecimal(Double.toString(position));
-        return bd.setScale(0, BigDecimal.ROUND_CEILING).intValue() - 1;
+    private static boolean hasSegmentAfter(String s, int slash) {
+        for (int i = slash + 1; i < s.length(); i++) {
+            if (s.charAt(i) != '/') {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** No digits used and eliminate uppercase O, not to confuse with Zero (0), this scheme used to construct shoulders for the EZID system, characters used for encoding are ABCDEFGHIJKLMNPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz **/
@@ -219,6 +146,20 @@ public class dataGroupEncoder extends GenericIdentifier implements encoder {
     /** Lookup table for converting shoulder characters to values **/
     static public byte[] codes = new byte[256];
 
+    /**
+     * offsets[k] is the number of values that can be encoded with k or fewer letters, 51 + 51^2 + ... + 51^k,
+     * up to the most letters whose values fit in a long
+     */
+    private static final long[] offsets = new long[12];
+
+    static {
+        long power = 1;
+        for (int k = 1; k < offsets.length; k++) {
+            power *= chars.length;
+            offsets[k] = offsets[k - 1] + power;
+        }
+    }
+
     static {
         int i = 1;
         codes['A'] = (byte) (i++);
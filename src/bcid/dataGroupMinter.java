@@ -5,7 +5,6 @@ import bcidExceptions.ServerErrorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.*;
@@ -143,7 +142,7 @@ public class dataGroupMinter extends dataGroupEncoder {
             }
             ezidRequest = rs.getBoolean("ezidRequest");
             ezidMade = rs.getBoolean("ezidMade");
-            shoulder = encode(new BigInteger(datasets_id.toString()));
+            shoulder = encode(datasets_id.longValue());
             this.doi = rs.getString("doi");
             this.title = rs.getString("title");
             //this.projectCode = rs.getString("projectCode");
@@ -190,7 +189,6 @@ public class dataGroupMinter extends dataGroupEncoder {
             stmt = conn.prepareStatement(sql);
             stmt.setInt(1, datasets_id);
             rs = stmt.executeQuery();
-            if (rs.isLast())
             if (rs.next()) {
                 project_code = rs.getString("project_code");
             }
@@ -242,10 +240,12 @@ public class dataGroupMinter extends dataGroupEncoder {
         // Generate an internal ID to track this submission
         UUID internalID = UUID.randomUUID();
 
-        // Insert the values into the database
+        // Insert the values into the database.  The dataset, and its request for an EZID, are committed together
         PreparedStatement insertStatement = null;
         PreparedStatement updateStatement = null;
         try {
+            conn.setAutoCommit(false);
+
             // Use auto increment in database to assign the actual identifier.. this is threadsafe this way
             String insertString = "INSERT INTO datasets (users_id, resourceType, doi, webaddress, graph, title, internalID, ezidRequest, suffixPassThrough) " +
                     "values (?,?,?,?,?,?,?,?,?)";
@@ -271,20 +271,28 @@ public class dataGroupMinter extends dataGroupEncoder {
                     " WHERE datasets_id = ?";
             updateStatement = conn.prepareStatement(updateString);
 
-            updateStatement.setString(1, bow.toString() + encode(new BigInteger(datasets_id.toString())));
+            updateStatement.setString(1, bow.toString() + encode(datasets_id.longValue()));
             updateStatement.setInt(2, datasets_id);
 
             updateStatement.executeUpdate();
 
+            if (ezidRequest) {
+                ezidOutbox.enqueue(db, datasets_id, ezidOutbox.CREATE);
+            }
+            conn.commit();
         } catch (SQLException e) {
+            rollback();
             throw new ServerErrorException("Server Error", "SQLException while creating a dataset for user: " + who, e);
         } finally {
             db.close(insertStatement, null);
             db.close(updateStatement, null);
+            restoreAutoCommit();
         }
+        datasetCache.getInstance().invalidate(datasets_id);
+        snapshotStore.getInstance().prerender(datasets_id);
 
         // Create the shoulder identifier (String dataset identifier)
-        shoulder = encode(new BigInteger(datasets_id.toString()));
+        shoulder = encode(datasets_id.longValue());
 
         // Create the prefix
         prefix = bow + shoulder;
@@ -347,6 +355,22 @@ public class dataGroupMinter extends dataGroupEncoder {
         return prefix;
     }
 
+    private void rollback() {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            logger.warn("SQLException thrown while trying to rollback.", e);
+        }
+    }
+
+    private void restoreAutoCommit() {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            logger.warn("SQLException thrown while trying to restore autoCommit.", e);
+        }
+    }
+
     /**
      * Close the SQL connection
      */
@@ -675,19 +699,32 @@ public class dataGroupMinter extends dataGroupEncoder {
                 }
             }
 
+            conn.setAutoCommit(false);
             Integer result = stmt.executeUpdate();
             // result should be '1', if not, nothing was updated
             if (result >= 1) {
+                Integer datasetId = getDatasetId(prefix);
+                // Registered EZIDs carry the title, type and target, so queue an update of the EZID's metadata
+                datasetMetadata dataset = datasetCache.getInstance().get(datasetId);
+                if (dataset != null && dataset.isEzidMade()) {
+                    ezidOutbox.enqueue(db, datasetId, ezidOutbox.UPDATE);
+                }
+                conn.commit();
+                datasetCache.getInstance().invalidate(datasetId);
+                snapshotStore.getInstance().prerender(datasetId);
                 return true;
             } else {
                 // if here, then nothing was updated due to the dataset not being found
+                conn.commit();
                 return false;
             }
         } catch (SQLException e) {
+            rollback();
             throw new ServerErrorException("Server Error", "SQLException while updating configuration for " +
                     "dataset with prefix: " + prefix + " and user: " + username, e);
         } finally {
             db.close(stmt, null);
+            restoreAutoCommit();
         }
     }
 
@@ -3,7 +3,6 @@ package bcid;
 import bcidExceptions.ServerErrorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import util.SettingsManager;
 
 import java.sql.*;
 
@@ -11,6 +10,7 @@ import java.sql.*;
  * Creates the connection for the backend bcid database.
  * Settings come from the util.SettingsManager/Property file defining the user/password/url/class
  * for the mysql database where the data lives.
+ * Connections are borrowed from the shared bcid.connectionPool and handed back on close().
  */
 public class database {
 
@@ -19,21 +19,11 @@ public class database {
     final static Logger logger = LoggerFactory.getLogger(database.class);
 
     /**
-     * Load settings for creating this database connection from the bcidsettings.properties file
+     * Borrow a connection from the pool, which loads its settings from the bcidsettings.properties file
      */
     public database() {
         try {
-            SettingsManager sm = SettingsManager.getInstance();
-            sm.loadProperties();
-            String bcidUser = sm.retrieveValue("bcidUser");
-            String bcidPassword = sm.retrieveValue("bcidPassword");
-            String bcidUrl = sm.retrieveValue("bcidUrl");
-            String bcidClass = sm.retrieveValue("bcidClass");
-
-            Class.forName(bcidClass);
-            conn = DriverManager.getConnection(bcidUrl, bcidUser, bcidPassword);
-        } catch (ClassNotFoundException e) {
-            throw new ServerErrorException("Server Error","Driver issues accessing BCID system", e);
+            conn = connectionPool.getInstance().getConnection();
         } catch (SQLException e) {
             throw new ServerErrorException("Server Error","SQL Exception accessing BCID system", e);
         }
@@ -62,6 +52,9 @@ public class database {
         return;
     }
 
+    /**
+     * Return the connection to the pool
+     */
     public void close() {
         try {
             conn.close();
@@ -97,6 +90,36 @@ public class database {
         }
         return null;
     }
+    /**
+     * Return the datasets_id that the identifiers of a loadedSetUUID belong to, if the dataset is owned by a user
+     * @param loadedSetUUID
+     * @param users_id the user who must own the dataset
+     * @return the datasets_id, or null if no identifiers were loaded with this loadedSetUUID into a dataset the user owns
+     */
+    public Integer getLoadedSetDatasetId(String loadedSetUUID, Integer users_id) {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            String sql = "SELECT i.datasets_id FROM identifiers i, datasets d WHERE i.loadedSetUUID=? " +
+                    "AND d.datasets_id = i.datasets_id AND d.users_id = ? LIMIT 1";
+            stmt = conn.prepareStatement(sql);
+            stmt.setString(1, loadedSetUUID);
+            stmt.setInt(2, users_id);
+
+            rs = stmt.executeQuery();
+
+            if (rs.next()) {
+                return rs.getInt("datasets_id");
+            }
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error",
+                    "SQLException attempting to getLoadedSetDatasetId when given the loadedSetUUID: " + loadedSetUUID, e);
+        } finally {
+            close(stmt, rs);
+        }
+        return null;
+    }
+
     /**
      * Return the username given a userId
      * @param userId
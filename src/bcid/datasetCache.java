@@ -0,0 +1,308 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.lruCache;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of datasetMetadata keyed by datasets_id, so that resolving an identifier does not have to read
+ * its dataset from the database on every request.
+ * <p/>
+ * Entries expire datasetCacheTTL milliseconds after they were loaded, and once more than datasetCacheMaxSize
+ * datasets are held the least recently used is evicted.  dataGroupMinter invalidates a dataset whenever it writes
+ * to it, expeditionMinter when it attaches it to an expedition, which changes its projectCode, and userMinter
+ * invalidates every dataset when a user's name, which is each of their datasets' "who", changes.  The TTL bounds how
+ * stale an entry can get when these tables are changed by another process.
+ * Datasets that do not exist are not cached, so a newly minted dataset resolves immediately.
+ */
+public class datasetCache {
+
+    private static Logger logger = LoggerFactory.getLogger(datasetCache.class);
+
+    private static datasetCache instance;
+
+    // The most datasets getAll reads with one query
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    private static final String SELECT_DATASETS = "SELECT " +
+            "d.datasets_id as datasets_id," +
+            "d.prefix as prefix," +
+            "d.ezidRequest as ezidRequest," +
+            "d.ezidMade as ezidMade," +
+            "d.suffixPassthrough as suffixPassthrough," +
+            "d.doi as doi," +
+            "d.title as title," +
+            "d.ts as ts, " +
+            "CONCAT_WS(' ',u.firstName, u.lastName) as who, " +
+            "d.webAddress as webAddress," +
+            "d.resourceType as resourceType," +
+            "(SELECT p.project_code FROM projects p, expeditions e, expeditionsBCIDs eb " +
+            "  WHERE eb.datasets_id = d.datasets_id AND e.expedition_id = eb.expedition_id " +
+            "  AND e.project_id = p.project_id LIMIT 1) as projectCode" +
+            " FROM datasets d, users u " +
+            " WHERE d.users_id = u.user_id ";
+
+    private final lruCache<Integer, datasetMetadata> entries;
+
+    public static synchronized datasetCache getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new datasetCache(
+                    sm.retrieveInt("datasetCacheMaxSize", 10000),
+                    sm.retrieveLong("datasetCacheTTL", 300000));
+        }
+        return instance;
+    }
+
+    private datasetCache(int maxSize, long ttl) {
+        this.entries = new lruCache<Integer, datasetMetadata>(maxSize, ttl);
+    }
+
+    /**
+     * Get the metadata for a dataset, loading it from the database if it is not cached
+     *
+     * @param datasets_id
+     *
+     * @return the dataset's metadata, or null if there is no such dataset
+     */
+    public datasetMetadata get(Integer datasets_id) {
+        if (datasets_id == null) {
+            return null;
+        }
+        datasetMetadata metadata = entries.get(datasets_id);
+        if (metadata != null) {
+            return metadata;
+        }
+
+        // Taken before the read, so that metadata read before an invalidation is not cached after it
+        long loadGeneration = entries.generation();
+        metadata = load(datasets_id);
+        if (metadata != null) {
+            entries.putIfCurrent(datasets_id, metadata, loadGeneration);
+        }
+        return metadata;
+    }
+
+    /**
+     * Get the metadata for many datasets, reading those that are not cached from the database with one query per
+     * LOAD_BATCH_SIZE datasets, rather than one query each
+     *
+     * @param datasetIds
+     *
+     * @return the metadata of each dataset that exists, keyed by datasets_id
+     */
+    public Map<Integer, datasetMetadata> getAll(Collection<Integer> datasetIds) {
+        HashMap<Integer, datasetMetadata> found = new HashMap<Integer, datasetMetadata>();
+        ArrayList<Integer> missing = new ArrayList<Integer>();
+        for (Integer datasets_id : new LinkedHashSet<Integer>(datasetIds)) {
+            if (datasets_id == null) {
+                continue;
+            }
+            datasetMetadata metadata = entries.get(datasets_id);
+            if (metadata != null) {
+                found.put(datasets_id, metadata);
+            } else {
+                missing.add(datasets_id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        long loadGeneration = entries.generation();
+        Map<Integer, datasetMetadata> loaded = loadAll(missing);
+        for (Map.Entry<Integer, datasetMetadata> e : loaded.entrySet()) {
+            entries.putIfCurrent(e.getKey(), e.getValue(), loadGeneration);
+        }
+        found.putAll(loaded);
+        return found;
+    }
+
+    /**
+     * Drop a dataset from the cache, and from the redirectEngine's routing table, so that the next get reads it from
+     * the database again
+     *
+     * @param datasets_id
+     */
+    public void invalidate(Integer datasets_id) {
+        if (datasets_id == null) {
+            return;
+        }
+        entries.invalidate(datasets_id);
+        redirectEngine.invalidate(datasets_id);
+    }
+
+    /**
+     * Drop every dataset from the cache
+     */
+    public void invalidateAll() {
+        entries.invalidateAll();
+        redirectEngine.invalidateAll();
+    }
+
+    /**
+     * Read a dataset's metadata, and the code of the project it belongs to, from the database
+     *
+     * @param datasets_id
+     *
+     * @return the metadata, or null if there is no such dataset
+     */
+    private datasetMetadata load(Integer datasets_id) {
+        database db = new database();
+        Connection conn = db.getConn();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(SELECT_DATASETS + " AND d.datasets_id = ?");
+            stmt.setInt(1, datasets_id);
+            rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            return read(rs);
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "SQLException reading dataset: " + datasets_id, e);
+        } finally {
+            db.close(stmt, rs);
+            db.close();
+        }
+    }
+
+    /**
+     * Read many datasets' metadata from the database, LOAD_BATCH_SIZE datasets to a query, over one connection
+     *
+     * @param datasetIds
+     *
+     * @return the metadata of each dataset that exists, keyed by datasets_id
+     */
+    private Map<Integer, datasetMetadata> loadAll(List<Integer> datasetIds) {
+        HashMap<Integer, datasetMetadata> loaded = new HashMap<Integer, datasetMetadata>();
+        database db = new database();
+        Connection conn = db.getConn();
+        try {
+            for (int from = 0; from < datasetIds.size(); from += LOAD_BATCH_SIZE) {
+                List<Integer> batch = datasetIds.subList(from, Math.min(datasetIds.size(), from + LOAD_BATCH_SIZE));
+                StringBuilder sql = new StringBuilder(SELECT_DATASETS).append(" AND d.datasets_id IN (");
+                for (int i = 0; i < batch.size(); i++) {
+                    sql.append(i == 0 ? "?" : ",?");
+                }
+                sql.append(")");
+
+                PreparedStatement stmt = null;
+                ResultSet rs = null;
+                try {
+                    stmt = conn.prepareStatement(sql.toString());
+                    for (int i = 0; i < batch.size(); i++) {
+                        stmt.setInt(i + 1, batch.get(i));
+                    }
+                    rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        datasetMetadata metadata = read(rs);
+                        loaded.put(metadata.getDatasets_id(), metadata);
+                    }
+                } catch (SQLException e) {
+                    throw new ServerErrorException("Server Error", "SQLException reading datasets: " + batch, e);
+                } finally {
+                    db.close(stmt, rs);
+                }
+            }
+        } finally {
+            db.close();
+        }
+        return loaded;
+    }
+
+    /**
+     * Build a dataset's metadata from the current row of a SELECT_DATASETS query
+     */
+    private datasetMetadata read(ResultSet rs) throws SQLException {
+        Integer datasets_id = rs.getInt("datasets_id");
+        String prefix = rs.getString("prefix");
+        URI identifier;
+        try {
+            identifier = new URI(prefix);
+        } catch (URISyntaxException e) {
+            throw new ServerErrorException("Server Error", "URISyntaxException from prefix: " + prefix +
+                    " from datasetId: " + datasets_id, e);
+        }
+
+        URI webAddress = null;
+        String webAddressString = rs.getString("webAddress");
+        if (webAddressString != null) {
+            try {
+                webAddress = new URI(webAddressString);
+            } catch (URISyntaxException e) {
+                logger.warn("URISyntaxException with uri: {} and datasetId: {}", webAddressString, datasets_id, e);
+            }
+        }
+
+        String projectCode = rs.getString("projectCode");
+        Timestamp ts = rs.getTimestamp("ts");
+        return new datasetMetadata(
+                datasets_id,
+                prefix,
+                identifier,
+                rs.getBoolean("ezidRequest"),
+                rs.getBoolean("ezidMade"),
+                rs.getBoolean("suffixPassthrough"),
+                rs.getString("doi"),
+                rs.getString("title"),
+                rs.getString("ts"),
+                rs.getString("who"),
+                webAddress,
+                rs.getString("resourceType"),
+                projectCode == null ? "" : projectCode,
+                ts == null ? 0 : ts.getTime());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    /**
+     * @return the number of entries dropped to keep the cache within datasetCacheMaxSize
+     */
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    /**
+     * @return the number of entries dropped because they were older than datasetCacheTTL
+     */
+    public long getExpiredCount() {
+        return entries.getExpiredCount();
+    }
+
+    public long getInvalidationCount() {
+        return entries.getInvalidationCount();
+    }
+
+    public String toString() {
+        return "datasetCache[" + entries + "]";
+    }
+}
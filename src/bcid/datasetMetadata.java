@@ -0,0 +1,111 @@
+package bcid;
+
+import java.net.URI;
+
+/**
+ * The metadata of a dataset that is needed to resolve identifiers in it, as held by the datasetCache.  Instances are
+ * shared between requests and so are never modified.
+ */
+public class datasetMetadata {
+    private final Integer datasets_id;
+    private final String prefix;
+    private final URI identifier;
+    private final boolean ezidRequest;
+    private final boolean ezidMade;
+    private final boolean suffixPassThrough;
+    private final String doi;
+    private final String title;
+    private final String ts;
+    private final String who;
+    private final URI webAddress;
+    private final String resourceType;
+    private final String projectCode;
+    private final long lastModified;
+
+    datasetMetadata(Integer datasets_id, String prefix, URI identifier, boolean ezidRequest, boolean ezidMade,
+                    boolean suffixPassThrough, String doi, String title, String ts, String who, URI webAddress,
+                    String resourceType, String projectCode, long lastModified) {
+        this.datasets_id = datasets_id;
+        this.prefix = prefix;
+        this.identifier = identifier;
+        this.ezidRequest = ezidRequest;
+        this.ezidMade = ezidMade;
+        this.suffixPassThrough = suffixPassThrough;
+        this.doi = doi;
+        this.title = title;
+        this.ts = ts;
+        this.who = who;
+        this.webAddress = webAddress;
+        this.resourceType = resourceType;
+        this.projectCode = projectCode;
+        this.lastModified = lastModified;
+    }
+
+    public Integer getDatasets_id() {
+        return datasets_id;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the prefix as a URI
+     */
+    public URI getIdentifier() {
+        return identifier;
+    }
+
+    public boolean isEzidRequest() {
+        return ezidRequest;
+    }
+
+    public boolean isEzidMade() {
+        return ezidMade;
+    }
+
+    public boolean getSuffixPassThrough() {
+        return suffixPassThrough;
+    }
+
+    public String getDoi() {
+        return doi;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getTs() {
+        return ts;
+    }
+
+    /**
+     * @return the full name of the user that created the dataset
+     */
+    public String getWho() {
+        return who;
+    }
+
+    public URI getWebAddress() {
+        return webAddress;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    /**
+     * @return the project_code of the project the dataset belongs to, or "" if it has not been associated with one
+     */
+    public String getProjectCode() {
+        return projectCode;
+    }
+
+    /**
+     * @return the dataset's ts, which MySQL updates whenever the row changes, in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
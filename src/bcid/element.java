@@ -0,0 +1,40 @@
+package bcid;
+
+import java.net.URI;
+
+/**
+ * A lightweight data element waiting to be minted: just the values that are written to the identifiers table.
+ * Unlike the bcid class, building an element does not touch the database or the settings file, so large input
+ * files can be turned into elements without any per-row cost beyond parsing.  Dataset level metadata is looked
+ * up once, by whoever supplies the dataset_id.
+ */
+public class element {
+    protected String sourceID = null;       // Source or local identifier (e.g. MBIO056)
+    protected URI webAddress = null;        // URI for the webAddress, EZID calls this _target
+    protected Integer dataset_id;
+
+    /**
+     * Create an element to mint
+     *
+     * @param sourceID   local identifier, may be null
+     * @param webAddress the resolution target for this element, may be null
+     * @param dataset_id the dataset this element belongs to
+     */
+    public element(String sourceID, URI webAddress, Integer dataset_id) {
+        this.sourceID = sourceID;
+        this.webAddress = webAddress;
+        this.dataset_id = dataset_id;
+    }
+
+    public String getSourceID() {
+        return sourceID;
+    }
+
+    public URI getWebAddress() {
+        return webAddress;
+    }
+
+    public Integer getDataset_id() {
+        return dataset_id;
+    }
+}
@@ -38,7 +38,30 @@ public class elementEncoder implements encoder {
         //codes['_'] = 63;
     }
 
+    /**
+     * The URL safe base64 alphabet written by the commons-codec Base64(true) used by the original encoding
+     */
+    private static final char[] base64Chars =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] base64Codes = new byte[128];
+
+    static {
+        for (int i = 0; i < base64Codes.length; i++) base64Codes[i] = -1;
+        for (int i = 0; i < base64Chars.length; i++) base64Codes[base64Chars[i]] = (byte) i;
+    }
+
+    // The longest base64 encoding of a long (8 bytes)
+    private static final int MAX_ENCODED_LONG = 11;
+
     String prefix = null;
+    private String divider;
+
+    // prefix + divider, followed by room for the encoded value and its check character
+    private char[] buffer;
+    private int headLength;
+    // true when decode(String) of an identifier carrying this prefix can be done without the regex based
+    // parsing in decodeSlow, see canDecodeFast
+    private boolean fastDecode;
 
     static SettingsManager sm;
     static {
@@ -47,12 +70,42 @@ public class elementEncoder implements encoder {
     }
 
     /**
-     * Instantiate the encoderBCID class by passing in a prefix to work with
+     * Instantiate the encoderBCID class by passing in a prefix to work with.  An elementEncoder holds a reusable
+     * buffer, so should not be shared between threads.
      *
      * @param prefix
      */
     public elementEncoder(String prefix) {
         this.prefix = prefix;
+        this.divider = sm.retrieveValue("divider");
+        if (prefix != null) {
+            String head = prefix + divider;
+            headLength = head.length();
+            buffer = new char[headLength + MAX_ENCODED_LONG + 1];
+            head.getChars(0, headLength, buffer, 0);
+            fastDecode = canDecodeFast(prefix, divider);
+        }
+    }
+
+    /**
+     * The fast decode path only gives the same answers as decodeSlow when the prefix has the usual
+     * scheme:/naan/shoulder shape, and neither the prefix nor the divider mean anything special to the regular
+     * expressions decodeSlow splits and replaces with.
+     */
+    private static boolean canDecodeFast(String prefix, String divider) {
+        if (divider == null || divider.length() != 1 || "\\^$.|?*+()[]{}/".indexOf(divider.charAt(0)) >= 0) {
+            return false;
+        }
+        int slashes = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '/') {
+                slashes++;
+            } else if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == ':')) {
+                return false;
+            }
+        }
+        return slashes == 2 && prefix.indexOf(divider.charAt(0)) < 0;
     }
 
     /**
@@ -65,12 +118,55 @@ public class elementEncoder implements encoder {
      * @return A String representation of this BigInteger
      */
     public String encode(BigInteger big) {
+        if (buffer != null && big.bitLength() < 64) {
+            return encode(big.longValue());
+        }
         CheckDigit checkDigit = new CheckDigit();
-        String strVal = prefix + sm.retrieveValue("divider") + new String(base64.encode(big.toByteArray()));
+        String strVal = prefix + divider + new String(base64.encode(big.toByteArray()));
         strVal = strVal.replace("\r\n", "");
         return checkDigit.generate(strVal);
     }
 
+    /**
+     * Encode an identifiers_id, giving the same String as encode(BigInteger.valueOf(id))
+     *
+     * @param id
+     * @return A String representation of this id
+     */
+    public String encode(long id) {
+        return new String(buffer, 0, encodeToBuffer(id));
+    }
+
+    /**
+     * Encode an identifiers_id into this encoder's buffer
+     *
+     * @param id
+     * @return the length of the identifier in the buffer
+     */
+    private int encodeToBuffer(long id) {
+        // The same bytes as BigInteger.toByteArray(): big-endian two's complement, with the fewest bytes that hold
+        // the sign bit
+        int bytes = (64 - Long.numberOfLeadingZeros(id ^ (id >> 63))) / 8 + 1;
+        int pos = headLength;
+        for (int i = 0; i < bytes; i += 3) {
+            int remaining = bytes - i;
+            int triple = byteAt(id, bytes, i) << 16 |
+                    (remaining > 1 ? byteAt(id, bytes, i + 1) << 8 : 0) |
+                    (remaining > 2 ? byteAt(id, bytes, i + 2) : 0);
+            buffer[pos++] = base64Chars[(triple >> 18) & 0x3f];
+            buffer[pos++] = base64Chars[(triple >> 12) & 0x3f];
+            // URL safe base64 leaves off the padding
+            if (remaining > 1) buffer[pos++] = base64Chars[(triple >> 6) & 0x3f];
+            if (remaining > 2) buffer[pos++] = base64Chars[triple & 0x3f];
+        }
+        buffer[pos] = CheckDigit.generateCheckCharacter(buffer, pos);
+        return pos + 1;
+    }
+
+    private static int byteAt(long value, int bytes, int index) {
+        return (int) (value >>> (8 * (bytes - 1 - index))) & 0xff;
+    }
+
     /**
      * Base64 decode identifiers into integer representations.
      * 1. verify that the entire string is good w/ check digit
@@ -80,6 +176,101 @@ public class elementEncoder implements encoder {
      * @return a BigIntgeger representation of this BCID
      */
     public BigInteger decode(String entireString) throws BCIDException {
+        if (isFastDecodable(entireString)) {
+            if (!CheckDigit.isValid(entireString)) {
+                throw new BCIDException(entireString + " does not verify");
+            }
+            return BigInteger.valueOf(decodeLong(entireString, headLength, entireString.length() - 1));
+        }
+        return decodeSlow(entireString);
+    }
+
+    /**
+     * Decode an identifier into its identifiers_id, as decode(String).longValue() would for identifiers whose value
+     * fits in a long
+     *
+     * @param entireString
+     * @return the identifiers_id
+     * @throws BCIDException if the identifier does not verify or does not hold a long
+     */
+    public long decodeToLong(String entireString) throws BCIDException {
+        if (isFastDecodable(entireString)) {
+            if (!CheckDigit.isValid(entireString)) {
+                throw new BCIDException(entireString + " does not verify");
+            }
+            return decodeLong(entireString, headLength, entireString.length() - 1);
+        }
+        BigInteger big = decodeSlow(entireString);
+        if (big.bitLength() >= 64) {
+            throw new BCIDException(entireString + " is too large to be an identifiers_id");
+        }
+        return big.longValue();
+    }
+
+    /**
+     * Tell if this identifier is prefix + divider + base64 + check character, holding at most 8 bytes, so that it
+     * can be decoded without splitting it up into Strings
+     */
+    private boolean isFastDecodable(String entireString) {
+        if (!fastDecode) {
+            return false;
+        }
+        int length = entireString.length();
+        int encodedLength = length - 1 - headLength;
+        // Fewer than 2 characters decode to no bytes, more than 11 to more than a long
+        if (encodedLength < 2 || encodedLength > MAX_ENCODED_LONG || encodedLength % 4 == 1 ||
+                !entireString.startsWith(prefix) || entireString.charAt(headLength - 1) != divider.charAt(0)) {
+            return false;
+        }
+        char dividerChar = divider.charAt(0);
+        for (int i = headLength; i < length - 1; i++) {
+            char c = entireString.charAt(i);
+            if (c >= base64Codes.length || base64Codes[c] < 0 || c == dividerChar) {
+                return false;
+            }
+        }
+        char check = entireString.charAt(length - 1);
+        return check < 256 && check != dividerChar && check != '/';
+    }
+
+    /**
+     * Base64 decode the characters from start to end into a long, sign extending as new BigInteger(byte[]) does
+     */
+    private static long decodeLong(String s, int start, int end) {
+        long value = 0;
+        int bytes = 0;
+        int i = start;
+        for (; i + 4 <= end; i += 4) {
+            int quad = base64Codes[s.charAt(i)] << 18 | base64Codes[s.charAt(i + 1)] << 12 |
+                    base64Codes[s.charAt(i + 2)] << 6 | base64Codes[s.charAt(i + 3)];
+            value = value << 24 | quad;
+            bytes += 3;
+        }
+        int remaining = end - i;
+        if (remaining == 2) {
+            int bits = base64Codes[s.charAt(i)] << 6 | base64Codes[s.charAt(i + 1)];
+            value = value << 8 | (bits >> 4);
+            bytes += 1;
+        } else if (remaining == 3) {
+            int bits = base64Codes[s.charAt(i)] << 12 | base64Codes[s.charAt(i + 1)] << 6 | base64Codes[s.charAt(i + 2)];
+            value = value << 16 | (bits >> 2);
+            bytes += 2;
+        }
+        if (bytes < 8) {
+            // Sign extend from the top bit of the first byte
+            int shift = 64 - 8 * bytes;
+            value = value << shift >> shift;
+        }
+        return value;
+    }
+
+    /**
+     * The original, String based decoding, for identifiers the fast path does not handle
+     *
+     * @param entireString
+     * @return a BigIntgeger representation of this BCID
+     */
+    private BigInteger decodeSlow(String entireString) throws BCIDException {
         CheckDigit checkDigit = new CheckDigit();
 
         // Pull off potential last piece of string which would represent the local Identifier
@@ -90,13 +281,13 @@ public class elementEncoder implements encoder {
         String bits[] = entireString.split("/");
         String scheme = bits[0];
         String naan = bits[1];
-        String datasetPlusSuffix[] = bits[2].split(sm.retrieveValue("divider"));
+        String datasetPlusSuffix[] = bits[2].split(divider);
         String dataset = datasetPlusSuffix[0];
 
         sbEntireString.append(scheme + "/" + naan + "/" + dataset);
 
         if (datasetPlusSuffix.length > 1) {
-            sbEntireString.append(sm.retrieveValue("divider") + datasetPlusSuffix[1]);
+            sbEntireString.append(divider + datasetPlusSuffix[1]);
         }
         String encodedString = sbEntireString.toString();
 
@@ -105,7 +296,7 @@ public class elementEncoder implements encoder {
             throw new BCIDException(entireString + " does not verify");
         }
         // Get just the encoded portion of the string minus the prefix
-        String encodedPiece = encodedString.replaceFirst(prefix, "").replaceFirst(sm.retrieveValue("divider"), "");
+        String encodedPiece = encodedString.replaceFirst(prefix, "").replaceFirst(divider, "");
 
         // Now check the Actual String, minus check Character
         String actualString = checkDigit.getCheckDigit(encodedPiece);
@@ -1,12 +1,16 @@
 package bcid;
 
 import bcidExceptions.BCIDException;
+import bcidExceptions.BadRequestException;
 import bcidExceptions.ServerErrorException;
+import net.sf.json.util.JSONUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.SettingsManager;
 import util.timer;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.Exception;
 import java.lang.Integer;
 import java.lang.NullPointerException;
@@ -21,7 +25,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The elementMinter class brokers interactions between elements and groups and a mysql backend database.
@@ -37,11 +45,16 @@ public class elementMinter extends dataGroupMinter {
     private Integer startingNumber;
     private String publisher;
     private String creator;
+    private boolean blockReservation;
 
     private static Logger logger = LoggerFactory.getLogger(elementMinter.class);
 
     static int TRUE = 1;
     static int FALSE = 0;
+
+    // MySQL's error for a row breaking a unique key, here identifiers_localid_datasets_id_idx
+    private static final int DUPLICATE_KEY = 1062;
+    private static final Pattern DUPLICATE_ENTRY = Pattern.compile("Duplicate entry '(.*)-\\d+' for key");
     static SettingsManager sm;
 
     static {
@@ -105,6 +118,8 @@ public class elementMinter extends dataGroupMinter {
             publisher = "Biocode FIMS System";
         }
 
+        blockReservation = sm.retrieveBoolean("bcidBlockReservation", true);
+
         creator = sm.retrieveValue("creator");
         if (creator.trim().equalsIgnoreCase("")) {
             creator = null;
@@ -141,7 +156,8 @@ public class elementMinter extends dataGroupMinter {
     }
 
     /**
-     * Delete identifiers in table for a particular loadedSetuuid
+     * Delete identifiers in table for a particular loadedSetuuid, along with any identifierBlocks reserved for it, in
+     * one transaction
      *
      * @param uuid
      *
@@ -150,21 +166,48 @@ public class elementMinter extends dataGroupMinter {
      */
     public int deleteLoadedSetUUID(String uuid) {
         PreparedStatement stmt = null;
+        PreparedStatement blockStatement = null;
+        boolean committed = false;
         try {
+            conn.setAutoCommit(false);
             String sql = "DELETE FROM identifiers WHERE loadedSetUUID=?";
             stmt = conn.prepareStatement(sql);
             stmt.setString(1, uuid);
+            int deleted = stmt.executeUpdate();
 
-            return stmt.executeUpdate();
+            blockStatement = conn.prepareStatement("DELETE FROM identifierBlocks WHERE loadedSetUUID=?");
+            blockStatement.setString(1, uuid);
+            blockStatement.executeUpdate();
+
+            conn.commit();
+            committed = true;
+            return deleted;
         } catch (SQLException e) {
             //TODO should we silence this exception?
             logger.warn("SQLException trying to delete loadedSetUUID: {} from identifiers table.", uuid, e);
         } finally {
             db.close(stmt, null);
+            db.close(blockStatement, null);
+            if (!committed) {
+                rollback();
+            }
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                logger.warn("SQLException thrown while trying to setAutoCommit(true).", e);
+            }
         }
         return 0;
     }
 
+    private void rollback() {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            logger.warn("SQLException thrown while trying to rollback.", e);
+        }
+    }
+
     /**
      * Mint a Single element
      * Takes an element object and inserts these objects into database.
@@ -173,8 +216,8 @@ public class elementMinter extends dataGroupMinter {
      * @param b
      */
     public void mint(bcid b) {
-        ArrayList<bcid> arrayList = new ArrayList<bcid>();
-        arrayList.add(b);
+        ArrayList<element> arrayList = new ArrayList<element>();
+        arrayList.add(new element(b.sourceID, b.webAddress, b.dataset_id));
 
         mintList(arrayList);
     }
@@ -182,99 +225,116 @@ public class elementMinter extends dataGroupMinter {
     /**
      * Mint a group of elements (see single element for further explanation)
      *
-     * @param elementList
+     * @param elementList a list of bcid.element objects, as built by inputFileParser
+     *
+     * @return returns a DatasetIdentifier String
+     */
+    public String mintList(List<element> elementList) {
+        return mintStream(elementList.iterator());
+    }
+
+    /**
+     * Mint elements as they are read, inserting them through a batchInserter so that only one transaction's worth
+     * of the input is held in memory at once.  All elements share a single loadedSetUUID.
+     * <p/>
+     * A load is all or nothing: if reading or inserting the elements fails part way through, the transactions
+     * already committed for it are deleted again before the exception is thrown.  Until then they can be read by
+     * others, as they are while the load is under way.  A localid already in the dataset, or given twice, fails the
+     * load with a BadRequestException naming it.
+     *
+     * @param elements an Iterator of bcid.element objects, for example a bcid.elementReader
      *
      * @return returns a DatasetIdentifier String
      */
-    public String mintList(ArrayList elementList) {
+    public String mintStream(Iterator<? extends element> elements) {
         timer t = new timer();
 
         t.lap("begin mintList");
 
-        // First validate the list before doing anything if this is uuids
-        // TODO: check for slashes and bad characters in the suffix-- these are not allowed
-        if (this.getSuffixPassThrough()) {
-            Iterator validateIds = elementList.iterator();
-            while (validateIds.hasNext()) {
-                bcid id = (bcid) validateIds.next();
-                // TODO: add back in validation of UUIDs, for now, this issue presents problems in determing what is a UUID or not!
-                //if (!validateUUID(id.sourceID)) {
-                //    throw new Exception("One or more invalid Identifiers, violating either checksum, uuid construction, or Uniqueness of uuid rules: " + id.sourceID);
-                //}
-            }
-        }
-
         // A single ID to refer to this list of elements that are being inserted in the database
-        String loadedSetUUID = this.generateUUIDString();
+        final String loadedSetUUID = this.generateUUIDString();
 
-        // Turn off autocommits just for this method
-        //conn.setAutoCommit(false);
-        PreparedStatement insertStatement = null;
-        try {
-            int insertSize = 1000;
-            if (insertSize > elementList.size()) {
-                insertSize = elementList.size();
-            }
-
-            // Begin prepared statement logic
-            insertStatement = conn.prepareStatement(formatSQL(insertSize));
-            Iterator ids = elementList.iterator();
-            int rowcount = 0;
-            int paramcount = 1;
-            // Loop through identifiers
-            while (ids.hasNext()) {
-                bcid id = (bcid) ids.next();
-
-                if (id.webAddress != null)
-                    insertStatement.setString(paramcount++, id.webAddress.toString());
-                else
-                    insertStatement.setString(paramcount++, null);
-
-                insertStatement.setString(paramcount++, id.sourceID);
-                insertStatement.setString(paramcount++, loadedSetUUID.toString());
-                insertStatement.setInt(paramcount++, id.dataset_id);
-
-                // Execute a commit at every so many number of rows
-                if ((rowcount + 1) % insertSize == 0) {
-                    insertStatement.execute();
-                    insertStatement.clearParameters();
-                    // Adjust the size of the next prepared statement
-                    if (insertSize >= (elementList.size() - rowcount)) {
-                        int lastSectionSize = elementList.size() - (rowcount + 1);
-                        insertStatement = conn.prepareStatement(formatSQL(lastSectionSize));
+        // TODO: check for slashes and bad characters in the suffix-- these are not allowed
+        // TODO: add back in validation of UUIDs when this.getSuffixPassThrough(), for now, this issue presents problems in determing what is a UUID or not!
+        //if (!validateUUID(id.sourceID)) {
+        //    throw new Exception("One or more invalid Identifiers, violating either checksum, uuid construction, or Uniqueness of uuid rules: " + id.sourceID);
+        //}
+        batchInserter<element> inserter = new batchInserter<element>(conn, "identifiers",
+                new String[]{"webaddress", "localid", "loadedSetUUID", "datasets_id"},
+                new batchInserter.rowBinder<element>() {
+                    public void bind(PreparedStatement stmt, int offset, element id) throws SQLException {
+                        if (id.webAddress != null)
+                            stmt.setString(offset, id.webAddress.toString());
+                        else
+                            stmt.setString(offset, null);
+
+                        stmt.setString(offset + 1, id.sourceID);
+                        stmt.setString(offset + 2, loadedSetUUID);
+                        stmt.setInt(offset + 3, id.dataset_id);
                     }
-                    paramcount = 1;
-                }
-                rowcount++;
-            }
-            // Finish up, last statement
-            if (paramcount > 1) {
-                insertStatement.execute();
-            }
-
+                });
+        try {
+            inserter.insert(elements);
         } catch (SQLException e) {
+            discard(loadedSetUUID);
+            ArrayList<String> duplicates = duplicates(e);
+            if (!duplicates.isEmpty()) {
+                throw new BadRequestException("Duplicate identifiers: " + duplicates +
+                        ". Each identifier may only be used once in a dataset.",
+                        "Duplicate localid in load " + loadedSetUUID + ": " + e.getMessage());
+            }
             throw new ServerErrorException(e);
-        } finally {
-            db.close(insertStatement, null);
+        } catch (RuntimeException e) {
+            discard(loadedSetUUID);
+            throw e;
         }
         t.lap("end mintList");
-        return loadedSetUUID.toString();
+        return loadedSetUUID;
     }
 
     /**
-     * Special function to prepare SQL statement
+     * Find the localids a duplicate key error names.  MySQL names the first duplicate of each failed statement as
+     * "Duplicate entry 'localid-datasets_id' for key ...".
      *
-     * @param rowcount
-     *
-     * @return
+     * @return the duplicate localids, none if this is not a duplicate key error
      */
-    private String formatSQL(Integer rowcount) {
-        StringBuffer sql = new StringBuffer("INSERT INTO identifiers ( webaddress, localid, loadedSetUUID, datasets_id) " +
-                "values (?,?,?,?)");
-        for (int i = 1; i < rowcount; i++) {
-            sql.append(",(?,?,?,?)");
+    private static ArrayList<String> duplicates(SQLException e) {
+        ArrayList<String> duplicates = new ArrayList<String>();
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (next.getErrorCode() != DUPLICATE_KEY && !"23000".equals(next.getSQLState())) {
+                continue;
+            }
+            Matcher m = DUPLICATE_ENTRY.matcher(String.valueOf(next.getMessage()));
+            if (m.find() && !duplicates.contains(m.group(1))) {
+                duplicates.add(m.group(1));
+            }
         }
-        return sql.toString();
+        return duplicates;
+    }
+
+    /**
+     * Delete what was committed of a load that failed, leaving the exception that failed it to be thrown
+     */
+    private void discard(String loadedSetUUID) {
+        try {
+            int deleted = deleteLoadedSetUUID(loadedSetUUID);
+            logger.info("Deleted {} identifiers of failed load {}", deleted, loadedSetUUID);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to delete the identifiers of failed load {}", loadedSetUUID, e);
+        }
+    }
+
+    /**
+     * Receives identifiers one at a time from forEachIdentifier
+     */
+    public interface identifierHandler {
+        /**
+         * @param identifiers_id the internal id of the identifier, usable as the after cursor of the next page
+         * @param identifier     the encoded identifier
+         *
+         * @throws IOException
+         */
+        void handle(long identifiers_id, String identifier) throws IOException;
     }
 
     /**
@@ -286,8 +346,84 @@ public class elementMinter extends dataGroupMinter {
      * @return An ArrayList of identifiers
      */
 
-    public ArrayList getIdentifiers(String datasetUUID) {
-        ArrayList results = new ArrayList();
+    public ArrayList<String> getIdentifiers(String datasetUUID) {
+        final ArrayList<String> results = new ArrayList<String>();
+        try {
+            forEachIdentifier(datasetUUID, null, 0, new identifierHandler() {
+                public void handle(long identifiers_id, String identifier) {
+                    results.add(identifier);
+                }
+            });
+        } catch (IOException e) {
+            // Not thrown by the handler above
+            throw new ServerErrorException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Write the encoded identifiers for a loadedSetUUID to the given Writer as a JSON array, in the same form as
+     * JSONArray.fromObject(getIdentifiers(datasetUUID)), without holding the identifiers in memory.
+     *
+     * @param datasetUUID
+     * @param writer
+     *
+     * @throws IOException
+     */
+    public void writeIdentifiersAsJSON(String datasetUUID, final Writer writer) throws IOException {
+        writer.write("[");
+        forEachIdentifier(datasetUUID, null, 0, new identifierHandler() {
+            boolean first = true;
+
+            public void handle(long identifiers_id, String identifier) throws IOException {
+                if (!first) {
+                    writer.write(",");
+                }
+                first = false;
+                writer.write(JSONUtils.quote(identifier));
+            }
+        });
+        writer.write("]");
+    }
+
+    /**
+     * Pass the encoded identifiers of a loadedSetUUID to a handler in identifiers_id order, one at a time.  Rows are
+     * read from a forward-only streaming ResultSet, and identifiers reserved as a block by createBCIDs are
+     * enumerated from the block's range, so memory use does not grow with the size of the loaded set.
+     * <p/>
+     * Large loaded sets can be read a page at a time by passing the identifiers_id of the last identifier of one
+     * page as the after cursor of the next.
+     *
+     * @param datasetUUID
+     * @param after       only identifiers with an identifiers_id greater than this are returned, null for all
+     * @param limit       the most identifiers to return, 0 for no limit
+     * @param handler
+     *
+     * @return the number of identifiers passed to the handler
+     *
+     * @throws IOException if thrown by the handler
+     */
+    public int forEachIdentifier(String datasetUUID, BigInteger after, int limit, identifierHandler handler)
+            throws IOException {
+        elementEncoder encoder = new elementEncoder(prefix);
+        long afterId = after == null ? 0 : after.longValue();
+        int count = 0;
+
+        // Identifiers reserved as a block are enumerated from the range rather than read row by row
+        ArrayList<long[]> blocks = getBlocks(datasetUUID);
+        if (!blocks.isEmpty()) {
+            for (long[] block : blocks) {
+                for (long id = Math.max(block[0], afterId + 1); id < block[0] + block[1]; id++) {
+                    if (limit > 0 && count == limit) {
+                        return count;
+                    }
+                    handler.handle(id, encoder.encode(id));
+                    count++;
+                }
+            }
+            return count;
+        }
+
         PreparedStatement stmt = null;
         ResultSet rs = null;
         try {
@@ -297,27 +433,38 @@ public class elementMinter extends dataGroupMinter {
                     "i.localid as localid" +
                     " FROM identifiers as i, datasets as d " +
                     " WHERE i.loadedSetUUID = ?" +
-                    " AND i.datasets_id=d.datasets_id";
-            stmt = conn.prepareStatement(sql);
+                    " AND i.identifiers_id > ?" +
+                    " AND i.datasets_id=d.datasets_id" +
+                    " ORDER BY i.identifiers_id";
+            if (limit > 0) {
+                sql += " LIMIT " + limit;
+            }
+            stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // Tell the mysql driver to stream rows rather than reading the whole result into memory
+            stmt.setFetchSize(Integer.MIN_VALUE);
             stmt.setString(1, datasetUUID);
+            stmt.setLong(2, afterId);
             rs = stmt.executeQuery();
 
+            String divider = sm.retrieveValue("divider");
+            boolean suffixPassThrough = this.getSuffixPassThrough();
             while (rs.next()) {
+                long identifiers_id = rs.getLong("id");
                 // If this is suffixPassthrough then use prefix + localid
-                if (this.getSuffixPassThrough()) {
-                    results.add(rs.getString("prefix") + sm.retrieveValue("divider") + rs.getString("localid"));
+                if (suffixPassThrough) {
+                    handler.handle(identifiers_id, rs.getString("prefix") + divider + rs.getString("localid"));
                     // else use the current encode function
                 } else {
-                    results.add(new elementEncoder(prefix).encode(new BigInteger(rs.getString("id"))));
+                    handler.handle(identifiers_id, encoder.encode(identifiers_id));
                 }
+                count++;
             }
-
         } catch (SQLException e) {
             throw new ServerErrorException(e);
         } finally {
             db.close(stmt, rs);
         }
-        return results;
+        return count;
     }
 
     /**
@@ -368,6 +515,12 @@ public class elementMinter extends dataGroupMinter {
      * into EZIDs for them at that time.  As such, all that is needed to register these is an email address
      * of a responsible party.
      *
+     * When bcidBlockReservation is on (the default) the identifiers are reserved as one contiguous block of
+     * identifiers_id values, recorded in identifierBlocks, rather than as a row per identifier.  Only the first and
+     * last identifiers of a block have rows, so only they would ever be registered by
+     * manageEZID.createIdentifiersEZIDs; these identifiers are minted with ezidRequest off, so none of them is.  Block
+     * reservation needs auto_increment_increment to be 1, and falls back to a row per identifier otherwise.
+     *
      * @param numIdentifiers
      *
      * @return An ArrayList of all the GUIDs
@@ -377,48 +530,207 @@ public class elementMinter extends dataGroupMinter {
     public String createBCIDs(int numIdentifiers, URI what) throws URISyntaxException {
         String datasetIdentifier = this.generateUUIDString();
 
+        if (blockReservation && numIdentifiers > 0 && reserveBlock(numIdentifiers, datasetIdentifier)) {
+            return datasetIdentifier;
+        }
+
+        final String loadedSetUUID = datasetIdentifier;
+        final Integer datasets_id = this.getDatasets_id();
+
+        // Use auto increment in database to assign the actual identifier.. this is threadsafe this way
+        // Also, use auto date assignment feature for when this was applied.
+        batchInserter<Integer> inserter = new batchInserter<Integer>(conn, "identifiers",
+                new String[]{"ezidRequest", "loadedSetUUID", "datasets_id"},
+                new batchInserter.rowBinder<Integer>() {
+                    public void bind(PreparedStatement stmt, int offset, Integer row) throws SQLException {
+                        stmt.setInt(offset, FALSE);
+                        stmt.setString(offset + 1, loadedSetUUID);
+                        stmt.setInt(offset + 2, datasets_id);
+                    }
+                });
+        try {
+            inserter.insert(new rowCounter(numIdentifiers));
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        }
+
+        return datasetIdentifier.toString();
+    }
+
+
+    /**
+     * Reserve a contiguous range of identifiers_id values for a loadedSetUUID, at the cost of a constant number of
+     * rows.  The first and last identifiers of the range are inserted into identifiers, which moves the
+     * AUTO_INCREMENT past the range, and the range itself is recorded in identifierBlocks.  The tables are locked
+     * while this happens so that no other insert can take an identifiers_id inside the range.
+     * <p/>
+     * The range is only contiguous if AUTO_INCREMENT steps by 1, so nothing is reserved when auto_increment_increment
+     * is set otherwise, e.g. for multi-master replication.
+     *
+     * @param numIdentifiers
+     * @param loadedSetUUID
+     *
+     * @return true if the block was reserved, false if auto_increment_increment is not 1
+     */
+    private boolean reserveBlock(int numIdentifiers, String loadedSetUUID) {
+        if (autoIncrementIncrement() != 1) {
+            return false;
+        }
+        PreparedStatement lockStatement = null;
         PreparedStatement insertStatement = null;
+        PreparedStatement blockStatement = null;
+        ResultSet rs = null;
+        boolean locked = false;
+        boolean committed = false;
         try {
-            // Turn off autocommits just for this method
             conn.setAutoCommit(false);
-
-            // Use auto increment in database to assign the actual identifier.. this is threadsafe this way
-            // Also, use auto date assignment feature for when this was applied.
-            String insertString = "INSERT INTO identifiers(ezidRequest,loadedSetUUID, datasets_id) " +
-                    "values (?,?,?)";
-            insertStatement = conn.prepareStatement(insertString);
-
-            int count = 0;
-            while (count < numIdentifiers) {
-                insertStatement.setInt(1, FALSE);
-                // insertStatement.setString(2, what.toString());
-                insertStatement.setString(2, datasetIdentifier.toString());
-                insertStatement.setInt(3, this.getDatasets_id());
-                insertStatement.addBatch();
-                // Execute a commit at every 1000 rows
-                if (count + 1 % 1000 == 0) {
-                    insertStatement.executeBatch();
-                    conn.commit();
-                }
-                count++;
+            lockStatement = conn.prepareStatement("LOCK TABLES identifiers WRITE, identifierBlocks WRITE");
+            lockStatement.execute();
+            locked = true;
+
+            // Use auto increment in database to assign the first identifier of the block
+            insertStatement = conn.prepareStatement("INSERT INTO identifiers (ezidRequest, loadedSetUUID, datasets_id) " +
+                    "values (?,?,?)", Statement.RETURN_GENERATED_KEYS);
+            insertStatement.setInt(1, FALSE);
+            insertStatement.setString(2, loadedSetUUID);
+            insertStatement.setInt(3, this.getDatasets_id());
+            insertStatement.executeUpdate();
+            rs = insertStatement.getGeneratedKeys();
+            if (!rs.next()) {
+                throw new ServerErrorException("Server Error", "No identifiers_id generated for block " + loadedSetUUID);
+            }
+            long start = rs.getLong(1);
+
+            // Claim the rest of the block by taking its last identifier explicitly
+            if (numIdentifiers > 1) {
+                db.close(insertStatement, rs);
+                rs = null;
+                insertStatement = conn.prepareStatement("INSERT INTO identifiers (identifiers_id, ezidRequest, " +
+                        "loadedSetUUID, datasets_id) values (?,?,?,?)");
+                insertStatement.setLong(1, start + numIdentifiers - 1);
+                insertStatement.setInt(2, FALSE);
+                insertStatement.setString(3, loadedSetUUID);
+                insertStatement.setInt(4, this.getDatasets_id());
+                insertStatement.executeUpdate();
             }
-            // Execute remainder as batch
-            insertStatement.executeBatch();
+
+            blockStatement = conn.prepareStatement("INSERT INTO identifierBlocks (loadedSetUUID, datasets_id, " +
+                    "start_id, count) values (?,?,?,?)");
+            blockStatement.setString(1, loadedSetUUID);
+            blockStatement.setInt(2, this.getDatasets_id());
+            blockStatement.setLong(3, start);
+            blockStatement.setInt(4, numIdentifiers);
+            blockStatement.executeUpdate();
+
             conn.commit();
+            committed = true;
+            return true;
         } catch (SQLException e) {
             throw new ServerErrorException(e);
         } finally {
-            db.close(insertStatement, null);
+            db.close(insertStatement, rs);
+            db.close(blockStatement, null);
+            db.close(lockStatement, null);
+            // On every other way out, before UNLOCK TABLES or setAutoCommit(true) could commit a partial block
+            if (!committed) {
+                rollback();
+            }
+            if (locked) {
+                PreparedStatement unlockStatement = null;
+                try {
+                    unlockStatement = conn.prepareStatement("UNLOCK TABLES");
+                    unlockStatement.execute();
+                } catch (SQLException e) {
+                    logger.warn("SQLException thrown while trying to unlock tables.", e);
+                } finally {
+                    db.close(unlockStatement, null);
+                }
+            }
             try {
                 conn.setAutoCommit(true);
             } catch (SQLException e) {
                 logger.warn("SQLException thrown while trying to setAutoCommit(true).", e);
             }
         }
+    }
 
-        return datasetIdentifier.toString();
+    /**
+     * @return the session's auto_increment_increment, the step between the identifiers_id values AUTO_INCREMENT takes
+     */
+    private long autoIncrementIncrement() {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT @@auto_increment_increment");
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                long increment = rs.getLong(1);
+                if (increment != 1) {
+                    logger.warn("auto_increment_increment is {}, so identifiers are minted a row at a time", increment);
+                }
+                return increment;
+            }
+            return 1;
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, rs);
+        }
     }
 
+    /**
+     * Return the identifier blocks reserved for a loadedSetUUID by createBCIDs
+     *
+     * @param datasetUUID
+     *
+     * @return a list of {start_id, count} pairs, empty if the loadedSetUUID was not block reserved
+     */
+    private ArrayList<long[]> getBlocks(String datasetUUID) {
+        ArrayList<long[]> blocks = new ArrayList<long[]>();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT start_id, count FROM identifierBlocks WHERE loadedSetUUID = ? " +
+                    "ORDER BY start_id");
+            stmt.setString(1, datasetUUID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                blocks.add(new long[]{rs.getLong("start_id"), rs.getLong("count")});
+            }
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, rs);
+        }
+        return blocks;
+    }
+
+    /**
+     * Iterates over the row numbers 0 to count - 1, for inserts where every row carries the same values
+     */
+    private static class rowCounter implements Iterator<Integer> {
+        private final int count;
+        private int next = 0;
+
+        rowCounter(int count) {
+            this.count = count;
+        }
+
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        public Integer next() {
+            if (next >= count) {
+                throw new NoSuchElementException();
+            }
+            return next++;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 
     /**
      * validate uuid, to make sure it conforms to the generic structure expected of uuids
@@ -444,11 +756,25 @@ public class elementMinter extends dataGroupMinter {
      * @throws BCIDException
      */
     public String createUUIDARK(String uuidAsString) throws BCIDException {
+        return createUUIDARK(prefix, uuidAsString);
+    }
+
+    /**
+     * Generate an ARK version for this uuid, by appending the uuid onto the given dataset's ARK prefix
+     *
+     * @param datasetPrefix
+     * @param uuidAsString
+     *
+     * @return A full ARK representation of this ID
+     *
+     * @throws BCIDException
+     */
+    public String createUUIDARK(String datasetPrefix, String uuidAsString) throws BCIDException {
         // Validate this UUID
-        if (!validateUUID(uuidAsString)) {
+        if (uuidAsString == null || !validateUUID(uuidAsString)) {
             throw new BCIDException("Invalid uuid: " + uuidAsString);
         }
-        return prefix + sm.retrieveValue("divider") + UUID.fromString(uuidAsString).toString();
+        return datasetPrefix + sm.retrieveValue("divider") + UUID.fromString(uuidAsString).toString();
     }
 
     /**
@@ -0,0 +1,127 @@
+package bcid;
+
+import bcidExceptions.BadRequestException;
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+
+/**
+ * Incrementally parse elements from an input file, one line at a time, so that uploads of any size can be minted
+ * without holding the whole file in memory.  Each line has the form sourceID|webAddress, where the webAddress is
+ * optional.
+ */
+public class elementReader implements Iterator<element> {
+
+    private static Logger logger = LoggerFactory.getLogger(elementReader.class);
+
+    private BufferedReader reader;
+    private Integer datasets_id;
+    private String nextLine;
+    private int lineNumber = 0;
+
+    /**
+     * @param input       the input file
+     * @param datasets_id the dataset every element read belongs to
+     */
+    public elementReader(Reader input, Integer datasets_id) {
+        this.reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+        this.datasets_id = datasets_id;
+    }
+
+    public boolean hasNext() {
+        if (nextLine == null) {
+            try {
+                nextLine = reader.readLine();
+            } catch (IOException e) {
+                throw new ServerErrorException("Server Error", "IOException while reading input file at line " +
+                        (lineNumber + 1), e);
+            }
+        }
+        return nextLine != null;
+    }
+
+    public element next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String line = nextLine;
+        nextLine = null;
+        lineNumber++;
+        try {
+            return parseLine(line);
+        } catch (URISyntaxException e) {
+            throw new BadRequestException("Invalid webAddress on line " + lineNumber + " of input file",
+                    "URISyntaxException while parsing line: " + line);
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the number of lines read so far
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Turn a single line of input into an element
+     *
+     * @param line
+     * @return the element described by this line
+     * @throws URISyntaxException if the webAddress is not a valid URI
+     */
+    element parseLine(String line) throws URISyntaxException {
+        String sourceID = null;
+        URI webAddress = null;
+
+        // Break string up into tokens, using pipe as the delimiter
+        StringTokenizer st = new StringTokenizer(line, "|");
+        int count = 0;
+        while (st.hasMoreTokens()) {
+            if (count == 0) {
+                sourceID = st.nextToken();
+            } else if (count == 1) {
+                webAddress = new URI(st.nextToken());
+            } else {
+                st.nextToken();
+            }
+            count++;
+        }
+
+        return new element(sourceID, appendSourceID(webAddress, sourceID), datasets_id);
+    }
+
+    /**
+     * When a line carries both a sourceID and a webAddress, the sourceID is appended to the webAddress to form
+     * the resolution target for that element
+     *
+     * @param webAddress
+     * @param sourceID
+     * @return the resolution target for the element
+     */
+    private URI appendSourceID(URI webAddress, String sourceID) {
+        if (sourceID == null || webAddress == null || sourceID.trim().equals("") ||
+                webAddress.toString().trim().equals("")) {
+            return webAddress;
+        }
+        try {
+            return new URI(webAddress + sourceID);
+        } catch (URISyntaxException e) {
+            //TODO should we silence this exception?
+            logger.warn("URISyntaxException for uri: {}", webAddress + sourceID, e);
+            return webAddress;
+        }
+    }
+}
@@ -102,6 +102,9 @@ public class expeditionMinter {
 
             insertStatement.execute();
 
+            // The user owns the new expedition
+            permissionCache.getInstance().invalidate(users_id);
+
             // Get the datasets_id that was assigned
             expedition_id = getExpeditionIdentifier(internalID);
         } catch (SQLException e) {
@@ -141,6 +144,8 @@ public class expeditionMinter {
         } finally {
             db.close(insertStatement, null);
         }
+        // The dataset's cached projectCode comes from the expedition it is attached to
+        datasetCache.getInstance().invalidate(datasetsId);
     }
 
     /**
@@ -296,37 +301,7 @@ public class expeditionMinter {
      * @return
      */
     public boolean userOwnsExpedition(Integer users_id, String expedition_code, Integer project_id) {
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        try {
-            //String sql = "select expedition_id,expedition_code,expedition_title,username from expeditions,users where users.user_id = expeditions.users_id && users.username =\"" + remoteUser + "\"";
-
-            String sql = "SELECT " +
-                    "   count(*) as count " +
-                    "FROM " +
-                    "   expeditions " +
-                    "WHERE " +
-                    "   expedition_code= ? && " +
-                    "   users_id = ? && " +
-                    "   project_id = ?";
-//            System.out.println(sql);
-            stmt = conn.prepareStatement(sql);
-
-            stmt.setString(1, expedition_code);
-            stmt.setInt(2, users_id);
-            stmt.setInt(3, project_id);
-
-            rs = stmt.executeQuery();
-            rs.next();
-            if (rs.getInt("count") < 1)
-                return false;
-            else
-                return true;
-        } catch (SQLException e) {
-            throw new ServerErrorException(e);
-        } finally {
-            db.close(stmt, rs);
-        }
+        return permissionCache.getInstance().get(users_id).ownsExpedition(expedition_code, project_id);
     }
 
     /**
@@ -338,24 +313,7 @@ public class expeditionMinter {
      * @return
      */
     public boolean userExistsInProject(Integer users_id, Integer project_id) {
-        String selectString = "SELECT count(*) as count FROM usersProjects WHERE users_id = ? && project_id = ?";
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-
-        try {
-            stmt = conn.prepareStatement(selectString);
-
-            stmt.setInt(1, users_id);
-            stmt.setInt(2, project_id);
-
-            rs = stmt.executeQuery();
-            rs.next();
-            return rs.getInt("count") >= 1;
-        } catch (SQLException e) {
-            throw new ServerErrorException(e);
-        } finally {
-            db.close(stmt, rs);
-        }
+        return permissionCache.getInstance().get(users_id).isMember(project_id);
     }
 
     /**
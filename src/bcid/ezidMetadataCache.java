@@ -0,0 +1,305 @@
+package bcid;
+
+import ezid.EZIDException;
+import ezid.EZIDService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.lruCache;
+
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the metadata EZID holds for identifiers, so that showing an identifier's EZID metadata does not
+ * have to call EZID on every request.
+ * <p/>
+ * An entry is fresh for ezidMetadataCacheTTL milliseconds after it was fetched.  After that it is still served, for
+ * up to ezidMetadataCacheMaxStale milliseconds, while a background thread fetches it again; only entries older than
+ * that are fetched while the caller waits.  If EZID cannot be reached the entry is served however old it is.  A
+ * refresh that finds the metadata unchanged keeps the entry, only marking it fresh again.  Once more than
+ * ezidMetadataCacheMaxSize identifiers are held the least recently used is evicted.
+ * <p/>
+ * The ezidWorker puts the metadata it registers into the cache, so an identifier can be shown as soon as it is
+ * registered.  As EZID adds metadata of its own (_owner, _created and so on) these entries are fetched again in the
+ * background the first time they are read.
+ * <p/>
+ * Setting ezidMetadataCacheOffline to true, or calling setOffline, serves purely from the cache, never calling EZID;
+ * this is meant for when EZID is down.
+ * <p/>
+ * The maps handed out are shared between requests and must not be modified.
+ */
+public class ezidMetadataCache {
+
+    private static Logger logger = LoggerFactory.getLogger(ezidMetadataCache.class);
+
+    private static ezidMetadataCache instance;
+
+    private final long ttl;
+    private final long maxStale;
+    private volatile boolean offline;
+    private final lruCache<String, entry> entries;
+    // Identifiers being fetched in the background, so that each is fetched only once at a time
+    private final ConcurrentHashMap<String, Boolean> refreshing = new ConcurrentHashMap<String, Boolean>();
+    private final ThreadPoolExecutor refresher;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong unchangedCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong servedOnFailureCount = new AtomicLong();
+
+    public static synchronized ezidMetadataCache getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new ezidMetadataCache(
+                    sm.retrieveInt("ezidMetadataCacheMaxSize", 10000),
+                    sm.retrieveLong("ezidMetadataCacheTTL", 3600000),
+                    sm.retrieveLong("ezidMetadataCacheMaxStale", 86400000),
+                    sm.retrieveInt("ezidMetadataCacheRefreshThreads", 2),
+                    sm.retrieveBoolean("ezidMetadataCacheOffline", false));
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the background refresh threads.  A later getInstance() starts a new, empty cache.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.refresher.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /**
+     * A cache configured directly rather than from the settings, e.g. in tests.  Its refresh threads are daemons.
+     *
+     * @param maxSize        the most identifiers held
+     * @param ttl            how long, in milliseconds, an entry is fresh
+     * @param maxStale       how long, in milliseconds, an entry is served while it is fetched again in the background
+     * @param refreshThreads the number of background refresh threads
+     * @param offline        true to serve only from the cache
+     */
+    public ezidMetadataCache(int maxSize, long ttl, long maxStale, int refreshThreads, boolean offline) {
+        this.ttl = ttl;
+        this.maxStale = Math.max(ttl, maxStale);
+        this.offline = offline;
+        // Entries are kept past maxStale, to be served if EZID cannot be reached, so do not expire them here
+        this.entries = new lruCache<String, entry>(maxSize, Long.MAX_VALUE);
+        int threads = Math.max(1, refreshThreads);
+        // A short queue: when EZID is slow, refreshes beyond it are dropped and tried again on a later read
+        this.refresher = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-ezid-metadata-refresh-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Get the EZID metadata for an identifier, from the cache if it is held and not too old, otherwise from EZID
+     *
+     * @param ezidService a logged in service to fetch with
+     * @param identifier
+     *
+     * @return the metadata, or null if offline and the identifier is not cached
+     *
+     * @throws EZIDException if the metadata had to be fetched and EZID returned an error
+     */
+    public HashMap<String, String> get(EZIDService ezidService, String identifier) throws EZIDException {
+        long now = System.currentTimeMillis();
+        entry e = entries.get(identifier);
+        if (e != null) {
+            long age = now - e.fetched;
+            if (offline || e.complete && age < ttl) {
+                hitCount.incrementAndGet();
+                return e.metadata;
+            }
+            if (age < maxStale) {
+                staleHitCount.incrementAndGet();
+                refreshInBackground(ezidService, identifier);
+                return e.metadata;
+            }
+        }
+        if (offline) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        missCount.incrementAndGet();
+        try {
+            return fetch(ezidService, identifier);
+        } catch (EZIDException ex) {
+            if (e != null) {
+                // Better old metadata than none while EZID is unavailable
+                servedOnFailureCount.incrementAndGet();
+                logger.warn("Unable to fetch EZID metadata for {}, serving what was fetched {} ms ago",
+                        identifier, now - e.fetched, ex);
+                return e.metadata;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Hold the metadata just registered with EZID for an identifier.  Since EZID adds to it, it is fetched again in
+     * the background the first time it is read.
+     *
+     * @param identifier
+     * @param metadata   the metadata registered
+     */
+    public void registered(String identifier, HashMap<String, String> metadata) {
+        entries.put(identifier, new entry(new HashMap<String, String>(metadata), System.currentTimeMillis(), false));
+    }
+
+    /**
+     * Drop an identifier, so that the next get fetches it from EZID
+     *
+     * @param identifier
+     */
+    public void invalidate(String identifier) {
+        entries.invalidate(identifier);
+    }
+
+    /**
+     * @param offline true to serve only from the cache, never calling EZID, e.g. during an EZID outage
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+        logger.info("EZID metadata cache is now {}", offline ? "offline, serving only from the cache" : "online");
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    private HashMap<String, String> fetch(EZIDService ezidService, String identifier) throws EZIDException {
+        refreshCount.incrementAndGet();
+        // Taken before the fetch, so that metadata fetched before an invalidation is not held after it
+        long loadGeneration = entries.generation();
+        HashMap<String, String> metadata;
+        try {
+            metadata = ezidService.getMetadata(identifier);
+        } catch (EZIDException e) {
+            failureCount.incrementAndGet();
+            throw e;
+        }
+        long now = System.currentTimeMillis();
+        entry previous = entries.get(identifier);
+        if (previous != null && previous.complete && previous.metadata.equals(metadata)) {
+            // Unchanged, so keep handing out the same map
+            unchangedCount.incrementAndGet();
+            entries.putIfCurrent(identifier, new entry(previous.metadata, now, true), loadGeneration);
+            return previous.metadata;
+        }
+        entries.putIfCurrent(identifier, new entry(metadata, now, true), loadGeneration);
+        return metadata;
+    }
+
+    private void refreshInBackground(final EZIDService ezidService, final String identifier) {
+        if (offline || refreshing.putIfAbsent(identifier, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            refresher.execute(new Runnable() {
+                public void run() {
+                    try {
+                        fetch(ezidService, identifier);
+                    } catch (EZIDException e) {
+                        logger.warn("Unable to refresh EZID metadata for {}", identifier, e);
+                    } catch (RuntimeException e) {
+                        logger.warn("Unable to refresh EZID metadata for {}", identifier, e);
+                    } finally {
+                        refreshing.remove(identifier);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(identifier);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of times an entry past its TTL was served while it was fetched again in the background
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of times metadata was fetched from EZID, in the background or not
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return the number of fetches that found the metadata unchanged
+     */
+    public long getUnchangedCount() {
+        return unchangedCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return the number of times a too old entry was served because EZID could not be reached
+     */
+    public long getServedOnFailureCount() {
+        return servedOnFailureCount.get();
+    }
+
+    public String toString() {
+        return "ezidMetadataCache[size=" + size() +
+                ", offline=" + offline +
+                ", hits=" + getHitCount() +
+                ", staleHits=" + getStaleHitCount() +
+                ", misses=" + getMissCount() +
+                ", refreshes=" + getRefreshCount() +
+                ", unchanged=" + getUnchangedCount() +
+                ", failures=" + getFailureCount() +
+                ", servedOnFailure=" + getServedOnFailureCount() + "]";
+    }
+
+    private static class entry {
+        final HashMap<String, String> metadata;
+        final long fetched;
+        // false for metadata put by registered, which lacks what EZID adds
+        final boolean complete;
+
+        entry(HashMap<String, String> metadata, long fetched, boolean complete) {
+            this.metadata = metadata;
+            this.fetched = fetched;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import ezid.EZIDException;
+import ezid.EZIDService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A durable queue of EZID work for datasets, kept in the ezidOutbox table.
+ * <p/>
+ * Work is enqueued in the same transaction as the change to the dataset that needs it (dataGroupMinter.mint for
+ * new datasets, dataGroupMinter.updateDataGroupConfig for changed ones), so it cannot be lost between the database
+ * and EZID.  A poller claims due items by leasing them: one UPDATE marks up to ezidOutboxBatchSize unleased rows
+ * with this poller's lease token, so several application servers can poll the same table without handing out an
+ * item twice, and an item whose poller dies is picked up again once its lease runs out.  This is what SELECT ...
+ * FOR UPDATE SKIP LOCKED gives on databases that have it, without holding a transaction open across the calls to
+ * EZID.
+ * <p/>
+ * Items for the same dataset are never worked on at once: a claim passes over datasets with an item leased to any
+ * poller, and the items of one dataset in a claim are registered as one, with the dataset as it is by then, a create
+ * among them creating the EZID and an update only updating it.
+ * <p/>
+ * Items that EZID refuses are tried again after a delay that doubles with each attempt, starting at
+ * ezidOutboxBackoff and capped at ezidOutboxMaxBackoff.  After ezidOutboxMaxAttempts attempts they are dead
+ * lettered: left in the table with status 'dead' and the last error, until requeueDeadLetters is called.
+ * <p/>
+ * Settings, all optional (times are in milliseconds):
+ * ezidOutboxPollInterval, ezidOutboxBatchSize, ezidOutboxLease, ezidOutboxBackoff, ezidOutboxMaxBackoff,
+ * ezidOutboxMaxAttempts, ezidOutboxRetention (how long completed items are kept).
+ */
+public class ezidOutbox {
+
+    private static Logger logger = LoggerFactory.getLogger(ezidOutbox.class);
+
+    /**
+     * Register a new identifier with EZID
+     */
+    public static final String CREATE = "create";
+    /**
+     * Update the EZID metadata of an identifier that has been registered
+     */
+    public static final String UPDATE = "update";
+
+    private static ezidOutbox instance;
+
+    private final String owner = UUID.randomUUID().toString();
+    private final long pollInterval;
+    private final int batchSize;
+    private final long lease;
+    private final long backoff;
+    private final long maxBackoff;
+    private final int maxAttempts;
+    private final long retention;
+    private ScheduledExecutorService poller;
+    // Kept across polls, and replaced only when EZIDService hands back a new session
+    private volatile ezidWorker worker;
+    private long claimSequence;
+    private String claimToken;
+
+    // Metrics
+    private final AtomicLong claimedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+    private volatile double throughput;
+    private volatile long lagMillis;
+    private volatile long lastPoll;
+
+    /**
+     * Queue EZID work for a dataset.  Done on the caller's connection, so that the work is committed, or rolled back,
+     * with the change to the dataset.
+     *
+     * @param db          the database the dataset was changed on
+     * @param datasets_id
+     * @param operation   CREATE or UPDATE
+     *
+     * @throws SQLException
+     */
+    public static void enqueue(database db, Integer datasets_id, String operation) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement(
+                    "INSERT INTO ezidOutbox (datasets_id, operation, status, nextAttemptAt, createdAt) " +
+                            "VALUES (?, ?, 'pending', NOW(), NOW())");
+            stmt.setInt(1, datasets_id);
+            stmt.setString(2, operation);
+            stmt.executeUpdate();
+        } finally {
+            db.close(stmt, null);
+        }
+    }
+
+    /**
+     * Get the outbox poller shared by this application, starting it on first use
+     *
+     * @return the shared ezidOutbox
+     */
+    public static synchronized ezidOutbox getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new ezidOutbox(
+                    sm.retrieveLong("ezidOutboxPollInterval", 10000),
+                    sm.retrieveInt("ezidOutboxBatchSize", 100),
+                    sm.retrieveLong("ezidOutboxLease", 300000),
+                    sm.retrieveLong("ezidOutboxBackoff", 30000),
+                    sm.retrieveLong("ezidOutboxMaxBackoff", 3600000),
+                    sm.retrieveInt("ezidOutboxMaxAttempts", 10),
+                    sm.retrieveLong("ezidOutboxRetention", 604800000));
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the shared poller, if it has been started.  Called when the web application is shut down; items it had
+     * claimed are picked up again once their leases run out.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.poller.shutdownNow();
+            ezidWorker worker = instance.worker;
+            if (worker != null) {
+                worker.close();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * An outbox configured directly rather than from the settings, which only polls when poll is called
+     *
+     * @param pollInterval how often, in milliseconds, the shared outbox polls
+     * @param batchSize    the most items claimed at once
+     * @param lease        how long, in milliseconds, a claim lasts
+     * @param backoff      how long, in milliseconds, to wait before trying a failed item again the first time
+     * @param maxBackoff   the longest to wait before trying a failed item again
+     * @param maxAttempts  the attempts after which a failing item is dead lettered
+     * @param retention    how long, in milliseconds, completed items are kept
+     */
+    public ezidOutbox(long pollInterval, int batchSize, long lease, long backoff, long maxBackoff, int maxAttempts,
+                      long retention) {
+        this.pollInterval = Math.max(1000, pollInterval);
+        this.batchSize = Math.max(1, batchSize);
+        this.lease = Math.max(1000, lease);
+        this.backoff = Math.max(1000, backoff);
+        this.maxBackoff = Math.max(this.backoff, maxBackoff);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retention = retention;
+    }
+
+    private void start() {
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-ezid-outbox");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        poller.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                pollQuietly();
+            }
+        }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Poll now, rather than at the next interval, e.g. just after work has been queued
+     */
+    public void wake() {
+        if (poller == null) {
+            return;
+        }
+        poller.execute(new Runnable() {
+            public void run() {
+                pollQuietly();
+            }
+        });
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            logger.warn("Exception thrown while polling the EZID outbox.", e);
+        } catch (EZIDException e) {
+            logger.warn("Unable to log in to EZID, the EZID outbox will be polled again in {} ms", pollInterval, e);
+        }
+    }
+
+    /**
+     * Claim and process due items until none are left
+     *
+     * @return the number of items completed
+     *
+     * @throws EZIDException if unable to log in to EZID; claimed items are picked up again once their leases run out
+     */
+    public int poll() throws EZIDException {
+        return poll(null, null);
+    }
+
+    /**
+     * Claim and process the due items of one dataset, or of every dataset, until none are left
+     *
+     * @param ezidAccount the EZID service to register with, or null to log in with the account in the settings
+     * @param datasets_id the dataset whose items to process, or null for every dataset
+     *
+     * @return the number of items completed
+     *
+     * @throws EZIDException if unable to log in to EZID; claimed items are picked up again once their leases run out
+     */
+    public synchronized int poll(EZIDService ezidAccount, Integer datasets_id) throws EZIDException {
+        long start = System.currentTimeMillis();
+        int completed = 0;
+        manageEZID creator = new manageEZID();
+        try {
+            ArrayList<item> claimed;
+            while (!(claimed = claim(creator, datasets_id)).isEmpty()) {
+                if (ezidAccount == null) {
+                    SettingsManager sm = SettingsManager.getInstance();
+                    try {
+                        ezidAccount = EZIDService.getSession(sm.retrieveValue("eziduser"), sm.retrieveValue("ezidpass"));
+                    } catch (EZIDException e) {
+                        // Not the items' fault, so don't count it against them
+                        release(creator);
+                        throw e;
+                    }
+                }
+                completed += process(creator, ezidAccount, claimed);
+            }
+            purge(creator);
+            lagMillis = measureLag(creator);
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "SQLException while polling the EZID outbox", e);
+        } finally {
+            creator.close();
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        if (completed > 0) {
+            throughput = completed * 1000.0 / Math.max(1, elapsed);
+            logger.info("Completed {} EZID outbox items in {} ms: {}", completed, elapsed, this);
+            logger.info("EZID latency: {}", EZIDService.getLatencySummary());
+        }
+        lastPoll = System.currentTimeMillis();
+        return completed;
+    }
+
+    /**
+     * Lease up to batchSize due items to this poller, and read them along with their datasets.  Datasets with an item
+     * leased already, by this poller or another, are passed over until it is done.
+     */
+    private ArrayList<item> claim(manageEZID creator, Integer datasets_id) throws SQLException {
+        Connection conn = creator.conn;
+        String token = claimToken = owner + ":" + (++claimSequence);
+        ArrayList<item> claimed = new ArrayList<item>();
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            // MySQL cannot read the table an UPDATE changes in a subquery, but can read a derived table made from
+            // it; DISTINCT keeps the derived table from being merged back into the subquery
+            stmt = conn.prepareStatement("UPDATE ezidOutbox " +
+                    "SET leaseOwner = ?, leaseUntil = DATE_ADD(NOW(), INTERVAL ? SECOND), attempts = attempts + 1 " +
+                    "WHERE status = 'pending' AND nextAttemptAt <= NOW() " +
+                    "AND (leaseUntil IS NULL OR leaseUntil < NOW()) " +
+                    (datasets_id == null ? "" : "AND datasets_id = ? ") +
+                    "AND datasets_id NOT IN (SELECT datasets_id FROM (SELECT DISTINCT datasets_id FROM ezidOutbox " +
+                    "WHERE status = 'pending' AND leaseUntil >= NOW()) leased) " +
+                    "ORDER BY nextAttemptAt LIMIT ?");
+            int param = 1;
+            stmt.setString(param++, token);
+            stmt.setLong(param++, seconds(lease));
+            if (datasets_id != null) {
+                stmt.setInt(param++, datasets_id);
+            }
+            stmt.setInt(param, batchSize);
+            if (stmt.executeUpdate() == 0) {
+                return claimed;
+            }
+            creator.db.close(stmt, null);
+
+            stmt = conn.prepareStatement("SELECT o.ezidOutbox_id, o.operation, o.attempts, " +
+                    manageEZID.DATASET_COLUMNS +
+                    "FROM ezidOutbox o LEFT JOIN (datasets d, users u) " +
+                    "ON d.datasets_id = o.datasets_id AND d.users_id = u.USER_ID " +
+                    "WHERE o.leaseOwner = ?");
+            stmt.setString(1, token);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                item i = new item(rs.getLong("ezidOutbox_id"), rs.getString("operation"), rs.getInt("attempts"));
+                if (rs.getString("prefix") != null) {
+                    i.datasets_id = rs.getInt("datasets_id");
+                    i.registration = new ezidWorker.registration(String.valueOf(i.ezidOutbox_id),
+                            rs.getString("prefix"), creator.datasetEZIDMetadata(rs), UPDATE.equals(i.operation));
+                }
+                claimed.add(i);
+            }
+            claimedCount.addAndGet(claimed.size());
+        } finally {
+            creator.db.close(stmt, rs);
+        }
+        return claimed;
+    }
+
+    /**
+     * Hand back the items of the last claim unattempted
+     */
+    private void release(manageEZID creator) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = creator.conn.prepareStatement("UPDATE ezidOutbox " +
+                    "SET leaseOwner = NULL, leaseUntil = NULL, attempts = attempts - 1 " +
+                    "WHERE leaseOwner = ? AND status = 'pending'");
+            stmt.setString(1, claimToken);
+            stmt.executeUpdate();
+        } finally {
+            creator.db.close(stmt, null);
+        }
+    }
+
+    /**
+     * Register the claimed items with EZID, recording each as done, to be retried, or dead
+     */
+    private int process(final manageEZID creator, EZIDService ezidAccount, ArrayList<item> claimed)
+            throws SQLException {
+        // The items of each dataset, under the id of the registration made for them all
+        final HashMap<String, ArrayList<item>> items = new HashMap<String, ArrayList<item>>();
+        HashMap<Integer, ezidWorker.registration> byDataset = new HashMap<Integer, ezidWorker.registration>();
+        ArrayList<ezidWorker.registration> registrations = new ArrayList<ezidWorker.registration>();
+        for (item i : claimed) {
+            if (i.registration == null) {
+                // The dataset has gone, or has no prefix yet; nothing will change that by retrying
+                deadLetter(creator, i, "No dataset with a prefix found for this item");
+                continue;
+            }
+            ezidWorker.registration r = byDataset.get(i.datasets_id);
+            if (r == null) {
+                r = i.registration;
+                byDataset.put(i.datasets_id, r);
+                items.put(r.getId(), new ArrayList<item>());
+            } else if (r.isUpdate() && !i.registration.isUpdate()) {
+                // A create stands for the updates too, as it falls back to updating an EZID that is already made
+                items.put(i.registration.getId(), items.remove(r.getId()));
+                r = i.registration;
+                byDataset.put(i.datasets_id, r);
+            }
+            items.get(r.getId()).add(i);
+        }
+        registrations.addAll(byDataset.values());
+
+        final int[] completed = new int[1];
+        ezidWorker worker = worker(ezidAccount);
+        worker.setFailureListener(new ezidWorker.failureListener() {
+            public void failed(ezidWorker.registration r, EZIDException cause) throws SQLException {
+                for (item i : items.get(r.getId())) {
+                    failure(creator, i, cause);
+                }
+            }
+        });
+        worker.register(registrations.iterator(), new ezidWorker.progressListener() {
+            public void registered(ArrayList<String> ids) throws SQLException {
+                ArrayList<String> created = new ArrayList<String>();
+                ArrayList<String> done = new ArrayList<String>();
+                for (String id : ids) {
+                    for (item i : items.get(id)) {
+                        if (CREATE.equals(i.operation) && !created.contains(String.valueOf(i.datasets_id))) {
+                            created.add(String.valueOf(i.datasets_id));
+                        }
+                        done.add(String.valueOf(i.ezidOutbox_id));
+                    }
+                }
+                if (!created.isEmpty()) {
+                    creator.updateEZIDMadeField(created, "datasets");
+                    for (String datasets_id : created) {
+                        datasetCache.getInstance().invalidate(Integer.valueOf(datasets_id));
+                    }
+                }
+                complete(creator, done);
+                completed[0] += done.size();
+            }
+        });
+        return completed[0];
+    }
+
+    /**
+     * @return the worker for the session, made on first use or when the session has changed
+     */
+    private ezidWorker worker(EZIDService ezidAccount) {
+        if (worker == null || worker.getEZIDService() != ezidAccount) {
+            if (worker != null) {
+                worker.close();
+            }
+            worker = new ezidWorker(ezidAccount);
+        }
+        return worker;
+    }
+
+    private void complete(manageEZID creator, ArrayList<String> ids) throws SQLException {
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++) {
+            in.append(i == 0 ? "?" : ",?");
+        }
+        PreparedStatement stmt = null;
+        try {
+            stmt = creator.conn.prepareStatement("UPDATE ezidOutbox " +
+                    "SET status = 'done', completedAt = NOW(), leaseOwner = NULL, leaseUntil = NULL, " +
+                    "lastError = NULL " +
+                    "WHERE ezidOutbox_id IN (" + in + ")");
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setLong(i + 1, Long.parseLong(ids.get(i)));
+            }
+            stmt.executeUpdate();
+        } finally {
+            creator.db.close(stmt, null);
+        }
+        completedCount.addAndGet(ids.size());
+    }
+
+    /**
+     * Schedule a failed item to be tried again, or dead letter it if it has used up its attempts
+     */
+    private void failure(manageEZID creator, item i, EZIDException cause) throws SQLException {
+        String error = cause.getMessage() == null ? cause.toString() : cause.getMessage();
+        long delay = getRetryDelay(i.attempts);
+        if (delay < 0) {
+            deadLetter(creator, i, error);
+            return;
+        }
+        PreparedStatement stmt = null;
+        try {
+            stmt = creator.conn.prepareStatement("UPDATE ezidOutbox " +
+                    "SET nextAttemptAt = DATE_ADD(NOW(), INTERVAL ? SECOND), leaseOwner = NULL, leaseUntil = NULL, " +
+                    "lastError = ? " +
+                    "WHERE ezidOutbox_id = ?");
+            stmt.setLong(1, seconds(delay));
+            stmt.setString(2, error);
+            stmt.setLong(3, i.ezidOutbox_id);
+            stmt.executeUpdate();
+        } finally {
+            creator.db.close(stmt, null);
+        }
+        retryCount.incrementAndGet();
+    }
+
+    /**
+     * How long an item that has failed is left before it is tried again: ezidOutboxBackoff after the first attempt,
+     * doubling with each attempt after that up to ezidOutboxMaxBackoff
+     *
+     * @param attempts the number of times the item has been tried
+     *
+     * @return the delay in milliseconds, or -1 if the item has used up its attempts and is to be dead lettered
+     */
+    public long getRetryDelay(int attempts) {
+        if (attempts >= maxAttempts) {
+            return -1;
+        }
+        return Math.min(maxBackoff, backoff << Math.min(Math.max(attempts - 1, 0), 30));
+    }
+
+    private void deadLetter(manageEZID creator, item i, String error) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = creator.conn.prepareStatement("UPDATE ezidOutbox " +
+                    "SET status = 'dead', leaseOwner = NULL, leaseUntil = NULL, lastError = ? " +
+                    "WHERE ezidOutbox_id = ?");
+            stmt.setString(1, error);
+            stmt.setLong(2, i.ezidOutbox_id);
+            stmt.executeUpdate();
+        } finally {
+            creator.db.close(stmt, null);
+        }
+        deadLetterCount.incrementAndGet();
+        logger.warn("EZID outbox item {} ({} of dataset {}) dead lettered after {} attempts: {}",
+                i.ezidOutbox_id, i.operation, i.datasets_id, i.attempts, error);
+    }
+
+    /**
+     * Put every dead lettered item back on the queue, with its attempts reset, e.g. once an EZID account problem
+     * has been fixed
+     *
+     * @return the number of items requeued
+     */
+    public int requeueDeadLetters() {
+        database db = new database();
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement("UPDATE ezidOutbox " +
+                    "SET status = 'pending', attempts = 0, nextAttemptAt = NOW() " +
+                    "WHERE status = 'dead'");
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "SQLException while requeueing dead EZID outbox items", e);
+        } finally {
+            db.close(stmt, null);
+            db.close();
+        }
+    }
+
+    /**
+     * Delete completed items older than the retention period
+     */
+    private void purge(manageEZID creator) throws SQLException {
+        if (retention <= 0) {
+            return;
+        }
+        PreparedStatement stmt = null;
+        try {
+            stmt = creator.conn.prepareStatement("DELETE FROM ezidOutbox " +
+                    "WHERE status = 'done' AND completedAt < DATE_SUB(NOW(), INTERVAL ? SECOND) LIMIT 10000");
+            stmt.setLong(1, seconds(retention));
+            stmt.executeUpdate();
+        } finally {
+            creator.db.close(stmt, null);
+        }
+    }
+
+    /**
+     * @return how long the oldest pending item has been waiting, in milliseconds
+     */
+    private long measureLag(manageEZID creator) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = creator.conn.prepareStatement("SELECT TIMESTAMPDIFF(SECOND, MIN(createdAt), NOW()) as lag " +
+                    "FROM ezidOutbox WHERE status = 'pending'");
+            rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong("lag") * 1000 : 0;
+        } finally {
+            creator.db.close(stmt, rs);
+        }
+    }
+
+    /**
+     * @return the number of items claimed, including those claimed again after failing
+     */
+    public long getClaimedCount() {
+        return claimedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * @return the number of times an item failed and was scheduled to be tried again
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    /**
+     * @return items completed per second over the last poll that completed any
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @return how long the oldest pending item had been waiting as of the last poll, in milliseconds
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public long getLastPoll() {
+        return lastPoll;
+    }
+
+    public String toString() {
+        return "ezidOutbox[claimed=" + getClaimedCount() +
+                ", completed=" + getCompletedCount() +
+                ", retries=" + getRetryCount() +
+                ", deadLetters=" + getDeadLetterCount() +
+                ", throughput=" + String.format("%.1f/s", getThroughput()) +
+                ", lagMillis=" + getLagMillis() + "]";
+    }
+
+    private static long seconds(long millis) {
+        return (millis + 999) / 1000;
+    }
+
+    /**
+     * A claimed row of the ezidOutbox table
+     */
+    private static class item {
+        final long ezidOutbox_id;
+        final String operation;
+        final int attempts;
+        Integer datasets_id;
+        ezidWorker.registration registration;
+
+        item(long ezidOutbox_id, String operation, int attempts) {
+            this.ezidOutbox_id = ezidOutbox_id;
+            this.operation = operation;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package bcid;
+
+import ezid.EZIDException;
+import ezid.EZIDService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.rateLimiter;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registers identifiers with EZID several at a time, holding the requests made to EZID to a steady rate.
+ * <p/>
+ * Identifiers that register are handed back to a progressListener every ezidWorkerBatchSize registrations, so
+ * that ezidMade can be committed as the work goes along: if a run is stopped, the next run only has what was not
+ * yet recorded left to do.  An identifier that EZID already has (say, from a run that stopped after registering it
+ * but before recording it) has its metadata updated instead, so running again over the same identifiers is safe.
+ * The metadata registered goes into the ezidMetadataCache.
+ * <p/>
+ * Every request to EZID takes a token from the rate limit, so a registration that falls back from create to update
+ * counts as the two requests it makes.  A worker keeps its threads across calls to register, letting them go once
+ * they have been idle for a minute, and close stops them.
+ * <p/>
+ * Settings, all optional:
+ * ezidWorkerThreads (requests to EZID in flight at once), ezidRequestsPerSecond (0 for no limit),
+ * ezidWorkerBatchSize (registrations per progressListener call).
+ */
+public class ezidWorker {
+
+    private static Logger logger = LoggerFactory.getLogger(ezidWorker.class);
+
+    /**
+     * An identifier to register, and the key of the row it came from
+     */
+    public static class registration {
+        private final String id;
+        private final String identifier;
+        private final HashMap<String, String> metadata;
+        private final boolean update;
+
+        /**
+         * @param id         the key of the row to mark as registered, e.g. its datasets_id
+         * @param identifier the identifier to register
+         * @param metadata   the metadata to register it with
+         */
+        public registration(String id, String identifier, HashMap<String, String> metadata) {
+            this(id, identifier, metadata, false);
+        }
+
+        /**
+         * @param id         the key of the row to mark as registered, e.g. its datasets_id
+         * @param identifier the identifier to register
+         * @param metadata   the metadata to register it with
+         * @param update     true to only update the metadata of an identifier EZID already has
+         */
+        public registration(String id, String identifier, HashMap<String, String> metadata, boolean update) {
+            this.id = id;
+            this.identifier = identifier;
+            this.metadata = metadata;
+            this.update = update;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public HashMap<String, String> getMetadata() {
+            return metadata;
+        }
+
+        public boolean isUpdate() {
+            return update;
+        }
+    }
+
+    /**
+     * Records that identifiers have been registered.  Called on the thread that called register.
+     */
+    public interface progressListener {
+        /**
+         * @param ids the keys of the registrations that succeeded since the last call
+         *
+         * @throws SQLException
+         */
+        void registered(ArrayList<String> ids) throws SQLException;
+    }
+
+    /**
+     * Told of each registration that could be neither created nor updated.  Called on the thread that called
+     * register.
+     */
+    public interface failureListener {
+        /**
+         * @param r     the registration that failed
+         * @param cause the error from EZID
+         *
+         * @throws SQLException
+         */
+        void failed(registration r, EZIDException cause) throws SQLException;
+    }
+
+    private final EZIDService ezid;
+    private final int threads;
+    private final int batchSize;
+    private final rateLimiter limiter;
+    private final ThreadPoolExecutor executor;
+    private failureListener failureListener;
+
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong updatedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rateWaitNanos = new AtomicLong();
+    private long batchCount;
+
+    /**
+     * Create an ezidWorker configured from bcidsettings.props
+     *
+     * @param ezid a logged in EZIDService
+     */
+    public ezidWorker(EZIDService ezid) {
+        this(ezid,
+                settings().retrieveInt("ezidWorkerThreads", 4),
+                settings().retrieveDouble("ezidRequestsPerSecond", 10),
+                settings().retrieveInt("ezidWorkerBatchSize", 100));
+    }
+
+    private static SettingsManager settings() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        return sm;
+    }
+
+    /**
+     * @param ezid              a logged in EZIDService
+     * @param threads           the number of requests to EZID in flight at once
+     * @param requestsPerSecond the most requests to make to EZID per second, 0 for no limit
+     * @param batchSize         the number of registrations to hand to the progressListener at once
+     */
+    public ezidWorker(EZIDService ezid, int threads, double requestsPerSecond, int batchSize) {
+        this.ezid = ezid;
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+        // Allow a second's worth of requests to go out at once after an idle spell
+        this.limiter = new rateLimiter(requestsPerSecond, (int) Math.ceil(requestsPerSecond));
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-ezid-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stop the worker's threads, interrupting any registrations still in flight.  register may not be called after.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param failureListener told of each registration that fails, or null to only log failures
+     */
+    public void setFailureListener(failureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Register each of the pending identifiers, returning when all have been attempted.  Identifiers that can be
+     * neither created nor updated are logged and skipped, leaving them to be tried again by a later run.
+     *
+     * @param pending  the identifiers to register, read as they are needed
+     * @param listener told of the identifiers registered, in batches
+     *
+     * @return the number of identifiers registered
+     *
+     * @throws SQLException if a listener fails; identifiers registered but not yet recorded will be updated
+     *                      rather than created when they are tried again
+     */
+    public int register(Iterator<registration> pending, progressListener listener) throws SQLException {
+        CompletionService<outcome> completion = new ExecutorCompletionService<outcome>(executor);
+        HashSet<Future<outcome>> inFlight = new HashSet<Future<outcome>>();
+        ArrayList<String> registered = new ArrayList<String>(batchSize);
+        int total = 0;
+        try {
+            while (pending.hasNext()) {
+                // Keep just enough requests queued that no thread waits, rather than reading ahead
+                if (inFlight.size() >= threads * 2) {
+                    total += collect(completion.take(), inFlight, registered, listener);
+                }
+                final registration r = pending.next();
+                inFlight.add(completion.submit(new Callable<outcome>() {
+                    public outcome call() {
+                        return registerOne(r);
+                    }
+                }));
+
+                Future<outcome> done;
+                while ((done = completion.poll()) != null) {
+                    total += collect(done, inFlight, registered, listener);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                total += collect(completion.take(), inFlight, registered, listener);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while registering EZIDs, {} in flight will be tried again by a later run",
+                    inFlight.size());
+        } finally {
+            // Left behind only if interrupted or a listener failed; the threads are kept for the next call
+            for (Future<outcome> f : inFlight) {
+                f.cancel(true);
+            }
+        }
+        // Record what completed, including when interrupted
+        flush(registered, listener);
+        return total;
+    }
+
+    /**
+     * Create an identifier, or update its metadata if EZID already has it.  Every registration gets an outcome, an
+     * unexpected exception being reported as a failure like an error from EZID, so that it is always accounted for.
+     */
+    private outcome registerOne(registration r) {
+        try {
+            return createOrUpdate(r);
+        } catch (InterruptedException e) {
+            // Cancelled by register, which no longer collects the outcome
+            Thread.currentThread().interrupt();
+            return new outcome(r, new EZIDException(e));
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            logger.warn("Exception thrown in attempting to create OR update EZID {}", r.getIdentifier(), e);
+            return new outcome(r, new EZIDException(e));
+        }
+    }
+
+    private outcome createOrUpdate(registration r) throws InterruptedException {
+        if (!r.isUpdate()) {
+            try {
+                rateWaitNanos.addAndGet(limiter.acquire());
+                ezid.createIdentifier(r.getIdentifier(), r.getMetadata());
+                createdCount.incrementAndGet();
+                logger.info("Created EZID {}", r.getIdentifier());
+                return new outcome(r, null);
+            } catch (EZIDException e) {
+                // Most likely EZID has it already, so fall through to updating it
+            }
+        }
+        try {
+            rateWaitNanos.addAndGet(limiter.acquire());
+            ezid.setMetadata(r.getIdentifier(), r.getMetadata());
+            updatedCount.incrementAndGet();
+            logger.info("Updated Metadata for {}", r.getIdentifier());
+            return new outcome(r, null);
+        } catch (EZIDException e) {
+            failedCount.incrementAndGet();
+            logger.warn("Exception thrown in attempting to create OR update EZID {}, a permission issue?",
+                    r.getIdentifier(), e);
+            return new outcome(r, e);
+        }
+    }
+
+    private int collect(Future<outcome> done, HashSet<Future<outcome>> inFlight, ArrayList<String> registered,
+                        progressListener listener) throws SQLException {
+        inFlight.remove(done);
+        outcome o;
+        try {
+            o = done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException e) {
+            // Only an Error gets here, as registerOne turns exceptions into outcomes
+            failedCount.incrementAndGet();
+            logger.warn("Exception thrown in attempting to create OR update EZID", e.getCause());
+            return 0;
+        }
+        if (o.error != null) {
+            if (failureListener != null) {
+                failureListener.failed(o.registration, o.error);
+            }
+            return 0;
+        }
+        registered.add(o.registration.getId());
+        ezidMetadataCache.getInstance().registered(o.registration.getIdentifier(), o.registration.getMetadata());
+        if (registered.size() >= batchSize) {
+            flush(registered, listener);
+        }
+        return 1;
+    }
+
+    private void flush(ArrayList<String> registered, progressListener listener) throws SQLException {
+        if (registered.isEmpty()) {
+            return;
+        }
+        listener.registered(new ArrayList<String>(registered));
+        registered.clear();
+        batchCount++;
+    }
+
+    /**
+     * @return the EZIDService registrations are made with
+     */
+    public EZIDService getEZIDService() {
+        return ezid;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return the number of identifiers EZID already had, whose metadata was updated
+     */
+    public long getUpdatedCount() {
+        return updatedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return the number of times the progressListener has been called
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return the total time, in milliseconds, spent waiting on the rate limit
+     */
+    public long getRateWaitMillis() {
+        return rateWaitNanos.get() / 1000000;
+    }
+
+    public String toString() {
+        return "ezidWorker[created=" + getCreatedCount() +
+                ", updated=" + getUpdatedCount() +
+                ", failed=" + getFailedCount() +
+                ", batches=" + getBatchCount() +
+                ", rateWaitMillis=" + getRateWaitMillis() + "]";
+    }
+
+    private static class outcome {
+        final registration registration;
+        final EZIDException error;
+
+        outcome(registration registration, EZIDException error) {
+            this.registration = registration;
+            this.error = error;
+        }
+    }
+}
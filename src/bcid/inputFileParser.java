@@ -4,14 +4,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.timer;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.StringTokenizer;
 
 /**
  * Parse an input File and construct an element Iterator which can be fetched
@@ -19,7 +16,7 @@ import java.util.StringTokenizer;
 public class inputFileParser {
 
     private static Logger logger = LoggerFactory.getLogger(inputFileParser.class);
-    public ArrayList<bcid> elementArrayList = new ArrayList();
+    public ArrayList<element> elementArrayList = new ArrayList<element>();
 
     /**
      * Main method to demonstrate how this is used
@@ -52,7 +49,9 @@ public class inputFileParser {
     }
 
     /**
-     * Parse an input file and turn it into an Iterator containing elements
+     * Parse an input file and turn it into an Iterator containing elements.
+     * The dataset is only consulted once, for its datasets_id, so no database work is done per line.
+     * Use bcid.elementReader directly to parse large inputs without holding them in memory.
      *
      * @param inputString
      * @throws java.io.IOException
@@ -62,31 +61,9 @@ public class inputFileParser {
 
         // TODO: check that user_id can write to dataset_id
 
-        BufferedReader readbuffer = new BufferedReader(new StringReader(inputString));
-        String strRead;
-        while ((strRead = readbuffer.readLine()) != null) {
-            String sourceID = null;
-            URI webAddress = null;
-
-            // Break string up into tokens, using pipe as the delimiter
-            StringTokenizer st = new StringTokenizer(strRead, "|");
-            int count = 0;
-            while (st.hasMoreTokens()) {
-                if (count == 0) {
-                    sourceID = st.nextToken();
-                } else if (count == 1) {
-                    try {
-                        webAddress = new URI(st.nextToken());
-                    } catch (NullPointerException e) {
-                        //TODO should we silence this exception?
-                        logger.warn("NullPointerException for webAddress in the file: {}", inputString, e);
-                        webAddress = null;
-                    }
-                }
-                count++;
-            }
-
-            elementArrayList.add(new bcid(sourceID, webAddress, dataset.getDatasets_id()));
+        elementReader reader = new elementReader(new StringReader(inputString), dataset.getDatasets_id());
+        while (reader.hasNext()) {
+            elementArrayList.add(reader.next());
         }
     }
 
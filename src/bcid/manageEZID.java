@@ -7,16 +7,16 @@ import ezid.EZIDService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigInteger;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 
 /**
  * Class to work with EZID creation from the bcid database.  requests to this class are controlled by
@@ -58,6 +58,44 @@ public class manageEZID extends elementMinter {
         return map;
     }
 
+    /**
+     * The columns datasetEZIDMetadata reads, to select FROM datasets d, users u
+     */
+    static final String DATASET_COLUMNS = "d.datasets_id as datasets_id," +
+            "d.prefix as prefix," +
+            "d.ts as ts," +
+            "d.resourceType as type," +
+            "d.title as title," +
+            "concat_ws('',CONCAT_WS(' ',u.firstName, u.lastName),' <',u.email,'>') as creator ";
+
+    /**
+     * Build the Dublin Core metadata registered with EZID for a dataset
+     *
+     * @param rs positioned on a row selecting DATASET_COLUMNS
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    HashMap<String, String> datasetEZIDMetadata(ResultSet rs) throws SQLException {
+        // Get creator, using any system defined creator to override the default which is based on user data
+        String creator = rs.getString("creator");
+        if (getCreator() != null) {
+            creator = getCreator();
+        }
+
+        // Dublin Core metadata profile element
+        HashMap<String, String> map = dcMap(
+                resolverTargetPrefix + rs.getString("prefix"),
+                creator,
+                rs.getString("title"),
+                getPublisher(),
+                rs.getString("ts"),
+                rs.getString("type"));
+        map.put("_profile", "dc");
+        return map;
+    }
+
     /**
      * Update EZID dataset metadata for this particular ID
      */
@@ -66,17 +104,10 @@ public class manageEZID extends elementMinter {
         ResultSet rs = null;
         try {
 
-            String sql = "SELECT " +
-                    "d.datasets_id as datasets_id," +
-                    "d.prefix as prefix," +
-                    "d.title as title," +
-                    "d.ts as ts," +
-                    "d.resourceType as type," +
-                    "concat_ws('',CONCAT_WS(' ',u.firstName, u.lastName),' <',u.email,'>') as creator " +
+            String sql = "SELECT " + DATASET_COLUMNS +
                     "FROM datasets d,users u " +
                     "WHERE ezidMade && d.users_id=u.USER_ID " +
-                    "AND d.datasets_id = ? " +
-                    "LIMIT 1000";
+                    "AND d.datasets_id = ?";
 
             stmt = conn.prepareStatement(sql);
             stmt.setInt(1, datasets_id);
@@ -84,27 +115,15 @@ public class manageEZID extends elementMinter {
 
             rs.next();
 
-            // Get creator, using any system defined creator to override the default which is based on user data
-            String creator = rs.getString("creator");
-            if (this.getCreator() != null) {
-                creator = this.getCreator();
-            }
-
             // Build the hashmap to pass to ezid
-            HashMap<String, String> map = dcMap(
-                    resolverTargetPrefix + rs.getString("prefix"),
-                    creator,
-                    rs.getString("title"),
-                    this.getPublisher(),
-                    rs.getString("ts"),
-                    rs.getString("type"));
-            map.put("_profile", "dc");
+            HashMap<String, String> map = datasetEZIDMetadata(rs);
 
             // The ID string to register with EZID
             String myIdentifier = rs.getString("prefix");
 
             try {
                 ezid.setMetadata(myIdentifier, map);
+                ezidMetadataCache.getInstance().registered(myIdentifier, map);
                 logger.info("  Updated Metadata for " + myIdentifier);
             } catch (EZIDException e1) {
                 // After attempting to set the Metadata, if another exception is thrown then who knows,
@@ -122,100 +141,91 @@ public class manageEZID extends elementMinter {
 
     /**
      * Go through datasets table and create any ezid fields that have yet to be created.
-     * This method is meant to be called via a cronjob on the backend.
+     * This method is meant to be called via a cronjob on the backend, to sweep up what the ezidOutbox does not have:
+     * datasets minted before it, and those whose items it gave up on.  Datasets with work pending on the ezidOutbox
+     * are left to it, so that the two never register the same dataset.
      * <p/>
+     * EZIDs are created concurrently by an ezidWorker, and ezidMade is committed for each batch as it completes.
+     * The scan picks up where the last run left off, see pendingRows.
      * TODO: throw a special exception on this method so we can follow up why EZIDs are not being made if that is the
      * case
      *
      * @param ezid
      *
-     * @throws java.net.URISyntaxException
+     * @throws EZIDException
      */
     public void createDatasetsEZIDs(EZIDService ezid) throws EZIDException {
-        // Grab a row where ezid is false
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        ArrayList<String> idSuccessList = new ArrayList();
-        try {
-            String sql = "SELECT d.datasets_id as datasets_id," +
-                    "d.prefix as prefix," +
-                    "d.ts as ts," +
-                    "d.resourceType as type," +
-                    "d.title as title," +
-                    "concat_ws('',CONCAT_WS(' ',u.firstName, u.lastName),' <',u.email,'>') as creator " +
-                    "FROM datasets d,users u " +
-                    "WHERE !ezidMade && ezidRequest && d.users_id=u.USER_ID && u.username != 'demo'" +
-                    "LIMIT 1000";
-            stmt = conn.prepareStatement(sql);
-            rs = stmt.executeQuery();
-
-            // Attempt to create an EZID for this row
-            while (rs.next()) {
-                URI identifier = null;
-
-                // Get creator, using any system defined creator to override the default which is based on user data
-                String creator = rs.getString("creator");
-                if (this.getCreator() != null) {
-                    creator = this.getCreator();
-                }
-
-                // Dublin Core metadata profile element
-                HashMap<String, String> map = dcMap(
-                        resolverTargetPrefix + rs.getString("prefix"),
-                        creator,
-                        rs.getString("title"),
-                        this.getPublisher(),
-                        rs.getString("ts"),
-                        rs.getString("type"));
-                map.put("_profile", "dc");
-
-                // The ID string to register with ezid
-                String myIdentifier = rs.getString("prefix");
-
-                // Register this as an EZID
+        ezidWorker worker = new ezidWorker(ezid);
+        final pendingRows rows = new pendingRows("datasets") {
+            protected long fetch(long after, int limit, ArrayList<ezidWorker.registration> page)
+                    throws SQLException {
+                long last = -1;
+                PreparedStatement stmt = null;
+                ResultSet rs = null;
                 try {
-                    identifier = new URI(ezid.createIdentifier(myIdentifier, map));
-                    idSuccessList.add(rs.getString("datasets_id"));
-                    logger.info("{}", identifier.toString());
-                } catch (EZIDException e) {
-                    // Adding this for debugging
-                    //e.printStackTrace();
-                    // Attempt to set Metadata if this is an Exception
-                    try {
-                        ezid.setMetadata(myIdentifier, map);
-                        idSuccessList.add(rs.getString("datasets_id"));
-                    } catch (EZIDException e1) {
-                        //TODO should we silence this exception?
-                        logger.warn("Exception thrown in attempting to create OR update EZID {}, a permission issue?", myIdentifier, e1);
+                    // Written as equalities so that datasets_ezid_scan_idx serves both the filter and the order
+                    String sql = "SELECT " + DATASET_COLUMNS +
+                            "FROM datasets d,users u " +
+                            "WHERE d.ezidMade = 0 && d.ezidRequest = 1 && d.datasets_id > ? " +
+                            "&& d.users_id=u.USER_ID && u.username != 'demo' " +
+                            "&& NOT EXISTS (SELECT 1 FROM ezidOutbox o " +
+                            "WHERE o.datasets_id = d.datasets_id && o.status = 'pending') " +
+                            "ORDER BY d.datasets_id " +
+                            "LIMIT ?";
+                    stmt = conn.prepareStatement(sql);
+                    stmt.setLong(1, after);
+                    stmt.setInt(2, limit);
+                    rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        last = rs.getLong("datasets_id");
+
+                        // The ID string to register with ezid
+                        page.add(new ezidWorker.registration(rs.getString("datasets_id"), rs.getString("prefix"),
+                                datasetEZIDMetadata(rs)));
                     }
-
-                } catch (URISyntaxException e) {
-                    throw new EZIDException("Bad uri syntax for " + myIdentifier + ", " + map, e);
+                } finally {
+                    db.close(stmt, rs);
                 }
-
+                return last;
             }
-        } catch (SQLException e) {
-            throw new ServerErrorException("Server Error", "SQLException when creating EZID", e);
-        } finally {
-            db.close(stmt, rs);
-        }
-
-        // Update the Identifiers Table and let it know that we've created the EZID
+        };
+        worker.setFailureListener(new ezidWorker.failureListener() {
+            public void failed(ezidWorker.registration r, EZIDException cause) throws SQLException {
+                rows.attempted(r.getId());
+            }
+        });
         try {
-            updateEZIDMadeField(idSuccessList, "datasets");
+            worker.register(rows, new ezidWorker.progressListener() {
+                public void registered(ArrayList<String> ids) throws SQLException {
+                    // Update the datasets table and let it know that we've created the EZID
+                    updateEZIDMadeField(ids, "datasets");
+                    for (String id : ids) {
+                        datasetCache.getInstance().invalidate(Integer.valueOf(id));
+                        rows.attempted(id);
+                    }
+                }
+            });
         } catch (SQLException e) {
-            throw new ServerErrorException("Server Error", "It appears we have created " + idSuccessList.size() +
-                    " EZIDs but not able to update the identifiers table", e);
+            throw new ServerErrorException("Server Error", "SQLException when creating EZIDs, those created " +
+                    "since the last batch will be updated when the datasets are next tried", e);
+        } finally {
+            worker.close();
         }
-
+        logger.info("Created dataset EZIDs: {}, {}", worker, rows);
+        logger.info("EZID latency: {}", EZIDService.getLatencySummary());
     }
 
     /**
      * Go through identifier table and create any ezid fields that have yet to be created.
      * This method is meant to be called via a cronjob on the backend.
      * <p/>
-     * In cases where suffixPassthrough = false then use the "id" field of the table itself to generate the identifier
-     * In cases where suffixPassthrough = true then just pass the uuid that is stored to generate the identifier
+     * In cases where the dataset's suffixPassthrough = false then use the "identifiers_id" field of the table itself
+     * to generate the identifier.
+     * In cases where the dataset's suffixPassthrough = true then just pass the uuid that is stored in localid to
+     * generate the identifier
+     * <p/>
+     * EZIDs are created concurrently by an ezidWorker, and ezidMade is committed for each batch as it completes.
+     * The scan picks up where the last run left off, see pendingRows.
      * TODO: throw a special exception on this method so we can follow up why EZIDs are not being made if that is the
      * case
      *
@@ -224,77 +234,255 @@ public class manageEZID extends elementMinter {
      * @throws java.net.URISyntaxException
      */
     public void createIdentifiersEZIDs(EZIDService ezid) throws URISyntaxException {
-        // Grab a row where ezid is false
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        ArrayList<String> idSuccessList = new ArrayList();
+        ezidWorker worker = new ezidWorker(ezid);
+        final pendingRows rows = new pendingRows("identifiers") {
+            // Identifiers are read in identifiers_id order, so runs of them share a dataset and its encoder
+            private final HashMap<String, elementEncoder> encoders = new HashMap<String, elementEncoder>();
+
+            protected long fetch(long after, int limit, ArrayList<ezidWorker.registration> page)
+                    throws SQLException {
+                long last = -1;
+                PreparedStatement stmt = null;
+                ResultSet rs = null;
+                try {
+                    // Written as equalities so that identifiers_ezid_scan_idx serves both the filter and the order
+                    String sql = "SELECT " +
+                            "i.identifiers_id as identifiers_id," +
+                            "i.webaddress as webaddress," +
+                            "i.localid as localid," +
+                            "d.resourceType as what," +
+                            "d.suffixPassthrough as suffixPassthrough," +
+                            "d.prefix as prefix " +
+                            "FROM identifiers i, datasets d " +
+                            "WHERE i.ezidMade = 0 && i.ezidRequest = 1 && i.identifiers_id > ? " +
+                            "&& i.datasets_id=d.datasets_id " +
+                            "ORDER BY i.identifiers_id " +
+                            "LIMIT ?";
+                    stmt = conn.prepareStatement(sql);
+                    stmt.setLong(1, after);
+                    stmt.setInt(2, limit);
+                    rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        last = rs.getLong("identifiers_id");
+
+                        HashMap<String, String> map = new HashMap<String, String>();
+                        map.put("_profile", "erc");
+
+                        if (rs.getString("webaddress") == null) {
+                            map.put("_target", "");
+                        } else {
+                            map.put("_target", rs.getString("webaddress"));
+                        }
+                        map.put("erc.what", rs.getString("what"));
+                        //TODO: put the correct who here
+                        //map.put("erc.who", who.toString());
+                        // when here is very confusing
+                        //map.put("erc.when", new dates().now());
+                        String idString = rs.getString("identifiers_id");
+                        String datasetPrefix = rs.getString("prefix");
+
+                        String myIdentifier;
+                        // If this is the uuid case
+                        if (rs.getBoolean("suffixPassthrough")) {
+                            try {
+                                myIdentifier = createUUIDARK(datasetPrefix, rs.getString("localid"));
+                            } catch (BCIDException e) {
+                                // TODO: special exception to handle for unable to create this identifier
+                                logger.warn("BCIDException thrown.", e);
+                                continue;
+                            }
+                            // If this is not tagged as a uuid
+                        } else {
+                            elementEncoder encoder = encoders.get(datasetPrefix);
+                            if (encoder == null) {
+                                encoder = new elementEncoder(datasetPrefix);
+                                encoders.put(datasetPrefix, encoder);
+                            }
+                            myIdentifier = encoder.encode(last);
+                        }
+                        page.add(new ezidWorker.registration(idString, myIdentifier, map));
+                    }
+                } finally {
+                    db.close(stmt, rs);
+                }
+                return last;
+            }
+        };
+        worker.setFailureListener(new ezidWorker.failureListener() {
+            public void failed(ezidWorker.registration r, EZIDException cause) throws SQLException {
+                rows.attempted(r.getId());
+            }
+        });
         try {
-            String sql = "SELECT identifiers_id,webaddress,localid,what,suffixPassthrough " +
-                    "FROM identifiers " +
-                    "WHERE !ezidMade && ezidRequest " +
-                    "LIMIT 1000";
-            stmt = conn.prepareStatement(sql);
-            rs = stmt.executeQuery();
+            worker.register(rows, new ezidWorker.progressListener() {
+                public void registered(ArrayList<String> ids) throws SQLException {
+                    updateEZIDMadeField(ids, "identifiers");
+                    for (String id : ids) {
+                        rows.attempted(id);
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "SQLException when creating EZIDs, those created " +
+                    "since the last batch will be updated when the identifiers are next tried", e);
+        } finally {
+            worker.close();
+        }
+        logger.info("Created identifier EZIDs: {}, {}", worker, rows);
+        logger.info("EZID latency: {}", EZIDService.getLatencySummary());
+    }
 
-            // Attempt to create an EZID for this row
-            while (rs.next()) {
-                URI identifier = null;
-                HashMap<String, String> map = new HashMap<String, String>();
-                map.put("_profile", "erc");
+    /**
+     * The rows waiting for an EZID, read a page at a time in key order.  Each page starts after the last key of the
+     * one before, so rows that fail to register are passed over for the rest of the pass rather than read again.
+     * <p/>
+     * A pass over the table can span several runs: the key below which every row has been attempted is kept in the
+     * ezidScanProgress table as the high-water mark, and the next run starts after it rather than from the start of
+     * the table.  The mark only moves past a page once every row in the page has failed or had ezidMade committed.
+     * When a run reaches the end of the table with nothing outstanding the mark goes back to 0, so the next run
+     * starts a new pass and tries again the rows that failed, along with any committed below the mark since it
+     * went past them.
+     */
+    private abstract class pendingRows implements Iterator<ezidWorker.registration> {
+        private static final int PAGE_SIZE = 1000;
+
+        private final String scan;
+        private final ArrayList<ezidWorker.registration> page = new ArrayList<ezidWorker.registration>();
+        // The last key of each page read, and the number of its rows still to be attempted
+        private final TreeMap<Long, int[]> outstanding = new TreeMap<Long, int[]>();
+        private final long startedAfter;
+        private int next = 0;
+        private long after;
+        private long highWaterMark;
+        private boolean exhausted = false;
+
+        /**
+         * @param scan the name the high-water mark is kept under
+         */
+        pendingRows(String scan) {
+            this.scan = scan;
+            try {
+                highWaterMark = loadHighWaterMark(scan);
+            } catch (SQLException e) {
+                throw new ServerErrorException("Server Error", "SQLException when reading the EZID scan progress", e);
+            }
+            after = startedAfter = highWaterMark;
+        }
 
-                if (rs.getString("webaddress") == null) {
-                    map.put("_target", "");
-                } else {
-                    map.put("_target", rs.getString("webaddress"));
-                }
-                map.put("erc.what", rs.getString("what"));
-                //TODO: put the correct who here
-                //map.put("erc.who", who.toString());
-                // when here is very confusing
-                //map.put("erc.when", new dates().now());
-                String idString = rs.getString("id");
-                idSuccessList.add(idString);
-
-
-                String myIdentifier = "";
-                // If this is the uuid case
-                if (rs.getBoolean("suffixPassthrough")) {
-                    try {
-                        myIdentifier = this.createUUIDARK(rs.getString("localID"));
-                    } catch (BCIDException e) {
-                        // TODO: special exception to handle for unable to create this identifier
-                        //TODO should we silence this exception?
-                        logger.warn("BCIDException thrown.", e);
+        /**
+         * Read the next page of rows waiting for an EZID.  Rows that cannot be registered may be left out of the page.
+         *
+         * @param after the key to read rows after
+         * @param limit the most rows to read
+         * @param page  to add the rows read to, in key order
+         *
+         * @return the key of the last row read, or -1 if there are no more rows
+         *
+         * @throws SQLException
+         */
+        protected abstract long fetch(long after, int limit, ArrayList<ezidWorker.registration> page)
+                throws SQLException;
+
+        public boolean hasNext() {
+            while (next >= page.size() && !exhausted) {
+                page.clear();
+                next = 0;
+                try {
+                    long last = fetch(after, PAGE_SIZE, page);
+                    if (last < 0) {
+                        exhausted = true;
+                    } else {
+                        after = last;
+                        outstanding.put(last, new int[]{page.size()});
                     }
-                    // If this is not tagged as a uuid
-                } else {
-                    myIdentifier = new elementEncoder(prefix).encode(new BigInteger(idString));
-                }
-                System.out.println("here is the ID being created ... " + myIdentifier);
-                identifier = new URI(ezid.createIdentifier(myIdentifier, map));
-
-                // This is just for printing out stuff, probably not necessary
-                if (identifier != null) {
-                    idSuccessList.add(idString);
-                    System.out.println("  " + identifier.toString());
-                } else {
-                    // Send email, or notify somehow in logs that this threw an error
-                    System.out.println("Something happened in creating the EZID identifier, it appears to be null");
+                    advance();
+                } catch (SQLException e) {
+                    throw new ServerErrorException("Server Error", "SQLException when reading rows waiting for " +
+                            "EZIDs", e);
                 }
+            }
+            return next < page.size();
+        }
 
+        public ezidWorker.registration next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-        } catch (SQLException e) {
-            throw new ServerErrorException(e);
-        } catch (EZIDException e) {
-            throw new URISyntaxException("trouble minting identifier with EZID service", null);
+            return page.get(next++);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Note that a row handed out by next has been dealt with, either failing or having ezidMade committed
+         *
+         * @param id the key of the row
+         *
+         * @throws SQLException if the high-water mark could not be saved
+         */
+        void attempted(String id) throws SQLException {
+            Map.Entry<Long, int[]> entry = outstanding.ceilingEntry(Long.valueOf(id));
+            if (entry != null) {
+                entry.getValue()[0]--;
+            }
+            advance();
+        }
+
+        /**
+         * Move the high-water mark past the pages at the front that have been fully attempted, saving it if it moved
+         */
+        private void advance() throws SQLException {
+            long mark = highWaterMark;
+            while (!outstanding.isEmpty() && outstanding.firstEntry().getValue()[0] <= 0) {
+                mark = outstanding.pollFirstEntry().getKey();
+            }
+            if (exhausted && outstanding.isEmpty()) {
+                mark = 0;
+            }
+            if (mark != highWaterMark) {
+                saveHighWaterMark(scan, mark);
+                highWaterMark = mark;
+            }
+        }
+
+        public String toString() {
+            return "pendingRows[" + scan + ", startedAfter=" + startedAfter + ", highWaterMark=" + highWaterMark +
+                    ", passComplete=" + (exhausted && outstanding.isEmpty()) + "]";
+        }
+    }
+
+    /**
+     * @param scan the name of the scan, "datasets" or "identifiers"
+     *
+     * @return the key to resume the scan after, 0 to start from the beginning
+     *
+     * @throws SQLException
+     */
+    private long loadHighWaterMark(String scan) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT highWaterMark FROM ezidScanProgress WHERE scan = ?");
+            stmt.setString(1, scan);
+            rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong("highWaterMark") : 0;
         } finally {
             db.close(stmt, rs);
-            try {
-                updateEZIDMadeField(idSuccessList, "identifiers");
-            } catch (SQLException e) {
-                throw new ServerErrorException("Server Error", "It appears we have created " + idSuccessList.size() +
-                        " EZIDs but not able to update the identifiers table");
-            }
+        }
+    }
+
+    private void saveHighWaterMark(String scan, long highWaterMark) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("INSERT INTO ezidScanProgress (scan, highWaterMark) VALUES (?, ?) " +
+                    "ON DUPLICATE KEY UPDATE highWaterMark = VALUES(highWaterMark)");
+            stmt.setString(1, scan);
+            stmt.setLong(2, highWaterMark);
+            stmt.executeUpdate();
+        } finally {
+            db.close(stmt, null);
         }
     }
 
@@ -306,7 +494,7 @@ public class manageEZID extends elementMinter {
      *
      * @throws java.sql.SQLException
      */
-    private void updateEZIDMadeField(ArrayList idSuccessList, String table) throws SQLException {
+    void updateEZIDMadeField(ArrayList idSuccessList, String table) throws SQLException {
 
         // Turn off autocommits at beginning of the next block
         conn.setAutoCommit(false);
@@ -326,7 +514,7 @@ public class manageEZID extends elementMinter {
                 updateStatement.setString(1, id);
                 updateStatement.addBatch();
                 // Execute every 1000 rows
-                if (count + 1 % 1000 == 0) {
+                if ((count + 1) % 1000 == 0) {
                     updateStatement.executeBatch();
                     conn.commit();
                 }
@@ -0,0 +1,212 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.lruCache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A bounded cache of what each user may do: the projects they belong to, the projects they are the admin of and the
+ * expeditions they own, so that the permission checks a request makes, often several, are set lookups rather than a
+ * count(*) query each.
+ * <p/>
+ * A user's permissions are read with three queries the first time they are checked, and kept for permissionCacheTTL
+ * milliseconds; once more than permissionCacheMaxSize users are held the least recently used is evicted.
+ * projectMinter invalidates a user when it adds them to or removes them from a project, and expeditionMinter when
+ * they mint an expedition; the TTL bounds how stale permissions can get when they are changed by another process or
+ * application server.
+ */
+public class permissionCache {
+
+    private static Logger logger = LoggerFactory.getLogger(permissionCache.class);
+
+    private static permissionCache instance;
+
+    private static final permissions NONE = new permissions(Collections.<Integer>emptySet(),
+            Collections.<Integer>emptySet(), Collections.<String>emptySet());
+
+    private final lruCache<Integer, permissions> entries;
+
+    public static synchronized permissionCache getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new permissionCache(
+                    sm.retrieveInt("permissionCacheMaxSize", 10000),
+                    sm.retrieveLong("permissionCacheTTL", 30000));
+        }
+        return instance;
+    }
+
+    private permissionCache(int maxSize, long ttl) {
+        this.entries = new lruCache<Integer, permissions>(maxSize, ttl);
+    }
+
+    /**
+     * Get a user's permissions, reading them from the database if they are not cached
+     *
+     * @param users_id
+     *
+     * @return the user's permissions; none if users_id is null
+     */
+    public permissions get(Integer users_id) {
+        if (users_id == null) {
+            return NONE;
+        }
+        permissions p = entries.get(users_id);
+        if (p != null) {
+            return p;
+        }
+
+        // Taken before the read, so that permissions read before an invalidation are not cached after it
+        long loadGeneration = entries.generation();
+        p = load(users_id);
+        entries.putIfCurrent(users_id, p, loadGeneration);
+        return p;
+    }
+
+    /**
+     * Drop a user's permissions from the cache, e.g. once they have changed, so that the next check reads them again
+     *
+     * @param users_id
+     */
+    public void invalidate(Integer users_id) {
+        if (users_id == null) {
+            return;
+        }
+        entries.invalidate(users_id);
+    }
+
+    /**
+     * Read a user's permissions from the database
+     *
+     * @param users_id
+     *
+     * @return the permissions
+     */
+    private permissions load(Integer users_id) {
+        HashSet<Integer> projects = new HashSet<Integer>();
+        HashSet<Integer> adminProjects = new HashSet<Integer>();
+        HashSet<String> expeditions = new HashSet<String>();
+
+        database db = new database();
+        Connection conn = db.getConn();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT uP.project_id as project_id " +
+                    "FROM usersProjects uP, projects p " +
+                    "WHERE uP.project_id = p.project_id AND uP.users_id = ?");
+            stmt.setInt(1, users_id);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                projects.add(rs.getInt("project_id"));
+            }
+            db.close(stmt, rs);
+            rs = null;
+
+            stmt = conn.prepareStatement("SELECT project_id FROM projects WHERE users_id = ?");
+            stmt.setInt(1, users_id);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                adminProjects.add(rs.getInt("project_id"));
+            }
+            db.close(stmt, rs);
+            rs = null;
+
+            stmt = conn.prepareStatement("SELECT expedition_code, project_id FROM expeditions WHERE users_id = ?");
+            stmt.setInt(1, users_id);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                expeditions.add(expeditionKey(rs.getString("expedition_code"), rs.getInt("project_id")));
+            }
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "SQLException loading permissions for user " + users_id, e);
+        } finally {
+            db.close(stmt, rs);
+            db.close();
+        }
+        logger.debug("Loaded permissions for user {}: {} projects, {} as admin, {} expeditions", users_id,
+                projects.size(), adminProjects.size(), expeditions.size());
+        return new permissions(projects, adminProjects, expeditions);
+    }
+
+    private static String expeditionKey(String expedition_code, Integer project_id) {
+        // expedition_code is compared case insensitively, as the column's collation does
+        return project_id + ":" + expedition_code.toLowerCase(Locale.ENGLISH);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    public long getInvalidationCount() {
+        return entries.getInvalidationCount();
+    }
+
+    public String toString() {
+        return "permissionCache[" + entries + "]";
+    }
+
+    /**
+     * What one user may do, as it was when read from the database
+     */
+    public static class permissions {
+        private final Set<Integer> projects;
+        private final Set<Integer> adminProjects;
+        private final Set<String> expeditions;
+
+        private permissions(Set<Integer> projects, Set<Integer> adminProjects, Set<String> expeditions) {
+            this.projects = projects;
+            this.adminProjects = adminProjects;
+            this.expeditions = expeditions;
+        }
+
+        /**
+         * @return true if the user belongs to the project
+         */
+        public boolean isMember(Integer project_id) {
+            return project_id != null && projects.contains(project_id);
+        }
+
+        /**
+         * @return true if the user is the project's admin
+         */
+        public boolean isAdmin(Integer project_id) {
+            return project_id != null && adminProjects.contains(project_id);
+        }
+
+        /**
+         * @return true if the user is the admin of any project
+         */
+        public boolean isAnyAdmin() {
+            return !adminProjects.isEmpty();
+        }
+
+        /**
+         * @return true if the user owns the expedition
+         */
+        public boolean ownsExpedition(String expedition_code, Integer project_id) {
+            return expedition_code != null && project_id != null &&
+                    expeditions.contains(expeditionKey(expedition_code, project_id));
+        }
+    }
+}
@@ -524,26 +524,7 @@ public class projectMinter {
      * Check if a user belongs to a project
      */
     public Boolean userProject(Integer userId, Integer projectId) {
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        try {
-            String sql = "SELECT count(*) as count " +
-                    "FROM users u, projects p, usersProjects uP " +
-                    "WHERE u.user_id=uP.users_id and uP.project_id = p.project_id and u.user_id = ? and p.project_id=?";
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, userId);
-            stmt.setInt(2, projectId);
-
-            rs = stmt.executeQuery();
-            rs.next();
-
-            // If the user belongs to this project then there will be a >=1 value and returns true, otherwise false.
-            return rs.getInt("count") >= 1;
-        }  catch (SQLException e) {
-            throw new ServerErrorException(e);
-        } finally {
-            db.close(stmt, rs);
-        }
+        return permissionCache.getInstance().get(userId).isMember(projectId);
     }
 
     /**
@@ -553,23 +534,7 @@ public class projectMinter {
      * @return
      */
     public Boolean userProjectAdmin(Integer userId, Integer projectId) {
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        try {
-            String sql = "SELECT count(*) as count FROM projects WHERE users_id = ? AND project_id = ?";
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, userId);
-            stmt.setInt(2, projectId);
-
-            rs = stmt.executeQuery();
-            rs.next();
-
-            return rs.getInt("count") >= 1;
-        } catch (SQLException e) {
-            throw new ServerErrorException(e);
-        } finally {
-            db.close(stmt, rs);
-        }
+        return permissionCache.getInstance().get(userId).isAdmin(projectId);
     }
 
     /**
@@ -587,6 +552,7 @@ public class projectMinter {
             stmt.setInt(2, projectId);
 
             stmt.executeUpdate();
+            permissionCache.getInstance().invalidate(userId);
         } catch (SQLException e) {
             throw new ServerErrorException("Server error while removing user", e);
         } finally {
@@ -611,6 +577,7 @@ public class projectMinter {
             stmt.setInt(2, projectId);
 
             stmt.execute();
+            permissionCache.getInstance().invalidate(userId);
         } catch (SQLException e) {
             throw new ServerErrorException("Server error while adding user to project.", e);
         } finally {
@@ -0,0 +1,336 @@
+package bcid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the redirect for an ARK, as resolver.resolveARK does, from an in-memory routing table of datasets_id to
+ * webAddress and suffixPassthrough, so that answering a redirect does not need a database connection.
+ * <p/>
+ * The whole datasets table is loaded into the table in the background when the engine is created, and again every
+ * redirectTableRefresh milliseconds.  A dataset that is not in the table (minted since the last load) is read
+ * through the datasetCache and added.  datasetCache.invalidate drops a dataset from the table as well, so that
+ * changes made through this application are seen immediately; the refresh bounds how stale the table can be when
+ * the datasets table is changed by another process.
+ */
+public class redirectEngine {
+
+    private static Logger logger = LoggerFactory.getLogger(redirectEngine.class);
+
+    private static redirectEngine instance;
+
+    private final String divider;
+    private final String metadataPrefix;
+    private final ScheduledExecutorService refresher;
+
+    private volatile ConcurrentHashMap<Integer, route> routes = new ConcurrentHashMap<Integer, route>();
+    // Bumped by every invalidation, so that a load which raced with one is not used
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong unresolvedCount = new AtomicLong();
+    private final AtomicLong reloadCount = new AtomicLong();
+
+    /**
+     * Get the engine shared by this application, creating it and starting the first load of the routing table on
+     * first use.
+     *
+     * @return the shared redirectEngine
+     */
+    public static synchronized redirectEngine getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new redirectEngine(sm);
+        }
+        return instance;
+    }
+
+    /**
+     * Stop refreshing the routing table of the shared engine, if one has been created.  Called when the web
+     * application is shut down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.refresher.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /**
+     * Drop a dataset from the routing table of the shared engine, if one has been created, so that its next
+     * redirect reads it again
+     *
+     * @param datasets_id
+     */
+    static void invalidate(Integer datasets_id) {
+        redirectEngine engine;
+        synchronized (redirectEngine.class) {
+            engine = instance;
+        }
+        if (engine != null && datasets_id != null) {
+            engine.generation.incrementAndGet();
+            engine.routes.remove(datasets_id);
+        }
+    }
+
+    /**
+     * Drop every dataset from the routing table of the shared engine, if one has been created
+     */
+    static void invalidateAll() {
+        redirectEngine engine;
+        synchronized (redirectEngine.class) {
+            engine = instance;
+        }
+        if (engine != null) {
+            engine.generation.incrementAndGet();
+            engine.routes.clear();
+        }
+    }
+
+    private redirectEngine(SettingsManager sm) {
+        divider = sm.retrieveValue("divider", "");
+        metadataPrefix = sm.retrieveValue("resolverMetadataPrefix");
+
+        long refresh = sm.retrieveLong("redirectTableRefresh", 300000);
+
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-redirect-table");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Runnable reload = new Runnable() {
+            public void run() {
+                try {
+                    reload();
+                } catch (RuntimeException e) {
+                    logger.warn("Exception while loading the redirect table, datasets will be read as they are " +
+                            "resolved.", e);
+                }
+            }
+        };
+        if (refresh > 0) {
+            refresher.scheduleWithFixedDelay(reload, 0, refresh, TimeUnit.MILLISECONDS);
+        } else {
+            refresher.execute(reload);
+        }
+    }
+
+    /**
+     * Compute the redirect for an ARK
+     *
+     * @param ark an ARK of the form ark:/naan/shoulderPlusIdentifier
+     *
+     * @return the URI to redirect to, or null if the ARK is not in any dataset
+     *
+     * @throws URISyntaxException if the ARK's suffix does not make a valid URI
+     */
+    public URI resolve(String ark) throws URISyntaxException {
+        int naanStart = ark.indexOf('/') + 1;
+        int naanEnd = naanStart == 0 ? -1 : ark.indexOf('/', naanStart);
+        if (naanEnd < 0) {
+            unresolvedCount.incrementAndGet();
+            return null;
+        }
+        return resolve(ark.substring(naanStart, naanEnd), ark.substring(naanEnd + 1));
+    }
+
+    /**
+     * Compute the redirect for an ARK, given its parts
+     *
+     * @param naan
+     * @param shoulderPlusIdentifier the dataset shoulder, up to and including its first digit, followed by the
+     *                               divider and suffix, if any
+     *
+     * @return the URI to redirect to, or null if the ARK is not in any dataset
+     *
+     * @throws URISyntaxException if the ARK's suffix does not make a valid URI
+     */
+    public URI resolve(String naan, String shoulderPlusIdentifier) throws URISyntaxException {
+        // The shoulder is everything up to and including the first digit
+        int shoulderEnd = 0;
+        while (shoulderEnd < shoulderPlusIdentifier.length()) {
+            if (Character.isDigit(shoulderPlusIdentifier.charAt(shoulderEnd++))) {
+                break;
+            }
+        }
+        String shoulder = shoulderPlusIdentifier.substring(0, shoulderEnd);
+
+        long datasets_id;
+        if (shoulder.equals("fk4") && naan.equals("99999")) {
+            // Test Dataset is #1
+            datasets_id = 1;
+        } else {
+            datasets_id = dataGroupEncoder.decodeToLong(shoulder);
+        }
+        route r = datasets_id < 1 || datasets_id > Integer.MAX_VALUE ? null : lookup((int) datasets_id);
+        if (r == null) {
+            unresolvedCount.incrementAndGet();
+            return null;
+        }
+
+        int sourceStart = shoulderEnd;
+        if (divider.length() > 0 && shoulderPlusIdentifier.startsWith(divider, sourceStart)) {
+            sourceStart++;
+        }
+        if (sourceStart >= shoulderPlusIdentifier.length()) {
+            return r.target;
+        }
+        String sourceID = shoulderPlusIdentifier.substring(sourceStart);
+        return r.resolve(sourceID);
+    }
+
+    /**
+     * Find the route for a dataset, reading it through the datasetCache if it is not in the table
+     */
+    private route lookup(Integer datasets_id) throws URISyntaxException {
+        ConcurrentHashMap<Integer, route> table = routes;
+        route r = table.get(datasets_id);
+        if (r != null) {
+            hitCount.incrementAndGet();
+            return r;
+        }
+        missCount.incrementAndGet();
+
+        long loadGeneration = generation.get();
+        datasetMetadata dataset = datasetCache.getInstance().get(datasets_id);
+        if (dataset == null) {
+            return null;
+        }
+        r = new route(dataset.getPrefix(), dataset.getWebAddress(), dataset.getSuffixPassThrough());
+        if (generation.get() == loadGeneration) {
+            table.put(datasets_id, r);
+        }
+        return r;
+    }
+
+    /**
+     * Replace the routing table with one read from every row of the datasets table
+     */
+    private void reload() {
+        long loadGeneration = generation.get();
+        ConcurrentHashMap<Integer, route> table = new ConcurrentHashMap<Integer, route>();
+
+        database db = new database();
+        Connection conn = db.getConn();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT datasets_id, prefix, webAddress, suffixPassthrough FROM datasets");
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                String prefix = rs.getString("prefix");
+                String webAddressString = rs.getString("webAddress");
+                URI webAddress = null;
+                if (webAddressString != null) {
+                    try {
+                        webAddress = new URI(webAddressString);
+                    } catch (URISyntaxException e) {
+                        logger.debug("URISyntaxException with uri: {}", webAddressString, e);
+                    }
+                }
+                try {
+                    table.put(rs.getInt("datasets_id"), new route(prefix, webAddress,
+                            rs.getBoolean("suffixPassthrough")));
+                } catch (URISyntaxException e) {
+                    logger.warn("URISyntaxException from prefix: {}, dataset will be read as it is resolved", prefix, e);
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("SQLException while loading the redirect table.", e);
+            return;
+        } finally {
+            db.close(stmt, rs);
+            db.close();
+        }
+
+        // Datasets invalidated while loading may have been read before they changed.  Keep the current table, which
+        // no longer holds them, and try again at the next refresh
+        if (generation.get() != loadGeneration) {
+            logger.debug("Redirect table changed while loading, keeping the current table");
+            return;
+        }
+        routes = table;
+        reloadCount.incrementAndGet();
+        logger.info("Loaded {} datasets into the redirect table", table.size());
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of redirects that had to read their dataset through the datasetCache
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of ARKs that were not in any dataset
+     */
+    public long getUnresolvedCount() {
+        return unresolvedCount.get();
+    }
+
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    public String toString() {
+        return "redirectEngine[size=" + size() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", unresolved=" + getUnresolvedCount() +
+                ", reloads=" + getReloadCount() + "]";
+    }
+
+    /**
+     * Where the ARKs of one dataset redirect to.  The redirect for the dataset itself is computed up front; ARKs
+     * with a suffix follow the same rules as resolver.resolveARK.
+     */
+    private class route {
+        final String prefix;
+        final String webAddress;
+        final URI target;
+
+        route(String prefix, URI webAddress, boolean suffixPassthrough) throws URISyntaxException {
+            this.prefix = prefix;
+            String address = webAddress == null ? "" : webAddress.toString().trim();
+            this.webAddress = address.equals("") ? null : webAddress.toString();
+            if (this.webAddress == null || suffixPassthrough || address.equalsIgnoreCase("null")) {
+                target = new URI(metadataPrefix + prefix);
+            } else {
+                target = webAddress;
+            }
+        }
+
+        URI resolve(String sourceID) throws URISyntaxException {
+            if (webAddress == null) {
+                return new URI(metadataPrefix + prefix + divider + sourceID);
+            }
+            return sourceID.trim().equals("") ? target : new URI(webAddress + sourceID);
+        }
+    }
+}
@@ -15,6 +15,11 @@ import java.net.URISyntaxException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Resolves any incoming identifier to the BCID and/or EZID systems.
@@ -136,6 +141,20 @@ public class resolver extends database {
      * @param a
      */
     private void setShoulderAndSourceID(String a) {
+        String[] parts = splitShoulderAndSourceID(a);
+        shoulder = parts[0];
+        sourceID = parts[1];
+    }
+
+    /**
+     * Split the part of an ARK after its NAAN into the shoulder, up to and including its first digit, and the
+     * sourceID, without the divider between them
+     *
+     * @param a
+     *
+     * @return the shoulder and the sourceID, which is empty if there is none
+     */
+    private static String[] splitShoulderAndSourceID(String a) {
         boolean reachedShoulder = false;
         StringBuilder sbShoulder = new StringBuilder();
         StringBuilder sbSourceID = new StringBuilder();
@@ -149,8 +168,7 @@ public class resolver extends database {
             if (Character.isDigit(c))
                 reachedShoulder = true;
         }
-        shoulder = sbShoulder.toString();
-        sourceID = sbSourceID.toString();
+        String sourceID = sbSourceID.toString();
 
         // String the slash between the shoulder and the sourceID
         if (!sm.retrieveValue("divider").equals("")) {
@@ -158,6 +176,7 @@ public class resolver extends database {
                 sourceID = sourceID.substring(1);
             }
         }
+        return new String[]{sbShoulder.toString(), sourceID};
     }
 
     /**
@@ -212,6 +231,16 @@ public class resolver extends database {
      * @return JSON String with content for the interface
      */
     public String printMetadata(Renderer renderer) {
+        return renderer.render(getMetadataIdentifier());
+    }
+
+    /**
+     * Load the identifier whose metadata printMetadata shows, so that it can be rendered after this resolver is
+     * closed, e.g. straight to a response stream
+     *
+     * @return the identifier, or null if this ARK is not a known data group
+     */
+    public GenericIdentifier getMetadataIdentifier() {
         GenericIdentifier bcid = null;
 
         // First  option is check if dataset, then look at other options after this is determined
@@ -236,7 +265,7 @@ public class resolver extends database {
             //}
 
         }
-        return renderer.render(bcid);
+        return bcid;
     }
 
     /**
@@ -261,7 +290,7 @@ public class resolver extends database {
  }   */
 
     /**
-     * Resolve an EZID version of this ARK
+     * Resolve an EZID version of this ARK, from the ezidMetadataCache where it can be
      *
      * @param ezidService
      * @return JSON string to send to interface
@@ -271,7 +300,10 @@ public class resolver extends database {
         GenericIdentifier ezid = null;
 
         try {
-            ezid = new ezid(ezidService.getMetadata(ark));
+            HashMap<String, String> metadata = ezidMetadataCache.getInstance().get(ezidService, ark);
+            if (metadata != null) {
+                ezid = new ezid(metadata);
+            }
         } catch (EZIDException e) {
             //TODO should we silence this exception?
             logger.warn("URISyntaxException thrown", e);
@@ -325,34 +357,97 @@ public class resolver extends database {
             return true;
         }
 
-        // Decode a typical dataset
-        datagroup_id = new dataGroupEncoder().decode(shoulder).intValue();
-
+        datagroup_id = decodeDataGroup(naan, shoulder);
         if (datagroup_id == null) {
             return false;
-        } else {
-            // Now we need to figure out if this datasets_id exists or not in the database
-            String select = "SELECT count(*) as count FROM datasets where datasets_id = ?";
-            PreparedStatement stmt = null;
-            ResultSet rs = null;
-            try {
-                stmt = conn.prepareStatement(select);
-                stmt.setInt(1, datagroup_id);
-                rs = stmt.executeQuery();
-                rs.next();
-                int count = rs.getInt("count");
-                if (count < 1) {
-                    datagroup_id = null;
-                    return false;
-                } else {
-                    return true;
-                }
-            } catch (SQLException e) {
-                throw new ServerErrorException(e);
-            } finally {
-                close(stmt, rs);
+        }
+        // Now we need to figure out if this datasets_id exists or not, which the cache knows without a query
+        // once the dataset has been resolved
+        if (datasetCache.getInstance().get(datagroup_id) == null) {
+            datagroup_id = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decode the datasets_id from an ARK's shoulder, without checking that the dataset exists
+     *
+     * @return the datasets_id, or null if the shoulder does not decode to one
+     */
+    private static Integer decodeDataGroup(String naan, String shoulder) {
+        // Test Dataset is #1
+        if (shoulder.equals("fk4") && naan.equals("99999")) {
+            return 1;
+        }
+
+        // Decode a typical dataset
+        long decoded = dataGroupEncoder.decodeToLong(shoulder);
+        return decoded < 0 || decoded > Integer.MAX_VALUE ? null : (Integer) (int) decoded;
+    }
+
+    /**
+     * Find the data group an ARK belongs to, through the datasetCache, without a resolver and its database
+     * connection, e.g. to tell whether a client's copy of the ARK's metadata is still current
+     *
+     * @param ark of the form ark:/NAAN/shoulder_sourceID
+     *
+     * @return the data group's metadata, or null if the ARK is not in a known data group
+     */
+    public static datasetMetadata getDataGroupMetadata(String ark) {
+        String bits[] = ark.trim().split("/", 3);
+        if (bits.length < 3) {
+            return null;
+        }
+        Integer datasets_id = decodeDataGroup(bits[1], splitShoulderAndSourceID(bits[2])[0]);
+        return datasets_id == null ? null : datasetCache.getInstance().get(datasets_id);
+    }
+
+    /**
+     * @param ark of the form ark:/NAAN/shoulder_sourceID
+     *
+     * @return true if the ARK has no sourceID, so names a data group itself, e.g. one held by the snapshotStore
+     */
+    public static boolean isDataGroupArk(String ark) {
+        String bits[] = ark.trim().split("/", 3);
+        return bits.length == 3 && splitShoulderAndSourceID(bits[2])[1].length() == 0;
+    }
+
+    /**
+     * Load the identifiers getMetadataIdentifier would for each of a batch of ARKs.  The ARKs are decoded without
+     * a database connection and grouped by data group, and the data groups are read together through
+     * datasetCache.getAll, so a batch costs a query per few hundred data groups not yet cached rather than a
+     * resolver and a query per ARK.
+     *
+     * @param arks ARKs of the form ark:/NAAN/shoulder_sourceID
+     *
+     * @return an identifier for each ARK, in the order given, or null where an ARK is not in a known data group
+     */
+    public static List<GenericIdentifier> getMetadataIdentifiers(List<String> arks) {
+        Integer[] datasetIds = new Integer[arks.size()];
+        String[] sourceIDs = new String[arks.size()];
+        LinkedHashSet<Integer> dataGroups = new LinkedHashSet<Integer>();
+        for (int i = 0; i < arks.size(); i++) {
+            String bits[] = arks.get(i).trim().split("/", 3);
+            if (bits.length < 3) {
+                continue;
+            }
+            String[] parts = splitShoulderAndSourceID(bits[2]);
+            datasetIds[i] = decodeDataGroup(bits[1], parts[0]);
+            sourceIDs[i] = parts[1];
+            if (datasetIds[i] != null) {
+                dataGroups.add(datasetIds[i]);
             }
         }
+
+        Map<Integer, datasetMetadata> datasets = datasetCache.getInstance().getAll(dataGroups);
+
+        ArrayList<GenericIdentifier> identifiers = new ArrayList<GenericIdentifier>(arks.size());
+        for (int i = 0; i < arks.size(); i++) {
+            datasetMetadata dataset = datasetIds[i] == null ? null : datasets.get(datasetIds[i]);
+            identifiers.add(dataset == null ? null : new bcid(sourceIDs[i], dataset));
+        }
+        return identifiers;
     }
 
     /**
@@ -32,7 +32,7 @@ import java.util.UUID;
  */
 public class run {
     // a testData file to use for various tests in this class
-    ArrayList testDatafile;
+    ArrayList<element> testDatafile;
 
     private static Logger logger = LoggerFactory.getLogger(run.class);
 
@@ -125,7 +125,7 @@ public class run {
                 UUID.randomUUID() + "\thttp://biocode.berkeley.edu/specimens/MBIO57\n" +
                 UUID.randomUUID() + "\n" +
                 UUID.randomUUID();
-        ArrayList localUUIDs = new inputFileParser(uuidInputStringFromTextBox, minter).elementArrayList;
+        ArrayList<element> localUUIDs = new inputFileParser(uuidInputStringFromTextBox, minter).elementArrayList;
         System.out.println("  Successfully created test uuid dataset");
 
         // Create a bcid for each localId's
@@ -149,7 +149,7 @@ public class run {
                 UUID.randomUUID() + "\thttp://biocode.berkeley.edu/specimens/MBIO57\n" +
                 UUID.randomUUID() + "\n" +
                 UUID.randomUUID();
-        ArrayList localUUIDs2 = new inputFileParser(uuidInputStringFromTextBox2, minter).elementArrayList;
+        ArrayList<element> localUUIDs2 = new inputFileParser(uuidInputStringFromTextBox2, minter).elementArrayList;
         System.out.println("  Successfully created test uuid dataset #2");
 
         // Create a bcid for each localId's
@@ -272,7 +272,7 @@ public class run {
 
     public static void main(String[] args) {
 
-        EZIDService ezidAccount = new EZIDService();
+        EZIDService ezidAccount = null;
 
         // Initialize settings manager
         SettingsManager sm = SettingsManager.getInstance();
@@ -285,7 +285,7 @@ public class run {
         // Initialize ezid account
         try {
             // Setup EZID account/login information
-            ezidAccount.login(sm.retrieveValue("eziduser"), sm.retrieveValue("ezidpass"));
+            ezidAccount = EZIDService.getSession(sm.retrieveValue("eziduser"), sm.retrieveValue("ezidpass"));
 
         } catch (EZIDException e) {
             e.printStackTrace();
@@ -0,0 +1,196 @@
+package bcid;
+
+import bcid.Renderer.JSONRenderer;
+import bcid.Renderer.RDFRenderer;
+import bcid.Renderer.Renderer;
+import bcid.Renderer.TurtleRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+import util.lruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the metadata of data groups already rendered, as RDF/XML, JSON and Turtle in UTF-8, so that a request for a
+ * group level ARK is answered by writing out bytes rather than rendering the group again.
+ * <p/>
+ * dataGroupMinter renders a group's snapshots as soon as it mints or updates the group.  A snapshot is kept only as
+ * long as the datasetCache holds the very datasetMetadata it was rendered from: when the dataset is invalidated, or
+ * expires from the datasetCache, the next request renders it again.  So snapshots are never staler than the
+ * datasetCache.  Once more than snapshotStoreMaxSize groups are held the least recently used is dropped.
+ * <p/>
+ * The arrays handed out are shared between requests and must not be modified.
+ */
+public class snapshotStore {
+
+    private static Logger logger = LoggerFactory.getLogger(snapshotStore.class);
+
+    /**
+     * The formats a snapshot is held in
+     */
+    public static final format RDF = new format(0, "rdf", "application/rdf+xml", new RDFRenderer());
+    public static final format JSON = new format(1, "json", "application/json", new JSONRenderer());
+    public static final format TURTLE = new format(2, "turtle", "text/turtle", new TurtleRenderer());
+    private static final format[] FORMATS = {RDF, JSON, TURTLE};
+
+    private static snapshotStore instance;
+
+    private final lruCache<Integer, snapshot> snapshots;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong renderCount = new AtomicLong();
+
+    public static synchronized snapshotStore getInstance() {
+        if (instance == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            instance = new snapshotStore(sm.retrieveInt("snapshotStoreMaxSize", 10000));
+        }
+        return instance;
+    }
+
+    private snapshotStore(int maxSize) {
+        // Snapshots do not expire; one is dropped once the datasetMetadata it was rendered from is not the one held
+        this.snapshots = new lruCache<Integer, snapshot>(maxSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Find the format a snapshot is held in for a media type, as given in an Accept header
+     *
+     * @param mediaType
+     *
+     * @return the format, or null if snapshots are not held in that media type
+     */
+    public static format forMediaType(String mediaType) {
+        if (mediaType == null) {
+            return null;
+        }
+        for (format f : FORMATS) {
+            if (f.mediaType.equalsIgnoreCase(mediaType.trim())) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a data group's metadata, rendered in a format, rendering it if the snapshot held was not rendered from this
+     * very datasetMetadata
+     *
+     * @param dataset the data group, as the datasetCache holds it now
+     * @param format
+     *
+     * @return the rendered metadata, in UTF-8
+     */
+    public byte[] get(datasetMetadata dataset, format format) {
+        snapshot s = snapshots.get(dataset.getDatasets_id());
+        if (s != null && s.dataset == dataset) {
+            hitCount.incrementAndGet();
+            return s.documents[format.index];
+        }
+        return render(dataset).documents[format.index];
+    }
+
+    /**
+     * Render a data group's snapshots now, rather than on the first request for it, e.g. once it has been minted or
+     * updated.  A failure is logged rather than thrown, as the group will be rendered on request anyway.
+     *
+     * @param datasets_id
+     */
+    public void prerender(Integer datasets_id) {
+        try {
+            datasetMetadata dataset = datasetCache.getInstance().get(datasets_id);
+            if (dataset != null) {
+                render(dataset);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to render snapshots of dataset {}", datasets_id, e);
+        }
+    }
+
+    private snapshot render(datasetMetadata dataset) {
+        renderCount.incrementAndGet();
+        // The identifier resolver.getMetadataIdentifier shows for the group's own ARK
+        bcid group = new bcid("", dataset);
+        byte[][] documents = new byte[FORMATS.length][];
+        for (format f : FORMATS) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(2048);
+            try {
+                f.renderer.render(group, out);
+            } catch (IOException e) {
+                // ByteArrayOutputStream doesn't throw
+                throw new IllegalStateException(e);
+            }
+            documents[f.index] = out.toByteArray();
+        }
+        snapshot s = new snapshot(dataset, documents);
+        snapshots.put(dataset.getDatasets_id(), s);
+        return s;
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of times a data group's snapshots were rendered, on request or ahead of it
+     */
+    public long getRenderCount() {
+        return renderCount.get();
+    }
+
+    public String toString() {
+        return "snapshotStore[size=" + size() +
+                ", hits=" + getHitCount() +
+                ", renders=" + getRenderCount() + "]";
+    }
+
+    /**
+     * A format snapshots are held in: a short name, e.g. for cache validators, its media type and how it is rendered
+     */
+    public static class format {
+        private final int index;
+        private final String name;
+        private final String mediaType;
+        private final Renderer renderer;
+
+        private format(int index, String name, String mediaType, Renderer renderer) {
+            this.index = index;
+            this.name = name;
+            this.mediaType = mediaType;
+            this.renderer = renderer;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        /**
+         * @return the Renderer for this format, e.g. for identifiers below the group level, which are not held
+         */
+        public Renderer getRenderer() {
+            return renderer;
+        }
+    }
+
+    private static class snapshot {
+        final datasetMetadata dataset;
+        final byte[][] documents;
+
+        snapshot(datasetMetadata dataset, byte[][] documents) {
+            this.dataset = dataset;
+            this.documents = documents;
+        }
+    }
+}
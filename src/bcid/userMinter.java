@@ -438,6 +438,11 @@ public class userMinter {
 
             Integer result = stmt.executeUpdate();
 
+            // Every dataset the user created names them as its "who", so drop the cached datasets
+            if (info.containsKey("firstName") || info.containsKey("lastName")) {
+                datasetCache.getInstance().invalidateAll();
+            }
+
             // result should be '1', if not, an error occurred during the UPDATE statement
             return result == 1;
         } catch (SQLException e) {
@@ -0,0 +1,19 @@
+package bcidExceptions;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * An exception that encapsulates requests refused because the server is too busy to serve them now
+ */
+public class ServiceUnavailableException extends BCIDAbstractException {
+    private static final long serialVersionUID = 1L;
+    private static Integer httpStatusCode = Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+
+    public ServiceUnavailableException(String usrMessage) {
+        super(usrMessage, httpStatusCode);
+    }
+
+    public ServiceUnavailableException(String usrMessage, String developerMessage) {
+        super(usrMessage, developerMessage, httpStatusCode);
+    }
+}
@@ -19,19 +19,25 @@
 
 package ezid;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.CookieStore;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.axis.encoding.Base64;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.AuthCache;
@@ -43,19 +49,17 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.ClientContext;
-import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import util.latencyHistogram;
 import sun.tools.java.SyntaxError;
 
 /**
@@ -93,22 +97,40 @@ import sun.tools.java.SyntaxError;
  */
 public class EZIDService {
 
-    private static final String LOGIN_SERVICE = "https://ezid.cdlib.org/login";
-    private static final String LOGOUT_SERVICE = "https://ezid.cdlib.org/logout";
-    private static final String ID_SERVICE = "https://ezid.cdlib.org/id";
-    private static final String MINT_SERVICE = "https://ezid.cdlib.org/shoulder";
+    public static final String DEFAULT_SERVICE = "https://ezid.cdlib.org";
+
+    private final String LOGIN_SERVICE;
+    private final String LOGOUT_SERVICE;
+    private final String ID_SERVICE;
+    private final String MINT_SERVICE;
 
     private static final int GET = 1;
     private static final int PUT = 2;
     private static final int POST = 3;
     private static final int DELETE = 4;
-    private static final int CONNECTIONS_PER_ROUTE = 8;
 
+    // Logged in services, shared by everything that uses the same account, keyed by service URL and username
+    private static final ConcurrentHashMap<String, EZIDService> sessions = new ConcurrentHashMap<String, EZIDService>();
+
+    // Time taken by the calls made most often, across every EZIDService
+    private static final Map<String, latencyHistogram> latency;
+
+    static {
+        LinkedHashMap<String, latencyHistogram> histograms = new LinkedHashMap<String, latencyHistogram>();
+        histograms.put("createIdentifier", new latencyHistogram());
+        histograms.put("setMetadata", new latencyHistogram());
+        histograms.put("getMetadata", new latencyHistogram());
+        latency = Collections.unmodifiableMap(histograms);
+    }
+
+    private final String serviceUrl;
     private DefaultHttpClient httpclient = null;
     private BasicCookieStore cookieStore = null;
 
-    private String username;
-    private String password;
+    private volatile String username;
+    private volatile String password;
+    // Counts logins, so that threads that find the session expired together log in again only once
+    private int sessionGeneration = 0;
 
     protected static Logger log = LoggerFactory.getLogger(EZIDService.class);
 
@@ -116,11 +138,94 @@ public class EZIDService {
      * Construct an EZIDService to be used to access EZID.
      */
     public EZIDService() {
-        httpclient = createThreadSafeClient();
+        this(DEFAULT_SERVICE);
+    }
+
+    /**
+     * Construct an EZIDService to be used to access an EZID compatible service at another location, such as a
+     * stand-in for testing.
+     *
+     * @param serviceUrl the base URL of the service, e.g. https://ezid.cdlib.org
+     */
+    public EZIDService(String serviceUrl) {
+        this.serviceUrl = serviceUrl;
+        LOGIN_SERVICE = serviceUrl + "/login";
+        LOGOUT_SERVICE = serviceUrl + "/logout";
+        ID_SERVICE = serviceUrl + "/id";
+        MINT_SERVICE = serviceUrl + "/shoulder";
+        httpclient = EZIDTransport.getInstance().newClient();
         cookieStore = new BasicCookieStore();
         httpclient.setCookieStore(cookieStore);
     }
 
+    /**
+     * Get a service logged in to EZID with the given account, logging in only if no service is already.  The
+     * service returned is shared by every caller using the same account, across threads, and logs in again by
+     * itself if EZID ends its session.
+     *
+     * @param username to identify the user account from EZID
+     * @param password the secret password for this account
+     *
+     * @return a logged in EZIDService
+     *
+     * @throws EZIDException if authentication fails for any reason
+     */
+    public static EZIDService getSession(String username, String password) throws EZIDException {
+        return getSession(DEFAULT_SERVICE, username, password);
+    }
+
+    /**
+     * Get a service logged in to an EZID compatible service at another location with the given account.
+     *
+     * @see #getSession(String, String)
+     */
+    public static EZIDService getSession(String serviceUrl, String username, String password) throws EZIDException {
+        String key = serviceUrl + " " + username;
+        EZIDService session = sessions.get(key);
+        if (session != null && password != null && password.equals(session.password)) {
+            return session;
+        }
+        synchronized (sessions) {
+            session = sessions.get(key);
+            if (session == null || password == null || !password.equals(session.password)) {
+                session = new EZIDService(serviceUrl);
+                session.login(username, password);
+                sessions.put(key, session);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Drop the shared sessions, so the next getSession logs in afresh
+     */
+    static void forgetSessions() {
+        sessions.clear();
+    }
+
+    /**
+     * @param operation createIdentifier, setMetadata or getMetadata
+     *
+     * @return the time taken by that operation across every EZIDService, or null for any other operation
+     */
+    public static latencyHistogram getLatency(String operation) {
+        return latency.get(operation);
+    }
+
+    /**
+     * @return the latency of each operation timed, for logging
+     */
+    public static String getLatencySummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, latencyHistogram> entry : latency.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
     /**
      * Log into the EZID service using account credentials provided by EZID. The cookie
      * returned by EZID is cached in a local CookieStore for the duration of the EZIDService,
@@ -151,22 +256,12 @@ public class EZIDService {
             // DEBUGGING ONLY, CAN COMMENT OUT WHEN FULLY WORKING....
             //System.out.println("authCache: " + authCache.toString());
 
-            ResponseHandler<byte[]> handler = new ResponseHandler<byte[]>() {
-                public byte[] handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
-                    HttpEntity entity = response.getEntity();
-                    if (entity != null) {
-                        return EntityUtils.toByteArray(entity);
-                    } else {
-                        return null;
-                    }
-                }
-            };
-            byte[] body = null;
-
             HttpGet httpget = new HttpGet(LOGIN_SERVICE);
-            body = httpclient.execute(httpget, handler, localcontext);
-            String message = new String(body);
+            String message = httpclient.execute(httpget, MESSAGE_HANDLER, localcontext);
             msg = parseIdentifierResponse(message);
+            synchronized (this) {
+                sessionGeneration++;
+            }
 
             // DEBUGGING ONLY, CAN COMMENT OUT WHEN FULLY WORKING....
             /*
@@ -196,8 +291,7 @@ public class EZIDService {
      */
     public void logout() throws EZIDException {
         String ezidEndpoint = LOGOUT_SERVICE;
-        byte[] response = sendRequest(GET, ezidEndpoint);
-        String message = new String(response);
+        String message = sendRequest(GET, ezidEndpoint);
         String msg = parseIdentifierResponse(message);
     }
 
@@ -228,8 +322,13 @@ public class EZIDService {
 
         //System.out.println("EZID Create identifier: " + identifier + ":"+metadata.toString());
 
-        byte[] response = sendRequest(PUT, ezidEndpoint, anvl);
-        String responseMsg = new String(response);
+        long start = System.nanoTime();
+        String responseMsg;
+        try {
+            responseMsg = sendRequest(PUT, ezidEndpoint, anvl);
+        } finally {
+            latency.get("createIdentifier").recordSince(start);
+        }
 
         //System.out.println("ezidEndpoint = " + ezidEndpoint);
         //System.out.println("responseMsg = "  + responseMsg);
@@ -268,8 +367,7 @@ public class EZIDService {
 
         String anvl = serializeAsANVL(metadata);
 
-        byte[] response = sendRequest(POST, ezidEndpoint, anvl);
-        String responseMsg = new String(response);
+        String responseMsg = sendRequest(POST, ezidEndpoint, anvl);
         log.debug(responseMsg);
         return parseIdentifierResponse(responseMsg);
     }
@@ -287,13 +385,15 @@ public class EZIDService {
      */
     public HashMap<String, String> getMetadata(String identifier) throws EZIDException {
         String ezidEndpoint = ID_SERVICE + "/" + identifier;
-        byte[] response = sendRequest(GET, ezidEndpoint);
-        String anvl = new String(response);
-
-        HashMap<String, String> metadata = new HashMap<String, String>();
-        for (String l : anvl.split("[\\r\\n]+")) {
-            String[] kv = l.split(":", 2);
-            metadata.put(unescape(kv[0]).trim(), unescape(kv[1]).trim());
+        long start = System.nanoTime();
+        HashMap<String, String> metadata;
+        try {
+            metadata = sendRequest(GET, ezidEndpoint, null, METADATA_HANDLER);
+        } finally {
+            latency.get("getMetadata").recordSince(start);
+        }
+        if (metadata.containsKey("error")) {
+            throw new EZIDException(metadata.get("error"));
         }
         return metadata;
     }
@@ -315,8 +415,13 @@ public class EZIDService {
 
         String anvl = serializeAsANVL(metadata);
 
-        byte[] response = sendRequest(POST, ezidEndpoint, anvl);
-        String responseMsg = new String(response);
+        long start = System.nanoTime();
+        String responseMsg;
+        try {
+            responseMsg = sendRequest(POST, ezidEndpoint, anvl);
+        } finally {
+            latency.get("setMetadata").recordSince(start);
+        }
         log.debug(responseMsg);
         String modifiedId = parseIdentifierResponse(responseMsg);
     }
@@ -333,52 +438,85 @@ public class EZIDService {
      */
     public void deleteIdentifier(String identifier) throws EZIDException {
         String ezidEndpoint = ID_SERVICE + "/" + identifier;
-        byte[] response = sendRequest(DELETE, ezidEndpoint);
-        String responseMsg = new String(response);
+        String responseMsg = sendRequest(DELETE, ezidEndpoint);
         String deletedId = parseIdentifierResponse(responseMsg);
     }
 
     /**
-     * Generate an HTTP Client for communicating with web services that is
-     * thread safe and can be used in the context of a multi-threaded application.
+     * Send an HTTP request to the EZID service without a request body.
+     *
+     * @param requestType the type of the service as an integer
+     * @param uri         endpoint to be accessed in the request
      *
-     * @return DefaultHttpClient
+     * @return the first line of the response body
      */
-    private static DefaultHttpClient createThreadSafeClient() {
-        DefaultHttpClient client = new DefaultHttpClient();
-        ClientConnectionManager mgr = client.getConnectionManager();
-        HttpParams params = client.getParams();
-        ThreadSafeClientConnManager connManager = new ThreadSafeClientConnManager(mgr.getSchemeRegistry());
-        connManager.setDefaultMaxPerRoute(CONNECTIONS_PER_ROUTE);
-        client = new DefaultHttpClient(connManager, params);
-        return client;
+    private String sendRequest(int requestType, String uri) throws EZIDException {
+        return sendRequest(requestType, uri, null, MESSAGE_HANDLER);
     }
 
     /**
-     * Send an HTTP request to the EZID service without a request body.
+     * Send an HTTP request to the EZID service with a request body (for POST and PUT requests).
      *
      * @param requestType the type of the service as an integer
      * @param uri         endpoint to be accessed in the request
+     * @param requestBody the String body to be encoded into the body of the request
      *
-     * @return byte[] containing the response body
+     * @return the first line of the response body
      */
-    private byte[] sendRequest(int requestType, String uri) throws EZIDException {
-        return sendRequest(requestType, uri, null);
+    private String sendRequest(int requestType, String uri, String requestBody) throws EZIDException {
+        return sendRequest(requestType, uri, requestBody, MESSAGE_HANDLER);
     }
 
     /**
-     * Send an HTTP request to the EZID service with a request body (for POST and PUT requests).
+     * Send an HTTP request to the EZID service, reading the response as it arrives with the given handler.  If
+     * EZID has ended this service's session, log in again and send the request once more.
      *
      * @param requestType the type of the service as an integer
      * @param uri         endpoint to be accessed in the request
-     * @param requestBody the String body to be encoded into the body of the request
+     * @param requestBody the String body to be encoded into the body of the request, or null
+     * @param handler     reads the response body
      *
-     * @return byte[] containing the response body
+     * @return what the handler read
      */
-    private byte[] sendRequest(int requestType, String uri, String requestBody) throws EZIDException {
-        HttpUriRequest request = null;
+    private <T> T sendRequest(int requestType, String uri, String requestBody, ResponseHandler<T> handler)
+            throws EZIDException {
         log.debug("Trying uri: " + uri);
-        System.out.println("uri = " + uri);
+        int generation;
+        synchronized (this) {
+            generation = sessionGeneration;
+        }
+        try {
+            return httpclient.execute(buildRequest(requestType, uri, requestBody), handler);
+        } catch (sessionExpiredException e) {
+            if (username == null) {
+                throw new EZIDException(e);
+            }
+            log.info("EZID session expired, logging in again");
+            relogin(generation);
+            try {
+                return httpclient.execute(buildRequest(requestType, uri, requestBody), handler);
+            } catch (IOException e1) {
+                throw new EZIDException(e1);
+            }
+        } catch (IOException e) {
+            throw new EZIDException(e);
+        }
+    }
+
+    /**
+     * Log in again, unless another thread already has since the session was found to be expired
+     *
+     * @param generation the sessionGeneration when the failed request was sent
+     */
+    private synchronized void relogin(int generation) throws EZIDException {
+        if (generation == sessionGeneration) {
+            cookieStore.clear();
+            login(username, password);
+        }
+    }
+
+    private HttpUriRequest buildRequest(int requestType, String uri, String requestBody) throws EZIDException {
+        HttpUriRequest request = null;
         switch (requestType) {
 
             case GET:
@@ -400,7 +538,7 @@ public class EZIDService {
 
                 if (requestBody != null && requestBody.length() > 0) {
                     try {
-                        System.out.println("requestBody = " + requestBody);
+                        log.debug("requestBody = " + requestBody);
                         StringEntity myEntity = new StringEntity(requestBody, "UTF-8");
                         ((HttpPost) request).setEntity(myEntity);
                     } catch (UnsupportedEncodingException e) {
@@ -421,30 +559,76 @@ public class EZIDService {
         String encodedAuth = org.apache.commons.codec.binary.Base64.encodeBase64String(auth.getBytes());
         request.addHeader("Authorization", "Basic " + encodedAuth); */
 
-        ResponseHandler<byte[]> handler = new ResponseHandler<byte[]>() {
-            public byte[] handleResponse(
-                    HttpResponse response) throws ClientProtocolException, IOException {
-                HttpEntity entity = response.getEntity();
-                if (entity != null) {
-                    return EntityUtils.toByteArray(entity);
-                } else {
-                    return null;
+        return request;
+    }
+
+    /**
+     * Thrown by the response handlers when EZID no longer recognizes the session
+     */
+    private static class sessionExpiredException extends ClientProtocolException {
+        private static final long serialVersionUID = 1L;
+
+        sessionExpiredException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads a response a line at a time as it arrives, rather than buffering the whole body first.  The rest of the
+     * body is always read, so the connection can go back to the pool.
+     */
+    private static abstract class anvlResponseHandler<T> implements ResponseHandler<T> {
+        public T handleResponse(HttpResponse response) throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new ClientProtocolException("Empty response from EZID: " + response.getStatusLine());
+            }
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getContent(), "UTF-8"));
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+                    throw new sessionExpiredException(String.valueOf(reader.readLine()));
                 }
+                return read(reader);
+            } finally {
+                EntityUtils.consume(entity);
             }
-        };
-        byte[] body = null;
-
-        try {
-            body = httpclient.execute(request, handler);
-        } catch (ClientProtocolException e) {
-            throw new EZIDException(e);
-        } catch (IOException e) {
-            throw new EZIDException(e);
         }
 
-        return body;
+        protected abstract T read(BufferedReader reader) throws IOException;
     }
 
+    /**
+     * Reads the status line EZID sends for most calls, e.g. "success: ark:/99999/fk4..."
+     */
+    private static final ResponseHandler<String> MESSAGE_HANDLER = new anvlResponseHandler<String>() {
+        protected String read(BufferedReader reader) throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new ClientProtocolException("Empty response from EZID");
+            }
+            return line;
+        }
+    };
+
+    /**
+     * Reads the status line and metadata EZID sends for getMetadata, into name/value pairs
+     */
+    private static final ResponseHandler<HashMap<String, String>> METADATA_HANDLER =
+            new anvlResponseHandler<HashMap<String, String>>() {
+                protected HashMap<String, String> read(BufferedReader reader) throws IOException {
+                    HashMap<String, String> metadata = new HashMap<String, String>();
+                    String l;
+                    while ((l = reader.readLine()) != null) {
+                        if (l.length() == 0) {
+                            continue;
+                        }
+                        String[] kv = l.split(":", 2);
+                        metadata.put(unescape(kv[0]).trim(), kv.length > 1 ? unescape(kv[1]).trim() : "");
+                    }
+                    return metadata;
+                }
+            };
+
     /**
      * Parse the response from EZID and extract out the identifier that is returned
      * as part of the 'success' message.
@@ -509,7 +693,7 @@ public class EZIDService {
      *
      * @return the unescaped String value
      */
-    private String unescape(String str) {
+    private static String unescape(String str) {
         StringBuffer buffer = new StringBuffer();
         int i;
         while ((i = str.indexOf("%")) >= 0) {
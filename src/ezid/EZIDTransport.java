@@ -0,0 +1,141 @@
+package ezid;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pool of HTTP connections shared by every EZIDService, so that connections to EZID are kept alive and reused
+ * across requests, services and threads rather than opened for each.  Idle and expired connections are closed by a
+ * background thread.
+ * <p/>
+ * Settings, all optional, times in milliseconds:
+ * ezidMaxConnections (across all routes), ezidMaxConnectionsPerRoute, ezidConnectTimeout, ezidSocketTimeout
+ * (waiting on a response), ezidPoolTimeout (waiting for a free connection), ezidKeepAlive (how long an idle
+ * connection is kept when EZID does not say).
+ */
+public class EZIDTransport {
+
+    private static Logger log = LoggerFactory.getLogger(EZIDTransport.class);
+
+    private static EZIDTransport instance;
+
+    private final PoolingClientConnectionManager connManager;
+    private final HttpParams params;
+    private final ConnectionKeepAliveStrategy keepAliveStrategy;
+    private final ScheduledExecutorService evictor;
+
+    private EZIDTransport() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        final long keepAlive = sm.retrieveLong("ezidKeepAlive", 30000);
+
+        connManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+        connManager.setMaxTotal(sm.retrieveInt("ezidMaxConnections", 32));
+        connManager.setDefaultMaxPerRoute(sm.retrieveInt("ezidMaxConnectionsPerRoute", 16));
+
+        params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, sm.retrieveInt("ezidConnectTimeout", 10000));
+        HttpConnectionParams.setSoTimeout(params, sm.retrieveInt("ezidSocketTimeout", 60000));
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        // A kept-alive connection EZID has since closed would fail a PUT or POST, which are not retried, so check
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, sm.retrieveLong("ezidPoolTimeout", 30000));
+
+        // Keep a connection for as long as EZID says it will, or for keepAlive if it doesn't say
+        keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext()) {
+                    HeaderElement he = it.nextElement();
+                    if (he.getValue() != null && he.getName().equalsIgnoreCase("timeout")) {
+                        try {
+                            return Math.min(keepAlive, Long.parseLong(he.getValue()) * 1000);
+                        } catch (NumberFormatException e) {
+                            // fall through to the default
+                        }
+                    }
+                }
+                return keepAlive;
+            }
+        };
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bcid-ezid-connection-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long interval = Math.max(1000, keepAlive / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                connManager.closeExpiredConnections();
+                connManager.closeIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized EZIDTransport getInstance() {
+        if (instance == null) {
+            instance = new EZIDTransport();
+        }
+        return instance;
+    }
+
+    /**
+     * Close every pooled connection and stop the evictor.  A later getInstance() starts a new pool.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.evictor.shutdownNow();
+            // Sessions hold clients on this pool, so they go with it
+            EZIDService.forgetSessions();
+            instance.connManager.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Create a client that sends its requests over the shared pool.  Clients are cheap; each EZIDService has its
+     * own so that its cookies, and so its EZID session, are its own.
+     *
+     * @return DefaultHttpClient
+     */
+    DefaultHttpClient newClient() {
+        DefaultHttpClient client = new DefaultHttpClient(connManager, params);
+        client.setKeepAliveStrategy(keepAliveStrategy);
+        return client;
+    }
+
+    public int getLeasedConnections() {
+        return connManager.getTotalStats().getLeased();
+    }
+
+    public int getAvailableConnections() {
+        return connManager.getTotalStats().getAvailable();
+    }
+
+    public String toString() {
+        return "EZIDTransport[" + connManager.getTotalStats() + "]";
+    }
+}
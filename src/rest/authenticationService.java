@@ -69,54 +69,52 @@ public class authenticationService {
 
         if (!usr.isEmpty() && !pass.isEmpty()) {
             authenticator authenticator = new auth.authenticator();
-            Boolean isAuthenticated;
-
-            // Verify that the entered and stored passwords match
-            isAuthenticated = authenticator.login(usr, pass);
-            HttpSession session = request.getSession();
-
-            logger.debug("BCID SESS_DEBUG login: sessionid=" + session.getId());
-
-            if (isAuthenticated) {
-                // Place the user in the session
-                session.setAttribute("user", usr);
-                authorizer myAuthorizer = null;
-
-                myAuthorizer = new auth.authorizer();
-
-                // Check if the user is an admin for any projects
-                if (myAuthorizer.userProjectAdmin(usr)) {
-                    session.setAttribute("projectAdmin", true);
+            try {
+                Boolean isAuthenticated;
+
+                // Verify that the entered and stored passwords match
+                isAuthenticated = authenticator.login(usr, pass);
+                HttpSession session = request.getSession();
+
+                logger.debug("BCID SESS_DEBUG login: sessionid=" + session.getId());
+
+                if (isAuthenticated) {
+                    // Place the user in the session
+                    session.setAttribute("user", usr);
+                    authorizer myAuthorizer = null;
+
+                    myAuthorizer = new auth.authorizer();
+                    try {
+                        // Check if the user is an admin for any projects
+                        if (myAuthorizer.userProjectAdmin(usr)) {
+                            session.setAttribute("projectAdmin", true);
+                        }
+                    } finally {
+                        myAuthorizer.close();
+                    }
+
+                    // Check if the user has created their own password, if they are just using the temporary password, inform the user to change their password
+                    if (!authenticator.userSetPass(usr)) {
+                        return Response.ok("{\"url\": \"/bcid/secure/profile.jsp?error=Update Your Password" +
+                                        new queryParams().getQueryParams(request.getParameterMap(), false) + "\"}")
+                                        .build();
+                    }
+
+
+                    // Redirect to return_to uri if provided
+                    if (return_to != null) {
+                        return Response.ok("{\"url\": \"" + return_to +
+                                    new queryParams().getQueryParams(request.getParameterMap(), true) + "\"}")
+                                .build();
+                    } else {
+                        return Response.ok("{\"url\": \"/bcid/index.jsp\"}").build();
+                    }
                 }
-
-                myAuthorizer.close();
-
-                // Check if the user has created their own password, if they are just using the temporary password, inform the user to change their password
-                if (!authenticator.userSetPass(usr)) {
-                    // don't need authenticator anymore
-                    authenticator.close();
-
-                    return Response.ok("{\"url\": \"/bcid/secure/profile.jsp?error=Update Your Password" +
-                                    new queryParams().getQueryParams(request.getParameterMap(), false) + "\"}")
-                                    .build();
-                } else {
-                    // don't need authenticator anymore
-                    authenticator.close();
+                // stored and entered passwords don't match, invalidate the session to be sure that a user is not in the session
+                else {
+                    session.invalidate();
                 }
-
-
-                // Redirect to return_to uri if provided
-                if (return_to != null) {
-                    return Response.ok("{\"url\": \"" + return_to +
-                                new queryParams().getQueryParams(request.getParameterMap(), true) + "\"}")
-                            .build();
-                } else {
-                    return Response.ok("{\"url\": \"/bcid/index.jsp\"}").build();
-                }
-            }
-            // stored and entered passwords don't match, invalidate the session to be sure that a user is not in the session
-            else {
-                session.invalidate();
+            } finally {
                 authenticator.close();
             }
         }
@@ -146,36 +144,40 @@ public class authenticationService {
         if (!usr.isEmpty() && !pass.isEmpty()) {
             authenticator authenticator = new auth.authenticator();
             Boolean isAuthenticated = false;
-
-            // Verify that the entered and stored passwords match
-            isAuthenticated = authenticator.loginLDAP(usr, pass, true);
-            HttpSession session = request.getSession();
-
-            if (isAuthenticated) {
-                // Place the user in the session
-                session.setAttribute("user", usr);
-                authorizer myAuthorizer = null;
-
-                myAuthorizer = new auth.authorizer();
-                // Check if the user is an admin for any projects
-                if (myAuthorizer.userProjectAdmin(usr)) {
-                    session.setAttribute("projectAdmin", true);
+            try {
+                // Verify that the entered and stored passwords match
+                isAuthenticated = authenticator.loginLDAP(usr, pass, true);
+                HttpSession session = request.getSession();
+
+                if (isAuthenticated) {
+                    // Place the user in the session
+                    session.setAttribute("user", usr);
+                    authorizer myAuthorizer = null;
+
+                    myAuthorizer = new auth.authorizer();
+                    try {
+                        // Check if the user is an admin for any projects
+                        if (myAuthorizer.userProjectAdmin(usr)) {
+                            session.setAttribute("projectAdmin", true);
+                        }
+                    } finally {
+                        myAuthorizer.close();
+                    }
+
+                    if (return_to != null) {
+                        return Response.ok("{\"url\": \"" + return_to +
+                                new queryParams().getQueryParams(request.getParameterMap(), true) + "\"}")
+                                .build();
+                    } else {
+                        return Response.ok("{\"url\": \"/bcid/index.jsp\"}").build();
+                    }
                 }
-                myAuthorizer.close();
-
-                authenticator.close();
-                if (return_to != null) {
-                    return Response.ok("{\"url\": \"" + return_to +
-                            new queryParams().getQueryParams(request.getParameterMap(), true) + "\"}")
-                            .build();
-                } else {
-                    return Response.ok("{\"url\": \"/bcid/index.jsp\"}").build();
+                // stored and entered passwords don't match, invalidate the session to be sure that a user is not in the session
+                else {
+                    session.invalidate();
                 }
-            }
-            // stored and entered passwords don't match, invalidate the session to be sure that a user is not in the session
-            else {
+            } finally {
                 authenticator.close();
-                session.invalidate();
             }
             // Shouldn't need this anymore due to new error handling
             // Check for error message on LDAP
@@ -212,19 +214,22 @@ public class authenticationService {
         if (!usr.isEmpty()) {
             authenticator authenticator = new auth.authenticator();
             String[] challengeQuestions;
+            try {
+                // Retrieve challenge questions from IG server
+                challengeQuestions = authenticator.loginEntrust(usr);
 
-            // Retrieve challenge questions from IG server
-            challengeQuestions = authenticator.loginEntrust(usr);
+                //Construct query params
+                String queryParams = "?userid=" + usr;
+                for (int i = 0; i < challengeQuestions.length; i++) {
+                    queryParams += "&question_" + (i + 1) + "=" + challengeQuestions[i];
+                }
+                queryParams += new queryParams().getQueryParams(request.getParameterMap(), false);
 
-            //Construct query params
-            String queryParams = "?userid=" + usr;
-            for (int i = 0; i < challengeQuestions.length; i++) {
-                queryParams += "&question_" + (i + 1) + "=" + challengeQuestions[i];
+                return Response.ok("{\"url\": \"/bcid/entrustChallenge.jsp" + queryParams + "\"}")
+                        .build();
+            } finally {
+                authenticator.close();
             }
-            queryParams += new queryParams().getQueryParams(request.getParameterMap(), false);
-
-            return Response.ok("{\"url\": \"/bcid/entrustChallenge.jsp" + queryParams + "\"}")
-                    .build();
         }
 
         return Response.status(400)
@@ -275,35 +280,39 @@ public class authenticationService {
 //            }
 
             authenticator authenticator = new authenticator();
-            HttpSession session = request.getSession();
-
-            if (authenticator.entrustChallenge(userid, respChallenge)) {
-                // Place the user in the session
-                session.setAttribute("user", userid);
-                authorizer myAuthorizer = null;
-
-                myAuthorizer = new auth.authorizer();
-
-                // Check if the user is an admin for any projects
-                if (myAuthorizer.userProjectAdmin(userid)) {
-                    session.setAttribute("projectAdmin", true);
+            try {
+                HttpSession session = request.getSession();
+
+                if (authenticator.entrustChallenge(userid, respChallenge)) {
+                    // Place the user in the session
+                    session.setAttribute("user", userid);
+                    authorizer myAuthorizer = null;
+
+                    myAuthorizer = new auth.authorizer();
+                    try {
+                        // Check if the user is an admin for any projects
+                        if (myAuthorizer.userProjectAdmin(userid)) {
+                            session.setAttribute("projectAdmin", true);
+                        }
+                    } finally {
+                        myAuthorizer.close();
+                    }
+
+                    // Redirect to return_to uri if provided
+                    if (return_to != null) {
+                        return Response.ok("{\"url\": \"" + return_to +
+                                new queryParams().getQueryParams(request.getParameterMap(), true) + "\"}")
+                                .build();
+                    } else {
+                        return Response.ok("{\"url\": \"/bcid/index.jsp\"}").build();
+                    }
                 }
-
-                myAuthorizer.close();
+                return Response.status(500)
+                        .entity(new errorInfo("Server Error", 500).toJSON())
+                        .build();
+            } finally {
                 authenticator.close();
-
-                // Redirect to return_to uri if provided
-                if (return_to != null) {
-                    return Response.ok("{\"url\": \"" + return_to +
-                            new queryParams().getQueryParams(request.getParameterMap(), true) + "\"}")
-                            .build();
-                } else {
-                    return Response.ok("{\"url\": \"/bcid/index.jsp\"}").build();
-                }
             }
-            return Response.status(500)
-                    .entity(new errorInfo("Server Error", 500).toJSON())
-                    .build();
         }
         return Response.status(400)
                 .entity(new errorInfo("Bad Request", 400).toJSON())
@@ -363,54 +372,51 @@ public class authenticationService {
         Object username = session.getAttribute("user");
 
         provider p = new provider();
+        String code;
+        try {
+            if (redirectURL == null) {
+                String callback = null;
+                try {
+                    callback = p.getCallback(clientId);
+                } catch (OAUTHException e) {
+                    logger.warn("OAUTHException retrieving callback for OAUTH clientID {}", clientId, e);
+                }
 
-        if (redirectURL == null) {
-            String callback = null;
-            try {
-                callback = p.getCallback(clientId);
-            } catch (OAUTHException e) {
-                logger.warn("OAUTHException retrieving callback for OAUTH clientID {}", clientId, e);
+                if (callback != null) {
+                    try {
+                        return Response.status(302).location(new URI(callback + "?error=invalid_request")).build();
+                    } catch (URISyntaxException e) {
+                        logger.warn("Malformed callback URI for oauth client {} and callback {}", clientId, callback);
+                    }
+                }
+                throw new BadRequestException("invalid_request");
             }
 
-            if (callback != null) {
+            if (clientId == null || !p.validClientId(clientId)) {
+                redirectURL += "?error=unauthorized_client";
                 try {
-                    p.close();
-                    return Response.status(302).location(new URI(callback + "?error=invalid_request")).build();
+                    return Response.status(302).location(new URI(redirectURL)).build();
                 } catch (URISyntaxException e) {
-                    logger.warn("Malformed callback URI for oauth client {} and callback {}", clientId, callback);
+                    throw new BadRequestException("invalid_request", "invalid redirect_uri provided");
                 }
             }
-            p.close();
-            throw new BadRequestException("invalid_request");
-        }
-
-        if (clientId == null || !p.validClientId(clientId)) {
-            redirectURL += "?error=unauthorized_client";
-            try {
-                p.close();
-                return Response.status(302).location(new URI(redirectURL)).build();
-            } catch (URISyntaxException e) {
-                p.close();
-                throw new BadRequestException("invalid_request", "invalid redirect_uri provided");
-            }
-        }
 
-        if (username == null) {
-            // need the user to login
-            try {
-                p.close();
-                return Response.status(Response.Status.TEMPORARY_REDIRECT)
-                        .location(new URI("../bcid/login.jsp?return_to=/id/authenticationService/oauth/authorize?"
-                                    + request.getQueryString()))
-                        .build();
-            } catch (URISyntaxException e) {
-                p.close();
-                throw new ServerErrorException(e);
+            if (username == null) {
+                // need the user to login
+                try {
+                    return Response.status(Response.Status.TEMPORARY_REDIRECT)
+                            .location(new URI("../bcid/login.jsp?return_to=/id/authenticationService/oauth/authorize?"
+                                        + request.getQueryString()))
+                            .build();
+                } catch (URISyntaxException e) {
+                    throw new ServerErrorException(e);
+                }
             }
+            //TODO ask user if they want to share profile information with requesting party
+            code = p.generateCode(clientId, redirectURL, username.toString());
+        } finally {
+            p.close();
         }
-        //TODO ask user if they want to share profile information with requesting party
-        String code = p.generateCode(clientId, redirectURL, username.toString());
-        p.close();
 
         redirectURL += "?code=" + code;
 
@@ -445,8 +451,6 @@ public class authenticationService {
                                  @FormParam("client_secret") String clientSecret,
                                  @FormParam("redirect_uri") String redirectURL,
                                  @FormParam("state") String state) {
-        provider p = null;
-        p = new provider();
         if (redirectURL == null) {
             throw new BadRequestException("invalid_request", "redirect_uri is null");
         }
@@ -455,21 +459,23 @@ public class authenticationService {
             url = new URI(redirectURL);
         } catch (URISyntaxException e) {
             logger.warn("URISyntaxException for the following url: {}", redirectURL, e);
-            p.close();
             throw new BadRequestException("invalid_request", "URISyntaxException thrown with the following redirect_uri: " + redirectURL);
         }
 
-        if (clientId == null || clientSecret == null || !p.validateClient(clientId, clientSecret)) {
-            p.close();
-            throw new BadRequestException("invalid_client");
-        }
+        provider p = new provider();
+        String response;
+        try {
+            if (clientId == null || clientSecret == null || !p.validateClient(clientId, clientSecret)) {
+                throw new BadRequestException("invalid_client");
+            }
 
-        if (code == null || !p.validateCode(clientId, code, redirectURL)) {
+            if (code == null || !p.validateCode(clientId, code, redirectURL)) {
+                throw new BadRequestException("invalid_grant", "Either code was null or the code doesn't match the clientId");
+            }
+            response = p.generateToken(clientId, state, code);
+        } finally {
             p.close();
-            throw new BadRequestException("invalid_grant", "Either code was null or the code doesn't match the clientId");
         }
-        String response = p.generateToken(clientId, state, code);
-        p.close();
 
         return Response.ok(response)
                 .header("Cache-Control", "no-store")
@@ -494,23 +500,26 @@ public class authenticationService {
                             @FormParam("client_secret") String clientSecret,
                             @FormParam("refresh_token") String refreshToken) {
         provider p = new provider();
+        String accessToken;
+        try {
+            if (clientId == null || clientSecret == null || !p.validateClient(clientId, clientSecret)) {
+                throw new BadRequestException("invalid_client");
+            }
 
-        if (clientId == null || clientSecret == null || !p.validateClient(clientId, clientSecret)) {
-            p.close();
-            throw new BadRequestException("invalid_client");
-        }
+            if (refreshToken == null || !p.validateRefreshToken(refreshToken)) {
+                throw new BadRequestException("invalid_grant", "refresh_token is invalid");
+            }
+
+            accessToken = p.generateToken(refreshToken);
 
-        if (refreshToken == null || !p.validateRefreshToken(refreshToken)) {
+            // refresh tokens are only good once, so delete the old access token so the refresh token can no longer
+            // be used.  If it can not be deleted and revoked the refresh fails, leaving the refresh token to be tried
+            // again
+            p.deleteAccessToken(refreshToken);
+        } finally {
             p.close();
-            throw new BadRequestException("invalid_grant", "refresh_token is invalid");
         }
 
-        String accessToken = p.generateToken(refreshToken);
-
-        // refresh tokens are only good once, so delete the old access token so the refresh token can no longer be used
-        p.deleteAccessToken(refreshToken);
-        p.close();
-
         return Response.ok(accessToken)
                 .header("Cache-Control", "no-store")
                 .header("Pragma", "no-cache")
@@ -545,22 +554,23 @@ public class authenticationService {
         }
 
         authorizer authorizer = new authorizer();
-        authenticator authenticator = new authenticator();
-
-        if (!authorizer.validResetToken(token)) {
-            response.sendRedirect("/bcid/resetPass.jsp?error=Expired Reset Token");
-            authenticator.close();
+        try {
+            if (!authorizer.validResetToken(token)) {
+                response.sendRedirect("/bcid/resetPass.jsp?error=Expired Reset Token");
+                return;
+            }
+        } finally {
             authorizer.close();
-            return;
         }
-        authorizer.close();
 
-        if (authenticator.resetPass(token, password)) {
-            response.sendRedirect("/bcid/login.jsp");
+        authenticator authenticator = new authenticator();
+        try {
+            if (authenticator.resetPass(token, password)) {
+                response.sendRedirect("/bcid/login.jsp");
+            }
+        } finally {
             authenticator.close();
-            return;
         }
-        authenticator.close();
     }
 
     /**
@@ -580,8 +590,12 @@ public class authenticationService {
             throw new BadRequestException("User not found.", "username is null");
         }
         authenticator a = new authenticator();
-        String email = a.sendResetToken(username);
-        a.close();
+        String email;
+        try {
+            email = a.sendResetToken(username);
+        } finally {
+            a.close();
+        }
         if (email != null) {
             return Response.ok("{\"success\": \"" + email + "\"}").build();
         } else {
@@ -3,7 +3,10 @@ package rest;
 import bcid.*;
 import bcidExceptions.BadRequestException;
 import bcidExceptions.ServerErrorException;
+import bcidExceptions.UnauthorizedRequestException;
+import com.sun.jersey.multipart.FormDataParam;
 import net.sf.json.JSONArray;
+import net.sf.json.util.JSONUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.SettingsManager;
@@ -19,8 +22,17 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.String;
+import java.math.BigInteger;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 
@@ -35,6 +47,8 @@ public class elementService {
     static String bcidShoulder;
     static String doiShoulder;
     static SettingsManager sm;
+    // The EZID session shared with anything else using the account, e.g. the ezidOutbox; null if the login failed
+    static EZIDService ezidAccount;
     private static Logger logger = LoggerFactory.getLogger(elementService.class);
 
     /**
@@ -46,10 +60,9 @@ public class elementService {
         sm.loadProperties();
 
         // Initialize ezid account
-        EZIDService ezidAccount = new EZIDService();
         try {
-            // Setup EZID account/login information
-            ezidAccount.login(sm.retrieveValue("eziduser"), sm.retrieveValue("ezidpass"));
+            // Setup EZID account/login information, shared with anything else using the account
+            ezidAccount = EZIDService.getSession(sm.retrieveValue("eziduser"), sm.retrieveValue("ezidpass"));
         } catch (EZIDException e) {
             //TODO should we silence this exception?
             logger.warn("EZIDException trying to login.", e);
@@ -118,20 +131,246 @@ public class elementService {
                             @FormParam("suffixPassThrough") String stringSuffixPassThrough,
                             @Context HttpServletRequest request) {
 
-        dataGroupMinter dataset;
-        database db;
-        Boolean suffixPassthrough = false;
         HttpSession session = request.getSession();
         String username = session.getAttribute("user").toString();
 
+        dataGroupMinter dataset = getDataset(dataset_id, title, resourceType, doi, webaddress, graph,
+                stringSuffixPassThrough, username);
+
+        // Create a bcid Minter instance
+        elementMinter minter = null;
+        minter = new elementMinter(dataset.getDatasets_id());
+
+        try {
+            // Parse input file
+            ArrayList<element> elements = null;
+            elements = new inputFileParser(data, dataset).elementArrayList;
+
+            // Mint the list of identifiers
+            String datasetUUID = null;
+            datasetUUID = minter.mintList(elements);
+
+            // Array of identifiers, or an error message
+            String returnVal = JSONArray.fromObject(minter.getIdentifiers(datasetUUID)).toString();
+
+
+            // Send an Email that this completed
+           /* sendEmail sendEmail = new sendEmail(sm.retrieveValue("mailUser"),
+                    sm.retrieveValue("mailPassword"),
+                    sm.retrieveValue("mailFrom"),
+                    sm.retrieveValue("mailTo"),
+                    "New Elements From " + username,
+                    returnVal);
+            sendEmail.start();
+            */
+            return Response.ok(returnVal).build();
+        } catch (URISyntaxException e) {
+            throw new ServerErrorException("Server Error", "URISyntaxException while parsing input file: " + data, e);
+        } catch (IOException e) {
+            throw new ServerErrorException("Server Error", "IOException while parsing input file: " + data, e);
+        } finally {
+            dataset.close();
+            minter.close();
+        }
+    }
+
+    /**
+     * Create a bunch of BCIDs from an upload of any size.  This works like /creator, but takes the data as a
+     * multipart/form-data file part which is parsed and inserted as it is read, and streams the resulting
+     * identifiers back as a JSON array, so memory use stays bounded regardless of the size of the upload.
+     * An upload that fails part way through, e.g. on a malformed line, is rejected as a whole: the identifiers
+     * already inserted for it are deleted again.
+     *
+     * @param dataset_id
+     * @param title
+     * @param resourceType
+     * @param data
+     * @param doi
+     * @param webaddress
+     * @param request
+     * @return
+     */
+    @POST
+    @Path("/creator/stream")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response streamingCreator(@FormDataParam("datasetList") Integer dataset_id,
+                                     @FormDataParam("title") String title,
+                                     @FormDataParam("resourceTypesMinusDataset") Integer resourceType,
+                                     @FormDataParam("data") InputStream data,
+                                     @FormDataParam("doi") String doi,
+                                     @FormDataParam("webaddress") String webaddress,
+                                     @FormDataParam("graph") String graph,
+                                     @FormDataParam("suffixPassThrough") String stringSuffixPassThrough,
+                                     @Context HttpServletRequest request) {
+        HttpSession session = request.getSession();
+        Object username = session.getAttribute("user");
+        if (username == null) {
+            throw new UnauthorizedRequestException("You must be logged in to create BCIDs.");
+        }
+        if (data == null) {
+            throw new BadRequestException("No data was uploaded.");
+        }
+        if (dataset_id == null) {
+            dataset_id = 0;
+        }
+        if (resourceType == null) {
+            resourceType = 0;
+        }
+        if (stringSuffixPassThrough == null) {
+            stringSuffixPassThrough = "";
+        }
+
+        dataGroupMinter dataset = getDataset(dataset_id, title, resourceType, doi, webaddress, graph,
+                stringSuffixPassThrough, username.toString());
+        Integer datasets_id;
+        try {
+            datasets_id = dataset.getDatasets_id();
+        } finally {
+            dataset.close();
+        }
+
+        elementMinter minter = new elementMinter(datasets_id);
+        final String datasetUUID;
+        try {
+            // Parse and insert the input as it arrives; if it fails part way, nothing of it is kept
+            datasetUUID = minter.mintStream(new elementReader(new InputStreamReader(data, "UTF-8"), datasets_id));
+        } catch (UnsupportedEncodingException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            minter.close();
+        }
+
+        // Stream the array of identifiers back, reading them from the database as they are written.  The connection
+        // is only borrowed once the container writes the response, so it is not held if it never does
+        final Integer streamDatasets_id = datasets_id;
+        StreamingOutput output = new StreamingOutput() {
+            public void write(OutputStream outputStream) throws IOException {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+                elementMinter reader = new elementMinter(streamDatasets_id);
+                try {
+                    reader.writeIdentifiersAsJSON(datasetUUID, writer);
+                    writer.flush();
+                } finally {
+                    reader.close();
+                }
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    /**
+     * Page through the identifiers of a loaded set, as returned by the creator services.  Pages are read with a
+     * cursor rather than an offset, so every page costs the same however deep into the set it is.  The response is
+     * streamed and has the form {"identifiers":[...],"next":"cursor"}, where next is the after value for the
+     * following page, or null on the last page.  Only the owner of the dataset the set was loaded into may read it.
+     *
+     * @param loadedSetUUID
+     * @param after         the next value returned with the previous page, empty for the first page
+     * @param limit         the page size, at most identifiersPageMax (10000 by default)
+     * @param request
+     * @return
+     */
+    @GET
+    @Path("/identifiers/{loadedSetUUID}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response identifiers(@PathParam("loadedSetUUID") final String loadedSetUUID,
+                                @QueryParam("after") String after,
+                                @QueryParam("limit") @DefaultValue("1000") int limit,
+                                @Context HttpServletRequest request) {
+        HttpSession session = request.getSession();
+        Object username = session.getAttribute("user");
+        if (username == null) {
+            throw new UnauthorizedRequestException("You must be logged in to view identifiers.");
+        }
+
+        int pageMax = sm.retrieveInt("identifiersPageMax", 10000);
+        if (limit < 1 || limit > pageMax) {
+            throw new BadRequestException("limit must be between 1 and " + pageMax);
+        }
+        final BigInteger afterId;
+        try {
+            afterId = after == null || after.trim().equals("") ? null : new BigInteger(after.trim());
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid after value: " + after);
+        }
+
+        database db = new database();
+        Integer datasets_id = null;
+        try {
+            Integer users_id = db.getUserId(username.toString());
+            if (users_id != null) {
+                datasets_id = db.getLoadedSetDatasetId(loadedSetUUID, users_id);
+            }
+        } finally {
+            db.close();
+        }
+        if (datasets_id == null) {
+            throw new BadRequestException("No identifiers found for " + loadedSetUUID +
+                    ". Are you the owner of this dataset?");
+        }
+
+        // The connection is only borrowed once the container writes the response, so it is not held if it never does
+        final Integer pageDatasets_id = datasets_id;
+        final int pageSize = limit;
+        StreamingOutput output = new StreamingOutput() {
+            public void write(OutputStream outputStream) throws IOException {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+                elementMinter minter = new elementMinter(pageDatasets_id);
+                final long[] last = new long[1];
+                final boolean[] first = {true};
+                try {
+                    writer.write("{\"identifiers\":[");
+                    int count = minter.forEachIdentifier(loadedSetUUID, afterId, pageSize,
+                            new elementMinter.identifierHandler() {
+                                public void handle(long identifiers_id, String identifier) throws IOException {
+                                    if (!first[0]) {
+                                        writer.write(",");
+                                    }
+                                    first[0] = false;
+                                    last[0] = identifiers_id;
+                                    writer.write(JSONUtils.quote(identifier));
+                                }
+                            });
+                    writer.write("],\"next\":");
+                    writer.write(count == pageSize ? JSONUtils.quote(String.valueOf(last[0])) : "null");
+                    writer.write("}");
+                    writer.flush();
+                } finally {
+                    minter.close();
+                }
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    /**
+     * Create a new dataset for the creator services when dataset_id is 0, otherwise load the existing dataset
+     *
+     * @return the dataGroupMinter for the dataset, which the caller must close
+     */
+    private dataGroupMinter getDataset(Integer dataset_id,
+                                       String title,
+                                       Integer resourceType,
+                                       String doi,
+                                       String webaddress,
+                                       String graph,
+                                       String stringSuffixPassThrough,
+                                       String username) {
+        dataGroupMinter dataset;
+        database db;
+        Boolean suffixPassthrough = false;
 
         // Initialize database
         db = new database();
 
         // Get the user_id
-        Integer user_id = db.getUserId(username);
-
-        db.close();
+        Integer user_id;
+        try {
+            user_id = db.getUserId(username);
+        } finally {
+            db.close();
+        }
 
         // Request creation of new dataset
         if (dataset_id == 0) {
@@ -175,44 +414,6 @@ public class elementService {
             // TODO: check that dataset.users_id matches the user that is logged in!
 
         }
-
-        // Create a bcid Minter instance
-        elementMinter minter = null;
-        minter = new elementMinter(dataset.getDatasets_id());
-
-        try {
-            // Parse input file
-            ArrayList elements = null;
-            elements = new inputFileParser(data, dataset).elementArrayList;
-
-            // Mint the list of identifiers
-            String datasetUUID = null;
-            datasetUUID = minter.mintList(elements);
-
-            // Array of identifiers, or an error message
-            String returnVal = JSONArray.fromObject(minter.getIdentifiers(datasetUUID)).toString();
-
-
-            // Send an Email that this completed
-           /* sendEmail sendEmail = new sendEmail(sm.retrieveValue("mailUser"),
-                    sm.retrieveValue("mailPassword"),
-                    sm.retrieveValue("mailFrom"),
-                    sm.retrieveValue("mailTo"),
-                    "New Elements From " + username,
-                    returnVal);
-            sendEmail.start();
-            */
-            dataset.close();
-            minter.close();
-            return Response.ok(returnVal).build();
-        } catch (URISyntaxException e) {
-            dataset.close();
-            minter.close();
-            throw new ServerErrorException("Server Error", "URISyntaxException while parsing input file: " + data, e);
-        } catch (IOException e) {
-            dataset.close();
-            minter.close();
-            throw new ServerErrorException("Server Error", "IOException while parsing input file: " + data, e);
-        }
+        return dataset;
     }
-}
\ No newline at end of file
+}
@@ -113,9 +113,10 @@ public class exceptionMapper implements ExceptionMapper<Exception> {
 
     private void logException(Exception e) {
         e.printStackTrace();
-        // don't log BadRequestexceptions or UnauthorizedRequestExceptions or ForbiddenRequestExceptions
+        // don't log BadRequestexceptions or UnauthorizedRequestExceptions or ForbiddenRequestExceptions, nor
+        // ServiceUnavailableExceptions, which are counted and logged where they are thrown
         if (!(e instanceof BadRequestException || e instanceof UnauthorizedRequestException ||
-                e instanceof ForbiddenRequestException)) {
+                e instanceof ForbiddenRequestException || e instanceof ServiceUnavailableException)) {
             logger.warn("{} thrown.", e.getClass().toString(), e);
         }
     }
@@ -40,10 +40,12 @@ public class expeditionService {
     public Response mint(@FormParam("expedition_code") String expedition_code,
                          @FormParam("bcid") String bcid,
                          @FormParam("project_id") Integer project_id) {
-        expeditionMinter expedition;
-        expedition = new expeditionMinter();
-        expedition.attachReferenceToExpedition(expedition_code, bcid, project_id);
-        expedition.close();
+        expeditionMinter expedition = new expeditionMinter();
+        try {
+            expedition.attachReferenceToExpedition(expedition_code, bcid, project_id);
+        } finally {
+            expedition.close();
+        }
 
         return Response.ok("{\"success\": \"Associated all concepts associated with dataset code '" + expedition_code +
                 "' to the dataset instance = '" + bcid + "'\"}").build();
@@ -87,8 +89,11 @@ public class expeditionService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            username = p.validateToken(accessToken);
-            p.close();
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
         } else {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
@@ -100,46 +105,47 @@ public class expeditionService {
         }
         // Get the user_id
         database db = new database();
-        Integer user_id = db.getUserId(username);
-        db.close();
+        Integer user_id;
+        try {
+            user_id = db.getUserId(username);
+        } finally {
+            db.close();
+        }
 
         // Create the expeditionMinter object so we can test and validate it
         expeditionMinter expedition = new expeditionMinter();
+        try {
+            //Check that the user exists in this project
+            if (!expedition.userExistsInProject(user_id, project_id)) {
+                // If the user isn't in the project, then we can't update or create a new expedition
+                throw new ForbiddenRequestException("User is not authorized to update/create expeditions in this project.");
+            }
 
-        //Check that the user exists in this project
-        if (!expedition.userExistsInProject(user_id, project_id)) {
-            // If the user isn't in the project, then we can't update or create a new expedition
-            expedition.close();
-            throw new ForbiddenRequestException("User is not authorized to update/create expeditions in this project.");
-        }
-
-        // If specified, ignore the user.. simply figure out whether we're updating or inserting
-        if (lIgnore_user) {
-            if (expedition.expeditionExistsInProject(expedition_code, project_id)) {
-                expedition.close();
-                return Response.ok("{\"update\": \"update this expedition\"}").build();
-            } else {
-                expedition.close();
-                return Response.ok("{\"insert\": \"insert new expedition\"}").build();
+            // If specified, ignore the user.. simply figure out whether we're updating or inserting
+            if (lIgnore_user) {
+                if (expedition.expeditionExistsInProject(expedition_code, project_id)) {
+                    return Response.ok("{\"update\": \"update this expedition\"}").build();
+                } else {
+                    return Response.ok("{\"insert\": \"insert new expedition\"}").build();
+                }
             }
-        }
 
-        // Else, pay attention to what user owns the initial project
-        else {
-            if (expedition.userOwnsExpedition(user_id, expedition_code, project_id)) {
-                // If the user already owns the expedition, then great--- this is an update
-                expedition.close();
-                return Response.ok("{\"update\": \"user owns this expedition\"}").build();
-                // If the expedition exists in the project but the user does not own the expedition then this means we can't
-            } else if (expedition.expeditionExistsInProject(expedition_code, project_id)) {
-                expedition.close();
-                throw new ForbiddenRequestException("The dataset code '" + expedition_code +
-                        "' exists in this project already and is owned by another user. " +
-                        "Please choose another dataset code.");
-            } else {
-                expedition.close();
-                return Response.ok("{\"insert\": \"the dataset does not exist with project and nobody owns it\"}").build();
+            // Else, pay attention to what user owns the initial project
+            else {
+                if (expedition.userOwnsExpedition(user_id, expedition_code, project_id)) {
+                    // If the user already owns the expedition, then great--- this is an update
+                    return Response.ok("{\"update\": \"user owns this expedition\"}").build();
+                    // If the expedition exists in the project but the user does not own the expedition then this means we can't
+                } else if (expedition.expeditionExistsInProject(expedition_code, project_id)) {
+                    throw new ForbiddenRequestException("The dataset code '" + expedition_code +
+                            "' exists in this project already and is owned by another user. " +
+                            "Please choose another dataset code.");
+                } else {
+                    return Response.ok("{\"insert\": \"the dataset does not exist with project and nobody owns it\"}").build();
+                }
             }
+        } finally {
+            expedition.close();
         }
     }
 
@@ -168,8 +174,11 @@ public class expeditionService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            username = p.validateToken(accessToken);
-            p.close();
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
         } else {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
@@ -185,8 +194,12 @@ public class expeditionService {
 
         // Get the user_id
         database db = new database();
-        Integer user_id = db.getUserId(username);
-        db.close();
+        Integer user_id;
+        try {
+            user_id = db.getUserId(username);
+        } finally {
+            db.close();
+        }
 
         Integer expedition_id = null;
         expeditionMinter expedition = null;
@@ -223,7 +236,9 @@ public class expeditionService {
         } catch (BCIDException e) {
             throw new BadRequestException(e.getMessage());
         } finally {
-            expedition.close();
+            if (expedition != null) {
+                expedition.close();
+            }
         }
     }
 
@@ -239,9 +254,11 @@ public class expeditionService {
     @Produces(MediaType.APPLICATION_JSON)
     public Response getGraphMetadata(@PathParam("graph") String graph) {
         expeditionMinter e = new expeditionMinter();
-        String response = e.getGraphMetadata(graph);
-        e.close();
-        return Response.ok(response).build();
+        try {
+            return Response.ok(e.getGraphMetadata(graph)).build();
+        } finally {
+            e.close();
+        }
     }
 
     /**
@@ -265,8 +282,12 @@ public class expeditionService {
         }
 
         resolver r = new resolver(expedition, project_id, resourceAlias);
-        String response = r.getArk();
-        r.close();
+        String response;
+        try {
+            response = r.getArk();
+        } finally {
+            r.close();
+        }
         if (response == null) {
             return Response.status(Response.Status.NO_CONTENT).entity("{\"ark\": \"\"}").build();
         } else {
@@ -288,12 +309,11 @@ public class expeditionService {
     public Response fetchDeepRoots(@PathParam("expedition") String expedition,
                                    @PathParam("project_id") Integer project_id) {
         expeditionMinter expeditionMinter = new expeditionMinter();
-
-        String response = expeditionMinter.getDeepRoots(expedition, project_id);
-
-        expeditionMinter.close();
-
-        return Response.ok(response).build();
+        try {
+            return Response.ok(expeditionMinter.getDeepRoots(expedition, project_id)).build();
+        } finally {
+            expeditionMinter.close();
+        }
     }
 
     /**
@@ -313,8 +333,11 @@ public class expeditionService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            username = p.validateToken(accessToken);
-            p.close();
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
         } else {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
@@ -325,11 +348,11 @@ public class expeditionService {
         }
 
         expeditionMinter e = new expeditionMinter();
-
-        String response = e.listExpeditions(projectId, username.toString());
-
-        e.close();
-        return Response.ok(response).build();
+        try {
+            return Response.ok(e.listExpeditions(projectId, username.toString())).build();
+        } finally {
+            e.close();
+        }
     }
 
     /**
@@ -351,11 +374,11 @@ public class expeditionService {
         }
 
         expeditionMinter e = new expeditionMinter();
-
-        String response = e.listExpeditionResourcesAsTable(expeditionId);
-
-        e.close();
-        return Response.ok(response).build();
+        try {
+            return Response.ok(e.listExpeditionResourcesAsTable(expeditionId)).build();
+        } finally {
+            e.close();
+        }
     }
 
     /**
@@ -377,9 +400,11 @@ public class expeditionService {
         }
 
         expeditionMinter e = new expeditionMinter();
-        String results = e.listExpeditionDatasetsAsTable(expeditionId);
-        e.close();
-        return Response.ok(results).build();
+        try {
+            return Response.ok(e.listExpeditionDatasetsAsTable(expeditionId)).build();
+        } finally {
+            e.close();
+        }
     }
 
     /**
@@ -405,9 +430,11 @@ public class expeditionService {
         }
 
         expeditionMinter e = new expeditionMinter();
-        String response = e.listExpeditionsAsTable(projectId, username.toString());
-        e.close();
-        return Response.ok(response).build();
+        try {
+            return Response.ok(e.listExpeditionsAsTable(projectId, username.toString())).build();
+        } finally {
+            e.close();
+        }
     }
 
 
@@ -432,20 +459,28 @@ public class expeditionService {
             throw new UnauthorizedRequestException("You must be logged in to update an datasets public status.");
         }
 
+        Boolean projectAdmin;
         database db = new database();
-        projectMinter p = new projectMinter();
-        Integer userId = db.getUserId(username.toString());
-        Boolean projectAdmin = p.userProjectAdmin(userId, projectId);
-        db.close();
-        p.close();
+        try {
+            projectMinter p = new projectMinter();
+            try {
+                projectAdmin = p.userProjectAdmin(db.getUserId(username.toString()), projectId);
+            } finally {
+                p.close();
+            }
+        } finally {
+            db.close();
+        }
 
         if (!projectAdmin) {
             throw new ForbiddenRequestException("You must be this project's admin in order to update a project dataset's public status.");
         }
         expeditionMinter e = new expeditionMinter();
-
-        e.updateExpeditionsPublicStatus(data, projectId);
-        e.close();
+        try {
+            e.updateExpeditionsPublicStatus(data, projectId);
+        } finally {
+            e.close();
+        }
         return Response.ok("{\"success\": \"successfully updated.\"}").build();
     }
 
@@ -473,8 +508,11 @@ public class expeditionService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            username = p.validateToken(accessToken);
-            p.close();
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
         } else {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
@@ -486,25 +524,30 @@ public class expeditionService {
 
         // Check to see that this user belongs to this project
         database db = new database();
+        Integer userId;
+        try {
+            userId = db.getUserId(username.toString());
+        } finally {
+            db.close();
+        }
 
         expeditionMinter e = new expeditionMinter();
+        try {
+            if (!e.userOwnsExpedition(userId, expeditionCode, projectId)) {
+                throw new ForbiddenRequestException("You must be the owner of this expedition to update the public status.");
+            }
 
-        Integer userId = db.getUserId(username.toString());
-
-        if (!e.userOwnsExpedition(userId, expeditionCode, projectId)) {
-            throw new ForbiddenRequestException("You must be the owner of this expedition to update the public status.");
-        }
-
-        // Update the expedition public status for what was just passed in
+            // Update the expedition public status for what was just passed in
 
-        if (e.updateExpeditionPublicStatus(expeditionCode, projectId, publicStatus)) {
-            //System.out.println("successs!");
-            e.close();
-            return Response.ok("{\"success\": \"successfully updated.\"}").build();
-        } else {
+            if (e.updateExpeditionPublicStatus(expeditionCode, projectId, publicStatus)) {
+                //System.out.println("successs!");
+                return Response.ok("{\"success\": \"successfully updated.\"}").build();
+            } else {
+                //System.out.println("not successs!");
+                return Response.ok("{\"success\": \"nothing to update.\"}").build();
+            }
+        } finally {
             e.close();
-            //System.out.println("not successs!");
-            return Response.ok("{\"success\": \"nothing to update.\"}").build();
         }
     }
 
@@ -6,15 +6,13 @@ import bcid.Renderer.Renderer;
 import bcid.dataGroupMinter;
 import bcid.expeditionMinter;
 import bcid.database;
-import bcid.manageEZID;
+import bcid.ezidOutbox;
 import bcid.GenericIdentifier;
 import bcid.bcid;
 import bcid.ResourceTypes;
 
 import bcidExceptions.BadRequestException;
 import bcidExceptions.UnauthorizedRequestException;
-import ezid.EZIDException;
-import ezid.EZIDService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.SettingsManager;
@@ -42,7 +40,6 @@ public class groupService {
     static String bcidShoulder;
     static String doiShoulder;
     //static SettingsManager sm;
-    private static EZIDService ezidAccount;
 
     /**
      * Load settings manager, set ontModelSpec.
@@ -87,8 +84,11 @@ public class groupService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            username = p.validateToken(accessToken);
-            p.close();
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
         } else {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
@@ -109,9 +109,13 @@ public class groupService {
 
         // Create a Dataset
         database db = new database();
-        // Check for remote-user
-        Integer user_id = db.getUserId(username);
-        db.close();
+        Integer user_id;
+        try {
+            // Check for remote-user
+            user_id = db.getUserId(username);
+        } finally {
+            db.close();
+        }
 
         // Detect if this is user=demo or not.  If this is "demo" then do not request EZIDs.
         // User account Demo can still create Data Groups, but they just don't get registered and will be purged periodically
@@ -125,34 +129,27 @@ public class groupService {
 
         // Mint the data group
         dataGroupMinter minterDataset = new dataGroupMinter(ezidRequest, suffixPassthrough);
-        minterDataset.mint(
-                new Integer(sm.retrieveValue("bcidNAAN")),
-                user_id,
-                resourceTypeString,
-                doi,
-                webaddress,
-                graph,
-                title);
-        minterDataset.close();
+        try {
+            minterDataset.mint(
+                    new Integer(sm.retrieveValue("bcidNAAN")),
+                    user_id,
+                    resourceTypeString,
+                    doi,
+                    webaddress,
+                    graph,
+                    title);
+        } finally {
+            minterDataset.close();
+        }
         String datasetPrefix = minterDataset.getPrefix();
 
-        // Create EZIDs right away for Dataset level Identifiers
-        // Initialize ezid account
+        // Create EZIDs right away for Dataset level Identifiers: mint queued the request on the ezidOutbox, so have its
+        // poller pick it up now rather than at its next interval.
         // NOTE: On any type of EZID error, we DON'T want to fail the process.. This means we need
         // a separate mechanism on the server side to check creation of EZIDs.  This is easy enough to do
         // in the database.
         if (ezidRequest) {
-            manageEZID creator = new manageEZID();
-            try {
-                ezidAccount = new EZIDService();
-                // Setup EZID account/login information
-                ezidAccount.login(sm.retrieveValue("eziduser"), sm.retrieveValue("ezidpass"));
-                creator.createDatasetsEZIDs(ezidAccount);
-            } catch (EZIDException e) {
-                logger.warn("EZID NOT CREATED FOR DATASET = " + minterDataset.getPrefix(), e);
-            } finally {
-                creator.close();
-            }
+            ezidOutbox.getInstance().wake();
         }
 
         return Response.ok("{\"prefix\": \"" + datasetPrefix + "\"}").build();
@@ -168,11 +165,11 @@ public class groupService {
     @GET
     @Path("/metadata/{dataset_id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public String run(@PathParam("dataset_id") Integer dataset_id) {
+    public Response run(@PathParam("dataset_id") Integer dataset_id) {
         GenericIdentifier bcid = new bcid(dataset_id);
         Renderer renderer = new JSONRenderer();
 
-        return "[" + renderer.render(bcid) + "]";
+        return Response.ok(renderedOutput.asList(renderer, bcid)).build();
     }
 
     /**
@@ -192,10 +189,11 @@ public class groupService {
         }
 
         dataGroupMinter d = new dataGroupMinter();
-        String response = d.datasetList(username);
-        d.close();
-
-        return Response.ok(response).build();
+        try {
+            return Response.ok(d.datasetList(username)).build();
+        } finally {
+            d.close();
+        }
     }
 
     /**
@@ -215,10 +213,11 @@ public class groupService {
         }
 
         dataGroupMinter d = new dataGroupMinter();
-        String response = d.datasetTable(username);
-        d.close();
-
-        return Response.ok(response).build();
+        try {
+            return Response.ok(d.datasetTable(username)).build();
+        } finally {
+            d.close();
+        }
     }
 
     /**
@@ -238,9 +237,11 @@ public class groupService {
         }
 
         expeditionMinter e = new expeditionMinter();
-        String tablename = e.expeditionTable(username);
-        e.close();
-        return Response.ok(tablename).build();
+        try {
+            return Response.ok(e.expeditionTable(username)).build();
+        } finally {
+            e.close();
+        }
     }
 
     /**
@@ -267,9 +268,11 @@ public class groupService {
         }
 
         dataGroupMinter d = new dataGroupMinter();
-        String response = d.bcidEditorAsTable(username, prefix);
-        d.close();
-        return Response.ok(response).build();
+        try {
+            return Response.ok(d.bcidEditorAsTable(username, prefix)).build();
+        } finally {
+            d.close();
+        }
     }
 
     /**
@@ -309,46 +312,46 @@ public class groupService {
         // get this BCID's config
 
         dataGroupMinter d = new dataGroupMinter();
-        config = d.getDataGroupConfig(prefix, username.toString());
+        try {
+            config = d.getDataGroupConfig(prefix, username.toString());
 
-        if (resourceTypesMinusDataset != null && resourceTypesMinusDataset > 0) {
-            resourceTypeString = new ResourceTypes().get(resourceTypesMinusDataset).string;
-        }
+            if (resourceTypesMinusDataset != null && resourceTypesMinusDataset > 0) {
+                resourceTypeString = new ResourceTypes().get(resourceTypesMinusDataset).string;
+            }
 
-        // compare every field and if they don't match, add them to the update hashtable
-        if (doi != null && (!config.containsKey("doi") || !config.get("doi").equals(doi))) {
-            update.put("doi", doi);
-        }
-        if (webaddress != null && (!config.containsKey("webaddress") || !config.get("webaddress").equals(webaddress))) {
-            update.put("webaddress", webaddress);
-        }
-        if (!config.containsKey("title") || !config.get("title").equals(title)) {
-            update.put("title", title);
-        }
-        if (!config.containsKey("resourceType") || !config.get("resourceType").equals(resourceTypeString)) {
-            update.put("resourceTypeString", resourceTypeString);
-        }
-        if ((stringSuffixPassThrough != null && (stringSuffixPassThrough.equals("on") || stringSuffixPassThrough.equals("true")) && config.get("suffix").equals("false")) ||
-                (stringSuffixPassThrough == null && config.get("suffix").equals("true"))) {
-            if (stringSuffixPassThrough != null && (stringSuffixPassThrough.equals("on") || stringSuffixPassThrough.equals("true"))) {
-                update.put("suffixPassthrough", "true");
-            } else {
-                update.put("suffixPassthrough", "false");
+            // compare every field and if they don't match, add them to the update hashtable
+            if (doi != null && (!config.containsKey("doi") || !config.get("doi").equals(doi))) {
+                update.put("doi", doi);
+            }
+            if (webaddress != null && (!config.containsKey("webaddress") || !config.get("webaddress").equals(webaddress))) {
+                update.put("webaddress", webaddress);
+            }
+            if (!config.containsKey("title") || !config.get("title").equals(title)) {
+                update.put("title", title);
+            }
+            if (!config.containsKey("resourceType") || !config.get("resourceType").equals(resourceTypeString)) {
+                update.put("resourceTypeString", resourceTypeString);
+            }
+            if ((stringSuffixPassThrough != null && (stringSuffixPassThrough.equals("on") || stringSuffixPassThrough.equals("true")) && config.get("suffix").equals("false")) ||
+                    (stringSuffixPassThrough == null && config.get("suffix").equals("true"))) {
+                if (stringSuffixPassThrough != null && (stringSuffixPassThrough.equals("on") || stringSuffixPassThrough.equals("true"))) {
+                    update.put("suffixPassthrough", "true");
+                } else {
+                    update.put("suffixPassthrough", "false");
+                }
             }
-        }
 
-        if (update.isEmpty()) {
-            d.close();
-            return Response.ok("{\"success\": \"Nothing needed to be updated.\"}").build();
-        // try to update the config by calling d.updateDataGroupConfig
-        } else if (d.updateDataGroupConfig(update, prefix, username.toString())) {
-            d.close();
-            return Response.ok("{\"success\": \"BCID successfully updated.\"}").build();
-        } else {
+            if (update.isEmpty()) {
+                return Response.ok("{\"success\": \"Nothing needed to be updated.\"}").build();
+            // try to update the config by calling d.updateDataGroupConfig
+            } else if (d.updateDataGroupConfig(update, prefix, username.toString())) {
+                return Response.ok("{\"success\": \"BCID successfully updated.\"}").build();
+            } else {
+                // if we are here, the dataset wasn't found
+                throw new BadRequestException("Dataset wasn't found");
+            }
+        } finally {
             d.close();
-            // if we are here, the dataset wasn't found
-            throw new BadRequestException("Dataset wasn't found");
         }
-
     }
 }
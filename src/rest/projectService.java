@@ -38,8 +38,12 @@ public class projectService {
     public Response fetchAlias(@PathParam("project_id") Integer project_id) {
 
         projectMinter project = new projectMinter();
-        String response = project.getValidationXML(project_id);
-        project.close();
+        String response;
+        try {
+            response = project.getValidationXML(project_id);
+        } finally {
+            project.close();
+        }
 
         if (response == null) {
             return Response.status(Response.Status.NO_CONTENT)
@@ -62,18 +66,26 @@ public class projectService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            String username = p.validateToken(accessToken);
-            p.close();
+            String username;
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
             database db = new database();
-            userId = db.getUserId(username);
-            db.close();
+            try {
+                userId = db.getUserId(username);
+            } finally {
+                db.close();
+            }
         }
         
         projectMinter project = new projectMinter();
-        String response = project.listProjects(userId);
-        project.close();
-
-        return Response.ok(response).header("Access-Control-Allow-Origin", "*").build();
+        try {
+            return Response.ok(project.listProjects(userId)).header("Access-Control-Allow-Origin", "*").build();
+        } finally {
+            project.close();
+        }
     }
 
     /**
@@ -92,18 +104,22 @@ public class projectService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            username = p.validateToken(accessToken);
-            p.close();
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
         } else {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
         }
         projectMinter project= new projectMinter();
-
-        String response = project.getLatestGraphs(project_id, username);
-        project.close();
-
-        return Response.ok(response).header("Access-Control-Allow-Origin", "*").build();
+        try {
+            return Response.ok(project.getLatestGraphs(project_id, username))
+                    .header("Access-Control-Allow-Origin", "*").build();
+        } finally {
+            project.close();
+        }
     }
 
     /**
@@ -122,10 +138,11 @@ public class projectService {
         String username = session.getAttribute("user").toString();
 
         projectMinter project= new projectMinter();
-        String response = project.listUserAdminProjects(username);
-        project.close();
-
-        return Response.ok(response).build();
+        try {
+            return Response.ok(project.listUserAdminProjects(username)).build();
+        } finally {
+            project.close();
+        }
     }
 
     /**
@@ -144,9 +161,11 @@ public class projectService {
             throw new UnauthorizedRequestException("You must be this project's admin in order to view its configuration");
         }
         projectMinter project = new projectMinter();
-        String response = project.getProjectConfigAsTable(project_id, username.toString());
-        project.close();
-        return Response.ok(response).build();
+        try {
+            return Response.ok(project.getProjectConfigAsTable(project_id, username.toString())).build();
+        } finally {
+            project.close();
+        }
     }
 
     /**
@@ -166,9 +185,11 @@ public class projectService {
         }
 
         projectMinter project = new projectMinter();
-        String response = project.getProjectConfigEditorAsTable(projectId, username.toString());
-        project.close();
-        return response;
+        try {
+            return project.getProjectConfigEditorAsTable(projectId, username.toString());
+        } finally {
+            project.close();
+        }
     }
 
     /**
@@ -192,11 +213,15 @@ public class projectService {
         if (username == null) {
             throw new UnauthorizedRequestException("You must be logged in to edit a project's config.");
         }
-        projectMinter p = new projectMinter();
         database db = new database();
-        Integer userId = db.getUserId(username.toString());
-        db.close();
+        Integer userId;
+        try {
+            userId = db.getUserId(username.toString());
+        } finally {
+            db.close();
+        }
 
+        projectMinter p = new projectMinter();
         try {
             if (!p.userProjectAdmin(userId, projectID)) {
                 throw new ForbiddenRequestException("You must be this project's admin in order to edit the config");
@@ -253,19 +278,25 @@ public class projectService {
             throw new UnauthorizedRequestException("You must login.");
         }
 
+        database db = new database();
+        Integer loggedInUserId;
+        try {
+            loggedInUserId = db.getUserId(username.toString());
+        } finally {
+            db.close();
+        }
+
         projectMinter p = new projectMinter();
+        try {
+            if (!p.userProjectAdmin(loggedInUserId, projectId)) {
+                throw new ForbiddenRequestException("You are not this project's admin.");
+            }
 
-        database db = new database();
-        Integer loggedInUserId = db.getUserId(username.toString());
-        db.close();
-        if (!p.userProjectAdmin(loggedInUserId, projectId)) {
+            p.removeUser(userId, projectId);
+        } finally {
             p.close();
-            throw new ForbiddenRequestException("You are not this project's admin.");
         }
 
-        p.removeUser(userId, projectId);
-        p.close();
-
         return Response.ok("{\"success\": \"User has been successfully removed\"}").build();
     }
 
@@ -293,16 +324,22 @@ public class projectService {
             throw new UnauthorizedRequestException("You must login to access this service.");
         }
         database db = new database();
-        Integer lodedInUserId = db.getUserId(username.toString());
-        db.close();
+        Integer lodedInUserId;
+        try {
+            lodedInUserId = db.getUserId(username.toString());
+        } finally {
+            db.close();
+        }
 
         projectMinter p = new projectMinter();
-        if (!p.userProjectAdmin(lodedInUserId, projectId)) {
+        try {
+            if (!p.userProjectAdmin(lodedInUserId, projectId)) {
+                throw new ForbiddenRequestException("You are not this project's admin");
+            }
+            p.addUserToProject(userId, projectId);
+        } finally {
             p.close();
-            throw new ForbiddenRequestException("You are not this project's admin");
         }
-        p.addUserToProject(userId, projectId);
-        p.close();
 
         return Response.ok("{\"success\": \"User has been successfully added to this project\"}").build();
     }
@@ -324,9 +361,11 @@ public class projectService {
         }
 
         projectMinter p = new projectMinter();
-        String response = p.listProjectUsersAsTable(projectId);
-        p.close();
-        return response;
+        try {
+            return p.listProjectUsersAsTable(projectId);
+        } finally {
+            p.close();
+        }
     }
 
     /**
@@ -343,8 +382,11 @@ public class projectService {
         // if accessToken != null, then OAuth client is accessing on behalf of a user
         if (accessToken != null) {
             provider p = new provider();
-            username = p.validateToken(accessToken);
-            p.close();
+            try {
+                username = p.validateToken(accessToken);
+            } finally {
+                p.close();
+            }
         } else {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
@@ -355,8 +397,10 @@ public class projectService {
         }
 
         projectMinter p = new projectMinter();
-        String response = p.listUsersProjects(username);
-        p.close();
-        return Response.ok(response).build();
+        try {
+            return Response.ok(p.listUsersProjects(username)).build();
+        } finally {
+            p.close();
+        }
     }
 }
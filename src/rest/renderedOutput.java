@@ -0,0 +1,54 @@
+package rest;
+
+import bcid.GenericIdentifier;
+import bcid.Renderer.Renderer;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A response entity that renders identifiers straight to the response stream, rather than to a String first.
+ * The identifiers must be fully loaded, as rendering happens after the resource method has returned.
+ */
+public class renderedOutput implements StreamingOutput {
+    private final Renderer renderer;
+    private final GenericIdentifier identifier;
+    private final List<? extends GenericIdentifier> identifiers;
+
+    /**
+     * Render one identifier as a document
+     */
+    public renderedOutput(Renderer renderer, GenericIdentifier identifier) {
+        this.renderer = renderer;
+        this.identifier = identifier;
+        this.identifiers = null;
+    }
+
+    /**
+     * Render many identifiers as one document, with Renderer.renderAll
+     */
+    public renderedOutput(Renderer renderer, List<? extends GenericIdentifier> identifiers) {
+        this.renderer = renderer;
+        this.identifier = null;
+        this.identifiers = identifiers;
+    }
+
+    /**
+     * Render one identifier as a one item list, e.g. a JSON array holding one object
+     */
+    public static renderedOutput asList(Renderer renderer, GenericIdentifier identifier) {
+        return new renderedOutput(renderer, Collections.singletonList(identifier));
+    }
+
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        if (identifiers != null) {
+            renderer.renderAll(identifiers, output);
+        } else {
+            renderer.render(identifier, output);
+        }
+    }
+}
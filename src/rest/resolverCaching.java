@@ -0,0 +1,121 @@
+package rest;
+
+import bcid.datasetMetadata;
+import util.SettingsManager;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.Date;
+
+/**
+ * HTTP caching for the resolver's responses, so that a reverse proxy in front of the resolver, or a crawler, can keep
+ * them rather than asking again.
+ * <p/>
+ * RDF, JSON and Turtle are validated against the data group they belong to: Last-Modified is the dataset's ts, which
+ * MySQL updates whenever the row changes, and the ETag is built from the datasets_id, that ts, the project the dataset
+ * belongs to, the name of its creator, which lives in the users table rather than the dataset's row, and the
+ * snapshotStore format.  A conditional GET whose copy is still current gets a 304 without the identifier being
+ * rendered or a resolver being created.  How long redirects and metadata may be kept without asking again is set by
+ * resolverRedirectMaxAge and resolverRDFMaxAge, in seconds; 0 makes caches revalidate every time.
+ * <p/>
+ * HTML is not cached: its page header shows who is logged in, so it is sent private and no-cache, without validators.
+ * Every response varies by Accept, as the same identifier is redirected or described depending on it.
+ */
+public class resolverCaching {
+
+    static final String HTML = "html";
+
+    private static final int redirectMaxAge;
+    private static final int rdfMaxAge;
+
+    static {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        redirectMaxAge = sm.retrieveInt("resolverRedirectMaxAge", 3600);
+        rdfMaxAge = sm.retrieveInt("resolverRDFMaxAge", 3600);
+    }
+
+    /**
+     * Check a request's If-None-Match and If-Modified-Since headers against a data group
+     *
+     * @param request
+     * @param dataset        the data group the identifier belongs to, or null if it is not in one
+     * @param representation HTML or a snapshotStore format name
+     *
+     * @return a 304 Not Modified response, with its caching headers, if the client's copy is current, otherwise null;
+     *         always null for HTML, which has no validators
+     */
+    static Response notModified(Request request, datasetMetadata dataset, String representation) {
+        if (dataset == null || representation.equals(HTML)) {
+            return null;
+        }
+        Response.ResponseBuilder builder = request.evaluatePreconditions(lastModified(dataset),
+                entityTag(dataset, representation));
+        return builder == null ? null : cache(builder, dataset, representation).build();
+    }
+
+    /**
+     * Add the validators and Cache-Control for a representation of an identifier's metadata
+     *
+     * @param builder
+     * @param dataset        the data group the identifier belongs to, or null if it is not in one
+     * @param representation HTML or a snapshotStore format name
+     *
+     * @return the builder
+     */
+    static Response.ResponseBuilder cache(Response.ResponseBuilder builder, datasetMetadata dataset,
+                                          String representation) {
+        builder.header("Vary", "Accept");
+        if (representation.equals(HTML)) {
+            // Shows who is logged in, so must not be shared, nor answered with a 304 once they log in or out
+            CacheControl cacheControl = cacheControl(0);
+            cacheControl.setPrivate(true);
+            return builder.cacheControl(cacheControl);
+        }
+        if (dataset == null) {
+            // Not found, for now; the identifier may be minted at any time
+            return builder.cacheControl(cacheControl(0));
+        }
+        return builder
+                .lastModified(lastModified(dataset))
+                .tag(entityTag(dataset, representation))
+                .cacheControl(cacheControl(rdfMaxAge));
+    }
+
+    /**
+     * Add the Cache-Control for a redirect.  Redirects are answered from the redirectEngine's table without reading
+     * the dataset, so have no validators.
+     *
+     * @param builder
+     *
+     * @return the builder
+     */
+    static Response.ResponseBuilder cacheRedirect(Response.ResponseBuilder builder) {
+        return builder.header("Vary", "Accept").cacheControl(cacheControl(redirectMaxAge));
+    }
+
+    private static CacheControl cacheControl(int maxAge) {
+        CacheControl cacheControl = new CacheControl();
+        if (maxAge > 0) {
+            cacheControl.setMaxAge(maxAge);
+        } else {
+            cacheControl.setNoCache(true);
+        }
+        // CacheControl sets no-transform by default, which says nothing useful here
+        cacheControl.setNoTransform(false);
+        return cacheControl;
+    }
+
+    private static Date lastModified(datasetMetadata dataset) {
+        // HTTP dates have a resolution of a second, so drop the milliseconds for If-Modified-Since to compare equal
+        return new Date(dataset.getLastModified() / 1000 * 1000);
+    }
+
+    private static EntityTag entityTag(datasetMetadata dataset, String representation) {
+        return new EntityTag(dataset.getDatasets_id() + "-" + Long.toHexString(dataset.getLastModified()) + "-" +
+                Integer.toHexString(dataset.getProjectCode().hashCode()) + "-" +
+                Integer.toHexString(String.valueOf(dataset.getWho()).hashCode()) + "-" + representation);
+    }
+}
@@ -1,17 +1,25 @@
 package rest;
 
 import bcid.Renderer.*;
+import bcid.GenericIdentifier;
 import bcid.resolver;
+import bcid.snapshotStore;
+import bcidExceptions.BadRequestException;
 import com.sun.jersey.api.view.Viewable;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
 import util.SettingsManager;
 
 import javax.servlet.ServletContext;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,6 +30,10 @@ import java.util.Map;
  * <p/>
  * Resolution determines if this is a Data Group, a Data Element with an encoded ID, or a
  * Data Element with a suffix.
+ * <p/>
+ * Metadata carries the caching headers resolverCaching describes, and conditional requests are answered with 304
+ * Not Modified while the data group is unchanged.  Many identifiers can be resolved at once by POSTing them, see
+ * batch.
  */
 @Path("metadata")
 public class resolverMetadataService {
@@ -30,6 +42,8 @@ public class resolverMetadataService {
     @Context
     static ServletContext context;
 
+    static final String APPLICATION_N_TRIPLES = "application/n-triples";
+
     /**
      * Load settings manager
      */
@@ -48,11 +62,12 @@ public class resolverMetadataService {
      */
     @GET
     @Path("/{scheme}/{naan}/{shoulderPlusIdentifier}")
-    @Produces({MediaType.TEXT_HTML, "application/rdf+xml"})
+    @Produces({MediaType.TEXT_HTML, "application/rdf+xml", MediaType.APPLICATION_JSON, "text/turtle"})
     public Response run(@PathParam("scheme") String scheme,
                         @PathParam("naan") String naan,
                         @PathParam("shoulderPlusIdentifier") String shoulderPlusIdentifier,
-                        @HeaderParam("Accept") String accept) {
+                        @HeaderParam("Accept") String accept,
+                        @Context Request restRequest) {
         // Clean up input
         scheme = scheme.trim();
         shoulderPlusIdentifier = shoulderPlusIdentifier.trim();
@@ -60,39 +75,83 @@ public class resolverMetadataService {
         // Structure the identifier element from path parameters
         String element = scheme + "/" + naan + "/" + shoulderPlusIdentifier;
 
-        // Setup ezid account/login information
-       // NOTE: i don't think i need to call the EZID service function here
-       /*
-       EZIDService ezidService = new EZIDService();
-        try {
-            ezidService.login(sm.retrieveValue("eziduser"), sm.retrieveValue("ezidpass"));
-        } catch (EZIDException e) {
-            // For now, just print stack trace here and proceed.
-            e.printStackTrace();
-        }
-
-        System.out.println("eziduser = " + sm.retrieveValue("eziduser"));
-        System.out.println("shoulderPlusIdentifier = " + shoulderPlusIdentifier);
+        // Metadata is read from the database, not EZID, so no EZID session is needed here.  Anything that does call
+        // EZID uses the shared session from EZIDService.getSession rather than logging in per request.
 
-*/
         // Return an appropriate response based on the Accepts header that was passed in.
         //
+        // RDF, JSON or Turtle when the Accepts header asks for them, from the snapshotStore for a data group
+        snapshotStore.format format = snapshotStore.forMediaType(accept);
+        if (format != null) {
+            return resolverService.metadata(element, format, restRequest);
+        }
+
+        // This next section uses the Jersey Viewable class, which is a type of Model, View, Controller
+        // construct, enabling us to pass content JSP code to a JSP template.  We do this in this section
+        // so we can have a REST style call and provide human readable content with BCID header/footer
         resolver r = new resolver(element);
-        if (accept.equalsIgnoreCase("application/rdf+xml")) {
-            // Return RDF when the Accepts header specifies rdf+xml
-            String response = r.printMetadata(new RDFRenderer());
+        Map<String, Object> map = new HashMap<String, Object>();
+        try {
+            map.put("response", r.printMetadata(new HTMLTableRenderer()));
+        } finally {
             r.close();
-            return Response.ok(response).build();
+        }
+        return resolverCaching.cache(Response.ok(new Viewable("/index", map)), null, resolverCaching.HTML).build();
+        //return Response.ok(response).build();
+    }
+
+    /**
+     * Resolve a batch of identifiers in one request, e.g. for a harvester that would otherwise resolve thousands
+     * one at a time.  The identifiers, of the form scheme:/naan/shoulder_identifier, are POSTed either as text, one to
+     * a line, or as a JSON array of strings.  The data groups they belong to are read together rather than one
+     * identifier at a time.
+     * <p/>
+     * The response is a JSON array holding the metadata of each identifier, in the order given, with a not found
+     * object in place of each one that could not be resolved, or, if the Accept header asks for
+     * application/n-triples, the metadata as N-Triples, leaving out those not found.  No more than
+     * resolverBatchMaxArks identifiers may be sent at once.
+     *
+     * @param body
+     * @param contentType
+     * @param accept
+     * @return
+     */
+    @POST
+    @Consumes({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_N_TRIPLES})
+    public Response batch(String body,
+                          @HeaderParam("Content-Type") String contentType,
+                          @HeaderParam("Accept") String accept) {
+        List<String> arks = new ArrayList<String>();
+        if (contentType != null && contentType.toLowerCase().startsWith(MediaType.APPLICATION_JSON)) {
+            JSONArray array;
+            try {
+                array = JSONArray.fromObject(body);
+            } catch (JSONException e) {
+                throw new BadRequestException("Expected a JSON array of identifiers", e.getMessage());
+            }
+            for (Object ark : array) {
+                arks.add(String.valueOf(ark));
+            }
         } else {
-            // This next section uses the Jersey Viewable class, which is a type of Model, View, Controller
-            // construct, enabling us to pass content JSP code to a JSP template.  We do this in this section
-            // so we can have a REST style call and provide human readable content with BCID header/footer
-            Map<String, Object> map = new HashMap<String, Object>();
-            String response = r.printMetadata(new HTMLTableRenderer());
-            r.close();
-            map.put("response", response);
-            return Response.ok(new Viewable("/index", map)).build();
-            //return Response.ok(response).build();
+            for (String line : body.split("\\r?\\n")) {
+                if (line.trim().length() > 0) {
+                    arks.add(line.trim());
+                }
+            }
+        }
+
+        int max = sm.retrieveInt("resolverBatchMaxArks", 10000);
+        if (arks.size() > max) {
+            throw new BadRequestException("No more than " + max + " identifiers may be resolved at once");
+        }
+
+        List<GenericIdentifier> identifiers = resolver.getMetadataIdentifiers(arks);
+        if (accept != null && accept.toLowerCase().contains(APPLICATION_N_TRIPLES)) {
+            return Response.ok(new renderedOutput(new NTriplesRenderer(), identifiers),
+                    APPLICATION_N_TRIPLES + ";charset=UTF-8").build();
         }
+        return Response.ok(new renderedOutput(new JSONRenderer(), identifiers),
+                MediaType.APPLICATION_JSON + ";charset=UTF-8").build();
     }
 }
@@ -1,7 +1,9 @@
 package rest;
 
-import bcid.Renderer.RDFRenderer;
+import bcid.datasetMetadata;
+import bcid.redirectEngine;
 import bcid.resolver;
+import bcid.snapshotStore;
 import bcidExceptions.BadRequestException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +13,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.lang.String;
 import java.net.URI;
@@ -18,6 +21,12 @@ import java.net.URISyntaxException;
 
 /**
  * This is the core resolver Service for BCIDs.  It returns URIs
+ * <p/>
+ * Metadata is returned instead when the Accept header asks for exactly RDF/XML or Turtle; a data group's own ARK is
+ * answered from the snapshotStore.  A request accepting JSON is redirected as any other, since HTTP clients commonly
+ * send that by default; JSON metadata is served by resolverMetadataService.  Responses carry the caching headers
+ * resolverCaching describes, and conditional requests for metadata are answered with 304 Not Modified while the data
+ * group is unchanged.
  */
 @Path("ark:")
 public class resolverService {
@@ -39,48 +48,72 @@ public class resolverService {
      */
     @GET
     @Path("/{naan}/{shoulderPlusIdentifier}")
-    @Produces({MediaType.TEXT_HTML, "application/rdf+xml"})
+    @Produces({MediaType.TEXT_HTML, "application/rdf+xml", MediaType.APPLICATION_JSON, "text/turtle"})
     public Response run(
             @PathParam("naan") String naan,
             @PathParam("shoulderPlusIdentifier") String shoulderPlusIdentifier,
-            @HeaderParam("accept") String accept) {
+            @HeaderParam("accept") String accept,
+            @Context Request restRequest) {
 
         shoulderPlusIdentifier = shoulderPlusIdentifier.trim();
 
         // Structure the identifier element from path parameters
         String element = scheme + "/" + naan + "/" + shoulderPlusIdentifier;
 
-        // When the Accept Header = "application/rdf+xml" return Metadata as RDF
-        resolver r = new resolver(element);
+        // When the Accept Header asks for RDF or Turtle return Metadata in that format
+        snapshotStore.format format = snapshotStore.forMediaType(accept);
+        if (format != null && format != snapshotStore.JSON) {
+            return metadata(element, format, restRequest);
+        }
+
+        // All other Accept Headers, or none specified, then attempt a redirect.  The redirectEngine answers these
+        // from memory, without a database connection
+        URI seeOtherUri;
         try {
-            if (accept.equalsIgnoreCase("application/rdf+xml")) {
-                return Response.ok(r.printMetadata(new RDFRenderer())).build();
-                // All other Accept Headers, or none specified, then attempt a redirect
-            } else {
-                URI seeOtherUri = null;
-                try {
-                    seeOtherUri = r.resolveARK();
-                    //                System.out.println(seeOtherUri);
-                } catch (URISyntaxException e) {
-                    logger.warn("URISyntaxException while trying to resolve ARK for element: {}", element, e);
-                    throw new BadRequestException("Server error while trying to resolve ARK. Did you supply a valid naan?");
-                }
-                // if the URI is null just print metadata
-                /*System.out.println("value of seeOtherUri:" + seeOtherUri.toString() + "END");
-                if (seeOtherUri == null || seeOtherUri.toString().contains("null")) {
-                    try {
-                        return Response.ok(new resolver(element).printMetadata(new RDFRenderer())).build();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return Response.serverError().entity(new errorInfo(e, request).toJSON()).build();
-                    }
-                } */
+            seeOtherUri = redirectEngine.getInstance().resolve(naan, shoulderPlusIdentifier);
+        } catch (URISyntaxException e) {
+            logger.warn("URISyntaxException while trying to resolve ARK for element: {}", element, e);
+            throw new BadRequestException("Server error while trying to resolve ARK. Did you supply a valid naan?");
+        }
+
+        // The expected response for IDentifiers without a URL
+        Response.ResponseBuilder builder = Response.status(Response.Status.SEE_OTHER).location(seeOtherUri);
+        if (seeOtherUri != null) {
+            resolverCaching.cacheRedirect(builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Answer a request for an identifier's metadata in a machine readable format: with 304 Not Modified if the
+     * client's copy is current, from the snapshotStore for a data group's own ARK, and otherwise rendered as the
+     * response is written
+     *
+     * @param element     the identifier, of the form scheme:/naan/shoulder_identifier
+     * @param format
+     * @param restRequest
+     * @return
+     */
+    static Response metadata(String element, snapshotStore.format format, Request restRequest) {
+        datasetMetadata dataset = resolver.getDataGroupMetadata(element);
+        Response notModified = resolverCaching.notModified(restRequest, dataset, format.getName());
+        if (notModified != null) {
+            return notModified;
+        }
 
-                // The expected response for IDentifiers without a URL
-                return Response.status(Response.Status.SEE_OTHER).location(seeOtherUri).build();
+        String type = format.getMediaType() + ";charset=UTF-8";
+        Response.ResponseBuilder builder;
+        if (dataset != null && resolver.isDataGroupArk(element)) {
+            builder = Response.ok(snapshotStore.getInstance().get(dataset, format), type);
+        } else {
+            resolver r = new resolver(element);
+            try {
+                // Rendered as the response is written, after the resolver's connection is given back
+                builder = Response.ok(new renderedOutput(format.getRenderer(), r.getMetadataIdentifier()), type);
+            } finally {
+                r.close();
             }
-        } finally {
-            r.close();
         }
+        return resolverCaching.cache(builder, dataset, format.getName()).build();
     }
 }
@@ -84,8 +84,12 @@ public class userService {
         try {
             String admin = session.getAttribute("user").toString();
             database db = new database();
-            Integer adminId = db.getUserId(admin);
-            db.close();
+            Integer adminId;
+            try {
+                adminId = db.getUserId(admin);
+            } finally {
+                db.close();
+            }
 
             if (u.checkUsernameExists(username)) {
                 throw new BadRequestException("username already exists");
@@ -110,9 +114,11 @@ public class userService {
     @Produces(MediaType.TEXT_HTML)
     public String createFormAsTable() {
         userMinter u = new userMinter();
-        String response = u.getCreateForm();
-        u.close();
-        return response;
+        try {
+            return u.getCreateForm();
+        } finally {
+            u.close();
+        }
     }
 
     /**
@@ -144,8 +150,12 @@ public class userService {
         // set new password if given
         if (!new_password.isEmpty()) {
             authenticator authenticator = new authenticator();
-            Boolean success = authenticator.setHashedPass(username, new_password);
-            authenticator.close();
+            Boolean success;
+            try {
+                success = authenticator.setHashedPass(username, new_password);
+            } finally {
+                authenticator.close();
+            }
             if (!success) {
                 throw new BadRequestException("user: " + username + "not found");
             } else {
@@ -221,24 +231,27 @@ public class userService {
         // Only update user's password if both old_password and new_password fields contain values
         if (!old_password.isEmpty() && !new_password.isEmpty()) {
             authenticator myAuth = new authenticator();
-            // Call the login function to verify the user's old_password
-            Boolean valid_pass = myAuth.login(username, old_password);
-
-            // If user's old_password matches stored pass, then update the user's password to the new value
-            if (valid_pass) {
-                Boolean success = myAuth.setHashedPass(username, new_password);
-                if (!success) {
-                    throw new ServerErrorException("Server Error", "User not found");
+            try {
+                // Call the login function to verify the user's old_password
+                Boolean valid_pass = myAuth.login(username, old_password);
+
+                // If user's old_password matches stored pass, then update the user's password to the new value
+                if (valid_pass) {
+                    Boolean success = myAuth.setHashedPass(username, new_password);
+                    if (!success) {
+                        throw new ServerErrorException("Server Error", "User not found");
+                    }
+                    // Make sure that the set_password field is 1 (true) so they aren't asked to change their password after login
+                    else {
+                        update.put("set_password", "1");
+                    }
                 }
-                // Make sure that the set_password field is 1 (true) so they aren't asked to change their password after login
                 else {
-                    update.put("set_password", "1");
+                    throw new BadRequestException("Wrong Password");
                 }
+            } finally {
+                myAuth.close();
             }
-            else {
-                throw new BadRequestException("Wrong Password");
-            }
-            myAuth.close();
 
         }
         database db;
@@ -298,9 +311,11 @@ public class userService {
         }
 
         userMinter u = new userMinter();
-        String response = u.getProfileEditorAsTable(username, true);
-        u.close();
-        return response;
+        try {
+            return u.getProfileEditorAsTable(username, true);
+        } finally {
+            u.close();
+        }
     }
 
     /**
@@ -319,9 +334,11 @@ public class userService {
         }
 
         userMinter u = new userMinter();
-        String response = u.getProfileEditorAsTable(username.toString(), false);
-        u.close();
-        return response;
+        try {
+            return u.getProfileEditorAsTable(username.toString(), false);
+        } finally {
+            u.close();
+        }
     }
 
     /**
@@ -341,9 +358,11 @@ public class userService {
         }
 
         userMinter u = new userMinter();
-        String response = u.getProfileHTML(username.toString());
-        u.close();
-        return response;
+        try {
+            return u.getProfileHTML(username.toString());
+        } finally {
+            u.close();
+        }
     }
 
     /**
@@ -357,9 +376,11 @@ public class userService {
     public Response getUserData(@QueryParam("access_token") String access_token) {
         if (access_token != null) {
             userMinter u = new userMinter();
-            String response = u.getOauthProfile(access_token);
-            u.close();
-            return Response.ok(response).build();
+            try {
+                return Response.ok(u.getOauthProfile(access_token)).build();
+            } finally {
+                u.close();
+            }
         }
         throw new BadRequestException("invalid_grant", "access_token was null");
     }
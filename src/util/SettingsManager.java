@@ -1,6 +1,8 @@
 package util;
 
 import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -18,6 +20,7 @@ import java.util.Properties;
  */
 public class SettingsManager {
     private static SettingsManager instance = null;
+    private static Logger logger = LoggerFactory.getLogger(SettingsManager.class);
 
     private Properties props;
     private String propsfile;
@@ -124,4 +127,73 @@ public class SettingsManager {
     public String retrieveValue(String key, String defaultval) {
         return props.getProperty(key, defaultval);
     }
+
+    /**
+     * Get the integer value associated with the specified key.  A value that is
+     * missing, empty or not a number gives the default, logging a warning in the
+     * last case, so a mistyped setting does not stop the application.
+     *
+     * @param key        The key to search for in the properties file.
+     * @param defaultval The default value.
+     * @return The value associated with the key, or the default value.
+     */
+    public int retrieveInt(String key, int defaultval) {
+        return (int) retrieveLong(key, defaultval);
+    }
+
+    /**
+     * Get the long value associated with the specified key, as retrieveInt does.
+     *
+     * @param key        The key to search for in the properties file.
+     * @param defaultval The default value.
+     * @return The value associated with the key, or the default value.
+     */
+    public long retrieveLong(String key, long defaultval) {
+        String value = retrieveValue(key, "").trim();
+        if (value.equals("")) {
+            return defaultval;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for {}: {}, using {}", key, value, defaultval);
+            return defaultval;
+        }
+    }
+
+    /**
+     * Get the decimal value associated with the specified key, as retrieveInt does.
+     *
+     * @param key        The key to search for in the properties file.
+     * @param defaultval The default value.
+     * @return The value associated with the key, or the default value.
+     */
+    public double retrieveDouble(String key, double defaultval) {
+        String value = retrieveValue(key, "").trim();
+        if (value.equals("")) {
+            return defaultval;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for {}: {}, using {}", key, value, defaultval);
+            return defaultval;
+        }
+    }
+
+    /**
+     * Get the boolean value associated with the specified key: true if it is
+     * "true", ignoring case, the default if it is missing or empty, otherwise false.
+     *
+     * @param key        The key to search for in the properties file.
+     * @param defaultval The default value.
+     * @return The value associated with the key, or the default value.
+     */
+    public boolean retrieveBoolean(String key, boolean defaultval) {
+        String value = retrieveValue(key, "").trim();
+        if (value.equals("")) {
+            return defaultval;
+        }
+        return value.equalsIgnoreCase("true");
+    }
 }
@@ -0,0 +1,39 @@
+package util;
+
+import auth.hashingExecutor;
+import auth.ldapPool;
+import auth.oauth2.signedTokens;
+import bcid.connectionPool;
+import bcid.ezidMetadataCache;
+import bcid.ezidOutbox;
+import bcid.redirectEngine;
+import ezid.EZIDTransport;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts loading the resolver's redirect table and polling the EZID outbox when the web application starts, and
+ * releases application-wide resources, such as the database, EZID and LDAP connection pools, when it is stopped or
+ * redeployed.
+ */
+public class applicationListener implements ServletContextListener {
+
+    public void contextInitialized(ServletContextEvent event) {
+        // The table loads in the background, so a slow or unavailable database does not hold up startup
+        redirectEngine.getInstance();
+        // Start polling for EZID work queued by earlier runs
+        ezidOutbox.getInstance();
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+        ezidOutbox.shutdown();
+        ezidMetadataCache.shutdown();
+        redirectEngine.shutdown();
+        connectionPool.shutdown();
+        EZIDTransport.shutdown();
+        signedTokens.shutdown();
+        hashingExecutor.shutdown();
+        ldapPool.shutdown();
+    }
+}
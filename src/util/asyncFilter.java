@@ -0,0 +1,330 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds how many requests for the paths it is given, e.g. the resolver's, run at once, so that a slow database or
+ * EZID holds up at most asyncResolverThreads of the container's threads rather than every thread it serves requests
+ * with.
+ * <p/>
+ * A request that finds asyncResolverThreads requests already running is suspended as a servlet 3 asynchronous
+ * request, holding no thread, and waits in a queue of up to asyncResolverQueue requests.  As each running request
+ * finishes, the next one waiting is dispatched back to the container with AsyncContext.dispatch(), and runs the
+ * filter chain, including Jersey, on a container thread as usual.  Beyond the queue requests are rejected with 503
+ * Service Unavailable and a Retry-After, rather than queued without bound, and a request that has waited
+ * asyncResolverTimeout milliseconds without being dispatched is answered with 503 as well.  Whichever of the dispatch
+ * and the timeout claims a waiting request first is the only one to touch its response.  The queue depth, rejections,
+ * timeouts and how long requests waited are kept, logged when the filter is destroyed, and available from the
+ * instance held in the ServletContext attribute "asyncFilter".
+ * <p/>
+ * Requests for other paths, and requests on containers that do not support asynchronous requests, are passed
+ * through as they are.  The filter and the servlet it wraps must both be marked async-supported in web.xml, and the
+ * filter mapped for the ASYNC dispatcher as well as REQUEST.
+ */
+public class asyncFilter implements Filter {
+
+    private static Logger logger = LoggerFactory.getLogger(asyncFilter.class);
+
+    // Set on a request dispatched from the queue, which already holds a permit
+    private static final String ADMITTED = asyncFilter.class.getName() + ".admitted";
+
+    private String[] paths;
+    private int maxActive;
+    private long timeout;
+    private Semaphore permits;
+    private ArrayBlockingQueue<waiter> queue;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final latencyHistogram queueWait = new latencyHistogram();
+
+    /**
+     * The filter as the container creates it, configured from the settings by init
+     */
+    public asyncFilter() {
+    }
+
+    /**
+     * A filter configured directly rather than from the settings, e.g. outside a container
+     *
+     * @param paths     the path prefixes, below the context path, of the requests to bound, separated by commas
+     * @param maxActive the most requests run at once
+     * @param maxQueued the most requests waiting to run
+     * @param timeout   how long, in milliseconds, a request may wait before it is answered with 503
+     */
+    public asyncFilter(String paths, int maxActive, int maxQueued, long timeout) {
+        configure(paths, maxActive, maxQueued, timeout);
+    }
+
+    private void configure(String pathsParam, int maxActive, int maxQueued, long timeout) {
+        ArrayList<String> prefixes = new ArrayList<String>();
+        if (pathsParam != null) {
+            for (String path : pathsParam.split(",")) {
+                if (path.trim().length() > 0) {
+                    prefixes.add(path.trim());
+                }
+            }
+        }
+        this.paths = prefixes.toArray(new String[prefixes.size()]);
+        this.maxActive = Math.max(1, maxActive);
+        this.timeout = timeout;
+        this.permits = new Semaphore(this.maxActive);
+        this.queue = new ArrayBlockingQueue<waiter>(Math.max(1, maxQueued));
+        logger.info("Running at most {} requests for {} at once, queueing up to {}", this.maxActive, pathsParam,
+                Math.max(1, maxQueued));
+    }
+
+    public void init(FilterConfig fc) throws ServletException {
+        if (paths == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            configure(fc.getInitParameter("paths"),
+                    sm.retrieveInt("asyncResolverThreads", 32),
+                    sm.retrieveInt("asyncResolverQueue", 1000),
+                    sm.retrieveLong("asyncResolverTimeout", 30000));
+        }
+        fc.getServletContext().setAttribute("asyncFilter", this);
+    }
+
+    public void destroy() {
+        if (queue == null) {
+            return;
+        }
+        // Answer whatever is still waiting rather than leave it hanging
+        waiter w;
+        while ((w = queue.poll()) != null) {
+            if (w.claim()) {
+                try {
+                    unavailable(w.async.getResponse());
+                } catch (IOException e) {
+                    logger.debug("Unable to answer a waiting request", e);
+                }
+                w.async.complete();
+            }
+        }
+        logger.info("Stopped bounding requests: {}", this);
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        if (req.getDispatcherType() == DispatcherType.ASYNC && req.getAttribute(ADMITTED) != null) {
+            // Dispatched from the queue, with a permit taken for it
+            req.removeAttribute(ADMITTED);
+            run(req, res, chain);
+            return;
+        }
+        if (req.getDispatcherType() != DispatcherType.REQUEST || !req.isAsyncSupported() ||
+                !matches((HttpServletRequest) req)) {
+            chain.doFilter(req, res);
+            return;
+        }
+        requestCount.incrementAndGet();
+
+        if (permits.tryAcquire()) {
+            run(req, res, chain);
+            return;
+        }
+
+        final waiter w = new waiter(req.startAsync());
+        w.async.setTimeout(timeout);
+        w.async.addListener(new AsyncListener() {
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (w.claim()) {
+                    queue.remove(w);
+                    timeoutCount.incrementAndGet();
+                    unavailable(w.async.getResponse());
+                    w.async.complete();
+                }
+            }
+
+            public void onComplete(AsyncEvent event) {
+            }
+
+            public void onError(AsyncEvent event) {
+            }
+
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        if (!queue.offer(w)) {
+            long rejected = rejectedCount.incrementAndGet();
+            if (rejected == 1 || rejected % 1000 == 0) {
+                logger.warn("Rejected {} requests as the queue is full: {}", rejected, this);
+            }
+            if (w.claim()) {
+                unavailable(w.async.getResponse());
+                w.async.complete();
+            }
+            return;
+        }
+        queuedCount.incrementAndGet();
+        // A request may have finished between tryAcquire and offer, with nothing in the queue to dispatch
+        dispatchWaiting();
+    }
+
+    /**
+     * Run a request holding a permit, then hand the permit on to the next request waiting
+     */
+    private void run(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        try {
+            chain.doFilter(req, res);
+        } catch (IOException e) {
+            failureCount.incrementAndGet();
+            throw e;
+        } catch (ServletException e) {
+            failureCount.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            failureCount.incrementAndGet();
+            throw e;
+        } finally {
+            permits.release();
+            dispatchWaiting();
+        }
+    }
+
+    /**
+     * Dispatch waiting requests for as long as there are permits for them
+     */
+    private void dispatchWaiting() {
+        while (!queue.isEmpty() && permits.tryAcquire()) {
+            waiter w = queue.poll();
+            if (w == null || !w.claim()) {
+                // Taken by another thread, or timed out
+                permits.release();
+                continue;
+            }
+            queueWait.recordSince(w.queued);
+            try {
+                w.async.getRequest().setAttribute(ADMITTED, Boolean.TRUE);
+                w.async.dispatch();
+            } catch (RuntimeException e) {
+                permits.release();
+                failureCount.incrementAndGet();
+                logger.warn("Unable to dispatch a waiting request", e);
+            }
+        }
+    }
+
+    private boolean matches(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String prefix : paths) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void unavailable(ServletResponse res) throws IOException {
+        HttpServletResponse response = (HttpServletResponse) res;
+        if (!response.isCommitted()) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * @return the number of requests waiting to run
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of requests running
+     */
+    public int getActiveCount() {
+        return maxActive - permits.availablePermits();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of requests that had to wait to run
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return the number of requests answered with 503 because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return the number of requests answered with 503 because they waited longer than asyncResolverTimeout
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return how long requests waited to run
+     */
+    public latencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public String toString() {
+        return "asyncFilter[requests=" + getRequestCount() +
+                ", active=" + getActiveCount() +
+                ", queued=" + getQueueDepth() +
+                ", waited=" + getQueuedCount() +
+                ", rejected=" + getRejectedCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", failures=" + getFailureCount() +
+                ", queueWait: " + queueWait + "]";
+    }
+
+    /**
+     * A request suspended while it waits to run
+     */
+    private static class waiter {
+        final AsyncContext async;
+        final long queued = System.nanoTime();
+        // Only one of the dispatch and the timeout gets the request
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        waiter(AsyncContext async) {
+            this.async = async;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
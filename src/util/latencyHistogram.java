@@ -0,0 +1,85 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long an operation takes, in buckets that double in width from 1 microsecond up, so that percentiles
+ * can be read off cheaply without keeping every sample.  A percentile is reported as the upper bound of the bucket
+ * it falls in, so it is at most twice the true value.
+ * <p/>
+ * Safe for use by many threads.
+ */
+public class latencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos how long one call took
+     */
+    public void record(long nanos) {
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+        // bucket i holds [2^i, 2^(i+1)) microseconds
+        int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+        }
+    }
+
+    /**
+     * Record the time since a System.nanoTime() reading
+     *
+     * @param startNanos the System.nanoTime() when the call began
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @param fraction the percentile wanted, e.g. 0.99
+     *
+     * @return the upper bound, in milliseconds, of the bucket holding that percentile, 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min((1L << (i + 1)) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public String toString() {
+        return String.format("count=%d, mean=%.1fms, p50=%.1fms, p95=%.1fms, p99=%.1fms, max=%.1fms",
+                getCount(), getMeanMillis(), getPercentileMillis(0.5), getPercentileMillis(0.95),
+                getPercentileMillis(0.99), getMaxMillis());
+    }
+}
@@ -0,0 +1,218 @@
+package util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe map whose entries expire a while after they were put, for the caches in front of the
+ * database, EZID and the like.
+ * <p/>
+ * Once more than maxSize entries are held the least recently used is evicted; a maxSize of 0 holds nothing.  Each
+ * entry expires ttl milliseconds after it was put, unless put with a ttl of its own.
+ * <p/>
+ * A value read from its source races with an invalidation of it: the value may have been read just before the source
+ * changed, and put just after the invalidation.  So a loader takes the generation before reading and puts the value
+ * with putIfCurrent, which drops it if anything was invalidated in between.
+ */
+public class lruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttl;
+    private final entries<K, V> entries;
+    // Bumped by every invalidation
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param maxSize the most entries held
+     * @param ttl     how long, in milliseconds, an entry is held; Long.MAX_VALUE for as long as there is room for it
+     */
+    public lruCache(int maxSize, long ttl) {
+        this.maxSize = Math.max(0, maxSize);
+        this.ttl = ttl;
+        this.entries = new entries<K, V>(this.maxSize, evictionCount);
+    }
+
+    /**
+     * @param key
+     *
+     * @return the value held for the key, or null if none is held or it has expired
+     */
+    public V get(K key) {
+        synchronized (entries) {
+            entry<V> e = entries.get(key);
+            if (e != null) {
+                if (System.currentTimeMillis() < e.expires) {
+                    hitCount.incrementAndGet();
+                    return e.value;
+                }
+                entries.remove(key);
+                expiredCount.incrementAndGet();
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return the current generation, to be taken before reading a value from its source and passed to putIfCurrent
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttl);
+    }
+
+    /**
+     * Hold a value for ttl milliseconds rather than the cache's own ttl
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     */
+    public void put(K key, V value, long ttl) {
+        if (maxSize == 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new entry<V>(value, expires(ttl)));
+        }
+    }
+
+    /**
+     * Hold a value read from its source, unless something was invalidated since the read began
+     *
+     * @param key
+     * @param value
+     * @param loadGeneration the generation taken before the value was read
+     *
+     * @return true if the value is held
+     */
+    public boolean putIfCurrent(K key, V value, long loadGeneration) {
+        return putIfCurrent(key, value, ttl, loadGeneration);
+    }
+
+    /**
+     * Hold a value read from its source for ttl milliseconds, unless something was invalidated since the read began
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @param loadGeneration the generation taken before the value was read
+     *
+     * @return true if the value is held
+     */
+    public boolean putIfCurrent(K key, V value, long ttl, long loadGeneration) {
+        if (maxSize == 0) {
+            return false;
+        }
+        synchronized (entries) {
+            if (generation.get() != loadGeneration) {
+                return false;
+            }
+            entries.put(key, new entry<V>(value, expires(ttl)));
+            return true;
+        }
+    }
+
+    public void invalidate(K key) {
+        invalidationCount.incrementAndGet();
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        invalidationCount.incrementAndGet();
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    private static long expires(long ttl) {
+        long now = System.currentTimeMillis();
+        return ttl > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttl;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return the number of entries evicted to make room for others
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public String toString() {
+        return "size=" + size() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", expired=" + getExpiredCount() +
+                ", evictions=" + getEvictionCount() +
+                ", invalidations=" + getInvalidationCount();
+    }
+
+    private static class entry<V> {
+        final V value;
+        final long expires;
+
+        entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Access ordered, so that the eldest entry is the least recently used
+     */
+    private static class entries<K, V> extends LinkedHashMap<K, entry<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+        private final AtomicLong evictionCount;
+
+        entries(int maxSize, AtomicLong evictionCount) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictionCount = evictionCount;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<K, entry<V>> eldest) {
+            if (size() > maxSize) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
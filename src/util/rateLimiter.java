@@ -0,0 +1,56 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket, for holding calls to a remote service to a steady rate.  Tokens are added at permitsPerSecond,
+ * up to burst tokens, and each call to acquire takes one, waiting for it if the bucket is empty.
+ * <p/>
+ * Safe for use by many threads; waiting threads are served in no particular order.
+ */
+public class rateLimiter {
+    private final double permitsPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long refilled;
+
+    /**
+     * @param permitsPerSecond the sustained rate; 0 or less means unlimited
+     * @param burst            the most tokens that can build up while idle, at least 1
+     */
+    public rateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * Take a token, waiting until one is available
+     *
+     * @return the nanoseconds spent waiting
+     *
+     * @throws InterruptedException
+     */
+    public long acquire() throws InterruptedException {
+        if (permitsPerNano <= 0) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        while (true) {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - refilled) * permitsPerNano);
+                refilled = now;
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return now - start;
+                }
+                wait = (long) Math.ceil((1 - tokens) / permitsPerNano);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(wait, 1000));
+        }
+    }
+}
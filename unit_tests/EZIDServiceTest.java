@@ -0,0 +1,99 @@
+package unit_tests;
+
+import com.sun.net.httpserver.HttpExchange;
+import ezid.EZIDException;
+import ezid.EZIDService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test EZIDService sessions against a local stand-in for EZID, which hands out a session cookie on login and
+ * answers 401 to requests without the current one.
+ */
+public class EZIDServiceTest {
+    private ezidStandIn server;
+    private String serviceUrl;
+    private final AtomicInteger logins = new AtomicInteger();
+    private volatile String session = "none";
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ezidStandIn() {
+            protected void login(HttpExchange exchange) throws IOException {
+                session = "s" + logins.incrementAndGet();
+                exchange.getResponseHeaders().add("Set-Cookie", "sessionid=" + session + "; Path=/");
+                super.login(exchange);
+            }
+
+            protected void answer(HttpExchange exchange, String method, String identifier) throws IOException {
+                String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+                if (cookie == null || !cookie.contains("sessionid=" + session)) {
+                    respond(exchange, 401, "error: unauthorized");
+                } else if (method.equals("GET")) {
+                    respond(exchange, 200, "success: " + identifier + "\n_target: http%3A//example.com/\n" +
+                            "erc.what: a%25b\n");
+                } else {
+                    super.answer(exchange, method, identifier);
+                }
+            }
+        }.start();
+        serviceUrl = server.getUrl();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * Callers using the same account share one login
+     */
+    @Test
+    public void sharesSessions() throws EZIDException {
+        EZIDService first = EZIDService.getSession(serviceUrl, "apitest", "secret");
+        EZIDService second = EZIDService.getSession(serviceUrl, "apitest", "secret");
+
+        assertSame(first, second);
+        assertEquals(1, logins.get());
+    }
+
+    /**
+     * A request refused because EZID ended the session logs in again and goes through
+     */
+    @Test
+    public void logsInAgainWhenTheSessionExpires() throws EZIDException {
+        EZIDService ezid = EZIDService.getSession(serviceUrl, "expiring", "secret");
+        long before = EZIDService.getLatency("setMetadata").getCount();
+        HashMap<String, String> metadata = new HashMap<String, String>();
+        metadata.put("_target", "http://example.com/");
+
+        session = "ended";
+        ezid.setMetadata("ark:/99999/fk41", metadata);
+
+        assertEquals(2, logins.get());
+        assertEquals(before + 1, EZIDService.getLatency("setMetadata").getCount());
+    }
+
+    /**
+     * Metadata is read from the response as name/value pairs, unescaped
+     */
+    @Test
+    public void readsMetadata() throws EZIDException {
+        EZIDService ezid = EZIDService.getSession(serviceUrl, "reader", "secret");
+
+        HashMap<String, String> metadata = ezid.getMetadata("ark:/99999/fk41");
+
+        assertEquals("http://example.com/", metadata.get("_target"));
+        assertEquals("a%b", metadata.get("erc.what"));
+        assertTrue(EZIDService.getLatency("getMetadata").getCount() > 0);
+    }
+}
@@ -0,0 +1,293 @@
+package unit_tests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import util.asyncFilter;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the asyncFilter's queueing, rejection and timeout with stand-ins for the container's requests.  One request
+ * runs at a time and one more may wait; the chain holds each request until it is released.
+ */
+public class asyncFilterTest {
+
+    private asyncFilter filter;
+    private CountDownLatch release;
+    private List<String> ran;
+    private List<Thread> threads;
+
+    @Before
+    public void setUp() {
+        filter = new asyncFilter("/id/ark:", 1, 1, 60000);
+        release = new CountDownLatch(1);
+        ran = new ArrayList<String>();
+        threads = new ArrayList<Thread>();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        release.countDown();
+        join();
+        filter.destroy();
+    }
+
+    @Test
+    public void fullQueueIsRejected() throws Exception {
+        fakeRequest first = start("first");
+        awaitActive(1);
+        fakeRequest second = new fakeRequest("second");
+        filter.doFilter(second.request, second.response, chain);
+        assertEquals(1, filter.getQueueDepth());
+        assertFalse(second.completed);
+
+        fakeRequest third = new fakeRequest("third");
+        filter.doFilter(third.request, third.response, chain);
+        assertEquals(1, filter.getRejectedCount());
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, third.status);
+        assertEquals("1", third.headers.get("Retry-After"));
+        assertTrue(third.completed);
+
+        // Finishing the first dispatches the second, which then runs
+        release.countDown();
+        second.dispatched.await(5, TimeUnit.SECONDS);
+        join();
+        assertEquals(0, first.status);
+        assertEquals(0, second.status);
+        synchronized (ran) {
+            assertEquals(2, ran.size());
+            assertTrue(ran.contains("first") && ran.contains("second"));
+        }
+        assertEquals(0, filter.getActiveCount());
+        assertEquals(0, filter.getQueueDepth());
+    }
+
+    @Test
+    public void timedOutRequestIsNotRun() throws Exception {
+        start("first");
+        awaitActive(1);
+        fakeRequest second = new fakeRequest("second");
+        filter.doFilter(second.request, second.response, chain);
+        assertEquals(1, filter.getQueueDepth());
+
+        second.timeout();
+        assertEquals(1, filter.getTimeoutCount());
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, second.status);
+        assertTrue(second.completed);
+        assertEquals(0, filter.getQueueDepth());
+
+        // The first finishing must not dispatch the request the timeout already answered
+        release.countDown();
+        join();
+        assertEquals(0, second.dispatchCount.get());
+        synchronized (ran) {
+            assertEquals(1, ran.size());
+        }
+        assertEquals(0, filter.getActiveCount());
+    }
+
+    @Test
+    public void otherPathsPassThrough() throws Exception {
+        release.countDown();
+        fakeRequest other = new fakeRequest("other", "/bcid/id/projectService");
+        filter.doFilter(other.request, other.response, chain);
+        assertEquals(0, filter.getRequestCount());
+        synchronized (ran) {
+            assertEquals(1, ran.size());
+        }
+    }
+
+    private final FilterChain chain = new FilterChain() {
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (ran) {
+                ran.add((String) request.getAttribute("name"));
+            }
+        }
+    };
+
+    /**
+     * Send a request from a thread of its own, as it will wait in the chain
+     */
+    private fakeRequest start(String name) {
+        final fakeRequest r = new fakeRequest(name);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    filter.doFilter(r.request, r.response, chain);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        synchronized (threads) {
+            threads.add(t);
+        }
+        t.start();
+        return r;
+    }
+
+    private void awaitActive(int active) throws InterruptedException {
+        for (int i = 0; i < 500 && filter.getActiveCount() != active; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(active, filter.getActiveCount());
+    }
+
+    private void join() throws InterruptedException {
+        for (int i = 0; ; i++) {
+            Thread t;
+            synchronized (threads) {
+                if (i >= threads.size()) {
+                    return;
+                }
+                t = threads.get(i);
+            }
+            t.join(5000);
+        }
+    }
+
+    /**
+     * A request, its response and, once suspended, its AsyncContext.  dispatch() runs the filter again on a new
+     * thread, as the container would.
+     */
+    private class fakeRequest {
+        final String uri;
+        final HashMap<String, Object> attributes = new HashMap<String, Object>();
+        final HashMap<String, String> headers = new HashMap<String, String>();
+        final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        final AtomicInteger dispatchCount = new AtomicInteger();
+        volatile DispatcherType dispatcherType = DispatcherType.REQUEST;
+        volatile int status;
+        volatile boolean completed;
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+        AsyncContext async;
+
+        fakeRequest(String name) {
+            this(name, "/bcid/id/ark:/21547/R2");
+        }
+
+        fakeRequest(String name, String uri) {
+            this.uri = uri;
+            attributes.put("name", name);
+            request = (HttpServletRequest) proxy(HttpServletRequest.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return request(method.getName(), args);
+                }
+            });
+            response = (HttpServletResponse) proxy(HttpServletResponse.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return response(method.getName(), args);
+                }
+            });
+        }
+
+        private Object request(String method, Object[] args) {
+            if (method.equals("getRequestURI")) {
+                return uri;
+            } else if (method.equals("getContextPath")) {
+                return "/bcid";
+            } else if (method.equals("isAsyncSupported")) {
+                return true;
+            } else if (method.equals("getDispatcherType")) {
+                return dispatcherType;
+            } else if (method.equals("getAttribute")) {
+                return attributes.get(args[0]);
+            } else if (method.equals("setAttribute")) {
+                attributes.put((String) args[0], args[1]);
+            } else if (method.equals("removeAttribute")) {
+                attributes.remove(args[0]);
+            } else if (method.equals("startAsync")) {
+                async = (AsyncContext) proxy(AsyncContext.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return async(method.getName(), args);
+                    }
+                });
+                return async;
+            }
+            return null;
+        }
+
+        private Object response(String method, Object[] args) {
+            if (method.equals("setHeader")) {
+                headers.put((String) args[0], (String) args[1]);
+            } else if (method.equals("sendError")) {
+                status = (Integer) args[0];
+            } else if (method.equals("isCommitted")) {
+                return status != 0;
+            }
+            return null;
+        }
+
+        private Object async(String method, Object[] args) {
+            if (method.equals("getRequest")) {
+                return request;
+            } else if (method.equals("getResponse")) {
+                return response;
+            } else if (method.equals("addListener")) {
+                listeners.add((AsyncListener) args[0]);
+            } else if (method.equals("complete")) {
+                completed = true;
+            } else if (method.equals("dispatch")) {
+                dispatchCount.incrementAndGet();
+                dispatcherType = DispatcherType.ASYNC;
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            filter.doFilter(request, response, chain);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        } finally {
+                            dispatched.countDown();
+                        }
+                    }
+                });
+                synchronized (threads) {
+                    threads.add(t);
+                }
+                t.start();
+            }
+            return null;
+        }
+
+        void timeout() throws IOException {
+            for (AsyncListener listener : listeners) {
+                listener.onTimeout(new AsyncEvent(async));
+            }
+        }
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(asyncFilterTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,163 @@
+package unit_tests;
+
+import bcid.dataGroupEncoder;
+import com.ibm.icu.math.BigDecimal;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Property test for the dataGroupEncoder: its encoding and decoding must agree with the original floating point
+ * implementation, reproduced below, for every dataset value that implementation handled, 1 up to 351,925,755
+ * (every shoulder of up to 5 letters).  Values beyond that overflowed int in the original.
+ */
+public class dataGroupEncoderTest {
+
+    private static final char[] chars = dataGroupEncoder.chars;
+    private static final long MAX_ORIGINAL = 51L + 51 * 51 + 51 * 51 * 51 + 51L * 51 * 51 * 51 + 51L * 51 * 51 * 51 * 51;
+
+    /**
+     * Every value in the 1 and 2 letter ranges and the start of the 3 letter range, every range boundary, and a
+     * random sample of the rest must encode the same, and decode back to themselves
+     */
+    @Test
+    public void encodeMatchesOriginal() {
+        for (long value = 1; value <= 200000; value++) {
+            check(value);
+        }
+        long offset = 0;
+        long power = 1;
+        for (int k = 1; k <= 5; k++) {
+            power *= 51;
+            offset += power;
+            for (long value = offset - 2; value <= Math.min(offset + 2, MAX_ORIGINAL); value++) {
+                check(value);
+            }
+        }
+        Random random = new Random(8675309);
+        for (int i = 0; i < 1000000; i++) {
+            check(1 + (long) (random.nextDouble() * MAX_ORIGINAL));
+        }
+    }
+
+    /**
+     * Values below 1 have no letters, as in the original
+     */
+    @Test
+    public void encodeBelowOne() {
+        assertEquals("2", dataGroupEncoder.encode(0));
+        assertEquals("2", dataGroupEncoder.encode(-5));
+        assertEquals("2", new dataGroupEncoder().encode(BigInteger.ZERO));
+    }
+
+    /**
+     * Whole ARKs, shoulders and arbitrary strings made of shoulder characters and slashes must decode the same
+     */
+    @Test
+    public void decodeMatchesOriginal() {
+        String alphabet = "ABCz0129/:_fk";
+        Random random = new Random(5551212);
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder sb = new StringBuilder();
+            // Shoulders of up to 5 letters and a digit, the longest the original decoded correctly
+            int length = random.nextInt(7);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            checkDecode(sb.toString());
+            checkDecode("ark:/21547/" + sb);
+        }
+        checkDecode("ark:/99999/fk4");
+        checkDecode("ark:/99999/fk4/foo");
+        checkDecode("ark:/99999/fk4_b");
+        checkDecode("ark:/21547/Gk2FOO");
+        checkDecode("ark:/87286/zzqF2/foodad");
+        checkDecode("ark:/87286/");
+        checkDecode("ark://");
+        checkDecode("fk4");
+        checkDecode("");
+    }
+
+    private void check(long value) {
+        String encoded = dataGroupEncoder.encode(value);
+        assertEquals("encode " + value, originalEncode((int) value), encoded);
+        if (value != 1) {
+            assertEquals("decode " + encoded, value, dataGroupEncoder.decodeToLong(encoded));
+        }
+    }
+
+    private void checkDecode(String s) {
+        Integer original = originalDecode(s);
+        assertEquals("decode " + s, original == null ? -1L : original.longValue(), dataGroupEncoder.decodeToLong(s));
+    }
+
+    /**
+     * The original encode
+     */
+    private static String originalEncode(int largeNumber) {
+        if (largeNumber == 1) {
+            return "fk4";
+        }
+        String results = "";
+        int numCharactersPositionstoEncode = 0;
+        int selector = 1;
+        int sumPreviousPossibilities = 0;
+        while (numCharactersPositionstoEncode < selector) {
+            sumPreviousPossibilities += optionsAtPosition(selector);
+            if (largeNumber <= sumPreviousPossibilities) {
+                numCharactersPositionstoEncode = selector;
+            } else {
+                selector++;
+            }
+        }
+        int optionsAtPreviousPositions = 0;
+        for (int i = numCharactersPositionstoEncode - 1; i > 0; i--) {
+            optionsAtPreviousPositions += Double.valueOf(Math.pow(chars.length, i)).intValue();
+        }
+        int selectorForCurrentPosition = largeNumber - optionsAtPreviousPositions;
+        for (int k = numCharactersPositionstoEncode; k > 0; k--) {
+            Double possibilitiesPerIncrement = new Double(optionsAtPosition(k) / chars.length);
+            BigDecimal bd = new BigDecimal(Double.toString(selectorForCurrentPosition / possibilitiesPerIncrement));
+            int position = bd.setScale(0, BigDecimal.ROUND_CEILING).intValue() - 1;
+            results += chars[position];
+            selectorForCurrentPosition = ((Double) (selectorForCurrentPosition - (possibilitiesPerIncrement * position))).intValue();
+        }
+        return results + "2";
+    }
+
+    /**
+     * The original decode
+     */
+    private static Integer originalDecode(String entireString) {
+        String shoulder;
+        if (entireString.contains("/")) {
+            String[] strArray = entireString.split("/");
+            if (strArray.length > 2) {
+                shoulder = strArray[2];
+                if (strArray[1].equals("99999") && shoulder.equals("fk4")) {
+                    return 1;
+                }
+            } else {
+                return null;
+            }
+        } else {
+            shoulder = entireString;
+        }
+        int numCharactersPositionstoDecode = shoulder.length() - 1;
+        Integer decodedInt = 0;
+        int j = numCharactersPositionstoDecode;
+        for (int i = 0; i < numCharactersPositionstoDecode; i++) {
+            Double possibilitiesPerIncrement = new Double(optionsAtPosition(j) / chars.length);
+            decodedInt += dataGroupEncoder.codes[shoulder.charAt(i)] * possibilitiesPerIncrement.intValue();
+            j--;
+        }
+        return decodedInt;
+    }
+
+    private static int optionsAtPosition(int positions) {
+        return Double.valueOf(Math.pow(chars.length, positions)).intValue();
+    }
+}
@@ -0,0 +1,104 @@
+package unit_tests;
+
+import bcid.ezidMetadataCache;
+import com.sun.net.httpserver.HttpExchange;
+import ezid.EZIDException;
+import ezid.EZIDService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the ezidMetadataCache against a local stand-in for EZID, whose metadata carries a version the test changes,
+ * and which can be told to fail.
+ */
+public class ezidMetadataCacheTest {
+    private static final String ARK = "ark:/99999/fk41";
+
+    private ezidStandIn server;
+    private EZIDService ezid;
+    private volatile String version = "1";
+    private volatile boolean refuse;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ezidStandIn() {
+            protected void answer(HttpExchange exchange, String method, String identifier) throws IOException {
+                respond(exchange, 200, refuse ? "error: internal server error" :
+                        "success: " + identifier + "\n_target: http%3A//example.com/\nerc.what: v" + version + "\n");
+            }
+        }.start();
+        ezid = server.getService();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * A fresh entry is served without calling EZID
+     */
+    @Test
+    public void servesFreshEntries() throws EZIDException {
+        ezidMetadataCache cache = new ezidMetadataCache(100, 60000, 60000, 1, false);
+        HashMap<String, String> metadata = cache.get(ezid, ARK);
+        assertEquals("v1", metadata.get("erc.what"));
+
+        version = "2";
+        assertSame(metadata, cache.get(ezid, ARK));
+        assertEquals(1, server.getRequests().size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * A stale entry is served while it is fetched again in the background, and the refreshed entry after that
+     */
+    @Test
+    public void refreshesStaleEntriesInTheBackground() throws Exception {
+        ezidMetadataCache cache = new ezidMetadataCache(100, 200, 60000, 1, false);
+        cache.get(ezid, ARK);
+        version = "2";
+        Thread.sleep(250);
+
+        assertEquals("v1", cache.get(ezid, ARK).get("erc.what"));
+        assertEquals(1, cache.getStaleHitCount());
+        // Reading again while the refresh runs serves the stale entry, without starting another
+        for (int i = 0; i < 500 && !"v2".equals(cache.get(ezid, ARK).get("erc.what")); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("v2", cache.get(ezid, ARK).get("erc.what"));
+        assertEquals(2, server.getRequests().size());
+    }
+
+    /**
+     * An entry too old to serve is served anyway when EZID fails, but with nothing cached the failure is thrown
+     */
+    @Test
+    public void servesOldEntriesWhenEZIDFails() throws EZIDException {
+        // Nothing is fresh, or young enough to refresh in the background
+        ezidMetadataCache cache = new ezidMetadataCache(100, 0, 0, 1, false);
+        HashMap<String, String> metadata = cache.get(ezid, ARK);
+
+        refuse = true;
+        assertSame(metadata, cache.get(ezid, ARK));
+        assertEquals(2, server.getRequests().size());
+        assertEquals(1, cache.getFailureCount());
+        assertEquals(1, cache.getServedOnFailureCount());
+
+        try {
+            cache.get(ezid, "ark:/99999/fk42");
+            fail("Expected an EZIDException for an identifier that is not cached");
+        } catch (EZIDException e) {
+            assertEquals(2, cache.getFailureCount());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package unit_tests;
+
+import bcid.dataGroupMinter;
+import bcid.database;
+import bcid.ezidOutbox;
+import com.sun.net.httpserver.HttpExchange;
+import ezid.EZIDService;
+import org.junit.After;
+import org.junit.Test;
+import util.SettingsManager;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the ezidOutbox's retry schedule and, against the database and a local stand-in for EZID, its leases, backoff
+ * and dead lettering.  The database tests only poll the items of a dataset they mint, so they leave other work queued
+ * on the outbox alone.
+ */
+public class ezidOutboxTest {
+    private ezidStandIn server;
+    private EZIDService ezid;
+    private Integer datasets_id;
+    private volatile boolean refuse;
+
+    @After
+    public void cleanUp() throws SQLException {
+        if (server != null) {
+            server.stop();
+        }
+        if (datasets_id != null) {
+            update("DELETE FROM ezidOutbox WHERE datasets_id = ?");
+        }
+    }
+
+    /**
+     * Each attempt waits twice as long as the one before, up to the cap, and the last is dead lettered
+     */
+    @Test
+    public void retryDelayDoublesUpToTheCap() {
+        ezidOutbox outbox = new ezidOutbox(10000, 10, 60000, 1000, 5000, 5, 0);
+        assertEquals(1000, outbox.getRetryDelay(1));
+        assertEquals(2000, outbox.getRetryDelay(2));
+        assertEquals(4000, outbox.getRetryDelay(3));
+        assertEquals(5000, outbox.getRetryDelay(4));
+        assertEquals(-1, outbox.getRetryDelay(5));
+        assertEquals(-1, outbox.getRetryDelay(6));
+
+        assertEquals(-1, new ezidOutbox(10000, 10, 60000, 1000, 5000, 1, 0).getRetryDelay(1));
+    }
+
+    /**
+     * An item leased to another poller is left alone until its lease runs out
+     */
+    @Test
+    public void leasedItemsAreSkipped() throws Exception {
+        queue(ezidOutbox.CREATE);
+        update("UPDATE ezidOutbox SET leaseOwner = 'another poller', " +
+                "leaseUntil = DATE_ADD(NOW(), INTERVAL 1 HOUR) WHERE datasets_id = ?");
+        ezidOutbox outbox = new ezidOutbox(10000, 10, 60000, 1000, 5000, 5, 0);
+
+        assertEquals(0, outbox.poll(ezid, datasets_id));
+        assertEquals(0, server.getRequests().size());
+
+        update("UPDATE ezidOutbox SET leaseUntil = DATE_SUB(NOW(), INTERVAL 1 SECOND) WHERE datasets_id = ?");
+        assertEquals(1, outbox.poll(ezid, datasets_id));
+        assertEquals(Collections.singletonList("PUT"), server.getRequests());
+        assertEquals("done", query("status"));
+    }
+
+    /**
+     * A create and an update queued for one dataset are registered as one create
+     */
+    @Test
+    public void itemsOfADatasetAreRegisteredTogether() throws Exception {
+        queue(ezidOutbox.CREATE);
+        queue(ezidOutbox.UPDATE);
+        ezidOutbox outbox = new ezidOutbox(10000, 10, 60000, 1000, 5000, 5, 0);
+
+        assertEquals(2, outbox.poll(ezid, datasets_id));
+        assertEquals(Collections.singletonList("PUT"), server.getRequests());
+    }
+
+    /**
+     * A refused item is not tried again until its backoff is over, and is dead lettered after its last attempt
+     */
+    @Test
+    public void refusedItemsBackOffThenDeadLetter() throws Exception {
+        refuse = true;
+        queue(ezidOutbox.CREATE);
+        ezidOutbox outbox = new ezidOutbox(10000, 10, 60000, 60000, 600000, 2, 0);
+
+        // A refused create is tried as an update too
+        assertEquals(0, outbox.poll(ezid, datasets_id));
+        assertEquals(2, server.getRequests().size());
+        assertEquals("pending", query("status"));
+        assertEquals("1", query("attempts"));
+        assertEquals("1", query("nextAttemptAt > NOW()"));
+
+        assertEquals(0, outbox.poll(ezid, datasets_id));
+        assertEquals(2, server.getRequests().size());
+
+        update("UPDATE ezidOutbox SET nextAttemptAt = NOW() WHERE datasets_id = ?");
+        assertEquals(0, outbox.poll(ezid, datasets_id));
+        assertEquals(4, server.getRequests().size());
+        assertEquals("dead", query("status"));
+        assertEquals("2", query("attempts"));
+        assertTrue(query("lastError").length() > 0);
+    }
+
+    /**
+     * Mint a dataset, if this test has not yet, start the stand-in for EZID and queue an item for the dataset
+     */
+    private void queue(String operation) throws Exception {
+        if (datasets_id == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            database db = new database();
+            Integer user_id = db.getUserId("demo");
+            db.close();
+
+            dataGroupMinter minter = new dataGroupMinter(false, true);
+            datasets_id = minter.mint(new Integer(sm.retrieveValue("bcidNAAN")), user_id, "urn:Test", null,
+                    "http://biocode.berkeley.edu/specimens/", null, "TEST ezidOutbox");
+            minter.close();
+            startServer();
+        }
+        database db = new database();
+        try {
+            ezidOutbox.enqueue(db, datasets_id, operation);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void startServer() throws IOException {
+        server = new ezidStandIn() {
+            protected void answer(HttpExchange exchange, String method, String identifier) throws IOException {
+                respond(exchange, 200, refuse ? "error: bad request - no can do" : "success: " + identifier);
+            }
+        }.start();
+        ezid = server.getService();
+    }
+
+    private void update(String sql) throws SQLException {
+        database db = new database();
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement(sql);
+            stmt.setInt(1, datasets_id);
+            stmt.executeUpdate();
+        } finally {
+            db.close(stmt, null);
+            db.close();
+        }
+    }
+
+    /**
+     * @return the value of an expression over the dataset's only ezidOutbox row
+     */
+    private String query(String expression) throws SQLException {
+        database db = new database();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement("SELECT " + expression + " FROM ezidOutbox WHERE datasets_id = ?");
+            stmt.setInt(1, datasets_id);
+            rs = stmt.executeQuery();
+            rs.next();
+            return rs.getString(1);
+        } finally {
+            db.close(stmt, rs);
+            db.close();
+        }
+    }
+}
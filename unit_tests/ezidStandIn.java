@@ -0,0 +1,107 @@
+package unit_tests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import ezid.EZIDService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for EZID, for the tests of code that calls it.  It records the method of each request for an
+ * identifier and answers it "success: " and the identifier, and answers logins with success.  Tests that need other
+ * answers override answer or login.
+ */
+public class ezidStandIn {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    public ezidStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/login", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange);
+                login(exchange);
+            }
+        });
+        server.createContext("/id/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange);
+                String method = exchange.getRequestMethod();
+                requests.add(method);
+                answer(exchange, method, exchange.getRequestURI().getPath().substring("/id/".length()));
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Start answering requests
+     *
+     * @return this stand-in
+     */
+    public ezidStandIn start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return an EZIDService, without a login, that calls this stand-in
+     */
+    public EZIDService getService() {
+        return new EZIDService(getUrl());
+    }
+
+    /**
+     * @return the method of each request for an identifier, in the order they came
+     */
+    public List<String> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Answer a request for an identifier, whose body has been read
+     */
+    protected void answer(HttpExchange exchange, String method, String identifier) throws IOException {
+        respond(exchange, 200, "success: " + identifier);
+    }
+
+    /**
+     * Answer a login, whose body has been read
+     */
+    protected void login(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "success: session cookie returned");
+    }
+
+    protected static void respond(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] body = response.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        while (in.read() >= 0) {
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package unit_tests;
+
+import bcid.ezidWorker;
+import com.sun.net.httpserver.HttpExchange;
+import ezid.EZIDException;
+import ezid.EZIDService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the ezidWorker against a local stand-in for EZID.  Identifiers containing "exists" are refused on create,
+ * as EZID does for identifiers it already has, and identifiers containing "broken" are refused on create and update.
+ */
+public class ezidWorkerTest {
+    private ezidStandIn server;
+    private EZIDService ezid;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> updated = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ezidStandIn() {
+            protected void answer(HttpExchange exchange, String method, String identifier) throws IOException {
+                int now = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), now));
+                }
+                try {
+                    // Hold the request a little, as EZID would, so that requests overlap
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String response;
+                if (identifier.contains("broken") || method.equals("PUT") && identifier.contains("exists")) {
+                    response = "error: bad request - no can do";
+                } else {
+                    (method.equals("PUT") ? created : updated).add(identifier);
+                    response = "success: " + identifier;
+                }
+                inFlight.decrementAndGet();
+                respond(exchange, 200, response);
+            }
+        }.start();
+        ezid = server.getService();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * Every identifier that can be created or updated is reported, in batches, and no more requests than there are
+     * threads are made at once
+     */
+    @Test
+    public void registersConcurrentlyInBatches() throws Exception {
+        ArrayList<ezidWorker.registration> pending = new ArrayList<ezidWorker.registration>();
+        HashSet<String> expected = new HashSet<String>();
+        for (int i = 1; i <= 200; i++) {
+            String identifier = "ark:/99999/fk4" + (i % 20 == 0 ? "broken" : i % 10 == 0 ? "exists" : "") + i;
+            pending.add(new ezidWorker.registration(String.valueOf(i), identifier, metadata()));
+            if (i % 20 != 0) {
+                expected.add(String.valueOf(i));
+            }
+        }
+
+        final List<ArrayList<String>> batches = new ArrayList<ArrayList<String>>();
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        ezidWorker worker = new ezidWorker(ezid, 4, 0, 25);
+        worker.setFailureListener(new ezidWorker.failureListener() {
+            public void failed(ezidWorker.registration r, EZIDException cause) {
+                failed.add(r.getId());
+            }
+        });
+        int registered = worker.register(pending.iterator(), new ezidWorker.progressListener() {
+            public void registered(ArrayList<String> ids) {
+                batches.add(ids);
+            }
+        });
+
+        HashSet<String> reported = new HashSet<String>();
+        for (ArrayList<String> batch : batches) {
+            assertTrue("batch of " + batch.size(), batch.size() <= 25);
+            reported.addAll(batch);
+        }
+        assertEquals(expected, reported);
+        assertEquals(190, registered);
+        assertEquals(180, worker.getCreatedCount());
+        assertEquals(10, worker.getUpdatedCount());
+        assertEquals(10, worker.getFailedCount());
+        assertEquals(10, failed.size());
+        assertEquals(180, created.size());
+        assertEquals(10, updated.size());
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() <= 4);
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() > 1);
+    }
+
+    /**
+     * A registration that throws is still reported to the failureListener, so that the rows it came from are
+     * accounted for
+     */
+    @Test
+    public void reportsUnexpectedExceptionsAsFailures() throws Exception {
+        ArrayList<ezidWorker.registration> pending = new ArrayList<ezidWorker.registration>();
+        HashMap<String, String> unwritable = metadata();
+        unwritable.put("erc.what", null);
+        pending.add(new ezidWorker.registration("1", "ark:/99999/fk41", metadata()));
+        pending.add(new ezidWorker.registration("2", "ark:/99999/fk42", unwritable));
+
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> reported = Collections.synchronizedList(new ArrayList<String>());
+        ezidWorker worker = new ezidWorker(ezid, 2, 0, 100);
+        worker.setFailureListener(new ezidWorker.failureListener() {
+            public void failed(ezidWorker.registration r, EZIDException cause) {
+                failed.add(r.getId());
+            }
+        });
+        int registered = worker.register(pending.iterator(), new ezidWorker.progressListener() {
+            public void registered(ArrayList<String> ids) {
+                reported.addAll(ids);
+            }
+        });
+
+        assertEquals(1, registered);
+        assertEquals(Collections.singletonList("1"), reported);
+        assertEquals(Collections.singletonList("2"), failed);
+        assertEquals(1, worker.getFailedCount());
+    }
+
+    /**
+     * Updates only set metadata, even for identifiers EZID would create
+     */
+    @Test
+    public void updatesWithoutCreating() throws Exception {
+        ArrayList<ezidWorker.registration> pending = new ArrayList<ezidWorker.registration>();
+        for (int i = 1; i <= 10; i++) {
+            pending.add(new ezidWorker.registration(String.valueOf(i), "ark:/99999/fk4" + i, metadata(), true));
+        }
+
+        ezidWorker worker = new ezidWorker(ezid, 2, 0, 100);
+        int registered = worker.register(pending.iterator(), new ezidWorker.progressListener() {
+            public void registered(ArrayList<String> ids) {
+            }
+        });
+
+        assertEquals(10, registered);
+        assertEquals(0, created.size());
+        assertEquals(10, updated.size());
+    }
+
+    /**
+     * Requests beyond the first second's burst go out at the configured rate
+     */
+    @Test
+    public void holdsToTheRateLimit() throws Exception {
+        ArrayList<ezidWorker.registration> pending = new ArrayList<ezidWorker.registration>();
+        for (int i = 1; i <= 100; i++) {
+            pending.add(new ezidWorker.registration(String.valueOf(i), "ark:/99999/fk4" + i, metadata()));
+        }
+
+        ezidWorker worker = new ezidWorker(ezid, 8, 50, 100);
+        long start = System.currentTimeMillis();
+        worker.register(pending.iterator(), new ezidWorker.progressListener() {
+            public void registered(ArrayList<String> ids) {
+            }
+        });
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 50 go out at once, the other 50 take a second
+        assertTrue("took " + elapsed + " ms", elapsed >= 900);
+        assertEquals(100, created.size());
+    }
+
+    /**
+     * A create refused and retried as an update is two requests, and takes two tokens; the worker's threads are kept
+     * for the next call to register
+     */
+    @Test
+    public void ratesEachRequest() throws Exception {
+        ArrayList<ezidWorker.registration> pending = new ArrayList<ezidWorker.registration>();
+        for (int i = 1; i <= 25; i++) {
+            pending.add(new ezidWorker.registration(String.valueOf(i), "ark:/99999/fk4exists" + i, metadata()));
+        }
+
+        ezidWorker worker = new ezidWorker(ezid, 4, 50, 100);
+        long start = System.currentTimeMillis();
+        try {
+            worker.register(pending.iterator(), new ezidWorker.progressListener() {
+                public void registered(ArrayList<String> ids) {
+                }
+            });
+            worker.register(pending.iterator(), new ezidWorker.progressListener() {
+                public void registered(ArrayList<String> ids) {
+                }
+            });
+        } finally {
+            worker.close();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 100 requests: 50 go out at once, the other 50 take a second
+        assertTrue("took " + elapsed + " ms", elapsed >= 900);
+        assertEquals(50, updated.size());
+        assertEquals(50, worker.getUpdatedCount());
+    }
+
+    private HashMap<String, String> metadata() {
+        HashMap<String, String> map = new HashMap<String, String>();
+        map.put("_profile", "erc");
+        map.put("_target", "http://example.com/");
+        return map;
+    }
+}
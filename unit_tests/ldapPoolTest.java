@@ -0,0 +1,90 @@
+package unit_tests;
+
+import auth.ldapPool;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.FailoverServerSet;
+import com.unboundid.ldap.sdk.LDAPConnectionOptions;
+import com.unboundid.ldap.sdk.SingleServerSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the ldapPool against an in-memory directory server, over plain LDAP rather than the TLS the ldapServers
+ * setting is used with.
+ */
+public class ldapPoolTest {
+    private static final String USER = "uid=tester,ou=people,dc=example,dc=com";
+
+    private InMemoryDirectoryServer server;
+    private ldapPool pool;
+
+    @Before
+    public void startServer() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig("dc=example,dc=com");
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: dc=example,dc=com", "objectClass: top", "objectClass: domain", "dc: example");
+        server.add("dn: ou=people,dc=example,dc=com", "objectClass: top", "objectClass: organizationalUnit",
+                "ou: people");
+        server.add("dn: " + USER, "objectClass: top", "objectClass: person", "objectClass: inetOrgPerson",
+                "uid: tester", "cn: Tester", "sn: Tester", "userPassword: secret");
+        server.startListening();
+    }
+
+    @After
+    public void stopServer() {
+        if (pool != null) {
+            pool.close();
+        }
+        server.shutDown(true);
+    }
+
+    private static LDAPConnectionOptions options() {
+        LDAPConnectionOptions options = new LDAPConnectionOptions();
+        options.setConnectTimeoutMillis(1000);
+        options.setBindWithDNRequiresPassword(true);
+        return options;
+    }
+
+    @Test
+    public void bindsOnPooledConnections() {
+        pool = new ldapPool(new SingleServerSet("127.0.0.1", server.getListenPort(), options()), 1, 2, 1000, 60000);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(pool.authenticate(USER, "secret"));
+        }
+        assertFalse(pool.authenticate(USER, "wrong"));
+        assertFalse(pool.authenticate("uid=nobody,ou=people,dc=example,dc=com", "secret"));
+        // A name without a password would be an anonymous bind
+        assertFalse(pool.authenticate(USER, ""));
+
+        assertEquals(10, pool.getSuccessCount());
+        assertEquals(3, pool.getInvalidCredentialsCount());
+        assertEquals(0, pool.getErrorCount());
+        // Every bind went over the one connection, which was handed back each time
+        assertEquals(1, pool.getAvailableConnections());
+        assertEquals(13, pool.getBindTimes().get("127.0.0.1:" + server.getListenPort()).getCount());
+    }
+
+    @Test
+    public void failsOverToTheNextServer() throws Exception {
+        // A port nothing is listening on
+        ServerSocket socket = new ServerSocket(0);
+        int deadPort = socket.getLocalPort();
+        socket.close();
+
+        pool = new ldapPool(new FailoverServerSet(new String[]{"127.0.0.1", "127.0.0.1"},
+                new int[]{deadPort, server.getListenPort()}, options()), 1, 2, 1000, 60000);
+
+        assertTrue(pool.authenticate(USER, "secret"));
+        assertEquals(1, pool.getBindTimes().size());
+        assertTrue(pool.getBindTimes().containsKey("127.0.0.1:" + server.getListenPort()));
+    }
+}
@@ -0,0 +1,72 @@
+package unit_tests;
+
+import bcid.GenericIdentifier;
+import bcid.Renderer.HTMLTableRenderer;
+import bcid.Renderer.JSONRenderer;
+import bcid.Renderer.RDFRenderer;
+import bcid.ezid;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the renderers escape the metadata they are given, which users supply, for the format they write, and that
+ * the HTML table only links web addresses.
+ */
+public class rendererTest {
+    private static final String TITLE = "<b>Fish</b> & \"chips\" 'n\u0001 more";
+
+    @Test
+    public void rdfIsEscaped() throws Exception {
+        String rdf = new RDFRenderer().render(identifier("javascript:alert(1)"));
+        assertTrue(rdf, rdf.contains("&lt;b&gt;Fish&lt;/b&gt; &amp; &quot;chips&quot; &#39;n more"));
+        assertFalse(rdf, rdf.contains("<b>"));
+        assertFalse(rdf, rdf.contains("\u0001"));
+    }
+
+    @Test
+    public void jsonIsEscaped() throws Exception {
+        String json = new JSONRenderer().render(identifier("javascript:alert(1)"));
+        assertTrue(json, json.contains("\"<b>Fish</b> & \\\"chips\\\" 'n\\u0001 more\""));
+        assertFalse(json, json.contains("\u0001"));
+        // A missing value is written as the string "null", as it always has been
+        assertTrue(json, json.contains("\"who\":\"null\""));
+    }
+
+    @Test
+    public void htmlIsEscaped() throws Exception {
+        String html = new HTMLTableRenderer().render(identifier("javascript:alert(1)"));
+        assertTrue(html, html.contains("&lt;b&gt;Fish&lt;/b&gt; &amp; &quot;chips&quot; &#39;n more"));
+        assertFalse(html, html.contains("<b>"));
+        assertFalse(html, html.contains("\u0001"));
+    }
+
+    @Test
+    public void htmlOnlyLinksWebAddresses() throws Exception {
+        String html = new HTMLTableRenderer().render(identifier("javascript:alert(1)"));
+        assertFalse(html, html.contains("href=\"javascript:"));
+        assertTrue(html, html.contains("<td>javascript:alert(1)</td>"));
+        assertFalse(html, html.contains("href=\"ark:"));
+
+        html = new HTMLTableRenderer().render(identifier("HTTPS://example.com/fish?a=1&b=2"));
+        assertTrue(html, html.contains(
+                "<a href=\"HTTPS://example.com/fish?a=1&amp;b=2\">HTTPS://example.com/fish?a=1&amp;b=2</a>"));
+    }
+
+    private static GenericIdentifier identifier(String webAddress) throws Exception {
+        HashMap<String, String> map = new HashMap<String, String>();
+        map.put("ark", "ark:/99999/fk41");
+        map.put("what", "http://purl.org/dc/dcmitype/PhysicalObject");
+        map.put("who", null);
+        map.put("title", TITLE);
+        map.put("doi", "doi:10.5072/FK21");
+        map.put("webaddress", webAddress);
+        ezid identifier = new ezid(map);
+        identifier.identifier = new URI("ark:/99999/fk41");
+        return identifier;
+    }
+}
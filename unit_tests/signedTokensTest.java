@@ -0,0 +1,85 @@
+package unit_tests;
+
+import auth.oauth2.signedTokens;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test that signed tokens are only accepted as issued: signed with the secret, of this version, unexpired and not
+ * revoked.
+ */
+public class signedTokensTest {
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    private final signedTokens tokens = new signedTokens(SECRET);
+
+    @Test
+    public void acceptsAnIssuedToken() {
+        String token = tokens.sign("id1", 7, "demo", "client", later());
+        assertEquals("demo", tokens.verify(token));
+        assertEquals(1, tokens.getValidCount());
+    }
+
+    @Test
+    public void refusesATamperedToken() throws Exception {
+        String token = tokens.sign("id1", 7, "demo", "client", later());
+        String signature = token.substring(token.indexOf('.'));
+
+        // Another user's payload under the original signature
+        String forged = encode("1:id1:8:client:" + later() + ":admin") + signature;
+        assertNull(tokens.verify(forged));
+
+        // Signed with another secret
+        signedTokens other = new signedTokens("fedcba9876543210fedcba9876543210");
+        assertNull(tokens.verify(other.sign("id1", 7, "demo", "client", later())));
+
+        // No signature at all
+        assertNull(tokens.verify(token.substring(0, token.indexOf('.'))));
+        assertEquals(3, tokens.getBadSignatureCount());
+    }
+
+    @Test
+    public void refusesAnotherVersion() throws Exception {
+        String encoded = encode("2:id1:7:client:" + later() + ":demo");
+        String token = encoded + "." + Base64.encodeBase64URLSafeString(hmac(encoded));
+        assertNull(tokens.verify(token));
+        assertEquals(1, tokens.getBadSignatureCount());
+    }
+
+    @Test
+    public void refusesAnExpiredToken() {
+        String token = tokens.sign("id1", 7, "demo", "client", System.currentTimeMillis() - 1);
+        assertNull(tokens.verify(token));
+        assertEquals(1, tokens.getExpiredCount());
+    }
+
+    @Test
+    public void refusesARevokedToken() {
+        String token = tokens.sign("id1", 7, "demo", "client", later());
+        String other = tokens.sign("id2", 7, "demo", "client", later());
+        tokens.revokeLocally("id1", later());
+        assertNull(tokens.verify(token));
+        assertEquals("demo", tokens.verify(other));
+        assertEquals(1, tokens.getRevokedCount());
+    }
+
+    private static long later() {
+        return System.currentTimeMillis() + 60000;
+    }
+
+    private static String encode(String payload) throws Exception {
+        return Base64.encodeBase64URLSafeString(payload.getBytes("UTF-8"));
+    }
+
+    private static byte[] hmac(String encodedPayload) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes("UTF-8"), "HmacSHA256"));
+        return mac.doFinal(encodedPayload.getBytes("UTF-8"));
+    }
+}